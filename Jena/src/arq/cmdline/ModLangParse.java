@@ -41,6 +41,8 @@ public class ModLangParse implements ArgModuleGeneral
     private ArgDecl argBase     = new ArgDecl(ArgDecl.HasValue, "base") ;
     
     private ArgDecl argRDFS     = new ArgDecl(ArgDecl.HasValue, "rdfs") ;
+    
+    private ArgDecl argThreads  = new ArgDecl(ArgDecl.HasValue, "threads") ;
 
     private  String rdfsVocabFilename   = null ;
     private  Model  rdfsVocab           = null ;
@@ -52,6 +54,7 @@ public class ModLangParse implements ArgModuleGeneral
     private boolean bitbucket           = false ; 
     private boolean strict              = false ;
     private boolean validate            = false ;
+    private int     threads             = 1 ;
     
     @Override
     public void registerWith(CmdGeneral cmdLine)
@@ -68,6 +71,7 @@ public class ModLangParse implements ArgModuleGeneral
 //        cmdLine.add(argSkip,    "--noSkip",         "Skip (do not output) triples failing the RDF term tests") ;
 //        cmdLine.add(argNoSkip,  "--skip",           "Include triples failing the RDF term tests (not recommended)") ;
         cmdLine.add(argStop,    "--stop",           "Stop parsing on encountering a bad RDF term") ;
+        cmdLine.add(argThreads, "--threads=N",      "Parse N-Triples and N-Quads with N threads") ;
     }
 
     @Override
@@ -115,6 +119,16 @@ public class ModLangParse implements ArgModuleGeneral
         if ( cmdLine.contains(argSink) )
             bitbucket = true ;
         
+        if ( cmdLine.contains(argThreads) )
+        {
+            String x = cmdLine.getValue(argThreads) ;
+            try { threads = Integer.parseInt(x) ; }
+            catch (NumberFormatException ex)
+            { throw new CmdException("Bad number of threads: "+x) ; }
+            if ( threads < 1 )
+                throw new CmdException("Number of threads must be at least 1: "+x) ;
+        }
+        
         if ( cmdLine.contains(argRDFS) )
         {
             rdfsVocabFilename = cmdLine.getArg(argRDFS).getValue() ;
@@ -162,5 +176,10 @@ public class ModLangParse implements ArgModuleGeneral
         return baseIRI ;
     }
 
+    public int getThreads()
+    {
+        return threads ;
+    }
+
     public Model getRDFSVocab()     { return rdfsVocab ; } 
 }
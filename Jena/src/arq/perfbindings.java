@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package arq;
+
+import java.io.ByteArrayInputStream ;
+import java.io.ByteArrayOutputStream ;
+import java.util.ArrayList ;
+import java.util.Iterator ;
+import java.util.List ;
+import java.util.Random ;
+
+import org.openjena.atlas.data.SerializationFactory ;
+import org.openjena.atlas.lib.Sink ;
+import org.openjena.riot.SerializationFactoryFinder ;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype ;
+import com.hp.hpl.jena.graph.Node ;
+import com.hp.hpl.jena.sparql.core.Var ;
+import com.hp.hpl.jena.sparql.engine.binding.Binding ;
+import com.hp.hpl.jena.sparql.engine.binding.BindingFactory ;
+import com.hp.hpl.jena.sparql.engine.binding.BindingMap ;
+import com.hp.hpl.jena.sparql.util.Timer ;
+
+/** Compare the text and binary serializations of bindings used for spill files.
+ *  Usage: perfbindings [number of bindings] 
+ */
+public class perfbindings
+{
+    public static void main(String... args)
+    {
+        int N = ( args.length > 0 ) ? Integer.parseInt(args[0]) : 200*1000 ;
+        List<Binding> data = generate(N) ;
+        
+        // Warm up.
+        for ( int i = 0 ; i < 3 ; i++ )
+        {
+            run(null, SerializationFactoryFinder.bindingTextSerializationFactory(), data) ;
+            run(null, SerializationFactoryFinder.bindingSerializationFactory(), data) ;
+        }
+        for ( int i = 0 ; i < 3 ; i++ )
+        {
+            run("Text  ", SerializationFactoryFinder.bindingTextSerializationFactory(), data) ;
+            run("Binary", SerializationFactoryFinder.bindingSerializationFactory(), data) ;
+        }
+    }
+    
+    private static void run(String label, SerializationFactory<Binding> factory, List<Binding> data)
+    {
+        Timer timer = new Timer() ;
+        ByteArrayOutputStream out = new ByteArrayOutputStream() ;
+        timer.startTimer() ;
+        Sink<Binding> sink = factory.createSerializer(out) ;
+        for ( Binding b : data )
+            sink.send(b) ;
+        sink.close() ;
+        long writeMillis = timer.endTimer() ;
+        
+        byte[] bytes = out.toByteArray() ;
+        timer.startTimer() ;
+        long count = 0 ;
+        Iterator<Binding> iter = factory.createDeserializer(new ByteArrayInputStream(bytes)) ;
+        for ( ; iter.hasNext() ; )
+        {
+            iter.next() ;
+            count++ ;
+        }
+        long readMillis = timer.endTimer() ;
+        
+        if ( count != data.size() )
+            System.err.printf("%s : Expected %,d bindings, read %,d\n", label, data.size(), count) ;
+        if ( label != null )
+            System.out.printf("%s : Bindings=%,d : Bytes=%,d : Write=%,.2fs : Read=%,.2fs\n", 
+                              label, count, bytes.length, writeMillis/1000.0, readMillis/1000.0) ;
+    }
+    
+    // Bindings that look like the results of a query over typical data.
+    private static List<Binding> generate(int N)
+    {
+        Random random = new Random(1) ;
+        Var s = Var.alloc("s") ;
+        Var p = Var.alloc("p") ;
+        Var o = Var.alloc("o") ;
+        Var label = Var.alloc("label") ;
+        List<Binding> data = new ArrayList<Binding>(N) ;
+        for ( int i = 0 ; i < N ; i++ )
+        {
+            BindingMap b = BindingFactory.create() ;
+            b.add(s, Node.createURI("http://example.org/data/item"+random.nextInt(N))) ;
+            b.add(p, Node.createURI("http://example.org/ns#property"+random.nextInt(20))) ;
+            Node obj ;
+            switch (random.nextInt(4))
+            {
+                case 0:  obj = Node.createLiteral(Integer.toString(random.nextInt(100000)), null, XSDDatatype.XSDinteger) ; break ;
+                case 1:  obj = Node.createURI("http://example.org/data/item"+random.nextInt(N)) ; break ;
+                case 2:  obj = Node.createAnon() ; break ;
+                default: obj = Node.createLiteral("Some text "+random.nextInt(1000), "en", false) ; break ;
+            }
+            b.add(o, obj) ;
+            if ( random.nextInt(3) == 0 )
+                b.add(label, Node.createLiteral("Item "+i)) ;
+            data.add(b) ;
+        }
+        return data ;
+    }
+}
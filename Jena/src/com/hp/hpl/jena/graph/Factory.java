@@ -18,6 +18,7 @@
 
 package com.hp.hpl.jena.graph;
 
+import com.hp.hpl.jena.mem.compact.GraphMemCompact;
 import com.hp.hpl.jena.mem.faster.GraphMemFaster;
 import com.hp.hpl.jena.shared.*;
 
@@ -50,6 +51,17 @@ public class Factory
     public static Graph createGraphMem( ReificationStyle style )
         { return new GraphMemFaster( style ); }
 
+    /**
+        Answer a memory-based Graph that stores triples as dictionary-encoded
+        ids: much smaller than the default for large graphs, somewhat slower 
+        to query.
+    */
+    public static Graph createGraphMemCompact()
+        { return new GraphMemCompact(); }
+
+    public static Graph createGraphMemCompact( ReificationStyle style )
+        { return new GraphMemCompact( style ); }
+
     public static Graph createGraphMemWithTransactionHandler( final TransactionHandler th )
         {
         Graph g = new GraphMemFaster() 
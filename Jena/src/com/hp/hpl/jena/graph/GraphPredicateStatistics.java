@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.graph;
+
+/**
+    Statistics about a graph broken down by predicate: the number of
+    distinct subjects and objects for each predicate, which with the
+    per-predicate triple counts from <code>getStatistic( ANY, P, ANY )</code>
+    gives the average fan-out of the predicate in each direction. Used by the
+    query optimiser to estimate join sizes.
+<p>
+    All answers are estimates which may lag behind updates to the graph; 
+    -1 means that no estimate is available.
+*/
+public interface GraphPredicateStatistics extends GraphStatisticsHandler
+    {
+    /**
+        Answer the number of distinct subjects of triples with predicate
+        <code>P</code>; if <code>P</code> is ANY, of all triples.
+    */
+    public long getDistinctSubjects( Node P );
+    
+    /**
+        Answer the number of distinct objects of triples with predicate
+        <code>P</code>; if <code>P</code> is ANY, of all triples.
+    */
+    public long getDistinctObjects( Node P );
+    
+    /**
+        Answer the number of distinct predicates in the graph.
+    */
+    public long getDistinctPredicates();
+    }
@@ -39,10 +39,14 @@ import com.hp.hpl.jena.shared.PrefixMapping;
 public abstract class Node {
     
     final protected Object label;
-    static final int THRESHOLD = 10000;
-    
     static final NodeCache present = new NodeCache(); 
     
+    /**
+        Answer the cache used by <code>create</code>, eg for its statistics.
+    */
+    public static NodeCache getNodeCache()
+        { return present; }
+    
     /**
         The canonical instance of Node_ANY. No other instances are required.
     */       
@@ -288,7 +292,7 @@ public abstract class Node {
     /* package visibility only */ Node( Object label ) 
         { this.label = label; }
         
-    static private boolean caching = true;
+    static private volatile boolean caching = true;
     
     /**
         provided only for testing purposes. _cache(false)_ switches off caching and
@@ -304,11 +308,11 @@ public abstract class Node {
     /**
         We object strongly to null labels: for example, they make .equals flaky. We reuse nodes 
         from the recent cache if we can. Otherwise, the maker knows how to construct a new
-        node of the correct class, and we add that node to the cache. create is
-        synchronised to avoid threading problems - a separate thread might zap the
-        cache entry that get is currently looking at.
+        node of the correct class, and we add that node to the cache. create is not
+        synchronised: the cache is safe for concurrent use, and two threads making
+        the same node at once just both construct it.
     */
-    public static synchronized Node create( NodeMaker maker, Object label )
+    public static Node create( NodeMaker maker, Object label )
         {
         if (label == null) throw new JenaException( "Node.make: null label" );
         Node node = present.get( label );
@@ -321,7 +325,6 @@ public abstract class Node {
     */
     private static Node cacheNewNode( Object label, Node n )
         { 
-        if (present.size() > THRESHOLD) { /* System.err.println( "> trashing node cache" ); */ present.clear(); }
         if (caching) present.put( label, n );
         return n;
         }
@@ -18,6 +18,9 @@
 
 package com.hp.hpl.jena.graph;
 
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 /**
     A NodeCache caches nodes according to their labels, to reduce store turnover
     at the expense of some additional computation. The cache is represented as an
@@ -25,46 +28,108 @@ package com.hp.hpl.jena.graph;
     Only the most recent node with any given reduced hash is kept. This tactic
     means that we don't need to have any explicit cache-clearing code in normal
     oepration.
+    <p>
+    The cache is safe for concurrent use without locking: each slot is read and
+    written atomically, a reader confirms the label of whatever node it finds, and
+    losing a race to overwrite a slot only costs a later miss. Hits, misses and 
+    evictions are only counted once counting has been switched on, and then in
+    counters striped by thread, so that threads creating the same nodes do not
+    all contend on the same counter.
      
 	@author kers
  */
 public class NodeCache
     {
     /**
-        The defined size of the cache; 5000 is mostly guesswork. (It didn't *quite*
-        fill up when running the tests and had about an 85% hit-rate).
+        The default size of the cache, a power of two. The original 5000 was
+        mostly guesswork (it didn't *quite* fill up when running the tests and had 
+        about an 85% hit-rate); parsers of large files do better with more.
     */
-    protected static final int SIZE = 5000;
+    public static final int DEFAULT_SIZE = 1 << 14;
     
     /**
         The cache nodes, indexed by their label's reduced hash.
     */
-    protected final Node [] nodes = new Node [SIZE];
+    protected final AtomicReferenceArray<Node> nodes;
+    
+    protected final int mask;
+    
+    /**
+        Counters are striped by thread; each stripe sits in its own cache line.
+    */
+    protected static final int STRIPES = 16, PAD = 8;
     
-    protected static final boolean counting = false;
+    protected final AtomicLongArray hits = new AtomicLongArray( STRIPES * PAD );
+    protected final AtomicLongArray misses = new AtomicLongArray( STRIPES * PAD );
+    protected final AtomicLongArray evictions = new AtomicLongArray( STRIPES * PAD );
+    
+    protected volatile boolean counting = false;
+    
+    public NodeCache()
+        { this( DEFAULT_SIZE ); }
+    
+    /**
+        Initialise a cache with at least <code>size</code> slots (rounded up to
+        a power of two).
+    */
+    public NodeCache( int size )
+        {
+        int n = 1;
+        while (n < size) n <<= 1;
+        nodes = new AtomicReferenceArray<Node>( n );
+        mask = n - 1;
+        }
     
     /**
         Wipe the cache of all entries.
     */
     public void clear()
-        { for (int i = 0; i < SIZE; i += 1) nodes[i] = null; }
+        { for (int i = 0; i <= mask; i += 1) nodes.set( i, null ); }
     
-    public int size()
-        { return 0; }
-    
-    private int hits = 0;
-    private int misses = 0;
+    /**
+        Answer the number of slots in the cache.
+    */
+    public int capacity()
+        { return mask + 1; }
     
     /**
-        Answer the number of used slots in the cache
+        Answer the number of used slots in the cache (a snapshot; it scans the
+        whole cache).
     */
-    private int count()
+    public int size()
         {
         int result = 0;
-        for (int i = 0; i < SIZE; i += 1) if (nodes[i] != null) result += 1;
+        for (int i = 0; i <= mask; i += 1) if (nodes.get( i ) != null) result += 1;
         return result;
         }
     
+    /**
+        Switch the counting of hits, misses and evictions on or off (initially off).
+    */
+    public void setCounting( boolean counting )
+        { this.counting = counting; }
+    
+    public boolean isCounting()
+        { return counting; }
+    
+    public long getHits()
+        { return total( hits ); }
+    
+    public long getMisses()
+        { return total( misses ); }
+    
+    public long getEvictions()
+        { return total( evictions ); }
+    
+    /**
+        Reset the hit, miss and eviction counts to zero.
+    */
+    public void resetCounts()
+        {
+        for (int i = 0; i < STRIPES * PAD; i += PAD)
+            { hits.set( i, 0 ); misses.set( i, 0 ); evictions.set( i, 0 ); }
+        }
+    
     /**
         Answer the node with the given <code>label</code> in the cache, or 
         <code>null</code> if there isn't one. Selects the slot in the cache by the
@@ -73,14 +138,15 @@ public class NodeCache
     */
     public Node get( Object label )
         {
-        Node present = nodes[(label.hashCode() & 0x7fffffff) % SIZE]; 
-        if (counting)
+        int slot = slot( label );
+        Node present = nodes.get( slot ); 
+        if (present == null || !label.equals( present.label ))
             {
-            if (present == null || !label.equals( present.label )) misses += 1; else hits += 1;
-            if ((misses + hits) % 100 == 0) 
-                System.err.println( ">> hits: " + hits + ", misses: " + misses + ", occ: " + count() + "/" + SIZE );
+            if (counting) misses.incrementAndGet( stripe() );
+            return null;
             }
-        return present == null || !label.equals( present.label ) ? null : present;
+        if (counting) hits.incrementAndGet( stripe() );
+        return present;
         }
     
     /**
@@ -89,6 +155,26 @@ public class NodeCache
     */
     public void put( Object label, Node cached )
         {
-        nodes[(label.hashCode() & 0x7fffffff) % SIZE] = cached;
+        int slot = slot( label );
+        Node previous = nodes.getAndSet( slot, cached );
+        if (counting && previous != null && !label.equals( previous.label )) 
+            evictions.incrementAndGet( stripe() );
+        }
+    
+    protected int slot( Object label )
+        {
+        int h = label.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return (h ^ (h >>> 7) ^ (h >>> 4)) & mask;
+        }
+    
+    protected static int stripe()
+        { return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PAD; }
+    
+    protected static long total( AtomicLongArray counts )
+        {
+        long result = 0;
+        for (int i = 0; i < STRIPES * PAD; i += PAD) result += counts.get( i );
+        return result;
         }
     }
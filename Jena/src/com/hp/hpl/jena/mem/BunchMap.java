@@ -61,4 +61,11 @@ public interface BunchMap
         Answer an iterator over all the keys in this map.
     */
     public ExtendedIterator<Object> keyIterator();
+    
+    /**
+        Make room for at least <code>keys</code> keys, so that the map need not
+        be regrown while they are added. A hint only: implementations may 
+        ignore it.
+    */
+    public void ensureCapacity( int keys );
     }
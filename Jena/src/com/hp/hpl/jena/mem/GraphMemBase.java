@@ -18,6 +18,9 @@
 
 package com.hp.hpl.jena.mem;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.hp.hpl.jena.graph.*;
 import com.hp.hpl.jena.graph.impl.*;
 import com.hp.hpl.jena.shared.ReificationStyle;
@@ -99,6 +102,78 @@ public abstract class GraphMemBase extends GraphBase
         return bulkHandler;
         }
 
+    /**
+        Answer a BulkLoader for adding about <code>sizeHint</code> triples to
+        this graph (0 if not known). 
+    */
+    public BulkLoader startBulkLoad( int sizeHint )
+        { 
+        checkOpen();
+        ensureCapacity( sizeHint );
+        return new BulkLoader(); 
+        }
+    
+    /**
+        Size the indexes of this graph for about <code>sizeHint</code> more
+        triples, if the store supports it.
+    */
+    public void ensureCapacity( int sizeHint )
+        {
+        if (sizeHint > 0 && store instanceof GraphTripleStoreBase) 
+            ((GraphTripleStoreBase) store).ensureCapacity( sizeHint );
+        }
+    
+    /**
+        Called when a bulk load into this graph has finished, so that the 
+        store can reorganise itself if it wants to. This implementation does
+        nothing.
+    */
+    protected void bulkLoadFinished()
+        {}
+    
+    /**
+        A BulkLoader adds triples straight to the store: there is no per-triple
+        open check or event. Instead, when the load is finished, listeners 
+        (if there are any) get a single addList event for all the triples.
+        The triples are only retained for that event if someone is listening.
+        
+        <p>The triples are in the graph as soon as <code>add</code> returns.
+    */
+    public class BulkLoader
+        {
+        protected final List<Triple> added = 
+            getEventManager().listening() ? new ArrayList<Triple>() : null;
+        
+        protected int count = 0;
+        
+        protected BulkLoader()
+            {}
+        
+        public void add( Triple t )
+            { 
+            performAdd( t ); 
+            count += 1;
+            if (added != null) added.add( t );
+            }
+        
+        /**
+            Answer the number of triples given to <code>add</code>. 
+        */
+        public int count()
+            { return count; }
+        
+        /**
+            End the load, notifying any listeners. 
+        */
+        public void finish()
+            {
+            bulkLoadFinished();
+            if (added != null && added.size() > 0) 
+                getEventManager().notifyAddList( GraphMemBase.this, added ); 
+            if (added != null) added.clear();
+            }
+        }
+    
     /**
         Answer true iff this triple can be compared for sameValueAs by .equals(),
         ie, it is a concrete triple with a non-literal object.
@@ -18,6 +18,9 @@
 
 package com.hp.hpl.jena.mem;
 
+import java.util.List;
+
+import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.graph.impl.GraphWithPerform;
 import com.hp.hpl.jena.graph.impl.SimpleBulkUpdateHandler;
 
@@ -32,6 +35,36 @@ public class GraphMemBulkUpdateHandler extends SimpleBulkUpdateHandler
 	public GraphMemBulkUpdateHandler( GraphWithPerform graph ) 
 	    { super( graph ); }
 	
+	@Override
+    public void add( Triple [] triples )
+	    {
+	    ((GraphMemBase) graph).ensureCapacity( triples.length );
+	    super.add( triples );
+	    ((GraphMemBase) graph).bulkLoadFinished();
+	    }
+	
+	/**
+	    Add the triples with the indexes sized for them up front. When 
+	    notifying, listeners see one addList event, as before.
+	*/
+	@Override
+    protected void add( List<Triple> triples, boolean notify )
+	    {
+	    GraphMemBase g = (GraphMemBase) graph;
+	    if (notify)
+	        {
+	        GraphMemBase.BulkLoader loader = g.startBulkLoad( triples.size() );
+	        for (int i = 0; i < triples.size(); i += 1) loader.add( triples.get(i) );
+	        loader.finish();
+	        }
+	    else
+	        {
+	        g.ensureCapacity( triples.size() );
+	        super.add( triples, false );
+	        g.bulkLoadFinished();
+	        }
+	    }
+	
 	@Override
     public void removeAll()
 	    {
@@ -65,6 +65,23 @@ public abstract class GraphTripleStoreBase implements TripleStore
              }
          }
      
+     /**
+          A rough guess at the number of triples sharing each subject (or
+          object), used to turn a triple count into a number of index keys.
+     */
+     protected static final int triplesPerKey = 4;
+     
+     /**
+          Prepare this store for about <code>sizeHint</code> more triples. The
+          subject and object indexes are grown now rather than step by step
+          as the triples arrive; predicates are few and are left alone.
+     */
+     public void ensureCapacity( int sizeHint )
+         {
+         subjects.ensureCapacity( sizeHint / triplesPerKey );
+         objects.ensureCapacity( sizeHint / triplesPerKey );
+         }
+     
      /**
           Remove a triple from this triple store.
      */
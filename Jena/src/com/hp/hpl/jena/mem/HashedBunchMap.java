@@ -74,12 +74,38 @@ public class HashedBunchMap extends HashCommon<Object> implements BunchMap
             }
         }
 
+    /**
+        Grow the table, if necessary, so that <code>keys</code> keys fit without
+        reaching the threshold; this avoids the series of doublings a bulk
+        load would otherwise go through.
+    */
+    @Override
+    public void ensureCapacity( int keys )
+        {
+        if (keys < threshold) return;
+        Object [] oldContents = this.keys;
+        TripleBunch [] oldValues = values;
+        final int oldCapacity = capacity;
+        capacity = nextSize( (int) Math.min( Integer.MAX_VALUE - 1, keys / loadFactor ) );
+        threshold = (int) (capacity * loadFactor);
+        rehash( oldContents, oldValues, oldCapacity );
+        }
+
     protected void grow()
         {
         Object [] oldContents = keys;
         TripleBunch [] oldValues = values;
         final int oldCapacity = capacity;
         growCapacityAndThreshold();
+        rehash( oldContents, oldValues, oldCapacity );
+        }
+
+    /**
+        Copy the entries of the old arrays into new arrays of the (already
+        updated) capacity.
+    */
+    private void rehash( Object [] oldContents, TripleBunch [] oldValues, int oldCapacity )
+        {
         keys = newKeyArray( capacity );
         values = new TripleBunch[capacity];
         for (int i = 0; i < oldCapacity; i += 1)
@@ -90,6 +90,13 @@ public abstract class NodeToTriplesMapBase
     public int size()
         { return size; }
 
+    /**
+        Prepare this NTM to take triples with about <code>moreKeys</code> new
+        index values.
+    */
+    public void ensureCapacity( int moreKeys )
+        { bunchMap.ensureCapacity( (int) Math.min( Integer.MAX_VALUE, bunchMap.size() + moreKeys ) ); }
+
     public void removedOneViaIterator()
         { size -= 1; /* System.err.println( ">> rOVI: size := " + size ); */ }
 
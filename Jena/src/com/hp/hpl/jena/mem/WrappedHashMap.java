@@ -53,4 +53,11 @@ public class WrappedHashMap implements BunchMap
     @Override
     public ExtendedIterator<Object> keyIterator()
         { return WrappedIterator.create( map.keySet().iterator() ); }
+    
+    /**
+        A HashMap can't be resized after construction; the hint is ignored.
+    */
+    @Override
+    public void ensureCapacity( int keys )
+        {}
     }
@@ -0,0 +1,473 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.mem.compact;
+
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+
+import com.hp.hpl.jena.graph.*;
+import com.hp.hpl.jena.graph.impl.TripleStore;
+import com.hp.hpl.jena.util.iterator.*;
+
+/**
+    A TripleStore that holds no per-triple objects: every node is interned
+    in a NodeDictionary and the triples are kept as id triples. Most of them
+    are in a PackedTriples table; triples added since it was built are in
+    three IntTripleIndexes (SPO, POS, OSP), and triples deleted from it are
+    only marked. Once the recent changes come to a quarter of the table, or
+    at least <code>compactionThreshold</code>, they are merged into a new 
+    table. Triple objects are only created as results of <code>find</code>.
+    <p>
+    As with the other memory stores, subjects and predicates match by 
+    equality and concrete objects match by <code>sameValueAs</code>.
+*/
+public class CompactTripleStore implements TripleStore
+    {
+    /**
+        The number of triples added or deleted since the packed table was 
+        built that is always small enough not to rebuild it. 
+    */
+    public static int compactionThreshold = 1 << 14;
+    
+    protected final Graph parent;
+    protected NodeDictionary dictionary = new NodeDictionary();
+    protected PackedTriples packed = null;
+    protected IntTripleIndex spo = new IntTripleIndex();
+    protected IntTripleIndex pos = new IntTripleIndex();
+    protected IntTripleIndex osp = new IntTripleIndex();
+    
+    /**
+        A count of the changes to this store, used to detect modification
+        during iteration.
+    */
+    protected int changes = 0;
+    
+    public CompactTripleStore( Graph parent )
+        { this.parent = parent; }
+    
+    public NodeDictionary getDictionary()
+        { return dictionary; }
+    
+    /**
+        Answer the number of triples with the node id <code>id</code> (which
+        may be -1 for none) in the given PackedTriples role.
+    */
+    public int count( int role, int id )
+        {
+        int recent = role == PackedTriples.SUBJECT ? spo.count( id ) 
+            : role == PackedTriples.PREDICATE ? pos.count( id ) : osp.count( id );
+        return packed == null ? recent : recent + packed.count( role, id );
+        }
+    
+    @Override public void close()
+        { dictionary = null; packed = null; spo = pos = osp = null; }
+
+    @Override public void add( Triple t )
+        {
+        int s = dictionary.intern( t.getSubject() );
+        int p = dictionary.intern( t.getPredicate() );
+        int o = dictionary.intern( t.getObject() );
+        int row = packed == null ? -1 : packed.find( s, p, o );
+        if (row >= 0)
+            {
+            if (packed.setDeleted( row, false )) changes += 1;
+            }
+        else if (spo.add( s, p, o ))
+            {
+            pos.add( p, o, s );
+            osp.add( o, s, p );
+            changes += 1;
+            if (needsCompaction()) compact();
+            }
+        }
+
+    @Override public void delete( Triple t )
+        {
+        if (remove( t ) && needsCompaction()) compact();
+        }
+    
+    /**
+        Delete <code>t</code> without rebuilding the packed table, so that
+        iterators over it can carry on; answer true iff it was present.
+    */
+    protected boolean remove( Triple t )
+        {
+        int s = dictionary.getId( t.getSubject() );
+        int p = dictionary.getId( t.getPredicate() );
+        int o = dictionary.getId( t.getObject() );
+        if (s < 0 || p < 0 || o < 0) return false;
+        if (spo.remove( s, p, o ))
+            {
+            pos.remove( p, o, s );
+            osp.remove( o, s, p );
+            changes += 1;
+            releaseIfUnused( s );
+            if (p != s) releaseIfUnused( p );
+            if (o != s && o != p) releaseIfUnused( o );
+            return true;
+            }
+        int row = packed == null ? -1 : packed.find( s, p, o );
+        if (row >= 0 && packed.setDeleted( row, true ))
+            {
+            changes += 1;
+            return true;
+            }
+        return false;
+        }
+    
+    /**
+        Release the id of a node that no triple uses any more. Nodes of the 
+        packed table are kept until it is next rebuilt.
+    */
+    protected void releaseIfUnused( int id )
+        {
+        if (spo.get( id ) == null && pos.get( id ) == null && osp.get( id ) == null
+            && (packed == null || !packed.mentions( id )))
+            dictionary.release( id );
+        }
+    
+    protected boolean needsCompaction()
+        {
+        int changed = spo.size() + (packed == null ? 0 : packed.deletedCount());
+        int limit = packed == null ? 0 : packed.size() / 4;
+        return changed >= Math.max( compactionThreshold, limit );
+        }
+    
+    /**
+        Merge the recent additions and deletions into a new packed table, and
+        release the ids of the nodes that no longer appear in any triple.
+    */
+    public void compact()
+        {
+        if (spo.size() == 0 && (packed == null || packed.deletedCount() == 0)) return;
+        int keys = dictionary.idLimit();
+        packed = PackedTriples.merge( packed, spo, keys );
+        spo.clear();
+        pos.clear();
+        osp.clear();
+        for (int id = 0; id < keys; id += 1)
+            if (dictionary.getNode( id ) != null && !packed.mentions( id )) dictionary.release( id );
+        changes += 1;
+        }
+
+    @Override public int size()
+        { return spo.size() + (packed == null ? 0 : packed.size()); }
+
+    @Override public boolean isEmpty()
+        { return size() == 0; }
+
+    /**
+        Answer true iff this store contains the concrete triple <code>t</code>,
+        matching the object by <code>sameValueAs</code>.
+    */
+    @Override public boolean contains( Triple t )
+        {
+        int s = dictionary.getId( t.getSubject() );
+        int p = dictionary.getId( t.getPredicate() );
+        if (s < 0 || p < 0) return false;
+        IntPairBunch b = spo.get( s );
+        if (b == null && packed == null) return false;
+        int [] os = dictionary.sameValueIds( t.getObject() );
+        for (int i = 0; i < os.length; i += 1) 
+            {
+            if (b != null && b.contains( p, os[i] )) return true;
+            if (packed != null)
+                {
+                int row = packed.find( s, p, os[i] );
+                if (row >= 0 && !packed.isDeleted( row )) return true;
+                }
+            }
+        return false;
+        }
+
+    @Override public ExtendedIterator<Node> listSubjects()
+        { return new DomainIterator( spo, PackedTriples.SUBJECT ); }
+
+    @Override public ExtendedIterator<Node> listPredicates()
+        { return new DomainIterator( pos, PackedTriples.PREDICATE ); }
+
+    @Override public ExtendedIterator<Node> listObjects()
+        { return new DomainIterator( osp, PackedTriples.OBJECT ); }
+
+    /**
+        Answer an iterator over the triples matching <code>tm</code>. As in
+        GraphTripleStoreBase, a concrete subject is preferred, then a concrete 
+        object, then a concrete predicate.
+    */
+    @Override public ExtendedIterator<Triple> find( TripleMatch tm )
+        {
+        Triple t = tm.asTriple();
+        Node sm = t.getSubject(), pm = t.getPredicate(), om = t.getObject();
+        int [] ss = null, ps = null, os = null;
+        if (sm.isConcrete() && (ss = ids( sm )).length == 0) return NullIterator.instance();
+        if (pm.isConcrete() && (ps = ids( pm )).length == 0) return NullIterator.instance();
+        if (om.isConcrete() && (os = dictionary.sameValueIds( om )).length == 0) return NullIterator.instance();
+        if (ss != null)
+            return new StoreIterator( PackedTriples.SUBJECT, ss, ps, os );
+        else if (os != null)
+            return new StoreIterator( PackedTriples.OBJECT, ss, ps, os );
+        else if (ps != null)
+            return new StoreIterator( PackedTriples.PREDICATE, ss, ps, os );
+        else
+            return new StoreIterator( PackedTriples.SUBJECT, ss, ps, os );
+        }
+    
+    protected int [] ids( Node n )
+        {
+        int id = dictionary.getId( n );
+        return id < 0 ? NodeDictionary.none : new int[] {id};
+        }
+
+    @Override public void clear()
+        {
+        dictionary.clear();
+        packed = null;
+        spo.clear();
+        pos.clear();
+        osp.clear();
+        changes += 1;
+        }
+    
+    /**
+        The order of the fields in each index: the positions of S, P and O 
+        within (a, b, c).
+    */
+    protected static final int [] SPO = { 0, 1, 2 }, POS = { 2, 0, 1 }, OSP = { 1, 2, 0 };
+    
+    /**
+        Iterator over the triples whose nodes in the given role are 
+        <code>keys</code> (all nodes if null), and whose subjects, predicates 
+        and objects are in <code>ss</code>, <code>ps</code> and <code>os</code>
+        (null for any). It runs over the rows of the packed table first and
+        then over the pairs of the recent index for that role, keeping those
+        whose first component is in <code>bs</code> and second is in 
+        <code>cs</code>.
+    */
+    protected class StoreIterator extends NiceIterator<Triple>
+        {
+        protected final int role;
+        protected final int [] ss, ps, os;
+        protected final IntTripleIndex index;
+        protected final int [] keys, bs, cs, order;
+        protected int expectedChanges = changes;
+        
+        protected PackedTriples table = packed;
+        protected int rowKeyPosition = -1;
+        protected int rowKey;
+        protected int [] rowList;
+        protected int rowPosition = 0, rowLimit = 0;
+        
+        protected int keyPosition = -1;
+        protected int key;
+        protected IntPairBunch bunch = null;
+        protected int position = 0;
+        
+        protected Triple pending = null;
+        protected boolean pendingPacked;
+        protected int pendingKeyPosition, pendingPosition;
+        protected IntPairBunch pendingBunch;
+        
+        protected Triple current = null;
+        protected boolean currentPacked;
+        protected int currentKeyPosition, currentPosition;
+        protected IntPairBunch currentBunch;
+        
+        protected StoreIterator( int role, int [] ss, int [] ps, int [] os )
+            {
+            this.role = role;
+            this.ss = ss; this.ps = ps; this.os = os;
+            if (role == PackedTriples.SUBJECT)
+                { index = spo; keys = ss; bs = ps; cs = os; order = SPO; }
+            else if (role == PackedTriples.PREDICATE)
+                { index = pos; keys = ps; bs = os; cs = ss; order = POS; }
+            else
+                { index = osp; keys = os; bs = ss; cs = ps; order = OSP; }
+            }
+        
+        @Override public boolean hasNext()
+            {
+            if (changes != expectedChanges) throw new ConcurrentModificationException();
+            if (pending != null) return true;
+            if (table != null && nextRow()) return true;
+            while (true)
+                {
+                if (bunch != null)
+                    {
+                    int limit = bunch.limit();
+                    while (position < limit)
+                        {
+                        long pair = bunch.at( position++ );
+                        if (pair < 0) continue;
+                        int b = IntPairBunch.first( pair ), c = IntPairBunch.second( pair );
+                        if (accept( bs, b ) && accept( cs, c ))
+                            {
+                            pending = makeTriple( key, b, c );
+                            pendingPacked = false;
+                            pendingKeyPosition = keyPosition;
+                            pendingPosition = position - 1;
+                            pendingBunch = bunch;
+                            return true;
+                            }
+                        }
+                    bunch = null;
+                    }
+                if (!nextBunch()) return false;
+                }
+            }
+        
+        /**
+            Look for the next matching row of the packed table, leaving it
+            pending; once there are no more, forget the table.
+        */
+        protected boolean nextRow()
+            {
+            while (true)
+                {
+                while (rowPosition < rowLimit)
+                    {
+                    int row = rowList == null ? rowPosition : rowList[rowPosition];
+                    rowPosition += 1;
+                    if (table.isDeleted( row )) continue;
+                    int p = table.predicates[row], o = table.objects[row];
+                    if (!accept( ps, p ) || !accept( os, o )) continue;
+                    int s = role == PackedTriples.SUBJECT ? rowKey : table.subjectOf( row );
+                    if (!accept( ss, s )) continue;
+                    pending = Triple.create( dictionary.getNode( s ), dictionary.getNode( p ), dictionary.getNode( o ) );
+                    pendingPacked = true;
+                    return true;
+                    }
+                if (!nextRows()) 
+                    {
+                    table = null;
+                    return false;
+                    }
+                }
+            }
+        
+        protected boolean nextRows()
+            {
+            int limit = keys == null ? table.keys() : keys.length;
+            int [] start = table.starts( role );
+            while (++rowKeyPosition < limit)
+                {
+                rowKey = keys == null ? rowKeyPosition : keys[rowKeyPosition];
+                if (rowKey >= table.keys()) continue;
+                rowList = table.rowList( role );
+                rowPosition = start[rowKey];
+                rowLimit = start[rowKey + 1];
+                if (rowPosition < rowLimit) return true;
+                }
+            return false;
+            }
+        
+        protected boolean nextBunch()
+            {
+            int limit = keys == null ? dictionary.idLimit() : keys.length;
+            while (++keyPosition < limit)
+                {
+                key = keys == null ? keyPosition : keys[keyPosition];
+                bunch = index.get( key );
+                if (bunch != null) { position = 0; return true; }
+                }
+            return false;
+            }
+        
+        protected boolean accept( int [] allowed, int x )
+            {
+            if (allowed == null) return true;
+            for (int i = 0; i < allowed.length; i += 1) if (allowed[i] == x) return true;
+            return false;
+            }
+        
+        protected Triple makeTriple( int a, int b, int c )
+            {
+            int [] abc = { a, b, c };
+            return Triple.create
+                ( 
+                dictionary.getNode( abc[order[0]] ), 
+                dictionary.getNode( abc[order[1]] ), 
+                dictionary.getNode( abc[order[2]] ) 
+                );
+            }
+        
+        @Override public Triple next()
+            {
+            if (!hasNext()) throw new NoSuchElementException( "CompactTripleStore find next()" );
+            current = pending;
+            currentPacked = pendingPacked;
+            currentKeyPosition = pendingKeyPosition;
+            currentPosition = pendingPosition;
+            currentBunch = pendingBunch;
+            pending = null;
+            return current;
+            }
+        
+        @Override public void remove()
+            {
+            if (current == null) throw new IllegalStateException();
+            CompactTripleStore.this.remove( current );
+            if (!currentPacked)
+                {
+            //  resume just after the current triple, discarding any look-ahead; in 
+            //  array mode the last pair was moved into the hole, so look at it next
+                pending = null;
+                keyPosition = currentKeyPosition;
+                key = keys == null ? keyPosition : keys[keyPosition];
+                bunch = currentBunch;
+                position = currentBunch.isHashed() ? currentPosition + 1 : currentPosition;
+                }
+        //  deleting a packed row only marks it, so any look-ahead is still good
+            expectedChanges = changes;
+            parent.getEventManager().notifyDeleteTriple( parent, current );
+            current = null;
+            }
+        }
+    
+    /**
+        Iterator over the nodes that appear in the given role, in the packed
+        table or in the corresponding recent index.
+    */
+    protected class DomainIterator extends NiceIterator<Node>
+        {
+        protected final IntTripleIndex index;
+        protected final int role;
+        protected int id = -1;
+        protected int nextId = -1;
+        
+        protected DomainIterator( IntTripleIndex index, int role )
+            { this.index = index; this.role = role; }
+        
+        @Override public boolean hasNext()
+            {
+            if (nextId > id) return true;
+            int limit = dictionary.idLimit();
+            for (int i = id + 1; i < limit; i += 1)
+                if (index.get( i ) != null || (packed != null && packed.isUsed( role, i ))) 
+                    { nextId = i; return true; }
+            return false;
+            }
+        
+        @Override public Node next()
+            {
+            if (!hasNext()) throw new NoSuchElementException( "CompactTripleStore domain next()" );
+            id = nextId;
+            return dictionary.getNode( id );
+            }
+        }
+    }
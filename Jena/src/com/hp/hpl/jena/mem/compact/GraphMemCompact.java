@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.mem.compact;
+
+import com.hp.hpl.jena.graph.*;
+import com.hp.hpl.jena.graph.impl.*;
+import com.hp.hpl.jena.graph.query.*;
+import com.hp.hpl.jena.mem.*;
+import com.hp.hpl.jena.shared.ReificationStyle;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+/**
+    A memory-based graph for large, mostly-static data: nodes are interned 
+    as int ids and the triples held only as id triples (see CompactTripleStore),
+    which takes a fraction of the space of GraphMemFaster at some cost in
+    find speed, since result Triples are made on demand. Loading through
+    <code>startBulkLoad</code> or the bulk update handler packs the triples
+    as soon as the load is finished.
+*/
+public class GraphMemCompact extends GraphMemBase
+    {
+    public GraphMemCompact()
+        { this( ReificationStyle.Minimal ); }
+    
+    public GraphMemCompact( ReificationStyle style )
+        { super( style ); }
+
+    @Override protected TripleStore createTripleStore()
+        { return new CompactTripleStore( this ); }
+
+    @Override protected void destroy()
+        { store.close(); }
+
+    @Override public void performAdd( Triple t )
+        { if (!getReifier().handledAdd( t )) store.add( t ); }
+
+    @Override public void performDelete( Triple t )
+        { if (!getReifier().handledRemove( t )) store.delete( t ); }
+
+    /**
+        Pack everything loaded into the compact table straight away, rather
+        than leaving up to a quarter of it in the recent indexes.
+    */
+    @Override protected void bulkLoadFinished()
+        { ((CompactTripleStore) store).compact(); }
+
+    @Override public int graphBaseSize()  
+        { return store.size(); }
+    
+    @Override public QueryHandler queryHandler()
+        { 
+        if (queryHandler == null) queryHandler = new GraphMemBaseQueryHandler( this );
+        return queryHandler;
+        }
+
+    @Override protected GraphStatisticsHandler createStatisticsHandler()
+        { return new GraphMemCompactStatisticsHandler( (CompactTripleStore) store, getReifier() ); }
+    
+    /**
+        Statistics from the CompactTripleStore indexes, with the same answers
+        as GraphMemFaster's: exact counts for a single concrete node, 0 for
+        two concrete nodes one of which is absent, and -1 otherwise.
+    */
+    protected static class GraphMemCompactStatisticsHandler implements GraphStatisticsHandler
+        {
+        protected final CompactTripleStore store;
+        protected final Reifier reifier;
+        
+        public GraphMemCompactStatisticsHandler( CompactTripleStore store, Reifier reifier )
+            { this.store = store; this.reifier = reifier; }
+        
+        @Override public long getStatistic( Node S, Node P, Node O )
+            {
+            if (reifier.size() > 0) return -1;
+            boolean s = S.isConcrete(), p = P.isConcrete(), o = O.isConcrete();
+            if (s && p && o) return store.contains( Triple.create( S, P, O ) ) ? 1 : 0;
+            long cs = s ? countS( S ) : -1, cp = p ? countP( P ) : -1, co = o ? countO( O ) : -1;
+            if (s && !p && !o) return cs;
+            if (p && !s && !o) return cp;
+            if (o && !s && !p) return co;
+            if (!s && !p && !o) return store.size();
+            return cs == 0 || cp == 0 || co == 0 ? 0 : -1L;
+            }
+        
+        protected long countS( Node S )
+            { return store.count( PackedTriples.SUBJECT, store.getDictionary().getId( S ) ); }
+        
+        protected long countP( Node P )
+            { return store.count( PackedTriples.PREDICATE, store.getDictionary().getId( P ) ); }
+        
+        protected long countO( Node O )
+            {
+            int [] ids = store.getDictionary().sameValueIds( O );
+            long result = 0;
+            for (int i = 0; i < ids.length; i += 1) result += store.count( PackedTriples.OBJECT, ids[i] );
+            return result;
+            }
+        }
+    
+    /**
+         Answer an ExtendedIterator over all the triples in this graph that match the
+         triple-pattern <code>m</code>. Delegated to the store.
+     */
+    @Override public ExtendedIterator<Triple> graphBaseFind( TripleMatch m ) 
+        { return store.find( m.asTriple() ); }
+
+    /**
+         Answer true iff this graph contains <code>t</code>. If <code>t</code>
+         happens to be concrete, then we hand responsibility over to the store.
+         Otherwise we use the default implementation.
+    */
+    @Override public boolean graphBaseContains( Triple t )
+        { return t.isConcrete() ? store.contains( t ) : super.graphBaseContains( t ); }
+    
+    /**
+        Clear this graph, ie remove all its triples (delegated to the store).
+    */
+    @Override public void clear()
+        { 
+        store.clear(); 
+        ((SimpleReifier) getReifier()).clear();
+        }
+    }
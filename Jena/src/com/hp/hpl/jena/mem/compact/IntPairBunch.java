@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.mem.compact;
+
+import java.util.Arrays;
+
+/**
+    A set of (int, int) pairs of node ids, packed into longs. Small sets are
+    kept as an unordered array and searched linearly; once a set grows past 
+    <code>hashThreshold</code> it switches to an open-addressed hash table
+    (cf ArrayBunch and HashedTripleBunch). Both are kept fairly full, since 
+    space rather than speed is the point of this store.
+    <p>
+    Iteration is by position: <code>limit()</code> bounds the positions and
+    <code>at(i)</code> answers the pair at a position, or a negative value if
+    that position is unused. Removing in array mode moves the last pair into 
+    the hole, so an iterator that removes the pair it has just visited must 
+    revisit that position (see <code>isHashed()</code>).
+*/
+public class IntPairBunch
+    {
+    protected static final int hashThreshold = 16;
+    
+    protected static final long EMPTY = -1L;
+    protected static final long REMOVED = -2L;
+    
+    protected long [] pairs = new long[1];
+    protected int size = 0;
+    protected boolean hashed = false;
+    
+    /** in hash mode, the number of slots that are not EMPTY (ie including REMOVED) */
+    protected int used = 0;
+    
+    public static long pack( int a, int b )
+        { return ((long) a << 32) | (b & 0xFFFFFFFFL); }
+    
+    public static int first( long pair )
+        { return (int) (pair >>> 32); }
+    
+    public static int second( long pair )
+        { return (int) pair; }
+    
+    public int size()
+        { return size; }
+    
+    public boolean isEmpty()
+        { return size == 0; }
+    
+    public boolean isHashed()
+        { return hashed; }
+    
+    public int limit()
+        { return hashed ? pairs.length : size; }
+    
+    public long at( int i )
+        { return pairs[i]; }
+    
+    public boolean contains( int a, int b )
+        {
+        long x = pack( a, b );
+        return hashed ? findSlot( x ) >= 0 : indexOf( x ) >= 0;
+        }
+    
+    /**
+        Add the pair (a, b); answer true iff it was not already present.
+    */
+    public boolean add( int a, int b )
+        {
+        long x = pack( a, b );
+        if (hashed) return addHashed( x );
+        if (indexOf( x ) >= 0) return false;
+        if (size == hashThreshold) 
+            {
+            toHashed();
+            return addHashed( x );
+            }
+        if (size == pairs.length) pairs = Arrays.copyOf( pairs, size + (size >> 1) + 1 );
+        pairs[size++] = x;
+        return true;
+        }
+    
+    /**
+        Remove the pair (a, b); answer true iff it was present.
+    */
+    public boolean remove( int a, int b )
+        {
+        long x = pack( a, b );
+        if (hashed)
+            {
+            int i = findSlot( x );
+            if (i < 0) return false;
+            pairs[i] = REMOVED;
+            size -= 1;
+            return true;
+            }
+        int i = indexOf( x );
+        if (i < 0) return false;
+        pairs[i] = pairs[--size];
+        return true;
+        }
+    
+    protected int indexOf( long x )
+        {
+        for (int i = 0; i < size; i += 1) if (pairs[i] == x) return i;
+        return -1;
+        }
+    
+    protected int findSlot( long x )
+        {
+        int mask = pairs.length - 1;
+        int i = spread( x ) & mask;
+        while (true)
+            {
+            long y = pairs[i];
+            if (y == x) return i;
+            if (y == EMPTY) return -1;
+            i = (i + 1) & mask;
+            }
+        }
+    
+    protected boolean addHashed( long x )
+        {
+        if (findSlot( x ) >= 0) return false;
+        if ((used + 1) * 4 > pairs.length * 3) rehash( size + 1 );
+        int mask = pairs.length - 1;
+        int i = spread( x ) & mask;
+        while (pairs[i] >= 0) i = (i + 1) & mask;
+        if (pairs[i] == EMPTY) used += 1;
+        pairs[i] = x;
+        size += 1;
+        return true;
+        }
+    
+    protected void toHashed()
+        {
+        long [] old = pairs;
+        int n = size;
+        hashed = true;
+        pairs = emptyTable( capacityFor( n + 1 ) );
+        used = size = 0;
+        for (int i = 0; i < n; i += 1) addHashed( old[i] );
+        }
+    
+    /**
+        Rebuild the table big enough for <code>n</code> pairs, discarding 
+        REMOVED markers.
+    */
+    protected void rehash( int n )
+        {
+        long [] old = pairs;
+        pairs = emptyTable( capacityFor( n ) );
+        used = size = 0;
+        for (int i = 0; i < old.length; i += 1) 
+            if (old[i] >= 0) addHashed( old[i] );
+        }
+    
+    protected static int capacityFor( int n )
+        {
+        int c = 32;
+        while (c < n * 2) c *= 2;
+        return c;
+        }
+    
+    protected static long [] emptyTable( int capacity )
+        {
+        long [] t = new long[capacity];
+        Arrays.fill( t, EMPTY );
+        return t;
+        }
+    
+    protected static int spread( long x )
+        {
+        int h = (int) (x ^ (x >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+        }
+    }
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.mem.compact;
+
+import java.util.Arrays;
+
+/**
+    One of the three indexes of a CompactTripleStore: triples are held as
+    (a, b, c) id triples, where <code>a</code> indexes an array of bunches
+    and each bunch holds the (b, c) pairs. The SPO, POS and OSP indexes are
+    all instances of this class with the fields permuted.
+*/
+public class IntTripleIndex
+    {
+    protected IntPairBunch [] bunches = new IntPairBunch[1024];
+    protected int size = 0;
+    
+    public int size()
+        { return size; }
+    
+    /**
+        Answer the bunch of pairs for the key id <code>a</code>, or null if 
+        there are none.
+    */
+    public IntPairBunch get( int a )
+        { return a >= 0 && a < bunches.length ? bunches[a] : null; }
+    
+    /**
+        Answer the number of triples with key id <code>a</code>.
+    */
+    public int count( int a )
+        {
+        IntPairBunch b = get( a );
+        return b == null ? 0 : b.size();
+        }
+    
+    public boolean contains( int a, int b, int c )
+        {
+        IntPairBunch x = get( a );
+        return x != null && x.contains( b, c );
+        }
+    
+    public boolean add( int a, int b, int c )
+        {
+        if (a >= bunches.length) 
+            bunches = Arrays.copyOf( bunches, Math.max( a + 1, bunches.length * 2 ) );
+        IntPairBunch x = bunches[a];
+        if (x == null) bunches[a] = x = new IntPairBunch();
+        if (x.add( b, c ))
+            { size += 1; return true; }
+        return false;
+        }
+    
+    public boolean remove( int a, int b, int c )
+        {
+        IntPairBunch x = get( a );
+        if (x == null || !x.remove( b, c )) return false;
+        if (x.isEmpty()) bunches[a] = null;
+        size -= 1;
+        return true;
+        }
+    
+    public void clear()
+        {
+        bunches = new IntPairBunch[1024];
+        size = 0;
+        }
+    }
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.mem.compact;
+
+import java.util.Arrays;
+
+import com.hp.hpl.jena.graph.Node;
+
+/**
+    A NodeDictionary interns nodes as small non-negative integer ids. Ids 
+    are dense, so they can be used to index arrays; the id of a node that 
+    has been released is re-used by a later <code>intern</code>.
+    <p>
+    The table is open-addressed with linear probing. Literals are hashed
+    on their indexing value rather than on the node, so all the literals that
+    might be <code>sameValueAs</code> each other lie on the same probe 
+    run; that is what makes <code>sameValueIds</code> cheap.
+*/
+public class NodeDictionary
+    {
+    protected static final int initialCapacity = 1024;
+    
+    /** id -> node; null for free ids. */
+    protected Node [] nodes = new Node[initialCapacity];
+    
+    /** id -> hash of the node, kept so that moving entries does not rehash nodes. */
+    protected int [] hashes = new int[initialCapacity];
+    
+    /** the hash table proper: each slot holds id + 1, or 0 if empty. */
+    protected int [] slots = new int[initialCapacity * 2];
+    
+    /** the number of ids handed out, including freed ones. */
+    protected int highWater = 0;
+    
+    /** ids released and available for re-use. */
+    protected int [] free = new int[16];
+    protected int freeCount = 0;
+    
+    protected int size = 0;
+    
+    /**
+        Answer the number of nodes in this dictionary.
+    */
+    public int size()
+        { return size; }
+    
+    /**
+        Answer an upper bound (exclusive) on the ids in use.
+    */
+    public int idLimit()
+        { return highWater; }
+    
+    /**
+        Answer the node with id <code>id</code>, or null if that id is not in use.
+    */
+    public Node getNode( int id )
+        { return nodes[id]; }
+    
+    /**
+        Answer the id of the node <code>n</code> (by equality), or -1 if it
+        is not in this dictionary.
+    */
+    public int getId( Node n )
+        {
+        int mask = slots.length - 1;
+        int i = hashOf( n ) & mask;
+        while (true)
+            {
+            int x = slots[i];
+            if (x == 0) return -1;
+            if (nodes[x - 1].equals( n )) return x - 1;
+            i = (i + 1) & mask;
+            }
+        }
+    
+    /**
+        Answer the id of the node <code>n</code>, allocating one if necessary.
+    */
+    public int intern( Node n )
+        {
+        int h = hashOf( n );
+        int mask = slots.length - 1;
+        int i = h & mask;
+        while (true)
+            {
+            int x = slots[i];
+            if (x == 0) break;
+            if (nodes[x - 1].equals( n )) return x - 1;
+            i = (i + 1) & mask;
+            }
+        int id = allocateId();
+        nodes[id] = n;
+        hashes[id] = h;
+        slots[i] = id + 1;
+        size += 1;
+        if (size * 2 > slots.length) rehash( slots.length * 2 );
+        return id;
+        }
+    
+    /**
+        Answer the ids of all the nodes that are <code>sameValueAs</code>
+        <code>n</code>. For non-literals that is just the node itself.
+    */
+    public int [] sameValueIds( Node n )
+        {
+        if (!n.isLiteral())
+            {
+            int id = getId( n );
+            return id < 0 ? none : new int[] {id};
+            }
+        int [] result = none;
+        int count = 0;
+        int mask = slots.length - 1;
+        int i = hashOf( n ) & mask;
+        while (true)
+            {
+            int x = slots[i];
+            if (x == 0) break;
+            if (n.sameValueAs( nodes[x - 1] ))
+                {
+                if (count == result.length) result = Arrays.copyOf( result, count == 0 ? 1 : count * 2 );
+                result[count++] = x - 1;
+                }
+            i = (i + 1) & mask;
+            }
+        return count == result.length ? result : Arrays.copyOf( result, count );
+        }
+    
+    protected static final int [] none = new int[0];
+    
+    /**
+        Remove the node with id <code>id</code>; the id may then be re-used.
+    */
+    public void release( int id )
+        {
+        int mask = slots.length - 1;
+        int i = hashes[id] & mask;
+        while (slots[i] != id + 1) i = (i + 1) & mask;
+        slots[i] = 0;
+    //  close up the probe run behind the hole, as in HashCommon.removeFrom
+        int j = i;
+        while (true)
+            {
+            j = (j + 1) & mask;
+            int x = slots[j];
+            if (x == 0) break;
+            int home = hashes[x - 1] & mask;
+            boolean move = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+            if (move)
+                {
+                slots[i] = x;
+                slots[j] = 0;
+                i = j;
+                }
+            }
+        nodes[id] = null;
+        size -= 1;
+        if (freeCount == free.length) free = Arrays.copyOf( free, freeCount * 2 );
+        free[freeCount++] = id;
+        }
+    
+    /**
+        Remove all the nodes from this dictionary.
+    */
+    public void clear()
+        {
+        nodes = new Node[initialCapacity];
+        hashes = new int[initialCapacity];
+        slots = new int[initialCapacity * 2];
+        highWater = size = freeCount = 0;
+        }
+    
+    protected int allocateId()
+        {
+        if (freeCount > 0) return free[--freeCount];
+        if (highWater == nodes.length)
+            {
+            nodes = Arrays.copyOf( nodes, highWater * 2 );
+            hashes = Arrays.copyOf( hashes, highWater * 2 );
+            }
+        return highWater++;
+        }
+    
+    protected void rehash( int newCapacity )
+        {
+        int [] newSlots = new int[newCapacity];
+        int mask = newCapacity - 1;
+        for (int k = 0; k < slots.length; k += 1)
+            {
+            int x = slots[k];
+            if (x != 0)
+                {
+                int i = hashes[x - 1] & mask;
+                while (newSlots[i] != 0) i = (i + 1) & mask;
+                newSlots[i] = x;
+                }
+            }
+        slots = newSlots;
+        }
+    
+    /**
+        Answer the hash of <code>n</code>: literals hash on their indexing value
+        so that same-valued literals collide. The bits are spread because the 
+        table size is a power of two.
+    */
+    protected static int hashOf( Node n )
+        {
+        int h = n.isLiteral() ? n.getIndexingValue().hashCode() : n.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+        }
+    }
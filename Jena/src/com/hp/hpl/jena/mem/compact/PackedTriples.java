@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.mem.compact;
+
+import java.util.Arrays;
+
+/**
+    The packed part of a CompactTripleStore: the triples are the rows of a
+    table sorted by subject id and then by (predicate, object), with the
+    predicate and object ids held in two int columns. The rows of a subject
+    are found from an array of offsets indexed by subject id, and the rows of
+    each predicate and of each object are listed in two more int arrays
+    (cf compressed sparse rows), so the three access paths cost 16 bytes a
+    triple and no per-triple or per-node objects.
+    <p>
+    A table is not changed once built, except that rows can be marked as
+    deleted and unmarked again. The store builds a new table with <code>merge</code>
+    when enough has been added or deleted.
+*/
+public class PackedTriples
+    {
+    public static final int SUBJECT = 0, PREDICATE = 1, OBJECT = 2;
+
+    /** the rows of subject s are subjectStart[s] up to subjectStart[s + 1] */
+    protected final int [] subjectStart;
+    protected final int [] predicates;
+    protected final int [] objects;
+
+    /** the rows of predicate p are predicateRows[predicateStart[p]] up to predicateRows[predicateStart[p + 1]] */
+    protected final int [] predicateStart;
+    protected final int [] predicateRows;
+
+    /** the rows of object o are objectRows[objectStart[o]] up to objectRows[objectStart[o + 1]] */
+    protected final int [] objectStart;
+    protected final int [] objectRows;
+
+    /** one bit per row, set if the row has been deleted */
+    protected final long [] deleted;
+    protected int deletedCount = 0;
+
+    protected PackedTriples( int [] subjectStart, int [] predicates, int [] objects )
+        {
+        this.subjectStart = subjectStart;
+        this.predicates = predicates;
+        this.objects = objects;
+        int keys = subjectStart.length - 1, rows = predicates.length;
+        predicateStart = new int[keys + 1];
+        predicateRows = new int[rows];
+        invert( predicates, predicateStart, predicateRows );
+        objectStart = new int[keys + 1];
+        objectRows = new int[rows];
+        invert( objects, objectStart, objectRows );
+        deleted = new long[(rows + 63) >>> 6];
+        }
+
+    /**
+        Fill in <code>start</code> and <code>result</code> so that the rows
+        whose <code>column</code> value is k are listed, in row order, from
+        <code>result[start[k]]</code> up to <code>result[start[k + 1]]</code>.
+    */
+    protected static void invert( int [] column, int [] start, int [] result )
+        {
+        for (int row = 0; row < column.length; row += 1) start[column[row] + 1] += 1;
+        for (int k = 1; k < start.length; k += 1) start[k] += start[k - 1];
+        int [] next = Arrays.copyOf( start, start.length - 1 );
+        for (int row = 0; row < column.length; row += 1) result[next[column[row]]++] = row;
+        }
+
+    /**
+        Answer a new table holding the rows of <code>base</code> (which may be
+        null) that are not deleted together with the triples of <code>recent</code>,
+        an SPO index none of whose triples are in <code>base</code>. Node ids
+        are all less than <code>keys</code>.
+    */
+    public static PackedTriples merge( PackedTriples base, IntTripleIndex recent, int keys )
+        {
+        int [] start = new int[keys + 1];
+        int rows = 0;
+        for (int s = 0; s < keys; s += 1)
+            {
+            start[s] = rows;
+            rows += recent.count( s );
+            if (base != null) rows += base.count( SUBJECT, s );
+            }
+        start[keys] = rows;
+        int [] ps = new int[rows], os = new int[rows];
+        long [] pairs = new long[16];
+        for (int s = 0; s < keys; s += 1)
+            {
+            int n = 0;
+            IntPairBunch b = recent.get( s );
+            if (b != null)
+                {
+                if (pairs.length < b.size()) pairs = new long[Math.max( b.size(), pairs.length * 2 )];
+                for (int i = 0, limit = b.limit(); i < limit; i += 1)
+                    {
+                    long x = b.at( i );
+                    if (x >= 0) pairs[n++] = x;
+                    }
+                Arrays.sort( pairs, 0, n );
+                }
+            int i = 0, end = 0, j = 0, row = start[s];
+            if (base != null && s < base.keys())
+                { i = base.subjectStart[s]; end = base.subjectStart[s + 1]; }
+            while (true)
+                {
+                while (i < end && base.isDeleted( i )) i += 1;
+                if (i == end && j == n) break;
+                long x;
+                if (j == n || (i < end && base.pair( i ) < pairs[j])) x = base.pair( i++ );
+                else x = pairs[j++];
+                ps[row] = IntPairBunch.first( x );
+                os[row] = IntPairBunch.second( x );
+                row += 1;
+                }
+            }
+        return new PackedTriples( start, ps, os );
+        }
+
+    /**
+        Answer the number of node ids this table has offsets for: larger ids
+        have no rows.
+    */
+    public int keys()
+        { return subjectStart.length - 1; }
+
+    /**
+        Answer the number of rows in this table that are not deleted.
+    */
+    public int size()
+        { return predicates.length - deletedCount; }
+
+    public int deletedCount()
+        { return deletedCount; }
+
+    protected long pair( int row )
+        { return IntPairBunch.pack( predicates[row], objects[row] ); }
+
+    /**
+        Answer the subject id of <code>row</code>, the last subject whose
+        rows start at or before it.
+    */
+    public int subjectOf( int row )
+        {
+        int lo = 0, hi = keys() - 1;
+        while (lo < hi)
+            {
+            int mid = (lo + hi + 1) >>> 1;
+            if (subjectStart[mid] <= row) lo = mid; else hi = mid - 1;
+            }
+        return lo;
+        }
+
+    /**
+        Answer the row holding the triple (s, p, o), deleted or not, or -1
+        if there is none.
+    */
+    public int find( int s, int p, int o )
+        {
+        if (s >= keys()) return -1;
+        long x = IntPairBunch.pack( p, o );
+        int lo = subjectStart[s], hi = subjectStart[s + 1] - 1;
+        while (lo <= hi)
+            {
+            int mid = (lo + hi) >>> 1;
+            long y = pair( mid );
+            if (y < x) lo = mid + 1;
+            else if (y > x) hi = mid - 1;
+            else return mid;
+            }
+        return -1;
+        }
+
+    public boolean isDeleted( int row )
+        { return deletedCount > 0 && (deleted[row >>> 6] & (1L << row)) != 0; }
+
+    /**
+        Mark <code>row</code> as deleted (or not); answer true iff that
+        changed it.
+    */
+    public boolean setDeleted( int row, boolean isDeleted )
+        {
+        long bit = 1L << row;
+        boolean was = (deleted[row >>> 6] & bit) != 0;
+        if (was == isDeleted) return false;
+        deleted[row >>> 6] ^= bit;
+        deletedCount += isDeleted ? 1 : -1;
+        return true;
+        }
+
+    /**
+        Answer the start offsets of the rows of each id in the given role.
+    */
+    protected int [] starts( int role )
+        { return role == SUBJECT ? subjectStart : role == PREDICATE ? predicateStart : objectStart; }
+
+    /**
+        Answer the list of rows that the offsets of the given role index, or
+        null if they index the rows themselves.
+    */
+    protected int [] rowList( int role )
+        { return role == SUBJECT ? null : role == PREDICATE ? predicateRows : objectRows; }
+
+    /**
+        Answer the number of rows, not deleted, with <code>id</code> in the
+        given role.
+    */
+    public int count( int role, int id )
+        {
+        if (id < 0 || id >= keys()) return 0;
+        int [] start = starts( role ), list = rowList( role );
+        int from = start[id], to = start[id + 1];
+        if (deletedCount == 0) return to - from;
+        int result = 0;
+        for (int i = from; i < to; i += 1)
+            if (!isDeleted( list == null ? i : list[i] )) result += 1;
+        return result;
+        }
+
+    /**
+        Answer true iff there is a row, not deleted, with <code>id</code> in the
+        given role.
+    */
+    public boolean isUsed( int role, int id )
+        {
+        if (id < 0 || id >= keys()) return false;
+        int [] start = starts( role ), list = rowList( role );
+        for (int i = start[id], to = start[id + 1]; i < to; i += 1)
+            if (!isDeleted( list == null ? i : list[i] )) return true;
+        return false;
+        }
+
+    /**
+        Answer true iff any row, deleted or not, mentions <code>id</code>.
+    */
+    public boolean mentions( int id )
+        {
+        if (id >= keys()) return false;
+        return subjectStart[id] < subjectStart[id + 1]
+            || predicateStart[id] < predicateStart[id + 1]
+            || objectStart[id] < objectStart[id + 1];
+        }
+    }
@@ -25,9 +25,12 @@ import com.hp.hpl.jena.graph.Triple.Field;
 import com.hp.hpl.jena.graph.impl.TripleStore;
 import com.hp.hpl.jena.graph.query.*;
 import com.hp.hpl.jena.mem.*;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
 
 public class FasterTripleStore extends GraphTripleStoreBase implements TripleStore
     {    
+    protected final PredicateHistogram histogram;
+    
     public FasterTripleStore( Graph parent )
         { 
         super( parent,
@@ -35,8 +38,77 @@ public class FasterTripleStore extends GraphTripleStoreBase implements TripleSto
             new NodeToTriplesMapFaster( Field.fieldPredicate, Field.fieldObject, Field.fieldSubject ),
             new NodeToTriplesMapFaster( Field.fieldObject, Field.fieldSubject, Field.fieldPredicate )
                 ); 
+        histogram = new PredicateHistogram( getSubjects(), getPredicates(), getObjects() );
+        }
+    
+    /**
+         Add a triple to this triple store, noting the change in the histogram.
+    */
+    @Override public void add( Triple t )
+        {
+        if (subjects.add( t ))
+            {
+            predicates.add( t );
+            objects.add( t ); 
+            histogram.added( t );
+            }
         }
     
+    /**
+         Remove a triple from this triple store, noting the change in the histogram.
+    */
+    @Override public void delete( Triple t )
+        {
+        if (subjects.remove( t ))
+            {
+            predicates.remove( t );
+            objects.remove( t ); 
+            histogram.deleted( t );
+            }
+        }
+    
+    @Override public void clear()
+        {
+        super.clear();
+        histogram.clear();
+        }
+    
+    /**
+         Answer an ExtendedIterator returning all the triples from this store that
+         match the pattern, as the base store does; a remove through the iterator
+         is also noted in the histogram.
+    */
+    @Override public ExtendedIterator<Triple> find( TripleMatch tm )
+        {
+        Triple t = tm.asTriple();
+        Node pm = t.getPredicate();
+        Node om = t.getObject();
+        Node sm = t.getSubject();
+        if (sm.isConcrete())
+            return new HistogramTripleIterator( subjects.iterator( sm, pm, om ), subjects, predicates, objects );
+        else if (om.isConcrete())
+            return new HistogramTripleIterator( objects.iterator( om, sm, pm ), objects, subjects, predicates );
+        else if (pm.isConcrete())
+            return new HistogramTripleIterator( predicates.iterator( pm, om, sm ), predicates, subjects, objects );
+        else
+            return new HistogramTripleIterator( subjects.iterateAll(), subjects, predicates, objects );
+        }
+    
+    protected class HistogramTripleIterator extends StoreTripleIterator
+        {
+        HistogramTripleIterator( Iterator<Triple> it, NodeToTriplesMapBase X, NodeToTriplesMapBase A, NodeToTriplesMapBase B )
+            { super( parent, it, X, A, B ); }
+        
+        @Override public void remove()
+            {
+            super.remove();
+            histogram.deleted( current );
+            }
+        }
+    
+    public PredicateHistogram getHistogram()
+        { return histogram; }
+    
     public NodeToTriplesMapFaster getSubjects()
         { return (NodeToTriplesMapFaster) subjects; }
 
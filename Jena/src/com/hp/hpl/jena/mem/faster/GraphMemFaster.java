@@ -65,7 +65,7 @@ public class GraphMemFaster extends GraphMemBase
         
      	@author kers
     */
-    protected static class GraphMemFasterStatisticsHandler implements GraphStatisticsHandler
+    protected static class GraphMemFasterStatisticsHandler implements GraphPredicateStatistics
         {
         protected final FasterTripleStore store;
         protected final Reifier reifier;
@@ -133,6 +133,31 @@ public class GraphMemFaster extends GraphMemBase
             return -1;
             }
 
+        /**
+            Answer the number of distinct subjects for predicate P, from the
+            store's histogram, or -1 if there are reifier triples.
+        */
+        @Override
+        public long getDistinctSubjects( Node P )
+            {
+            if (reifier.size() > 0) return -1;
+            return P.isConcrete() ? store.getHistogram().distinctSubjects( P ) : store.getSubjects().bunchMap.size();
+            }
+        
+        @Override
+        public long getDistinctObjects( Node P )
+            {
+            if (reifier.size() > 0) return -1;
+            return P.isConcrete() ? store.getHistogram().distinctObjects( P ) : store.getObjects().bunchMap.size();
+            }
+        
+        @Override
+        public long getDistinctPredicates()
+            {
+            if (reifier.size() > 0) return -1;
+            return store.getPredicates().bunchMap.size();
+            }
+
         public long countsInMap( Node a, NodeToTriplesMapFaster mapA, Node b, NodeToTriplesMapFaster mapB )
             {
             long countA = countInMap( a, mapA ), countB = countInMap( b, mapB );
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.mem.faster;
+
+import java.util.*;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.mem.TripleBunch;
+
+/**
+    Per-predicate counts of distinct subjects and objects for a FasterTripleStore,
+    maintained as triples are added and removed. A triple adds a subject to the
+    count for its predicate if no other triple has the same subject and predicate;
+    that is answered by a look through the subject's bunch or the predicate's bunch,
+    whichever is smaller (and likewise for objects). If both are larger than 
+    <code>scanLimit</code> the node is taken to be already counted, so the counts
+    are estimates for nodes used in many triples, and are kept between 1 and the
+    number of triples when answered.
+<p>
+    Updates must not run at the same time as reads (the usual graph rule); 
+    concurrent readers are allowed.
+*/
+public class PredicateHistogram
+    {
+    /**
+        The largest bunch looked through to decide whether a subject or
+        object is new for a predicate.
+    */
+    protected static final int scanLimit = 32;
+    
+    protected static class Entry
+        {
+        int subjects, objects;
+        }
+    
+    protected final NodeToTriplesMapFaster subjects;
+    protected final NodeToTriplesMapFaster predicates;
+    protected final NodeToTriplesMapFaster objects;
+    protected final Map<Object, Entry> entries = new HashMap<Object, Entry>();
+    
+    public PredicateHistogram( NodeToTriplesMapFaster subjects, NodeToTriplesMapFaster predicates, NodeToTriplesMapFaster objects )
+        { 
+        this.subjects = subjects;
+        this.predicates = predicates;
+        this.objects = objects;
+        }
+    
+    /**
+        Note that <code>t</code> has been added to all the store's indexes. 
+    */
+    public void added( Triple t )
+        {
+        Object key = t.getPredicate().getIndexingValue();
+        Entry e = entries.get( key );
+        if (e == null) entries.put( key, e = new Entry() );
+        if (!sharesSubject( t )) e.subjects += 1;
+        if (!sharesObject( t )) e.objects += 1;
+        }
+    
+    /**
+        Note that <code>t</code> has been removed from all the store's indexes. 
+    */
+    public void deleted( Triple t )
+        {
+        Object key = t.getPredicate().getIndexingValue();
+        Entry e = entries.get( key );
+        if (e == null) return;
+        if (predicates.get( key ) == null)
+            { entries.remove( key ); return; }
+        if (!sharesSubject( t )) e.subjects -= 1;
+        if (!sharesObject( t )) e.objects -= 1;
+        }
+    
+    /**
+        Forget all counts (the store has been cleared).
+    */
+    public void clear()
+        { entries.clear(); }
+    
+    /**
+        Answer the number of distinct subjects of triples with predicate <code>P</code>.
+    */
+    public int distinctSubjects( Node P )
+        {
+        Object key = P.getIndexingValue();
+        Entry e = entries.get( key );
+        return e == null ? 0 : bound( e.subjects, key );
+        }
+    
+    /**
+        Answer the number of distinct objects of triples with predicate <code>P</code>.
+    */
+    public int distinctObjects( Node P )
+        {
+        Object key = P.getIndexingValue();
+        Entry e = entries.get( key );
+        return e == null ? 0 : bound( e.objects, key );
+        }
+    
+    private int bound( int count, Object key )
+        {
+        TripleBunch b = predicates.get( key );
+        int triples = b == null ? 0 : b.size();
+        return Math.max( Math.min( count, triples ), triples == 0 ? 0 : 1 );
+        }
+    
+    /**
+        Answer true if some triple other than <code>t</code> has its subject and 
+        predicate, or if that would take too long to find out.
+    */
+    private boolean sharesSubject( Triple t )
+        {
+        Node S = t.getSubject(), P = t.getPredicate();
+        TripleBunch bySubject = subjects.get( S.getIndexingValue() );
+        TripleBunch byPredicate = predicates.get( P.getIndexingValue() );
+        if (bySubject == null || byPredicate == null) return false;
+        boolean scanSubject = bySubject.size() <= byPredicate.size();
+        TripleBunch b = scanSubject ? bySubject : byPredicate;
+        if (b.size() > scanLimit) return true;
+        Iterator<Triple> it = b.iterator();
+        while (it.hasNext())
+            {
+            Triple x = it.next();
+            if (x.equals( t )) continue;
+            if (scanSubject ? x.getPredicate().equals( P ) : x.getSubject().equals( S )) return true;
+            }
+        return false;
+        }
+    
+    /**
+        Answer true if some triple other than <code>t</code> has its object and 
+        predicate, or if that would take too long to find out.
+    */
+    private boolean sharesObject( Triple t )
+        {
+        Object O = t.getObject().getIndexingValue();
+        Node P = t.getPredicate();
+        TripleBunch byObject = objects.get( O );
+        TripleBunch byPredicate = predicates.get( P.getIndexingValue() );
+        if (byObject == null || byPredicate == null) return false;
+        boolean scanObject = byObject.size() <= byPredicate.size();
+        TripleBunch b = scanObject ? byObject : byPredicate;
+        if (b.size() > scanLimit) return true;
+        Iterator<Triple> it = b.iterator();
+        while (it.hasNext())
+            {
+            Triple x = it.next();
+            if (x.equals( t )) continue;
+            if (scanObject ? x.getPredicate().equals( P ) : x.getObject().getIndexingValue().equals( O )) return true;
+            }
+        return false;
+        }
+    }
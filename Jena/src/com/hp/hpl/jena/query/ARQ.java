@@ -225,7 +225,7 @@ public class ARQ
      * choosing the value.
      * <p/>
      * Operations currently affected by this symbol: <br/>
-     * ORDER BY, SPARQL Update, CONSTRUCT (optionally)
+     * ORDER BY, SPARQL Update, CONSTRUCT (optionally), hash joins (join and OPTIONAL when not done by substitution), MINUS and FILTER (NOT) EXISTS when done by hashing, GROUP BY (number of groups)
      * <p/>
      * TODO: Give a reasonable suggested value here.  10,000?
      * <p/>
@@ -233,9 +233,65 @@ public class ARQ
      */
     // Some possible additions to the list:
     // Sort: DISTINCT, merge joins<br/>
-    // Hash table: GROUP BY, MINUS, SERVICE, BINDINGS, and hash joins <br/>
+    // Hash table: SERVICE, BINDINGS <br/>
     public static final Symbol spillToDiskThreshold = ARQConstants.allocSymbol("spillToDiskThreshold") ;
     
+    /**
+     * Context key controlling whether MINUS and FILTER (NOT) EXISTS over a stream of solutions
+     * are executed as a hash anti-join.  The MINUS or EXISTS pattern is evaluated once, over the
+     * whole dataset, and its solutions are hashed (and spilled, see {@link #spillToDiskThreshold})
+     * instead of evaluating EXISTS once for each solution with that solution's bindings substituted.
+     * Worthwhile when there are many solutions to test; for a few solutions and a pattern that
+     * matches a lot of data, the substituted, index-driven evaluation is much cheaper.
+     * Default is "false".
+     */
+    public static final Symbol hashAntiJoin = ARQConstants.allocSymbol("hashAntiJoin") ;
+    
+    /**
+     * Context key controlling whether property paths of the form :p+, :p*, ^:p+ and ^:p* are
+     * evaluated using a transitive closure index of the property, built on first use and kept
+     * with the graph until the graph reports a change to the property.  Worthwhile when the same
+     * property is used in paths repeatedly over a graph that does not change often.
+     * The index is held in memory.  Only plain in-memory graphs are indexed:
+     * other graphs, such as unions, inference graphs and dataset views, can change without
+     * reporting it and are evaluated as usual.  Default is "false".
+     */
+    public static final Symbol pathClosureIndex = ARQConstants.allocSymbol("pathClosureIndex") ;
+
+    /**
+     * Context key for the number of input solutions SERVICE sends to the remote endpoint in one
+     * request, as a BINDINGS block joined with the service pattern, instead of one request
+     * per solution.  The endpoint must support BINDINGS.  Service patterns that are not
+     * simple to join remotely (LIMIT, OFFSET, grouping, or variables of the solutions
+     * hidden by a projection) are still sent one solution at a time.
+     * Default is 1 (no batching).
+     */
+    public static final Symbol serviceBatchSize = ARQConstants.allocSymbol("serviceBatchSize") ;
+
+    /**
+     * Context key for the number of SERVICE requests that one SERVICE operation may have
+     * outstanding at once.  Requests are made on a shared, bounded pool of threads and
+     * results are still returned in the order of the input solutions.
+     * Default is 1 (requests are made one at a time, by the thread executing the query).
+     */
+    public static final Symbol serviceParallelRequests = ARQConstants.allocSymbol("serviceParallelRequests") ;
+
+    /**
+     * Context key for the number of remote SERVICE results kept during one query execution
+     * so that an identical request (same endpoint, same query) is only made once.
+     * Each entry holds the complete results of a request, so the size should be small
+     * when remote results may be large.  Default is 0 (no cache).
+     */
+    public static final Symbol serviceCacheSize = ARQConstants.allocSymbol("serviceCacheSize") ;
+
+    /**
+     * Context key controlling whether FILTER expressions are compiled before execution:
+     * constant subexpressions are evaluated once and common conditions (comparisons with
+     * constants, regex with a constant pattern, bound, isIRI, ...) are tested directly on
+     * the bound terms.  The results are the same either way.  Default is "true".
+     */
+    public static final Symbol compileFilters = ARQConstants.allocSymbol("compileFilters") ;
+    
     // Optimizer controls.
     
     /** 
@@ -141,6 +141,20 @@ public class ModelFactory extends ModelFactoryBase
     public static Model createDefaultModel( ReificationStyle style )
         { return new ModelCom( Factory.createGraphMem( style ) ); }
 
+    /**
+        Answer a new memory-based model with the Standard reification style 
+        whose graph keeps triples dictionary-encoded (see GraphMemCompact): 
+        much less heap for large models, at some cost in query speed.
+    */
+    public static Model createCompactModel()
+        { return createCompactModel( Standard ); }
+
+    /**
+        Answer a new compact memory-based model with the given reification style.
+    */
+    public static Model createCompactModel( ReificationStyle style )
+        { return new ModelCom( Factory.createGraphMemCompact( style ) ); }
+
     /**
         Answer a read-only Model with all the statements of this Model and any
         statements "hidden" by reification. That model is dynamic, ie
@@ -348,14 +348,21 @@ public class BasicForwardRuleInfGraph extends BaseInfGraph implements ForwardRul
     @Override
     public void performDelete(Triple t) {
         version++;
+        boolean removeIsFromBase = false;
         if (fdata != null) {
             Graph data = fdata.getGraph();
             if (data != null) {
+                removeIsFromBase = data.contains(t);
                 data.delete(t);
             }
         }
         if (isPrepared) {
-            fdeductions.getGraph().delete(t);
+            if (!removeIsFromBase) {
+                fdeductions.getGraph().delete(t);
+            } else if (!engine.delete(t)) {
+                // The engine can't retract the consequences incrementally so recompute
+                isPrepared = false;
+            }
         }
     }
    
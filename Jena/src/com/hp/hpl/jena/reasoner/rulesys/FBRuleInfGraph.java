@@ -67,6 +67,9 @@ public class FBRuleInfGraph  extends BasicForwardRuleInfGraph implements Backwar
     /** The original rule set as supplied */
     protected List<Rule> rawRules;
     
+    /** Predicates of the triples asserted by the update in progress, null outside an update */
+    protected Set<Node> changedPredicates;
+    
     /** The rule list after possible extension by preprocessing hooks */
     protected List<Rule> rules;
     
@@ -205,8 +208,8 @@ public class FBRuleInfGraph  extends BasicForwardRuleInfGraph implements Backwar
             transitiveEngine = new TransitiveEngine(((FBRuleInfGraph)schemaGraph).transitiveEngine);
         } else {
             transitiveEngine = new TransitiveEngine(
-                new TransitiveGraphCache(ReasonerVocabulary.directSubClassOf.asNode(), RDFS.subClassOf.asNode()),
-                new TransitiveGraphCache(ReasonerVocabulary.directSubPropertyOf.asNode(), RDFS.subPropertyOf.asNode()));
+                TransitiveGraphCache.create(ReasonerVocabulary.directSubClassOf.asNode(), RDFS.subClassOf.asNode()),
+                TransitiveGraphCache.create(ReasonerVocabulary.directSubPropertyOf.asNode(), RDFS.subPropertyOf.asNode()));
         }
     }
     
@@ -335,6 +338,16 @@ public class FBRuleInfGraph  extends BasicForwardRuleInfGraph implements Backwar
         if (useTGCCaching) {
             transitiveEngine.add(t);
         }
+        if (changedPredicates != null) changedPredicates.add(t.getPredicate());
+    }
+
+    /**
+     * Assert a new triple in the deduction graph, bypassing any processing machinery.
+     */
+    @Override
+    public void silentAdd(Triple t) {
+        super.silentAdd(t);
+        if (changedPredicates != null) changedPredicates.add(t.getPredicate());
     }
 
     /**
@@ -636,30 +649,57 @@ public class FBRuleInfGraph  extends BasicForwardRuleInfGraph implements Backwar
     @Override
     public synchronized void performAdd(Triple t) {
         version++;
+        boolean isNew = ! fdata.getGraph().contains(t);
         fdata.getGraph().add(t);
+        changedPredicates = new HashSet<Node>();
+        changedPredicates.add(t.getPredicate());
         if (useTGCCaching) {
             if (transitiveEngine.add(t)) isPrepared = false;
         }
         if (isPrepared) {
-            boolean needReset = false;
-            if (preprocessorHooks != null && preprocessorHooks.size() > 0) {
-                if (preprocessorHooks.size() > 1) {
-                    for (Iterator<RulePreprocessHook> i = preprocessorHooks.iterator(); i.hasNext();) {
-                        if (i.next().needsRerun(this, t)) {
-                            needReset = true; break;
-                        }
+            if (hooksNeedRerun(t)) {
+                isPrepared = false;
+            } else if (isNew) {
+                engine.add(t);
+            }
+        }
+        if (isPrepared && isMonotonic(rules)) {
+            // Only the tabled goals which depend on the new triples need to be discarded
+            bEngine.invalidate(changedPredicates);
+        } else {
+            bEngine.reset();
+        }
+        changedPredicates = null;
+    }
+    
+    /**
+     * Return true if none of the rules can remove triples.
+     */
+    private static boolean isMonotonic(List<Rule> rules) {
+        for (Iterator<Rule> i = rules.iterator(); i.hasNext(); ) {
+            if (!i.next().isMonotonic()) return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Return true if any of the preprocessing hooks need to be rerun
+     * as a result of a change to the given triple.
+     */
+    private boolean hooksNeedRerun(Triple t) {
+        if (preprocessorHooks != null && preprocessorHooks.size() > 0) {
+            if (preprocessorHooks.size() > 1) {
+                for (Iterator<RulePreprocessHook> i = preprocessorHooks.iterator(); i.hasNext();) {
+                    if (i.next().needsRerun(this, t)) {
+                        return true;
                     }
-                } else {
-                    needReset = preprocessorHooks.get(0).needsRerun(this, t);
                 }
-            }
-            if (needReset) {
-                isPrepared = false;
+                return false;
             } else {
-                engine.add(t);
+                return preprocessorHooks.get(0).needsRerun(this, t);
             }
         }
-        bEngine.reset();
+        return false;
     }
 
     /** 
@@ -679,14 +719,15 @@ public class FBRuleInfGraph  extends BasicForwardRuleInfGraph implements Backwar
             }
         } 
         // Full incremental remove processing requires reference counting
-        // of all deductions. It's not clear the cost of maintaining the
-        // reference counts is worth it so the current implementation
-        // forces a recompute if any external deletes are performed.
-        if (isPrepared) {
-            bEngine.deleteAllRules();
-            isPrepared = false;
-            // Re-enable the code below when/if ref counting is added and remove above
-            // if (removeIsFromBase) engine.delete(t);
+        // of all deductions. The RETE engine can maintain those for some
+        // rule sets (see RETEEngine.incrementalDeletes), otherwise, or if the
+        // transitive caches or preprocessing hooks are involved, we force a recompute. Deleting a triple which
+        // was only deduced has no lasting effect so needs no processing.
+        if (isPrepared && removeIsFromBase) {
+            if (useTGCCaching || hooksNeedRerun(t) || !engine.delete(t)) {
+                bEngine.deleteAllRules();
+                isPrepared = false;
+            }
         }
         bEngine.reset();
     }
@@ -942,6 +983,22 @@ public class FBRuleInfGraph  extends BasicForwardRuleInfGraph implements Backwar
         bEngine.printProfile();
     }
     
+    /**
+     * Set limits on the number of completed goals, and on their total number
+     * of results, which the LP engine keeps tabled. 0 means no limit.
+     */
+    public void setLPTableLimits(int maxGoals, long maxResults) {
+        bEngine.setTableLimits(maxGoals, maxResults);
+    }
+    
+    /**
+     * Return the LP engine which answers the backward queries, giving access
+     * to its tabling statistics.
+     */
+    public LPBRuleEngine getLPEngine() {
+        return bEngine;
+    }
+    
 //  =======================================================================
 //  Implement Filter signature
  
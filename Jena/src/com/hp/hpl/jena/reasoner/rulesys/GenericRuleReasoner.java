@@ -70,6 +70,9 @@ public class GenericRuleReasoner extends FBRuleReasoner {
     /** Constant - the mode description for pure forward chaining, using RETE engine */
     public static final RuleMode FORWARD_RETE = new RuleMode("forwardRETE");
     
+    /** Constant - the mode description for pure forward chaining, using set-at-a-time semi-naive evaluation */
+    public static final RuleMode FORWARD_SEMINAIVE = new RuleMode("forwardSemiNaive");
+    
     /** Constant - the mode description for pure backward chaining */
     public static final RuleMode BACKWARD = new RuleMode("backward");
     
@@ -291,12 +294,14 @@ public class GenericRuleReasoner extends FBRuleReasoner {
                 mode = FORWARD;
             } else if (value.equals(FORWARD_RETE.name)) {
                 mode = FORWARD_RETE;
+            } else if (value.equals(FORWARD_SEMINAIVE.name)) {
+                mode = FORWARD_SEMINAIVE;
             } else if (value.equals(BACKWARD.name)) {
                 mode = BACKWARD;
             } else if (value.equals(HYBRID.name)) {
                 mode = HYBRID;
             } else {
-                throw new IllegalParameterException("PROPruleMode can only be 'forward'm 'forwardRETE', 'backward', 'hybrid', not " + value);
+                throw new IllegalParameterException("PROPruleMode can only be 'forward', 'forwardRETE', 'forwardSemiNaive', 'backward', 'hybrid', not " + value);
             }
             
         } else if (parameter.equals(ReasonerVocabulary.PROPruleSet)) {
@@ -330,6 +335,9 @@ public class GenericRuleReasoner extends FBRuleReasoner {
         } else if (mode == FORWARD_RETE) {
                 graph = new RETERuleInfGraph(this, rules, null, tbox);
                 ((InfGraph)graph).prepare();
+        } else if (mode == FORWARD_SEMINAIVE) {
+            graph = new SemiNaiveRuleInfGraph(this, rules, null, tbox);
+            ((InfGraph)graph).prepare();
         } else if (mode == BACKWARD) {
             graph = tbox;
         } else {
@@ -373,6 +381,10 @@ public class GenericRuleReasoner extends FBRuleReasoner {
                 graph = new RETERuleInfGraph(this, rules, schemaArg);
                 ((BasicForwardRuleInfGraph)graph).setTraceOn(traceOn);
                 ((BasicForwardRuleInfGraph)graph).setFunctorFiltering(filterFunctors);
+        } else if (mode == FORWARD_SEMINAIVE) {
+            graph = new SemiNaiveRuleInfGraph(this, rules, schemaArg);
+            ((BasicForwardRuleInfGraph)graph).setTraceOn(traceOn);
+            ((BasicForwardRuleInfGraph)graph).setFunctorFiltering(filterFunctors);
         } else if (mode == BACKWARD) {
             graph = new LPBackwardRuleInfGraph(this, getBruleStore(), data, schemaArg);
             ((LPBackwardRuleInfGraph)graph).setTraceOn(traceOn);
@@ -207,7 +207,7 @@ public class LPBackwardRuleInfGraph extends BaseInfGraph implements BackwardRule
     @Override
     public synchronized void performAdd(Triple t) {
         version++;
-        engine.checkSafeToUpdate();
+        engine.invalidate(Collections.singleton(t.getPredicate()));
         fdata.getGraph().add(t);
         isPrepared = false;
     }
@@ -218,7 +218,7 @@ public class LPBackwardRuleInfGraph extends BaseInfGraph implements BackwardRule
     @Override
     public synchronized void performDelete(Triple t) {
         version++;
-        engine.checkSafeToUpdate();
+        engine.invalidate(Collections.singleton(t.getPredicate()));
         fdata.getGraph().delete(t);
         isPrepared = false;
     }
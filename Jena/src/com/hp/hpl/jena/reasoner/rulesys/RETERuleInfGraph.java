@@ -95,6 +95,7 @@ public class RETERuleInfGraph extends BasicForwardRuleInfGraph {
     @Override
     public synchronized void performAdd(Triple t) {
         if (!isPrepared) prepare();
+        if (fdata.getGraph().contains(t)) return;
         fdata.getGraph().add(t);
         engine.add(t);
     }
@@ -105,14 +106,19 @@ public class RETERuleInfGraph extends BasicForwardRuleInfGraph {
     @Override
     public void performDelete(Triple t) {
         if (!isPrepared) prepare();
+        boolean present = fdeductions.getGraph().contains(t);
         if (fdata != null) {
             Graph data = fdata.getGraph();
             if (data != null) {
+                present |= data.contains(t);
                 data.delete(t);
             }
         }
-        engine.delete(t);
-        fdeductions.getGraph().delete(t);
+        // The engine retracts any deductions that depended on the triple and
+        // rederives the triple itself if it is still supported
+        if (present && !engine.delete(t)) {
+            isPrepared = false;
+        }
     }
 
 }
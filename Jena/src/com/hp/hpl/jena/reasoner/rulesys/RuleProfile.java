@@ -0,0 +1,382 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.reasoner.rulesys;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per-rule execution statistics shared by the forward (brute force, RETE and
+ * semi-naive) and backward (LP) rule engines. For each rule we record the number
+ * of firings, the time spent matching the body and running the head, the time
+ * spent in body builtins, the number of deductions made or rejected as
+ * duplicates and, for the RETE engine, the tokens joined and the join matches
+ * found in the rule's network.
+ * <p>
+ * Profiling is global and off by default. While it is off the engines only pay
+ * for a check of {@link #getActive()} at each instrumentation point. Calling
+ * {@link #enable()} starts a profile and registers it with the platform MBean
+ * server under {@link #MBEAN_NAME}, if JMX is available.
+ * </p><p>
+ * Rules are identified by name, so the instances of a named rule made on the
+ * fly (such as the backward rules instantiated by a hybrid rule set) share
+ * one entry. Unnamed rules are identified by their clauses. At most
+ * {@link #maxRules} rules are profiled separately, anything recorded for
+ * further rules is added to a single entry for the remaining rules.
+ * </p><p>
+ * Not every engine can attribute every cost to a rule. The RETE engine pushes
+ * tokens through the network a triple at a time so its match time only covers
+ * the execution of each rule's head, the work of its join nodes is reported
+ * as the counts of tokens and matches. The LP engine interleaves the execution of
+ * rules so only builtin time is recorded for it, and its deductions are the
+ * successful exits from a rule, which are not checked for duplicates.
+ * </p>
+ */
+public class RuleProfile implements RuleProfileMBean {
+
+    /** The JMX object name under which the active profile is registered */
+    public static final String MBEAN_NAME = "com.hp.hpl.jena.reasoner:type=RuleProfile";
+    
+    /** The profile currently being collected, null if profiling is off */
+    private static volatile RuleProfile active = null;
+    
+    /** The name under which the active profile was registered, null if it wasn't */
+    private static ObjectName registeredName = null;
+    
+    /** The maximum number of rules profiled separately */
+    public static int maxRules = 10000;
+    
+    /** The key and name of the entry which collects the rules beyond maxRules */
+    public static final String OTHER_RULES = "(other rules)";
+    
+    /** The statistics for each rule, keyed by rule name or, for unnamed rules, the rule */
+    protected final ConcurrentHashMap<Object, RuleStats> stats = new ConcurrentHashMap<Object, RuleStats>();
+    
+    static Logger logger = LoggerFactory.getLogger(RuleProfile.class);
+    
+    /**
+     * Return the profile currently being collected, or null if profiling is off.
+     */
+    public static RuleProfile getActive() {
+        return active;
+    }
+    
+    /**
+     * Switch on rule profiling, if it is not on already, and return the active profile.
+     */
+    public static synchronized RuleProfile enable() {
+        if (active == null) {
+            active = new RuleProfile();
+            register(active);
+        }
+        return active;
+    }
+    
+    /**
+     * Switch off rule profiling, discarding the active profile.
+     */
+    public static synchronized void disable() {
+        if (active == null) return;
+        active = null;
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (Exception e) {
+                logger.warn("Failed to unregister rule profile: " + e.getMessage());
+            }
+            registeredName = null;
+        }
+    }
+    
+    /**
+     * Register a profile with the platform MBean server, replacing any
+     * earlier registration. In environments without JMX the profile is
+     * still collected but is only available programmatically.
+     */
+    private static void register(RuleProfile profile) {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (mbs.isRegistered(name)) {
+                mbs.unregisterMBean(name);
+            }
+            mbs.registerMBean(profile, name);
+            registeredName = name;
+        } catch (Throwable e) {
+            logger.warn("Failed to register rule profile with JMX: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Return the statistics for the given rule, creating them if necessary.
+     * Once {@link #maxRules} rules are being profiled the statistics for
+     * any new rule are those shared by all the remaining rules.
+     */
+    public RuleStats getStats(Rule rule) {
+        String name = rule.getName();
+        Object key = (name == null) ? rule : name;
+        RuleStats s = stats.get(key);
+        if (s == null) {
+            if (stats.size() >= maxRules) {
+                key = OTHER_RULES;
+                s = stats.get(key);
+                if (s != null) return s;
+                rule = null;
+            }
+            RuleStats created = new RuleStats(rule);
+            s = stats.putIfAbsent(key, created);
+            if (s == null) s = created;
+        }
+        return s;
+    }
+    
+    /**
+     * Return the statistics for all rules, most expensive first.
+     */
+    public List<RuleStats> listStats() {
+        List<RuleStats> result = new ArrayList<RuleStats>(stats.values());
+        Collections.sort(result);
+        return result;
+    }
+    
+    /**
+     * Record one firing of the rule.
+     */
+    public void recordFiring(Rule rule) {
+        if (rule != null) getStats(rule).firings.incrementAndGet();
+    }
+    
+    /**
+     * Record time spent matching the body of the rule and running its head.
+     * Time spent in body builtins is not included, the engines record that
+     * separately with {@link #recordBuiltinTime}.
+     */
+    public void recordTime(Rule rule, long nanos) {
+        if (rule != null) getStats(rule).nanos.addAndGet(nanos);
+    }
+    
+    /**
+     * Record time spent evaluating the body builtins of the rule.
+     */
+    public void recordBuiltinTime(Rule rule, long nanos) {
+        if (rule != null) getStats(rule).builtinNanos.addAndGet(nanos);
+    }
+    
+    /**
+     * Record a token passed to a join node in the network of the rule.
+     * @param matches the number of partners the token was joined with
+     */
+    public void recordJoin(Rule rule, long matches) {
+        if (rule == null) return;
+        RuleStats s = getStats(rule);
+        s.joinTokens.incrementAndGet();
+        if (matches > 0) s.joinMatches.addAndGet(matches);
+    }
+    
+    /**
+     * Record a deduction made by the rule.
+     * @param isNew true if the triple was added, false if it was already known
+     */
+    public void recordDeduction(Rule rule, boolean isNew) {
+        if (rule == null) return;
+        if (isNew) {
+            getStats(rule).deductions.incrementAndGet();
+        } else {
+            getStats(rule).duplicates.incrementAndGet();
+        }
+    }
+    
+//  =======================================================================
+//  MBean interface
+    
+    @Override
+    public int getRuleCount() {
+        return stats.size();
+    }
+    
+    @Override
+    public long getRuleFirings() {
+        long total = 0;
+        for (RuleStats s : stats.values()) total += s.getFirings();
+        return total;
+    }
+    
+    @Override
+    public long getDeductions() {
+        long total = 0;
+        for (RuleStats s : stats.values()) total += s.getDeductions();
+        return total;
+    }
+    
+    @Override
+    public long getDuplicateDeductions() {
+        long total = 0;
+        for (RuleStats s : stats.values()) total += s.getDuplicates();
+        return total;
+    }
+    
+    @Override
+    public long getJoinTokens() {
+        long total = 0;
+        for (RuleStats s : stats.values()) total += s.getJoinTokens();
+        return total;
+    }
+    
+    @Override
+    public long getJoinMatches() {
+        long total = 0;
+        for (RuleStats s : stats.values()) total += s.getJoinMatches();
+        return total;
+    }
+    
+    @Override
+    public long getMatchTimeMillis() {
+        long total = 0;
+        for (RuleStats s : stats.values()) total += s.getMatchNanos();
+        return total / 1000000;
+    }
+    
+    @Override
+    public long getBuiltinTimeMillis() {
+        long total = 0;
+        for (RuleStats s : stats.values()) total += s.getBuiltinNanos();
+        return total / 1000000;
+    }
+    
+    @Override
+    public String[] getRuleProfile() {
+        List<RuleStats> sorted = listStats();
+        String[] result = new String[sorted.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sorted.get(i).toString();
+        }
+        return result;
+    }
+    
+    @Override
+    public void reset() {
+        stats.clear();
+    }
+    
+    /**
+     * The statistics recorded for a single rule.
+     */
+    public static class RuleStats implements Comparable<RuleStats> {
+        /** The rule being profiled, the first instance seen, null for the remaining rules */
+        protected final Rule rule;
+        
+        /** Number of firings */
+        protected final AtomicLong firings = new AtomicLong();
+        
+        /** Time spent matching the body and running the head, excluding builtins */
+        protected final AtomicLong nanos = new AtomicLong();
+        
+        /** Time spent in body builtins */
+        protected final AtomicLong builtinNanos = new AtomicLong();
+        
+        /** Number of new triples deduced */
+        protected final AtomicLong deductions = new AtomicLong();
+        
+        /** Number of deduced triples which were already known */
+        protected final AtomicLong duplicates = new AtomicLong();
+        
+        /** Number of tokens passed to the join nodes of the rule */
+        protected final AtomicLong joinTokens = new AtomicLong();
+        
+        /** Number of partners found for those tokens */
+        protected final AtomicLong joinMatches = new AtomicLong();
+        
+        /** Constructor */
+        RuleStats(Rule rule) {
+            this.rule = rule;
+        }
+        
+        /** Return the rule being profiled, null for the entry collecting the remaining rules */
+        public Rule getRule() {
+            return rule;
+        }
+        
+        /** Return the number of firings */
+        public long getFirings() {
+            return firings.get();
+        }
+        
+        /** Return the time spent matching the body and running the head, excluding builtins */
+        public long getMatchNanos() {
+            return nanos.get();
+        }
+        
+        /** Return the time spent in body builtins */
+        public long getBuiltinNanos() {
+            return builtinNanos.get();
+        }
+        
+        /** Return the number of new triples deduced */
+        public long getDeductions() {
+            return deductions.get();
+        }
+        
+        /** Return the number of deduced triples which were already known */
+        public long getDuplicates() {
+            return duplicates.get();
+        }
+        
+        /** Return the number of tokens passed to the join nodes of the rule */
+        public long getJoinTokens() {
+            return joinTokens.get();
+        }
+        
+        /** Return the number of partners found for the tokens passed to the join nodes */
+        public long getJoinMatches() {
+            return joinMatches.get();
+        }
+        
+        /** Ordering, most expensive first, then most fired */
+        @Override
+        public int compareTo(RuleStats other) {
+            long cost = getMatchNanos() + getBuiltinNanos();
+            long otherCost = other.getMatchNanos() + other.getBuiltinNanos();
+            if (cost != otherCost) return (cost > otherCost) ? -1 : 1;
+            long f = getFirings();
+            long otherF = other.getFirings();
+            return (f > otherF) ? -1 : ( (f == otherF) ? 0 : 1);
+        }
+        
+        /** Printable summary */
+        @Override
+        public String toString() {
+            return (rule == null ? OTHER_RULES : rule.toShortString()) 
+                    + " fired=" + getFirings() 
+                    + " deductions=" + getDeductions() 
+                    + " duplicates=" + getDuplicates()
+                    + " tokens=" + getJoinTokens()
+                    + " joins=" + getJoinMatches()
+                    + " match=" + (getMatchNanos() / 1000000) + "ms"
+                    + " builtins=" + (getBuiltinNanos() / 1000000) + "ms";
+        }
+    }
+}
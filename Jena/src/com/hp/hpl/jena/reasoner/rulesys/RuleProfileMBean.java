@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.reasoner.rulesys;
+
+/**
+ * JMX management interface for the rule execution profile collected
+ * by {@link RuleProfile}. Times are totals over all rules in milliseconds.
+ */
+public interface RuleProfileMBean {
+
+    /** Number of distinct rules for which something has been recorded */
+    int getRuleCount();
+    
+    /** Total number of rule firings (backward rules: clause entries) */
+    long getRuleFirings();
+    
+    /** Total number of new triples deduced (backward rules: successful rule exits) */
+    long getDeductions();
+    
+    /** Total number of deductions rejected because the triple was already known */
+    long getDuplicateDeductions();
+    
+    /** Total number of tokens passed to the join nodes of RETE rule networks */
+    long getJoinTokens();
+    
+    /** Total number of join partners found for those tokens */
+    long getJoinMatches();
+    
+    /** Total time spent matching rule bodies and running heads, excluding builtins */
+    long getMatchTimeMillis();
+    
+    /** Total time spent evaluating body builtins */
+    long getBuiltinTimeMillis();
+    
+    /** One line per rule, most expensive first */
+    String[] getRuleProfile();
+    
+    /** Discard all the statistics collected so far */
+    void reset();
+}
@@ -71,6 +71,9 @@ public class FRuleEngine implements FRuleEngineI {
     /** True if we have processed the axioms in the rule set */
     boolean processedAxioms = false;
     
+    /** Time spent in body builtins while profiling, to separate it from match time */
+    long builtinNanos = 0;
+    
     protected static Logger logger = LoggerFactory.getLogger(FRuleEngine.class);
     
 //  =======================================================================
@@ -227,6 +230,7 @@ public class FRuleEngine implements FRuleEngineI {
      */
     public void addSet(BFRuleContext context) {
         Triple t;
+        RuleProfile profile = RuleProfile.getActive();
         while ((t = context.getNextTriple()) != null) {
             if (infGraph.shouldTrace()) {
                 logger.info("Processing: " + PrintUtil.print(t));
@@ -244,7 +248,14 @@ public class FRuleEngine implements FRuleEngineI {
                 if (match(trigger, t, context.getEnvStack())) {
                     nRulesTriggered++;
                     context.setRule(cp.rule);
-                    if (matchRuleBody(cp.index, context)) {
+                    long start = (profile == null) ? 0L : System.nanoTime();
+                    long builtinsBefore = builtinNanos;
+                    boolean fired = matchRuleBody(cp.index, context);
+                    if (profile != null) {
+                        long builtins = builtinNanos - builtinsBefore;
+                        profile.recordTime(cp.rule, System.nanoTime() - start - builtins);
+                    }
+                    if (fired) {
                         firedRules.add(cp.rule);
                         nRulesFired++;
                     }
@@ -411,15 +422,23 @@ public class FRuleEngine implements FRuleEngineI {
         int index = clauses.size() - 1;
         if (index == -1) {
             // Check any non-pattern clauses 
-            for (int i = 0; i < rule.bodyLength(); i++) {
+            RuleProfile profile = RuleProfile.getActive();
+            long start = (profile == null) ? 0L : System.nanoTime();
+            boolean passed = true;
+            for (int i = 0; passed && i < rule.bodyLength(); i++) {
                 Object clause = rule.getBodyElement(i);
                 if (clause instanceof Functor) {
                     // Fire a built in
-                    if (!((Functor)clause).evalAsBodyClause(context)) {
-                        return false;       // guard failed
-                    }
+                    passed = ((Functor)clause).evalAsBodyClause(context);
                 }
             }
+            if (profile != null) {
+                long elapsed = System.nanoTime() - start;
+                builtinNanos += elapsed;
+                profile.recordBuiltinTime(rule, elapsed);
+                if (passed) profile.recordFiring(rule);
+            }
+            if (!passed) return false;       // guard failed
             // Now fire the rule
             if (infGraph.shouldTrace()) {
                 logger.info("Fired rule: " + rule.toShortString() + " = " + rule.instantiate(env));
@@ -448,6 +467,9 @@ public class FRuleEngine implements FRuleEngineI {
                             if (recordDerivations) {
                                 infGraph.logDerivation(t, new RuleDerivation(rule, t, matchList, infGraph));
                             }
+                            if (profile != null) profile.recordDeduction(rule, true);
+                        } else if (profile != null) {
+                            profile.recordDeduction(rule, false);
                         }
                     }
                 } else if (hClause instanceof Functor) {
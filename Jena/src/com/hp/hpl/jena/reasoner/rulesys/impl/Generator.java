@@ -158,6 +158,7 @@ public class Generator implements LPAgendaEntry, LPInterpreterContext {
      */
     public void setComplete() {
         if (!isComplete()) {
+            LPBRuleEngine engine = interpreter.getEngine();
             interpreter.close();
             interpreter = null;
             resultSet = null;
@@ -172,6 +173,7 @@ public class Generator implements LPAgendaEntry, LPInterpreterContext {
             }
             generatingCPs = null;
             consumingCPs.clear();
+            engine.recordCompletion(this);
         }
     }
     
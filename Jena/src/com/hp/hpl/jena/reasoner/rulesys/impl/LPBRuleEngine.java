@@ -26,6 +26,8 @@ import com.hp.hpl.jena.util.iterator.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * LP version of the core backward chaining engine. For each parent inference
@@ -61,6 +63,34 @@ public class LPBRuleEngine {
      *  This is here so that partial goal state can be shared across multiple queries. */
     protected HashMap<TriplePattern, Generator> tabledGoals = new HashMap<TriplePattern, Generator>();
     
+    /** Results of the tabled goals whose generators have completed. These results
+     *  can no longer change so they are shared by concurrent queries without locking the engine. */
+    protected volatile ConcurrentHashMap<TriplePattern, CompletedGoal> completedGoals = new ConcurrentHashMap<TriplePattern, CompletedGoal>();
+    
+    /** The total number of results held by the completed goals */
+    protected long tabledResults = 0;
+    
+    /** The maximum number of completed goals to keep tabled, 0 for no limit */
+    protected int maxCompletedGoals = defaultMaxCompletedGoals;
+    
+    /** The maximum number of results of completed goals to keep tabled, 0 for no limit */
+    protected long maxTabledResults = defaultMaxTabledResults;
+    
+    /** Clock used to order completed goals by their last use */
+    protected final AtomicLong useClock = new AtomicLong();
+    
+    /** Statistics - tabled calls answered by an existing generator */
+    protected final AtomicLong tableHits = new AtomicLong();
+    
+    /** Statistics - tabled calls which had to start a new generator */
+    protected final AtomicLong tableMisses = new AtomicLong();
+    
+    /** Statistics - completed goals evicted to keep the table within its limits */
+    protected final AtomicLong tableEvictions = new AtomicLong();
+    
+    /** Statistics - tabled goals discarded because data they depend on changed */
+    protected final AtomicLong tableInvalidations = new AtomicLong();
+    
     /** Set of generators waiting to be run */
     protected LinkedList<LPAgendaEntry> agenda = new LinkedList<LPAgendaEntry>();
 //    protected List agenda = new ArrayList();
@@ -73,6 +103,16 @@ public class LPBRuleEngine {
      *  If set to 0 then checks will be done in the generator each time. */
     public static final int CYCLES_BETWEEN_COMPLETION_CHECK = 3;
     
+    /** The default limit on the number of completed goals kept tabled by new engines, 0 for no limit */
+    public static int defaultMaxCompletedGoals = 0;
+    
+    /** The default limit on the number of completed goal results kept tabled by new engines, 0 for no limit */
+    public static long defaultMaxTabledResults = 0;
+    
+    /** When the table limits are exceeded completed goals are evicted until the table
+     *  is within this fraction of the limits, so that evictions are done in batches */
+    private static final double EVICTION_TARGET = 0.9;
+    
     static Logger logger = LoggerFactory.getLogger(LPBRuleEngine.class);
     
 //  =======================================================================
@@ -100,12 +140,31 @@ public class LPBRuleEngine {
 //  =======================================================================
 //  Control methods
     
+    /**
+     * Answer a query. If the goal has already been completely evaluated by an
+     * earlier query the tabled results are returned directly, which needs no
+     * lock on the engine so any number of such queries can run in parallel.
+     * Otherwise a new interpreter is started to answer the query.
+     * @param goal the query to be processed
+     * @return a closable iterator over the query results
+     */
+    public ExtendedIterator<Triple> find(TriplePattern goal) {
+        CompletedGoal completed = completedGoalFor(goal);
+        if (completed != null) {
+            tableHits.incrementAndGet();
+            completed.lastUsed = useClock.incrementAndGet();
+            // Same answers as the top level interpreter: the raw data then the tabled results
+            return infGraph.findDataMatches(goal).andThen(WrappedIterator.create(completed.results.iterator()));
+        }
+        return startQuery(goal);
+    }
+    
     /**
      * Start a new interpreter running to answer a query.
      * @param goal the query to be processed
      * @return a closable iterator over the query results
      */
-    public synchronized ExtendedIterator<Triple> find(TriplePattern goal) {
+    protected synchronized ExtendedIterator<Triple> startQuery(TriplePattern goal) {
         LPInterpreter interpreter = new LPInterpreter(this, goal);
         activeInterpreters.add(interpreter);
         return WrappedIterator.create( new LPTopGoalIterator(interpreter));
@@ -117,9 +176,89 @@ public class LPBRuleEngine {
     public synchronized void reset() {
         checkSafeToUpdate();
         tabledGoals = new HashMap<TriplePattern, Generator>();
+        completedGoals = new ConcurrentHashMap<TriplePattern, CompletedGoal>();
+        tabledResults = 0;
         agenda.clear();
     }
     
+    /**
+     * Clear the tabled results which might be changed by a change to data
+     * with any of the given predicates, leaving the other completed goals
+     * in place. Goals which are still being evaluated are always cleared.
+     * @param predicates the predicates of the added or removed triples
+     */
+    public synchronized void invalidate(Collection<Node> predicates) {
+        Set<Node> affected = ruleStore.dependentPredicates(predicates);
+        if (affected == null) {
+            tableInvalidations.addAndGet(tabledGoals.size());
+            reset();
+            return;
+        }
+        checkSafeToUpdate();
+        for (Iterator<Map.Entry<TriplePattern, Generator>> i = tabledGoals.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<TriplePattern, Generator> entry = i.next();
+            Node predicate = entry.getKey().getPredicate();
+            if (!entry.getValue().isComplete() || predicate.isVariable() || affected.contains(predicate)) {
+                i.remove();
+                CompletedGoal completed = completedGoals.remove(entry.getKey());
+                if (completed != null) tabledResults -= completed.results.size();
+                tableInvalidations.incrementAndGet();
+            }
+        }
+        agenda.clear();
+    }
+    
+    /**
+     * Set limits on the size of the table of completed goals. When a query
+     * finishes with a limit exceeded the least recently used completed goals
+     * are evicted, goals which are still being evaluated are never evicted.
+     * @param maxGoals the maximum number of completed goals, 0 for no limit
+     * @param maxResults the maximum total number of results of completed goals, 0 for no limit
+     */
+    public synchronized void setTableLimits(int maxGoals, long maxResults) {
+        maxCompletedGoals = maxGoals;
+        maxTabledResults = maxResults;
+        if (isOverLimit(1.0)) evictCompleted();
+    }
+    
+    /** Return the number of tabled calls answered by an existing generator */
+    public long getTableHits() {
+        return tableHits.get();
+    }
+    
+    /** Return the number of tabled calls which had to start a new generator */
+    public long getTableMisses() {
+        return tableMisses.get();
+    }
+    
+    /** Return the number of completed goals evicted to keep the table within its limits */
+    public long getTableEvictions() {
+        return tableEvictions.get();
+    }
+    
+    /** Return the number of tabled goals discarded because data they depend on changed */
+    public long getTableInvalidations() {
+        return tableInvalidations.get();
+    }
+    
+    /** Return the number of completed goals currently tabled */
+    public int getCompletedGoalCount() {
+        return completedGoals.size();
+    }
+    
+    /** Return the total number of results held by the completed goals */
+    public synchronized long getTabledResultCount() {
+        return tabledResults;
+    }
+    
+    /** Reset the table statistics counters */
+    public void resetTableStats() {
+        tableHits.set(0);
+        tableMisses.set(0);
+        tableEvictions.set(0);
+        tableInvalidations.set(0);
+    }
+    
     /**
      * Add a single rule to the store.
      * N.B. This will invalidate current partial results and the engine
@@ -212,6 +351,11 @@ public class LPBRuleEngine {
     /** Detatch the given engine from the list of active engines for this inf graph */
     public synchronized void detach(LPInterpreter engine) {
         activeInterpreters.remove(engine);
+        if (engine.getContext() instanceof LPTopGoalIterator && isOverLimit(1.0)) {
+            // Enforce the table limits between queries, evicting goals in the middle
+            // of a query could force its subgoals to be evaluated over and over
+            evictCompleted();
+        }
     }
     
     /**
@@ -258,11 +402,14 @@ public class LPBRuleEngine {
     public synchronized Generator generatorFor(TriplePattern goal, List<RuleClauseCode> clauses) {
         Generator generator = tabledGoals.get(goal);
         if (generator == null) {
+            tableMisses.incrementAndGet();
             LPInterpreter interpreter = new LPInterpreter(this, goal, clauses, false);
             activeInterpreters.add(interpreter);
             generator = new Generator(interpreter, goal);
             schedule(generator);
             tabledGoals.put(goal, generator);
+        } else {
+            noteHit(goal);
         }
         return generator;
     }
@@ -275,15 +422,100 @@ public class LPBRuleEngine {
     public synchronized Generator generatorFor(TriplePattern goal) {
         Generator generator = tabledGoals.get(goal);
         if (generator == null) {
+            tableMisses.incrementAndGet();
             LPInterpreter interpreter = new LPInterpreter(this, goal, false);
             activeInterpreters.add(interpreter);
             generator = new Generator(interpreter, goal);
             schedule(generator);
             tabledGoals.put(goal, generator);
+        } else {
+            noteHit(goal);
         }
         return generator;
     }
     
+    /**
+     * Record that a generator has completed so that later queries for its goal
+     * can share its results. Generators left over from before a reset are ignored.
+     * <p>Should be called from within a synchronized block.
+     */
+    public void recordCompletion(Generator generator) {
+        if (tabledGoals.get(generator.goal) == generator) {
+            CompletedGoal completed = new CompletedGoal(generator);
+            completed.lastUsed = useClock.incrementAndGet();
+            completedGoals.put(generator.goal, completed);
+            tabledResults += completed.results.size();
+        }
+    }
+    
+    /**
+     * Record a tabled call answered by an existing generator.
+     */
+    private void noteHit(TriplePattern goal) {
+        tableHits.incrementAndGet();
+        CompletedGoal completed = completedGoals.get(goal);
+        if (completed != null) completed.lastUsed = useClock.incrementAndGet();
+    }
+    
+    /**
+     * Return true if the completed goals exceed the given fraction of the table limits.
+     */
+    private boolean isOverLimit(double fraction) {
+        return (maxCompletedGoals > 0 && completedGoals.size() > maxCompletedGoals * fraction)
+            || (maxTabledResults > 0 && tabledResults > maxTabledResults * fraction);
+    }
+    
+    /**
+     * Evict the least recently used completed goals until the table is
+     * back within the eviction target.
+     * <p>Should be called from within a synchronized block.
+     */
+    private void evictCompleted() {
+        // Sort on a copy of the use stamps, lock free queries may update them during the sort
+        List<UseStamp> entries = new ArrayList<UseStamp>(completedGoals.size());
+        for (Iterator<CompletedGoal> i = completedGoals.values().iterator(); i.hasNext(); ) {
+            entries.add(new UseStamp(i.next()));
+        }
+        Collections.sort(entries);
+        for (Iterator<UseStamp> i = entries.iterator(); i.hasNext() && isOverLimit(EVICTION_TARGET); ) {
+            CompletedGoal completed = i.next().completed;
+            completedGoals.remove(completed.goal);
+            tabledGoals.remove(completed.goal);
+            tabledResults -= completed.results.size();
+            tableEvictions.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Return the completed generator results which answer the given top
+     * level goal, or null if there is no such generator. The lookup uses the
+     * same key as the tabled call the top level interpreter would make, so only
+     * goals made up of ground nodes and wildcards are handled.
+     */
+    private CompletedGoal completedGoalFor(TriplePattern goal) {
+        ConcurrentHashMap<TriplePattern, CompletedGoal> completed = completedGoals;
+        if (completed.isEmpty()) return null;
+        Node s = tableKey(goal.getSubject());
+        Node p = tableKey(goal.getPredicate());
+        Node o = tableKey(goal.getObject());
+        if (s == null || p == null || o == null) return null;
+        return completed.get(new TriplePattern(s, p, o));
+    }
+    
+    /**
+     * Map a node of a top level goal to the corresponding node of a table key,
+     * returns null if the node can't be handled without running the interpreter.
+     */
+    private static Node tableKey(Node n) {
+        if (n == Node.ANY || n == Node_RuleVariable.WILD) {
+            return Node_RuleVariable.WILD;
+        } else if (n.isConcrete() && !Functor.isFunctor(n)) {
+            return n;
+        } else {
+            return null;
+        }
+    }
+    
     /**
      * Register that a generator or specific generator state (Consumer choice point)
      * is now ready to run.
@@ -359,9 +591,14 @@ public class LPBRuleEngine {
 //  Profiling support
    
     /**
-     * Record a rule invocation in the profile count.
+     * Record a rule invocation in the profile count and in the global
+     * {@link RuleProfile}, if one is active.
      */
     public void incrementProfile(RuleClauseCode clause) {
+        RuleProfile global = RuleProfile.getActive();
+        if (global != null) {
+            global.recordFiring(clause.getRule());
+        }
         if (profile != null) {
             String index = clause.toString();
             Count count = profile.get(index);
@@ -399,6 +636,52 @@ public class LPBRuleEngine {
         }
     }
     
+    /**
+     * The results of a completed generator, together with the time they
+     * were last used.
+     */
+    static class CompletedGoal {
+        /** The goal the results answer */
+        protected final TriplePattern goal;
+        
+        /** The results, which no longer change */
+        protected final List<Triple> results;
+        
+        /** The value of the engine's use clock when the results were last used */
+        protected volatile long lastUsed;
+        
+        /** Constructor */
+        @SuppressWarnings("unchecked")
+        public CompletedGoal(Generator generator) {
+            goal = generator.goal;
+            results = Collections.unmodifiableList((List<Triple>)(List<?>)generator.results);
+        }
+    }
+    
+    /**
+     * A completed goal with the time it was last used fixed at the time of
+     * construction, in the ordering used for eviction.
+     */
+    static class UseStamp implements Comparable<UseStamp> {
+        /** The completed goal */
+        protected final CompletedGoal completed;
+        
+        /** The value of the goal's last use time when the stamp was taken */
+        protected final long lastUsed;
+        
+        /** Constructor */
+        public UseStamp(CompletedGoal completed) {
+            this.completed = completed;
+            this.lastUsed = completed.lastUsed;
+        }
+        
+        /** Ordering, least recently used first */
+        @Override
+        public int compareTo(UseStamp other) {
+            return (lastUsed < other.lastUsed) ? -1 : ( (lastUsed == other.lastUsed) ? 0 : +1);
+        }
+    }
+    
     /**
      * Record count of number of rule invocations, used in profile structure only.
      */
@@ -254,6 +254,7 @@ public class LPInterpreter {
         Object[] args;
         boolean traceOn = engine.isTraceOn();
         boolean recordDerivations = engine.getDerivationLogging();
+        RuleProfile profile = RuleProfile.getActive();
         
         main: while (cpFrame != null) {
             // restore choice point
@@ -591,6 +592,7 @@ public class LPInterpreter {
                             ac = envFrame.cac;
                             if (traceOn) logger.info("EXIT " + clause);
                             if (choice != null) choice.noteSuccess();
+                            if (profile != null) profile.recordDeduction(clause.getRule(), true);
                             if (recordDerivations && envFrame.getRule() != null) {
                                 if (envFrame instanceof EnvironmentFrameWithDerivation) {
                                     EnvironmentFrameWithDerivation efd = (EnvironmentFrameWithDerivation) envFrame;
@@ -621,7 +623,10 @@ public class LPInterpreter {
                                 context = bbcontext;
                             }
                             context.setRule(clause.getRule());
-                            if (!builtin.bodyCall(argVars, code[pc++], context)) {
+                            long start = (profile == null) ? 0L : System.nanoTime();
+                            boolean passed = builtin.bodyCall(argVars, code[pc++], context);
+                            if (profile != null) profile.recordBuiltinTime(clause.getRule(), System.nanoTime() - start);
+                            if (!passed) {
                                 if (traceOn) logger.info("FAIL " + clause + ", due to " + builtin.getName());
                                 continue main;  
                             }
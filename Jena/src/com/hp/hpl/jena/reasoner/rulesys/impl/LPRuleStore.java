@@ -21,6 +21,7 @@ package com.hp.hpl.jena.reasoner.rulesys.impl;
 import com.hp.hpl.jena.reasoner.TriplePattern;
 import com.hp.hpl.jena.reasoner.rulesys.*;
 import com.hp.hpl.jena.graph.*;
+import com.hp.hpl.jena.vocabulary.RDF;
 
 import java.util.*;
 
@@ -250,6 +251,120 @@ public class LPRuleStore extends RuleStore {
         }
     }
     
+    /**
+     * Return the set of predicates whose goals might have different answers
+     * after a change to data with the given predicates. This is the given
+     * predicates plus the head predicates of any rules which read, directly or
+     * through other rules, one of the affected predicates. Bodies are assumed to
+     * read the predicates of their triple patterns, the predicate argument of
+     * noValue and countLiteralValues, and rdf:first/rdf:rest for list builtins.
+     * Any other builtin, other than the standard ones known not to read the
+     * graph, might read anything, so every predicate might be affected.
+     * @param changed the predicates of the changed data
+     * @return the affected predicates or null if every predicate might be affected
+     */
+    public synchronized Set<Node> dependentPredicates(Collection<Node> changed) {
+        Set<Node> affected = new HashSet<Node>();
+        for (Iterator<Node> i = changed.iterator(); i.hasNext(); ) {
+            Node p = i.next();
+            if (p.isVariable() || p == Node.ANY) return null;
+            affected.add(p);
+        }
+        List<Rule> pending = new ArrayList<Rule>(getAllRules());
+        for (Iterator<Rule> i = pending.iterator(); i.hasNext(); ) {
+            if (!knownReads(i.next())) return null;
+        }
+        boolean changedSet = true;
+        while (changedSet) {
+            changedSet = false;
+            for (Iterator<Rule> i = pending.iterator(); i.hasNext(); ) {
+                Rule r = i.next();
+                ClauseEntry head = r.getHeadElement(0);
+                if (!(head instanceof TriplePattern)) {
+                    i.remove();
+                } else if (readsAny(r, affected)) {
+                    Node p = ((TriplePattern)head).getPredicate();
+                    if (p.isVariable()) return null;
+                    affected.add(p);
+                    i.remove();
+                    changedSet = true;
+                }
+            }
+        }
+        return affected;
+    }
+    
+    /** Standard builtins which do not read the graph */
+    private static final Set<String> pureBuiltins = new HashSet<String>(Arrays.asList(new String[] {
+            "addOne", "bound", "difference", "equal", "ge", "greaterThan", "isBNode", "isDType",
+            "isFunctor", "isLiteral", "le", "lessThan", "makeInstance", "makeSkolem", "makeTemp",
+            "max", "min", "notBNode", "notDType", "notEqual", "notFunctor", "notLiteral", "now",
+            "print", "product", "quotient", "regex", "strConcat", "sum", "unbound", "uriConcat" }));
+    
+    /** Package of the standard builtins, a user builtin may reuse one of their names */
+    private static final String builtinsPackage = "com.hp.hpl.jena.reasoner.rulesys.builtins.";
+    
+    /**
+     * Return true if the graph reads of every builtin in the rule body are known:
+     * each is one of the standard builtins that either reads nothing, or is
+     * understood by readsAny.
+     */
+    private static boolean knownReads(Rule r) {
+        for (int i = 0; i < r.bodyLength(); i++) {
+            ClauseEntry clause = r.getBodyElement(i);
+            if (clause instanceof Functor) {
+                Functor f = (Functor)clause;
+                if (!isStandardBuiltin(f)) return false;
+                String name = f.getName();
+                if (!pureBuiltins.contains(name) && !name.equals("noValue") 
+                        && !name.equals("countLiteralValues") && !name.startsWith("list")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Return true if the functor calls one of the standard builtins.
+     */
+    private static boolean isStandardBuiltin(Functor f) {
+        Builtin impl = f.getImplementor();
+        return impl != null && impl.getClass().getName().startsWith(builtinsPackage);
+    }
+    
+    /**
+     * Return true if the functor calls a standard builtin which does not read the graph,
+     * so its result only depends on its arguments.
+     */
+    static boolean isPureBuiltin(Functor f) {
+        return isStandardBuiltin(f) && pureBuiltins.contains(f.getName());
+    }
+    
+    /**
+     * Return true if the rule body might read data with one of the given predicates.
+     * Only valid for rules passing knownReads.
+     */
+    private static boolean readsAny(Rule r, Set<Node> predicates) {
+        for (int i = 0; i < r.bodyLength(); i++) {
+            ClauseEntry clause = r.getBodyElement(i);
+            if (clause instanceof TriplePattern) {
+                Node p = ((TriplePattern)clause).getPredicate();
+                if (p.isVariable() || predicates.contains(p)) return true;
+            } else if (clause instanceof Functor) {
+                Functor f = (Functor)clause;
+                String name = f.getName();
+                if (name.equals("noValue") || name.equals("countLiteralValues")) {
+                    Node[] args = f.getArgs();
+                    if (args.length < 2 || args[1].isVariable() || predicates.contains(args[1])) return true;
+                } else if (name.startsWith("list")) {
+                    if (predicates.contains(RDF.first.asNode()) || predicates.contains(RDF.rest.asNode())) return true;
+                }
+            }
+        }
+        return false;
+    }
+    
     /**
      * Add/remove a single rule from the store. 
      * Overridden in order to reset the "isCompiled" flag.
@@ -34,6 +34,7 @@ import com.hp.hpl.jena.reasoner.rulesys.ForwardRuleInfGraphI;
 import com.hp.hpl.jena.reasoner.rulesys.Functor;
 import com.hp.hpl.jena.reasoner.rulesys.Rule;
 import com.hp.hpl.jena.reasoner.rulesys.RuleDerivation;
+import com.hp.hpl.jena.reasoner.rulesys.RuleProfile;
 
 /**
  * Manages a set of ready-to-fire rules. For monotonic rule sets
@@ -145,6 +146,12 @@ public class RETEConflictSet {
         }
         RETEEngine engine = context.getEngine();
         engine.incRuleCount();
+        RuleProfile profile = RuleProfile.getActive();
+        long start = 0L;
+        if (profile != null) {
+            profile.recordFiring(rule);
+            start = System.nanoTime();
+        }
         List<Triple> matchList = null;
         if (infGraph.shouldLogDerivations() && isAdd) {
             // Create derivation record
@@ -167,13 +174,18 @@ public class RETEConflictSet {
                     // E.g. RDFS rules can create assertions about literals
                     // that we can't record in RDF
                     if (isAdd) {
+                        engine.incSupport(t);
                         if ( ! context.contains(t) ) {
                             engine.addTriple(t, true);
                             if (infGraph.shouldLogDerivations()) {
                                 infGraph.logDerivation(t, new RuleDerivation(rule, t, matchList, infGraph));
                             }
+                            if (profile != null) profile.recordDeduction(rule, true);
+                        } else if (profile != null) {
+                            profile.recordDeduction(rule, false);
                         }
                     } else {
+                        engine.decSupport(t);
                         if ( context.contains(t)) {
                             // Remove the generated triple
                             engine.deleteTriple(t, true);
@@ -201,6 +213,7 @@ public class RETEConflictSet {
                 }
             }
         }        
+        if (profile != null) profile.recordTime(rule, System.nanoTime() - start);
     }
         
     // Inner class representing a conflict set entry 
@@ -23,6 +23,7 @@ import com.hp.hpl.jena.reasoner.rulesys.*;
 import com.hp.hpl.jena.graph.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import com.hp.hpl.jena.util.OneToManyMap;
 import com.hp.hpl.jena.util.PrintUtil;
@@ -52,6 +53,9 @@ public class RETEEngine implements FRuleEngineI {
     /** Queue of newly added triples waiting to be processed */
     protected List<Triple> addsPending = new ArrayList<Triple>();
     
+    /** Set of the triples in addsPending, avoids linear scans of the queue */
+    protected Set<Triple> addsPendingIndex = new HashSet<Triple>();
+    
     /** Queue of newly deleted triples waiting to be processed */
     protected List<Triple> deletesPending = new ArrayList<Triple>();
     
@@ -77,6 +81,28 @@ public class RETEEngine implements FRuleEngineI {
     /** True if all the rules are monotonic, so we short circuit the conflict set processing */
     boolean isMonotonic = true;
     
+    /** Map from deduced triple to the number of rule firings currently supporting it,
+     *  only maintained if incremental deletes are enabled and supported by the rule set */
+    protected Map<Triple, RETEQueue.Count> supports;
+    
+    /** Deductions retracted during the over-delete phase of an incremental delete, null at other times */
+    protected List<Triple> overDeleted;
+    
+    /** Buffer for the rule firings requested by a worker thread during a parallel closure round, unset otherwise */
+    protected ThreadLocal<List<PendingFiring>> firingBuffer = new ThreadLocal<List<PendingFiring>>();
+    
+    /** Number of worker threads used to compute the initial closure of monotonic 
+     *  rule sets, 1 disables the parallel closure */
+    public static int closureThreads = 1;
+    
+    /** Minimum number of pending triples for which a parallel closure round is worth running */
+    public static int parallelBatchThreshold = 500;
+    
+    /** Set to true to keep the support counts that let deletes be processed incrementally
+     *  rather than by recomputing the closure. Only used for rule sets that support it, 
+     *  see {@link #canDeleteIncrementally}. */
+    public static boolean incrementalDeletes = false;
+    
     protected static Logger logger = LoggerFactory.getLogger(FRuleEngine.class);
     
 //  =======================================================================
@@ -126,6 +152,7 @@ public class RETEEngine implements FRuleEngineI {
     @Override
     public void init(boolean ignoreBrules, Finder inserts) {
         compile(rules, ignoreBrules);
+        supports = (incrementalDeletes && canDeleteIncrementally(rules, ignoreBrules)) ? new HashMap<Triple, RETEQueue.Count>() : null;
         findAndProcessAxioms();
         fastInit(inserts);
     }
@@ -159,6 +186,9 @@ public class RETEEngine implements FRuleEngineI {
             }
         }
         // Run the engine
+        if (closureThreads > 1 && isMonotonic) {
+            runAllParallel(closureThreads);
+        }
         runAll();
     }
 
@@ -168,19 +198,52 @@ public class RETEEngine implements FRuleEngineI {
      */
     @Override
     public synchronized void add(Triple t) {
+        if (supports != null && infGraph.getCurrentDeductionsGraph().contains(t)) {
+            // Already in the network as a deduction, injecting it again would 
+            // double count the rule firings that depend on it
+            return;
+        }
         addTriple(t, false);
         runAll();
     }
     
     /**
-     * Remove one triple to the data graph.
+     * Remove one triple to the data graph. The triple should already have been
+     * removed from the raw data graph and must previously have been present in
+     * either the raw data or the deductions.
+     * <p>
+     * For monotonic rule sets this is done incrementally in the style of the
+     * DRed algorithm. First all deductions which depended on the triple are
+     * retracted (over-deleted) by propagating the removal through the network.
+     * Then any over-deleted triple which still has a supporting rule firing,
+     * according to the support counts, is rederived and the consequences
+     * of that are propagated as normal. This is only done if enabled by
+     * {@link #incrementalDeletes} for rule sets which pass {@link #canDeleteIncrementally}.
      * @return true if the effects could be correctly propagated or
      * false if not (in which case the entire engine should be restarted).
      */
     @Override
     public synchronized boolean delete(Triple t) {
+        if (supports == null) return false;
+        // The triple may have been asserted and deduced, either way it leaves the network
+        infGraph.getCurrentDeductionsGraph().delete(t);
+        overDeleted = new ArrayList<Triple>();
+        overDeleted.add(t);
         deleteTriple(t, false);
         runAll();
+        
+        // Rederive anything which still has some support from the remaining triples
+        List<Triple> candidates = overDeleted;
+        overDeleted = null;
+        RETERuleContext context = new RETERuleContext(infGraph, this);
+        for (Iterator<Triple> i = candidates.iterator(); i.hasNext(); ) {
+            Triple d = i.next();
+            RETEQueue.Count count = supports.get(d);
+            if (count != null && count.getCount() > 0 && !context.contains(d)) {
+                addTriple(d, true);
+            }
+        }
+        runAll();
         return true;
     }
     
@@ -217,7 +280,19 @@ public class RETEEngine implements FRuleEngineI {
      */
     @Override
     public Object getRuleStore() {
-        return new RuleStore(clauseIndex, predicatePatterns, wildcardRule, isMonotonic);
+        Map<Triple, RETEQueue.Count> supportsCopy = null;
+        if (supports != null) {
+            supportsCopy = copySupports(supports);
+            // Graphs preloaded from this one see the raw data as fixed deductions, 
+            // give them a support so that incremental deletes never remove them
+            Graph raw = infGraph.getRawGraph();
+            if (raw != null) {
+                for (Iterator<Triple> i = raw.find(null, null, null); i.hasNext(); ) {
+                    addSupport(supportsCopy, i.next());
+                }
+            }
+        }
+        return new RuleStore(clauseIndex, predicatePatterns, wildcardRule, isMonotonic, supportsCopy);
     }
     
     /**
@@ -229,6 +304,7 @@ public class RETEEngine implements FRuleEngineI {
         predicatePatterns = rs.predicatePatterns;
         wildcardRule = rs.wildcardRule;
         isMonotonic = rs.isMonotonic;
+        supports = (rs.supports == null) ? null : copySupports(rs.supports);
         
         // Clone the RETE network to this engine
         RETERuleContext context = new RETERuleContext(infGraph, this);
@@ -240,11 +316,47 @@ public class RETEEngine implements FRuleEngineI {
         }
     }
     
+    /**
+     * Return true if deletes can be processed incrementally for the given rules.
+     * The rules must be monotonic and their body builtins must not read the graph:
+     * a guard such as noValue is only tested when the rule matches, so the support
+     * counts would not notice when removing a triple changed its result.
+     * @param ignoreBrules set to true if rules written in backward notation are not run by this engine
+     */
+    public static boolean canDeleteIncrementally(List<Rule> rules, boolean ignoreBrules) {
+        for (Iterator<Rule> i = rules.iterator(); i.hasNext(); ) {
+            Rule r = i.next();
+            if (ignoreBrules && r.isBackward()) continue;
+            if ( ! r.isMonotonic() ) return false;
+            for (int j = 0; j < r.bodyLength(); j++) {
+                ClauseEntry clause = r.getBodyElement(j);
+                if (clause instanceof Functor && !LPRuleStore.isPureBuiltin((Functor)clause)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Return the number of rule firings currently supporting the given deduced triple.
+     */
+    public int getSupportCount(Triple t) {
+        if (supports == null) return 0;
+        RETEQueue.Count count = supports.get(t);
+        return (count == null) ? 0 : count.getCount();
+    }
+    
     /**
      * Add a rule firing request to the conflict set.
      */
     public void requestRuleFiring(Rule rule, BindingEnvironment env, boolean isAdd) {
-        conflictSet.add(rule, env, isAdd);
+        List<PendingFiring> buffer = firingBuffer.get();
+        if (buffer != null) {
+            buffer.add(new PendingFiring(rule, env, isAdd));
+        } else {
+            conflictSet.add(rule, env, isAdd);
+        }
     }
     
 //  =======================================================================
@@ -364,7 +476,7 @@ public class RETEEngine implements FRuleEngineI {
             logger.debug("Add triple: " + PrintUtil.print(triple));
         }
         if (deletesPending.size() > 0) deletesPending.remove(triple);
-        if (!addsPending.contains(triple))      // Experimental, not sure why it wasn't done before
+        if (addsPendingIndex.add(triple))      // Experimental, not sure why it wasn't done before
             addsPending.add(triple);
         if (deduction) {
             infGraph.addDeduction(triple);
@@ -377,7 +489,7 @@ public class RETEEngine implements FRuleEngineI {
      * @param deduction true if the remove has been generated by the rules 
      */
     public synchronized void deleteTriple(Triple triple, boolean deduction) {
-        addsPending.remove(triple);
+        if (addsPendingIndex.remove(triple)) addsPending.remove(triple);
         deletesPending.add(triple);
         if (deduction) {
             infGraph.getCurrentDeductionsGraph().delete(triple);
@@ -388,10 +500,65 @@ public class RETEEngine implements FRuleEngineI {
                 // Built in a graph which can't delete this triple
                 // so block further processing of this delete to avoid loops
                 deletesPending.remove(triple);
+            } else if (supports != null && new RETERuleContext(infGraph, this).contains(triple)) {
+                // Still visible from some other fixed source such as preloaded schema data
+                deletesPending.remove(triple);
+            } else if (overDeleted != null) {
+                overDeleted.add(triple);
+            }
+        }
+    }
+    
+    /**
+     * Record a rule firing which has the given triple in its head.
+     * Called by the conflict set when executing rules.
+     */
+    protected void incSupport(Triple triple) {
+        if (supports != null) {
+            addSupport(supports, triple);
+        }
+    }
+    
+    /**
+     * Record the retraction of a rule firing which had the given triple
+     * in its head. Called by the conflict set when executing rules.
+     */
+    protected void decSupport(Triple triple) {
+        if (supports != null) {
+            RETEQueue.Count count = supports.get(triple);
+            if (count != null) {
+                count.dec();
+                if (count.getCount() <= 0) {
+                    supports.remove(triple);
+                }
             }
         }
     }
     
+    /**
+     * Helper. Increment the support count for a triple in the given table.
+     */
+    private static void addSupport(Map<Triple, RETEQueue.Count> table, Triple triple) {
+        RETEQueue.Count count = table.get(triple);
+        if (count == null) {
+            table.put(triple, new RETEQueue.Count(1));
+        } else {
+            count.inc();
+        }
+    }
+    
+    /**
+     * Helper. Deep copy a support count table.
+     */
+    private static Map<Triple, RETEQueue.Count> copySupports(Map<Triple, RETEQueue.Count> table) {
+        Map<Triple, RETEQueue.Count> copy = new HashMap<Triple, RETEQueue.Count>(table.size() * 4 / 3 + 1);
+        for (Iterator<Map.Entry<Triple, RETEQueue.Count>> i = table.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<Triple, RETEQueue.Count> entry = i.next();
+            copy.put(entry.getKey(), new RETEQueue.Count(entry.getValue().getCount()));
+        }
+        return copy;
+    }
+    
     /**
      * Increment the rule firing count, called by the terminal nodes in the
      * network.
@@ -407,7 +574,9 @@ public class RETEEngine implements FRuleEngineI {
     protected synchronized Triple nextAddTriple() {
         int size = addsPending.size(); 
         if (size > 0) {
-            return addsPending.remove(size - 1);
+            Triple t = addsPending.remove(size - 1);
+            addsPendingIndex.remove(t);
+            return t;
         }
         return null;
     }
@@ -446,6 +615,123 @@ public class RETEEngine implements FRuleEngineI {
         }
     }
     
+    /**
+     * Process the queue of pending inserts in rounds using a pool of worker threads.
+     * The networks compiled for different rules share no nodes so in each round
+     * the whole pending batch is matched against all the rule networks in parallel,
+     * with the rule firings buffered rather than executed. Once every worker has
+     * finished, the buffered firings are executed serially, in a fixed rule order, which adds the new deductions
+     * that make up the next batch. Stops when the batch is too small to be worth
+     * distributing, leaving the remainder to runAll. Only valid for monotonic
+     * rule sets, where the order of firings does not affect the closure.
+     * @param threads the number of worker threads to use
+     */
+    protected void runAllParallel(int threads) {
+        List<RuleNetwork> networks = ruleNetworks();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RETE closure");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            while (deletesPending.isEmpty() && addsPending.size() >= parallelBatchThreshold) {
+                List<Triple> batch = addsPending;
+                addsPending = new ArrayList<Triple>();
+                addsPendingIndex.clear();
+                
+                // Partition the batch by predicate to match the clause index
+                Map<Node, List<Triple>> byPredicate = new HashMap<Node, List<Triple>>();
+                for (Iterator<Triple> i = batch.iterator(); i.hasNext(); ) {
+                    Triple t = i.next();
+                    List<Triple> partition = byPredicate.get(t.getPredicate());
+                    if (partition == null) {
+                        partition = new ArrayList<Triple>();
+                        byPredicate.put(t.getPredicate(), partition);
+                    }
+                    partition.add(t);
+                }
+                
+                List<BatchMatcher> tasks = new ArrayList<BatchMatcher>(networks.size());
+                for (Iterator<RuleNetwork> i = networks.iterator(); i.hasNext(); ) {
+                    RuleNetwork network = i.next();
+                    if (network.isRelevant(byPredicate)) {
+                        tasks.add(new BatchMatcher(network, batch, byPredicate));
+                    }
+                }
+                // Wait for every task before executing any firing, the body builtins
+                // of the workers may be reading the graph the firings write to
+                List<Future<List<PendingFiring>>> results = invokeAll(pool, tasks);
+                
+                // Merge in a deterministic order, executing the firings adds the next batch
+                for (Iterator<Future<List<PendingFiring>>> i = results.iterator(); i.hasNext(); ) {
+                    List<PendingFiring> firings = awaitResult(i.next());
+                    for (Iterator<PendingFiring> j = firings.iterator(); j.hasNext(); ) {
+                        PendingFiring firing = j.next();
+                        conflictSet.add(firing.rule, firing.env, firing.isAdd);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Helper. Run the parallel closure tasks and wait for all of them to complete.
+     */
+    private static List<Future<List<PendingFiring>>> invokeAll(ExecutorService pool, List<BatchMatcher> tasks) {
+        try {
+            return pool.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReasonerException("Interrupted during parallel rule closure", e);
+        }
+    }
+    
+    /**
+     * Helper. Get the result of a completed parallel closure task, passing on any failure.
+     */
+    private static List<PendingFiring> awaitResult(Future<List<PendingFiring>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReasonerException("Interrupted during parallel rule closure", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new ReasonerException("Failure during parallel rule closure", cause);
+        }
+    }
+    
+    /**
+     * Group the clause filters in the clause index by the rule whose network they
+     * feed, found by following the continuations through to the terminal node.
+     */
+    protected List<RuleNetwork> ruleNetworks() {
+        Map<RETENode, RuleNetwork> networks = new LinkedHashMap<RETENode, RuleNetwork>();
+        for (Iterator<Map.Entry<Node, RETENode>> i = clauseIndex.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<Node, RETENode> entry = i.next();
+            RETEClauseFilter filter = (RETEClauseFilter)entry.getValue();
+            RETENode terminal = filter.continuation;
+            while (terminal instanceof RETEQueue) {
+                terminal = ((RETEQueue)terminal).continuation;
+            }
+            RuleNetwork network = networks.get(terminal);
+            if (network == null) {
+                network = new RuleNetwork();
+                networks.put(terminal, network);
+            }
+            network.predicates.add(entry.getKey());
+            network.filters.add(filter);
+        }
+        return new ArrayList<RuleNetwork>(networks.values());
+    }
+    
     /**
      * Inject a single triple into the RETE network
      */
@@ -561,6 +847,81 @@ public class RETEEngine implements FRuleEngineI {
         }
     }
     
+    /**
+     * The clause filters which feed the network of a single rule, each with
+     * the predicate it is indexed under (Node.ANY for wildcards).
+     */
+    protected static class RuleNetwork {
+        
+        /** The predicates under which the filters are indexed */
+        protected List<Node> predicates = new ArrayList<Node>();
+        
+        /** The clause filters, in step with predicates */
+        protected List<RETEClauseFilter> filters = new ArrayList<RETEClauseFilter>();
+        
+        /** Return true if some triple of the partitioned batch can reach this network */
+        boolean isRelevant(Map<Node, List<Triple>> byPredicate) {
+            for (Iterator<Node> i = predicates.iterator(); i.hasNext(); ) {
+                Node predicate = i.next();
+                if (predicate.equals(Node.ANY) || byPredicate.containsKey(predicate)) return true;
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * Task which matches a batch of triples against one rule network, collecting
+     * the resulting rule firings for later execution.
+     */
+    protected class BatchMatcher implements Callable<List<PendingFiring>> {
+        
+        protected RuleNetwork network;
+        protected List<Triple> batch;
+        protected Map<Node, List<Triple>> byPredicate;
+        
+        BatchMatcher(RuleNetwork network, List<Triple> batch, Map<Node, List<Triple>> byPredicate) {
+            this.network = network;
+            this.batch = batch;
+            this.byPredicate = byPredicate;
+        }
+        
+        @Override
+        public List<PendingFiring> call() {
+            List<PendingFiring> firings = new ArrayList<PendingFiring>();
+            firingBuffer.set(firings);
+            try {
+                for (int i = 0; i < network.filters.size(); i++) {
+                    Node predicate = network.predicates.get(i);
+                    List<Triple> triples = predicate.equals(Node.ANY) ? batch : byPredicate.get(predicate);
+                    if (triples == null) continue;
+                    RETEClauseFilter filter = network.filters.get(i);
+                    for (Iterator<Triple> j = triples.iterator(); j.hasNext(); ) {
+                        filter.fire(j.next(), true);
+                    }
+                }
+            } finally {
+                firingBuffer.remove();
+            }
+            return firings;
+        }
+    }
+    
+    /**
+     * A rule firing requested during a parallel closure round.
+     */
+    protected static class PendingFiring {
+        
+        protected Rule rule;
+        protected BindingEnvironment env;
+        protected boolean isAdd;
+        
+        PendingFiring(Rule rule, BindingEnvironment env, boolean isAdd) {
+            this.rule = rule;
+            this.env = env;
+            this.isAdd = isAdd;
+        }
+    }
+    
     /**
      * Structure used to wrap up processed rule indexes.
      */
@@ -578,12 +939,21 @@ public class RETEEngine implements FRuleEngineI {
         /** True if all the rules are monotonic, so we short circuit the conflict set processing */
         protected boolean isMonotonic = true;
         
+        /** Support counts for the deductions at the time the store was taken, null for non-monotonic rule sets */
+        protected Map<Triple, RETEQueue.Count> supports;
+        
         /** Constructor */
         RuleStore(OneToManyMap<Node, RETENode> clauseIndex, OneToManyMap<Node, Node> predicatesPatterns, boolean wildcardRule, boolean isMonotonic) {
+            this(clauseIndex, predicatesPatterns, wildcardRule, isMonotonic, null);
+        }
+        
+        /** Constructor */
+        RuleStore(OneToManyMap<Node, RETENode> clauseIndex, OneToManyMap<Node, Node> predicatesPatterns, boolean wildcardRule, boolean isMonotonic, Map<Triple, RETEQueue.Count> supports) {
             this.clauseIndex = clauseIndex;
             this.predicatePatterns = predicatesPatterns;
             this.wildcardRule = wildcardRule;
             this.isMonotonic = isMonotonic;
+            this.supports = supports;
         }
     }
 
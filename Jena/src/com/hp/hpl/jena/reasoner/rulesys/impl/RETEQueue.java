@@ -19,6 +19,8 @@
 package com.hp.hpl.jena.reasoner.rulesys.impl;
 
 import com.hp.hpl.jena.graph.*;
+import com.hp.hpl.jena.reasoner.rulesys.Rule;
+import com.hp.hpl.jena.reasoner.rulesys.RuleProfile;
 
 import java.util.*;
 
@@ -35,6 +37,18 @@ public class RETEQueue implements RETESinkNode, RETESourceNode {
     /** A multi-set of partially bound envionments */
     protected HashMap<BindingVector, Count> queue = new HashMap<BindingVector, Count>();
     
+    /** Index from the join key (the values of the match variables) to the environments in the queue */
+    protected HashMap<Object, Set<BindingVector>> joinIndex = new HashMap<Object, Set<BindingVector>>();
+    
+    /** Number of tokens which have been propagated to this node */
+    protected long tokensIn = 0;
+    
+    /** Number of successful matches against the sibling queue */
+    protected long matches = 0;
+    
+    /** Join key used when there are no match variables so all entries are partners */
+    private static final Object NO_KEY = new Object();
+    
     /** A set of variable indices which should match between the two inputs */
     protected byte[] matchIndices;
     
@@ -44,6 +58,9 @@ public class RETEQueue implements RETESinkNode, RETESourceNode {
     /** The node that results should be passed on to */
     protected RETESinkNode continuation;
     
+    /** The rule whose network this node is part of, found when first profiled */
+    private Rule rule;
+    
     /** 
      * Constructor. The queue is not usable until it has been bound
      * to a sibling and a continuation node.
@@ -89,12 +106,17 @@ public class RETEQueue implements RETESinkNode, RETESourceNode {
      */
     @Override
     public void fire(BindingVector env, boolean isAdd) {
+        tokensIn++;
+        Node[] envNodes = env.getEnvironment();
+        Object key = joinKey(envNodes);
+        
         // Store the new token in this store
         Count count = queue.get(env);
         if (count == null) {
             // no entry yet
             if (!isAdd) return;
             queue.put(env, new Count(1));
+            addToIndex(key, env);
         } else {
             if (isAdd) {
                 count.inc();
@@ -102,14 +124,31 @@ public class RETEQueue implements RETESinkNode, RETESourceNode {
                 count.dec();
                 if (count.getCount() == 0) {
                     queue.remove(env);
+                    removeFromIndex(key, env);
                 }
             }
         }
         
-        // Cross match new token against the entries in the sibling queue
-        for (Iterator<BindingVector> i = sibling.queue.keySet().iterator(); i.hasNext(); ) {
+        RuleProfile profile = RuleProfile.getActive();
+        if (profile == null) {
+            join(key, envNodes, isAdd);
+        } else {
+            profile.recordJoin(getRule(), join(key, envNodes, isAdd));
+        }
+    }
+    
+    /**
+     * Cross match a new token against the entries in the sibling queue with
+     * the same join key, passing on each extended environment.
+     * @return the number of matches found
+     */
+    private int join(Object key, Node[] envNodes, boolean isAdd) {
+        if (key == null) return 0;
+        Set<BindingVector> partners = sibling.joinIndex.get(key);
+        if (partners == null) return 0;
+        int found = 0;
+        for (Iterator<BindingVector> i = partners.iterator(); i.hasNext(); ) {
             Node[] candidate = i.next().getEnvironment();
-            Node[] envNodes = env.getEnvironment();
             boolean matchOK = true;
             for (int j = 0; j < matchIndices.length; j++) {
                 int index = matchIndices[j];
@@ -119,6 +158,8 @@ public class RETEQueue implements RETESinkNode, RETESourceNode {
                 }
             }
             if (matchOK) {
+                matches++;
+                found++;
                 // Instantiate a new extended environment
                 Node[] newNodes = new Node[candidate.length];
                 for (int j = 0; j < candidate.length; j++) {
@@ -130,8 +171,107 @@ public class RETEQueue implements RETESinkNode, RETESourceNode {
                 continuation.fire(newEnv, isAdd);
             }
         }
+        return found;
+    }
+    
+    /**
+     * Return the rule whose network this node is part of, found by following
+     * the continuations through to the terminal node.
+     */
+    protected Rule getRule() {
+        if (rule == null) {
+            RETESinkNode node = continuation;
+            while (node instanceof RETEQueue) {
+                node = ((RETEQueue)node).continuation;
+            }
+            if (node instanceof RETETerminal) {
+                rule = ((RETETerminal)node).getRule();
+            }
+        }
+        return rule;
     }
 
+    /**
+     * Compute the join key for an environment. The indexing values of the nodes
+     * are used so that entries which are sameValueAs each other share a key,
+     * a single match variable (the common case) needs no allocation.
+     * Returns null if a match variable is unbound, such an environment can
+     * never match.
+     */
+    protected Object joinKey(Node[] envNodes) {
+        switch (matchIndices.length) {
+        case 0:
+            return NO_KEY;
+        case 1:
+            Node n = envNodes[matchIndices[0]];
+            return (n == null) ? null : n.getIndexingValue();
+        default:
+            Object[] values = new Object[matchIndices.length];
+            for (int j = 0; j < matchIndices.length; j++) {
+                Node v = envNodes[matchIndices[j]];
+                if (v == null) return null;
+                values[j] = v.getIndexingValue();
+            }
+            return Arrays.asList(values);
+        }
+    }
+    
+    /**
+     * Record a newly stored environment in the join index.
+     */
+    private void addToIndex(Object key, BindingVector env) {
+        if (key == null) return;
+        Set<BindingVector> bucket = joinIndex.get(key);
+        if (bucket == null) {
+            bucket = new HashSet<BindingVector>();
+            joinIndex.put(key, bucket);
+        }
+        bucket.add(env);
+    }
+    
+    /**
+     * Remove an environment which is no longer stored from the join index.
+     */
+    private void removeFromIndex(Object key, BindingVector env) {
+        if (key == null) return;
+        Set<BindingVector> bucket = joinIndex.get(key);
+        if (bucket != null) {
+            bucket.remove(env);
+            if (bucket.isEmpty()) {
+                joinIndex.remove(key);
+            }
+        }
+    }
+    
+    /**
+     * Return the number of tokens which have been propagated to this node.
+     */
+    public long getTokensIn() {
+        return tokensIn;
+    }
+    
+    /**
+     * Return the number of successful matches of incoming tokens against the sibling queue.
+     */
+    public long getMatches() {
+        return matches;
+    }
+    
+    /**
+     * Return the number of distinct environments currently stored in this node.
+     */
+    public int getMemorySize() {
+        return queue.size();
+    }
+    
+    /**
+     * Reset the token and match counters.
+     */
+    public void resetCounters() {
+        tokensIn = 0;
+        matches = 0;
+    }
+    
     /**
      * Inner class used to represent an updatable count.
      */
@@ -177,7 +317,12 @@ public class RETEQueue implements RETESinkNode, RETESourceNode {
             netCopy.put(this, clone);
             clone.setSibling((RETEQueue)sibling.clone(netCopy, context));
             clone.setContinuation((RETESinkNode)continuation.clone(netCopy, context));
-            clone.queue.putAll(queue);
+            for (Iterator<Map.Entry<BindingVector, Count>> i = queue.entrySet().iterator(); i.hasNext(); ) {
+                Map.Entry<BindingVector, Count> entry = i.next();
+                BindingVector env = entry.getKey();
+                clone.queue.put(env, new Count(entry.getValue().getCount()));
+                clone.addToIndex(clone.joinKey(env.getEnvironment()), env);
+            }
         }
         return clone;
     }
@@ -58,6 +58,13 @@ public class RETETerminal implements RETESinkNode {
         this.context = context;
     }
     
+    /**
+     * Return the rule which this terminal fires.
+     */
+    public Rule getRule() {
+        return context.getRule();
+    }
+    
     /**
      * Change the engine/graph to which this terminal should deliver its results.
      */
@@ -77,7 +84,11 @@ public class RETETerminal implements RETESinkNode {
         Rule rule = context.getRule();
         context.setEnv(env);
         
-        if (! context.shouldFire(isAdd)) return;
+        RuleProfile profile = RuleProfile.getActive();
+        long start = (profile == null) ? 0L : System.nanoTime();
+        boolean fire = context.shouldFire(isAdd);
+        if (profile != null) profile.recordBuiltinTime(rule, System.nanoTime() - start);
+        if (! fire) return;
 
         // Now fire the rule
         context.getEngine().requestRuleFiring(rule, env, isAdd);
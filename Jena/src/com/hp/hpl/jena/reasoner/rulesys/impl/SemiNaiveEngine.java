@@ -0,0 +1,827 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.reasoner.rulesys.impl;
+
+import com.hp.hpl.jena.graph.*;
+import com.hp.hpl.jena.reasoner.*;
+import com.hp.hpl.jena.reasoner.rulesys.*;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.vocabulary.RDF;
+
+import java.util.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A forward rule engine which evaluates the rules set-at-a-time using
+ * semi-naive, Datalog style, evaluation. Each round joins the facts
+ * derived in the previous round (the delta) against the whole of the
+ * data, so that each rule instantiation is only discovered once, rather
+ * than matching the rules one triple at a time as the RETE engine does.
+ * <p>
+ * The relations are not copied, each join step is a search of the
+ * parent graph's data and deductions which reuses the graph's own
+ * indexes. Rules whose bodies use non-monotonic builtins such as
+ * noValue are stratified so that a rule only runs once the predicates
+ * it tests have been fully computed. Rules with non-monotonic head
+ * actions (remove, drop) can not be evaluated this way, the RETE
+ * engine should be used for those.
+ * </p>
+ */
+public class SemiNaiveEngine implements FRuleEngineI {
+
+    /** The parent InfGraph which is employing this engine instance */
+    protected ForwardRuleInfGraphI infGraph;
+    
+    /** Set of rules being used */
+    protected List<Rule> rules;
+    
+    /** The compiled, stratified, form of the rule set */
+    protected RuleStore store;
+    
+    /** Context used when evaluating builtins */
+    protected SemiNaiveRuleContext context;
+    
+    /** Deductions made in the round in progress, asserted when the round ends */
+    protected LinkedHashSet<Triple> pending = new LinkedHashSet<Triple>();
+    
+    /** Deductions made by the axioms, processed at the start of the first run */
+    protected List<Triple> axiomDeductions;
+    
+    /** Set to true to flag that derivations should be logged */
+    protected boolean recordDerivations;
+    
+    /** performance stats - number of rules fired */
+    long nRulesFired = 0;
+    
+    /** performance stats - number of evaluation rounds run */
+    long nRounds = 0;
+    
+    /** The number of delta triples which are joined through a rule as one block */
+    public static int blockSize = 4096;
+    
+    protected static Logger logger = LoggerFactory.getLogger(FRuleEngine.class);
+    
+//  =======================================================================
+//  Constructors
+
+    /**
+     * Constructor.
+     * @param parent the F or FB infGraph that it using this engine, the parent graph
+     * holds the deductions graph and source data.
+     * @param rules the rule set to be processed
+     */
+    public SemiNaiveEngine(ForwardRuleInfGraphI parent, List<Rule> rules) {
+        infGraph = parent;
+        this.rules = rules;
+        context = new SemiNaiveRuleContext(parent, this);
+    }
+
+    /**
+     * Constructor. Build an empty engine to which rules must be added
+     * using setRuleStore().
+     * @param parent the F or FB infGraph that it using this engine, the parent graph
+     * holds the deductions graph and source data.
+     */
+    public SemiNaiveEngine(ForwardRuleInfGraphI parent) {
+        this(parent, null);
+    }
+    
+//  =======================================================================
+//  Control methods
+
+    /**
+     * Process all available data. This should be called once a deductions graph
+     * has be prepared and loaded with any precomputed deductions. It will process
+     * the rule axioms and all relevant existing exiting data entries.
+     * @param ignoreBrules set to true if rules written in backward notation should be ignored
+     * @param inserts the set of triples to be processed, normally this is the
+     * raw data graph but may include additional deductions made by preprocessing hooks
+     */
+    @Override
+    public void init(boolean ignoreBrules, Finder inserts) {
+        if (store == null) compile(rules, ignoreBrules);
+        findAndProcessAxioms();
+        fastInit(inserts);
+    }
+    
+    /**
+     * Process all available data. This version expects that all the axioms 
+     * have already be preprocessed and the rules have already been compiled.
+     * @param inserts the set of triples to be processed, normally this is the
+     * raw data graph but may include additional deductions made by preprocessing hooks
+     */
+    @Override
+    public synchronized void fastInit(Finder inserts) {
+        findAndProcessActions();
+        List<Triple> delta = new ArrayList<Triple>();
+        if (axiomDeductions != null) {
+            delta.addAll(axiomDeductions);
+            axiomDeductions = null;
+        }
+        delta.addAll(flushPending());
+        if (store.predicatesUsed == null) {
+            for (Iterator<Triple> i = inserts.find(new TriplePattern(null, null, null)); i.hasNext(); ) {
+                delta.add(i.next());
+            }
+        } else {
+            for (Iterator<Node> p = store.predicatesUsed.iterator(); p.hasNext(); ) {
+                Node predicate = p.next();
+                for (Iterator<Triple> i = inserts.find(new TriplePattern(null, predicate, null)); i.hasNext(); ) {
+                    delta.add(i.next());
+                }
+            }
+        }
+        evaluate(delta);
+    }
+
+    /**
+     * Add one triple to the data graph, run any rules triggered by
+     * the new data item, recursively adding any generated triples.
+     * Only valid for rule sets without negation, see {@link #isMonotonic()}.
+     */
+    @Override
+    public synchronized void add(Triple t) {
+        if (infGraph.getCurrentDeductionsGraph().contains(t)) return;
+        if (store.predicatesUsed != null && !store.predicatesUsed.contains(t.getPredicate())) return;
+        List<Triple> delta = new ArrayList<Triple>(1);
+        delta.add(t);
+        evaluate(delta);
+    }
+    
+    /**
+     * Remove one triple to the data graph.
+     * @return true if the effects could be correctly propagated or
+     * false if not (in which case the entire engine should be restarted).
+     */
+    @Override
+    public synchronized boolean delete(Triple t) {
+        // Incremental delete not supported
+        return false;
+    }
+    
+    /**
+     * Return the number of rules fired since this rule engine instance
+     * was created and initialized
+     */
+    @Override
+    public long getNRulesFired() {
+        return nRulesFired;
+    }
+    
+    /**
+     * Return the number of evaluation rounds run since this rule engine
+     * instance was created and initialized
+     */
+    public long getNRounds() {
+        return nRounds;
+    }
+    
+    /**
+     * Return true if the internal engine state means that tracing is worthwhile.
+     */
+    @Override
+    public boolean shouldTrace() {
+        return true;
+    }
+
+    /**
+     * Set to true to enable derivation caching
+     */
+    @Override
+    public void setDerivationLogging(boolean recordDerivations) {
+        this.recordDerivations = recordDerivations;
+    }
+    
+    /**
+     * Return true if no rule body uses a non-monotonic builtin. Additions to
+     * the data can only be processed incrementally for such rule sets.
+     */
+    public boolean isMonotonic() {
+        return store.isMonotonic;
+    }
+    
+    /**
+     * Return the number of strata the rule set was divided into.
+     */
+    public int getNStrata() {
+        return store.strata.size();
+    }
+    
+    /**
+     * Access the precomputed internal rule form. Used when precomputing the
+     * internal axiom closures.
+     */
+    @Override
+    public Object getRuleStore() {
+        return store;
+    }
+    
+    /**
+     * Set the internal rule from from a precomputed state.
+     */
+    @Override
+    public void setRuleStore(Object ruleStore) {
+        store = (RuleStore)ruleStore;
+        rules = store.rules;
+    }
+    
+//  =======================================================================
+//  Compilation
+
+    /**
+     * Compile a list of rules into the internal rule store representation.
+     * @param rules the list of Rule objects
+     * @param ignoreBrules set to true if rules written in backward notation should be ignored
+     */
+    public void compile(List<Rule> rules, boolean ignoreBrules) {
+        List<CompiledRule> compiled = new ArrayList<CompiledRule>();
+        Set<Node> predicatesUsed = new HashSet<Node>();
+        boolean wildcardRule = false;
+        boolean isMonotonic = true;
+        for (Iterator<Rule> i = rules.iterator(); i.hasNext(); ) {
+            Rule r = i.next();
+            if (ignoreBrules && r.isBackward()) continue;
+            if (!r.isMonotonic()) {
+                throw new ReasonerException("The semi-naive rule engine does not support non-monotonic rule heads, use the RETE engine for: " + r.toShortString());
+            }
+            CompiledRule cr = new CompiledRule(r);
+            if (cr.patterns.length == 0) continue;
+            compiled.add(cr);
+            for (int j = 0; j < cr.patterns.length; j++) {
+                Node predicate = cr.patterns[j].getPredicate();
+                if (isWildcard(predicate)) {
+                    wildcardRule = true;
+                } else {
+                    predicatesUsed.add(predicate);
+                }
+            }
+            if (!cr.negatedPredicates.isEmpty()) isMonotonic = false;
+        }
+        store = new RuleStore(rules, stratify(compiled), wildcardRule ? null : predicatesUsed, isMonotonic);
+    }
+    
+    /**
+     * Assign each rule to a stratum. A rule must run no earlier than any
+     * rule which can feed its body and strictly after any rule which can
+     * feed a predicate it tests for absence. If the rules have a cycle
+     * through negation there is no such assignment and the rules are
+     * evaluated as a single stratum, as the other forward engines would.
+     */
+    private static List<List<CompiledRule>> stratify(List<CompiledRule> compiled) {
+        int n = compiled.size();
+        int[] stratum = new int[n];
+        boolean changed = true;
+        boolean stratified = true;
+        while (changed && stratified) {
+            changed = false;
+            for (int i = 0; i < n && stratified; i++) {
+                CompiledRule r = compiled.get(i);
+                for (int j = 0; j < n; j++) {
+                    CompiledRule feeder = compiled.get(j);
+                    int min = -1;
+                    if (feeds(feeder, r.negatedPredicates)) {
+                        min = stratum[j] + 1;
+                    } else if (feeds(feeder, r.bodyPredicates)) {
+                        min = stratum[j];
+                    }
+                    if (min > stratum[i]) {
+                        stratum[i] = min;
+                        changed = true;
+                        if (min > n) {
+                            stratified = false;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        if (!stratified) {
+            logger.warn("Rule set has a cycle through negation, evaluating it as a single stratum");
+            Arrays.fill(stratum, 0);
+        }
+        List<List<CompiledRule>> strata = new ArrayList<List<CompiledRule>>();
+        for (int i = 0; i < n; i++) {
+            while (strata.size() <= stratum[i]) strata.add(new ArrayList<CompiledRule>());
+            strata.get(stratum[i]).add(compiled.get(i));
+        }
+        return strata;
+    }
+    
+    /**
+     * Return true if the rule can deduce triples with any of the given predicates.
+     */
+    private static boolean feeds(CompiledRule feeder, Set<Node> predicates) {
+        if (feeder.headPredicates.isEmpty()) return false;
+        for (Iterator<Node> i = predicates.iterator(); i.hasNext(); ) {
+            Node p = i.next();
+            if (p == Node.ANY || feeder.headPredicates.contains(Node.ANY) || feeder.headPredicates.contains(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return true if the pattern node matches any triple node.
+     */
+    private static boolean isWildcard(Node n) {
+        return n instanceof Node_RuleVariable || n instanceof Node_ANY;
+    }
+    
+//  =======================================================================
+//  Evaluation
+
+    /**
+     * Scan the rules for any axioms and insert those
+     */
+    protected void findAndProcessAxioms() {
+        for (Iterator<Rule> i = rules.iterator(); i.hasNext(); ) {
+            Rule r = i.next();
+            if (r.bodyLength() == 0) {
+                // An axiom
+                for (int j = 0; j < r.headLength(); j++) {
+                    Object head = r.getHeadElement(j);
+                    if (head instanceof TriplePattern) {
+                        TriplePattern h = (TriplePattern) head;
+                        addDeduction(new Triple(h.getSubject(), h.getPredicate(), h.getObject()));
+                    }
+                }
+            }
+        }
+        axiomDeductions = flushPending();
+    }
+        
+    /**
+     * Scan the rules for any actions and run those
+     */
+    protected void findAndProcessActions() {
+        for (Iterator<Rule> i = rules.iterator(); i.hasNext(); ) {
+            Rule r = i.next();
+            if (r.bodyLength() == 0) {
+                // An axiom
+                for (int j = 0; j < r.headLength(); j++) {
+                    Object head = r.getHeadElement(j);
+                    if (head instanceof Functor) {
+                        Functor f = (Functor)head;
+                        Builtin imp = f.getImplementor();
+                        if (imp != null) {
+                            context.setRule(r);
+                            imp.headAction(f.getArgs(), f.getArgLength(), context);
+                        } else {
+                            throw new ReasonerException("Invoking undefined Functor " + f.getName() +" in " + r.toShortString());
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Record a deduction of the round in progress, unless it is already known.
+     * @return true if the triple is new
+     */
+    protected boolean addDeduction(Triple t) {
+        if (pending.contains(t) || context.contains(t)) return false;
+        pending.add(t);
+        return true;
+    }
+    
+    /**
+     * Assert the deductions of the round in progress into the deductions graph.
+     * @return the asserted triples, which form the delta of the next round
+     */
+    private List<Triple> flushPending() {
+        List<Triple> result = new ArrayList<Triple>(pending);
+        pending = new LinkedHashSet<Triple>();
+        for (Iterator<Triple> i = result.iterator(); i.hasNext(); ) {
+            infGraph.addDeduction(i.next());
+        }
+        return result;
+    }
+    
+    /**
+     * Run the rules, stratum by stratum, until no new triples can be deduced.
+     * @param delta the triples which have been added since the rules were last run
+     */
+    protected void evaluate(List<Triple> delta) {
+        List<List<CompiledRule>> strata = store.strata;
+        List<Triple> newFacts = strata.size() > 1 ? new ArrayList<Triple>(delta) : null;
+        for (int s = 0; s < strata.size(); s++) {
+            // Later strata have to see everything added since the start of the run
+            List<Triple> current = (s == 0) ? delta : new ArrayList<Triple>(newFacts);
+            while (!current.isEmpty()) {
+                current = runRound(strata.get(s), current);
+                if (newFacts != null) newFacts.addAll(current);
+            }
+        }
+    }
+    
+    /**
+     * Run one round of semi-naive evaluation. Each rule is joined once for
+     * each of its body patterns with that pattern restricted to the delta.
+     * Patterns to the left of it are restricted to the facts known before
+     * the delta, so that an instantiation which uses several delta facts is
+     * only found once.
+     * @param stratum the rules to run
+     * @param delta the triples deduced in the previous round
+     * @return the triples deduced in this round
+     */
+    private List<Triple> runRound(List<CompiledRule> stratum, List<Triple> delta) {
+        nRounds++;
+        Map<Node, List<Triple>> byPredicate = new HashMap<Node, List<Triple>>();
+        for (Iterator<Triple> i = delta.iterator(); i.hasNext(); ) {
+            Triple t = i.next();
+            List<Triple> group = byPredicate.get(t.getPredicate());
+            if (group == null) {
+                group = new ArrayList<Triple>();
+                byPredicate.put(t.getPredicate(), group);
+            }
+            group.add(t);
+        }
+        Set<Triple> deltaSet = new HashSet<Triple>(delta);
+        RuleProfile profile = RuleProfile.getActive();
+        for (Iterator<CompiledRule> i = stratum.iterator(); i.hasNext(); ) {
+            CompiledRule cr = i.next();
+            for (int k = 0; k < cr.patterns.length; k++) {
+                TriplePattern pattern = cr.patterns[k];
+                List<Triple> candidates = isWildcard(pattern.getPredicate()) ? delta : byPredicate.get(pattern.getPredicate());
+                if (candidates == null) continue;
+                for (int start = 0; start < candidates.size(); start += blockSize) {
+                    long started = (profile == null) ? 0L : System.nanoTime();
+                    int end = Math.min(candidates.size(), start + blockSize);
+                    List<Node[]> bindings = new ArrayList<Node[]>();
+                    for (Iterator<Triple> j = candidates.subList(start, end).iterator(); j.hasNext(); ) {
+                        Node[] env = new Node[cr.numVars];
+                        if (match(pattern, j.next(), env)) bindings.add(env);
+                    }
+                    long builtins = join(cr, k, bindings, deltaSet, profile);
+                    if (profile != null) {
+                        profile.recordTime(cr.rule, System.nanoTime() - started - builtins);
+                        profile.recordBuiltinTime(cr.rule, builtins);
+                    }
+                }
+            }
+        }
+        return flushPending();
+    }
+    
+    /**
+     * Extend a block of bindings of the delta pattern through the rest of the
+     * rule body, one pattern at a time, and fire the rule for each complete match.
+     * @return the time spent in body builtins, if profiling
+     */
+    private long join(CompiledRule cr, int k, List<Node[]> bindings, Set<Triple> deltaSet, RuleProfile profile) {
+        int[] plan = cr.plans[k];
+        for (int step = 0; step < plan.length && !bindings.isEmpty(); step++) {
+            int j = plan[step];
+            TriplePattern pattern = cr.patterns[j];
+            boolean oldOnly = j < k;
+            // Bindings which agree on the pattern share the one search
+            Map<List<Node>, List<Triple>> probes = new HashMap<List<Node>, List<Triple>>();
+            List<Node[]> extended = new ArrayList<Node[]>();
+            for (Iterator<Node[]> i = bindings.iterator(); i.hasNext(); ) {
+                Node[] env = i.next();
+                Node s = probeValue(pattern.getSubject(), env);
+                Node p = probeValue(pattern.getPredicate(), env);
+                Node o = probeValue(pattern.getObject(), env);
+                List<Node> key = Arrays.asList(s, p, o);
+                List<Triple> matches = probes.get(key);
+                if (matches == null) {
+                    matches = new ArrayList<Triple>();
+                    ExtendedIterator<Triple> it = infGraph.findDataMatches(s, p, o);
+                    try {
+                        while (it.hasNext()) {
+                            Triple t = it.next();
+                            if (!oldOnly || !deltaSet.contains(t)) matches.add(t);
+                        }
+                    } finally {
+                        it.close();
+                    }
+                    probes.put(key, matches);
+                }
+                for (Iterator<Triple> m = matches.iterator(); m.hasNext(); ) {
+                    Node[] candidate = env.clone();
+                    if (match(pattern, m.next(), candidate)) extended.add(candidate);
+                }
+            }
+            bindings = extended;
+        }
+        long builtins = 0L;
+        for (Iterator<Node[]> i = bindings.iterator(); i.hasNext(); ) {
+            builtins += fire(cr.rule, i.next(), profile);
+        }
+        return builtins;
+    }
+    
+    /**
+     * Check the body builtins for a complete match of the body patterns
+     * and, if they all succeed, fire the rule.
+     * @return the time spent in body builtins, if profiling
+     */
+    private long fire(Rule rule, Node[] envArray, RuleProfile profile) {
+        BindingVector env = new BindingVector(envArray);
+        context.setEnv(env);
+        context.setRule(rule);
+        long start = (profile == null) ? 0L : System.nanoTime();
+        boolean passed = true;
+        for (int i = 0; passed && i < rule.bodyLength(); i++) {
+            Object clause = rule.getBodyElement(i);
+            if (clause instanceof Functor) {
+                // Fire a built in
+                passed = ((Functor)clause).evalAsBodyClause(context);
+            }
+        }
+        long builtins = 0L;
+        if (profile != null) {
+            builtins = System.nanoTime() - start;
+            if (passed) profile.recordFiring(rule);
+        }
+        if (!passed) return builtins;       // guard failed
+        nRulesFired++;
+        if (infGraph.shouldTrace()) {
+            logger.info("Fired rule: " + rule.toShortString() + " = " + rule.instantiate(env));
+        }
+        List<Triple> matchList = null;
+        if (recordDerivations) {
+            // Create derivation record
+            matchList = new ArrayList<Triple>(rule.bodyLength());
+            for (int i = 0; i < rule.bodyLength(); i++) {
+                Object clause = rule.getBodyElement(i);
+                if (clause instanceof TriplePattern) {
+                    matchList.add(env.instantiate((TriplePattern)clause));
+                } 
+            }
+        }
+        for (int i = 0; i < rule.headLength(); i++) {
+            Object hClause = rule.getHeadElement(i);
+            if (hClause instanceof TriplePattern) {
+                Triple t = env.instantiate((TriplePattern) hClause);
+                // Only add the result if it is legal at the RDF level.
+                if (!t.getSubject().isLiteral()) {
+                    boolean isNew = addDeduction(t);
+                    if (isNew && recordDerivations) {
+                        infGraph.logDerivation(t, new RuleDerivation(rule, t, matchList, infGraph));
+                    }
+                    if (profile != null) profile.recordDeduction(rule, isNew);
+                }
+            } else if (hClause instanceof Functor) {
+                Functor f = (Functor)hClause;
+                Builtin imp = f.getImplementor();
+                if (imp != null) {
+                    imp.headAction(f.getBoundArgs(env), f.getArgLength(), context);
+                } else {
+                    throw new ReasonerException("Invoking undefined Functor " + f.getName() +" in " + rule.toShortString());
+                }
+            } else if (hClause instanceof Rule) {
+                Rule r = (Rule)hClause;
+                if (r.isBackward()) {
+                    infGraph.addBRule(r.instantiate(env));
+                } else {
+                    throw new ReasonerException("Found non-backward subrule : " + r); 
+                }
+            }
+        }
+        return builtins;
+    }
+    
+    /**
+     * Return the value to search for at one position of a pattern,
+     * null if that position is unconstrained.
+     */
+    private static Node probeValue(Node pattern, Node[] env) {
+        if (pattern instanceof Node_RuleVariable) {
+            int index = ((Node_RuleVariable)pattern).getIndex();
+            return index < 0 ? null : env[index];
+        } else if (pattern instanceof Node_ANY || Functor.isFunctor(pattern)) {
+            // Can't search on functor patterns so leave that as a wildcard
+            return null;
+        } else {
+            return pattern;
+        }
+    }
+    
+    /**
+     * Test if a TriplePattern matches a Triple, extending the bindings in env.
+     * The bindings may be left partially extended if the match fails.
+     * @return true if the pattern matches the triple
+     */
+    private static boolean match(TriplePattern pattern, Triple triple, Node[] env) {
+        return match(pattern.getPredicate(), triple.getPredicate(), env)
+                && match(pattern.getObject(), triple.getObject(), env)
+                && match(pattern.getSubject(), triple.getSubject(), env);
+    }
+    
+    /**
+     * Test if a pattern Node matches a Triple Node, extending the bindings in env.
+     * @return true if the pattern matches the node
+     */
+    private static boolean match(Node pattern, Node node, Node[] env) {
+        if (pattern instanceof Node_RuleVariable) {
+            int index = ((Node_RuleVariable)pattern).getIndex();
+            if (index < 0) return true;
+            Node bound = env[index];
+            if (bound == null) {
+                env[index] = node;
+                return true;
+            }
+            return bound.sameValueAs(node);
+        } else if (pattern instanceof Node_ANY) {
+            return true;
+        } else if (Functor.isFunctor(pattern)) {
+            if (!Functor.isFunctor(node)) return false;
+            Functor patternF = (Functor) pattern.getLiteralValue();
+            Functor nodeF = (Functor) node.getLiteralValue();
+            if (!patternF.getName().equals(nodeF.getName())) return false;
+            Node[] patternArgs = patternF.getArgs();
+            Node[] nodeArgs = nodeF.getArgs();
+            if (patternArgs.length != nodeArgs.length) return false;
+            for (int i = 0; i < patternArgs.length; i++) {
+                if (!match(patternArgs[i], nodeArgs[i], env)) return false;
+            }
+            return true;
+        } else {
+            return pattern.sameValueAs(node);
+        }
+    }
+    
+//  =======================================================================
+//  Inner classes
+
+    /**
+     * A rule compiled for semi-naive evaluation, with a precomputed join
+     * order for each choice of delta pattern.
+     */
+    protected static class CompiledRule {
+        
+        /** The source rule */
+        final Rule rule;
+        
+        /** The number of variables in the rule */
+        final int numVars;
+        
+        /** The triple patterns of the body, in body order */
+        final TriplePattern[] patterns;
+        
+        /** plans[k] is the order in which to join the other patterns when pattern k matches the delta */
+        final int[][] plans;
+        
+        /** Predicates the rule can deduce, Node.ANY if the rule has a variable head predicate */
+        final Set<Node> headPredicates = new HashSet<Node>();
+        
+        /** Predicates the rule body matches, Node.ANY for a variable predicate */
+        final Set<Node> bodyPredicates = new HashSet<Node>();
+        
+        /** Predicates the rule body tests for absence, Node.ANY if unknown */
+        final Set<Node> negatedPredicates = new HashSet<Node>();
+        
+        CompiledRule(Rule rule) {
+            this.rule = rule;
+            this.numVars = rule.getNumVars();
+            List<TriplePattern> body = new ArrayList<TriplePattern>();
+            for (int i = 0; i < rule.bodyLength(); i++) {
+                ClauseEntry clause = rule.getBodyElement(i);
+                if (clause instanceof TriplePattern) {
+                    TriplePattern pattern = (TriplePattern)clause;
+                    body.add(pattern);
+                    bodyPredicates.add(predicateKey(pattern.getPredicate()));
+                } else if (clause instanceof Functor) {
+                    Functor f = (Functor)clause;
+                    Builtin imp = f.getImplementor();
+                    if (imp != null && !imp.isMonotonic()) {
+                        // noValue style tests take (subject, predicate, object) arguments
+                        Node[] args = f.getArgs();
+                        negatedPredicates.add(args.length > 1 ? predicateKey(args[1]) : Node.ANY);
+                    }
+                }
+            }
+            for (int i = 0; i < rule.headLength(); i++) {
+                ClauseEntry clause = rule.getHeadElement(i);
+                if (clause instanceof TriplePattern) {
+                    headPredicates.add(predicateKey(((TriplePattern)clause).getPredicate()));
+                }
+            }
+            patterns = body.toArray(new TriplePattern[body.size()]);
+            plans = new int[patterns.length][];
+            for (int k = 0; k < patterns.length; k++) {
+                plans[k] = plan(k);
+            }
+        }
+        
+        /**
+         * Order the remaining patterns greedily, most bound pattern first,
+         * given that pattern first has been matched.
+         */
+        private int[] plan(int first) {
+            boolean[] bound = new boolean[numVars];
+            boolean[] used = new boolean[patterns.length];
+            int[] order = new int[patterns.length - 1];
+            used[first] = true;
+            bindVars(patterns[first], bound);
+            for (int n = 0; n < order.length; n++) {
+                int best = -1;
+                int bestScore = -1;
+                for (int i = 0; i < patterns.length; i++) {
+                    if (used[i]) continue;
+                    TriplePattern p = patterns[i];
+                    int score = scoreNode(p.getSubject(), bound) * 3 +
+                                scoreNode(p.getPredicate(), bound) * 2 +
+                                scoreNode(p.getObject(), bound) * 3;
+                    if (score > bestScore) {
+                        bestScore = score;
+                        best = i;
+                    }
+                }
+                order[n] = best;
+                used[best] = true;
+                bindVars(patterns[best], bound);
+            }
+            return order;
+        }
+        
+        /**
+         * Score a pattern node by how much it will restrict the search for it.
+         * Functor patterns can't be searched on so count as unbound.
+         */
+        private static int scoreNode(Node n, boolean[] bound) {
+            if (n instanceof Node_RuleVariable) {
+                int index = ((Node_RuleVariable)n).getIndex();
+                return (index >= 0 && bound[index]) ? 3 : 0;
+            } else if (n instanceof Node_ANY || Functor.isFunctor(n)) {
+                return 0;
+            } else if (n.equals(RDF.type.asNode())) {
+                return 1;
+            } else {
+                return 3;
+            }
+        }
+        
+        /**
+         * Mark all the variables of a pattern as bound.
+         */
+        private static void bindVars(TriplePattern pattern, boolean[] bound) {
+            bindVars(pattern.getSubject(), bound);
+            bindVars(pattern.getPredicate(), bound);
+            bindVars(pattern.getObject(), bound);
+        }
+        
+        private static void bindVars(Node n, boolean[] bound) {
+            if (n instanceof Node_RuleVariable) {
+                int index = ((Node_RuleVariable)n).getIndex();
+                if (index >= 0) bound[index] = true;
+            } else if (Functor.isFunctor(n)) {
+                Node[] args = ((Functor)n.getLiteralValue()).getArgs();
+                for (int i = 0; i < args.length; i++) {
+                    bindVars(args[i], bound);
+                }
+            }
+        }
+        
+        private static Node predicateKey(Node p) {
+            return isWildcard(p) ? Node.ANY : p;
+        }
+    }
+    
+    /**
+     * Structure used to wrap up the compiled rule set, so that it can be
+     * shared between the inference graphs bound to one reasoner.
+     */
+    protected static class RuleStore {
+        
+        /** The source rules */
+        final List<Rule> rules;
+        
+        /** The compiled rules, grouped by stratum in evaluation order */
+        final List<List<CompiledRule>> strata;
+        
+        /** The predicates the rule bodies match, null if some body has a variable predicate */
+        final Set<Node> predicatesUsed;
+        
+        /** True if no rule body uses a non-monotonic builtin */
+        final boolean isMonotonic;
+        
+        RuleStore(List<Rule> rules, List<List<CompiledRule>> strata, Set<Node> predicatesUsed, boolean isMonotonic) {
+            this.rules = rules;
+            this.strata = strata;
+            this.predicatesUsed = predicatesUsed;
+            this.isMonotonic = isMonotonic;
+        }
+    }
+}
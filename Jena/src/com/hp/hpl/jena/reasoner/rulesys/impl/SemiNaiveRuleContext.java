@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.reasoner.rulesys.impl;
+
+import com.hp.hpl.jena.graph.*;
+import com.hp.hpl.jena.reasoner.*;
+import com.hp.hpl.jena.reasoner.rulesys.*;
+import com.hp.hpl.jena.util.iterator.ClosableIterator;
+
+/**
+ * Context used by the semi-naive engine when evaluating rule builtins, giving
+ * the builtins access to the current binding environment and to the data.
+ * Triples added by builtins join the set of deductions of the current round.
+ */
+public class SemiNaiveRuleContext implements RuleContext {
+    
+    /** The binding environment which represents the current rule instantiation */
+    protected BindingEnvironment env;
+    
+    /** The rule being evaluated */
+    protected Rule rule;
+    
+    /** The enclosing inference graph */
+    protected ForwardRuleInfGraphI graph;
+    
+    /** The engine evaluating the rules */
+    protected SemiNaiveEngine engine;
+    
+    /**
+     * Constructor.
+     * @param graph the inference graph which owns the engine
+     * @param engine the engine evaluating the rules
+     */
+    public SemiNaiveRuleContext(ForwardRuleInfGraphI graph, SemiNaiveEngine engine) {
+        this.graph = graph;
+        this.engine = engine;
+    }
+    
+    /**
+     * Returns the current variable binding environment for the current rule.
+     */
+    @Override
+    public BindingEnvironment getEnv() {
+        return env;
+    }
+    
+    /**
+     * Set the binding environment for the current rule instantiation.
+     */
+    public void setEnv(BindingEnvironment env) {
+        this.env = env;
+    }
+
+    /**
+     * Returns the parent inference graph.
+     */
+    @Override
+    public InfGraph getGraph() {
+        return graph;
+    }
+    
+    /**
+     * Returns the rule being evaluated.
+     */
+    @Override
+    public Rule getRule() {
+        return rule;
+    }
+
+    /**
+     * Set the rule being evaluated.
+     */
+    @Override
+    public void setRule(Rule rule) {
+        this.rule = rule;
+    }
+
+    /**
+     * Return true if the triple is already in either the data or the deductions.
+     * Deductions of the round in progress are not visible until the round ends.
+     */
+    @Override
+    public boolean contains(Triple t) {
+        return contains(t.getSubject(), t.getPredicate(), t.getObject());
+    }
+
+    /**
+     * Return true if the triple pattern is already in either the data or the deductions.
+     */
+    @Override
+    public boolean contains(Node s, Node p, Node o) {
+        ClosableIterator<Triple> it = find(s, p, o);
+        boolean result = it.hasNext();
+        it.close();
+        return result;
+    }
+
+    /**
+     * Find all triples in the data and deductions which match the pattern.
+     */
+    @Override
+    public ClosableIterator<Triple> find(Node s, Node p, Node o) {
+        return graph.findDataMatches(s, p, o);
+    }
+
+    /**
+     * Assert a new triple in the deduction graph, bypassing any processing machinery.
+     */
+    @Override
+    public void silentAdd(Triple t) {
+        ((SilentAddI)graph).silentAdd(t);
+    }
+
+    /**
+     * Assert a new triple as a deduction of the current round.
+     */
+    @Override
+    public void add(Triple t) {
+        engine.addDeduction(t);
+    }
+
+    /**
+     * Remove a triple from the deduction graph (and the original graph if relevant).
+     */
+    @Override
+    public void remove(Triple t) {
+        graph.getRawGraph().delete(t);
+        graph.getCurrentDeductionsGraph().delete(t);
+    }
+
+}
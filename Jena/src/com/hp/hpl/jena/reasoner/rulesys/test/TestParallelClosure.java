@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.reasoner.rulesys.test;
+
+import java.util.*;
+
+import com.hp.hpl.jena.graph.*;
+import com.hp.hpl.jena.reasoner.InfGraph;
+import com.hp.hpl.jena.reasoner.rulesys.*;
+import com.hp.hpl.jena.reasoner.rulesys.impl.RETEEngine;
+import com.hp.hpl.jena.util.PrintUtil;
+import com.hp.hpl.jena.vocabulary.ReasonerVocabulary;
+
+/**
+ * Check that the parallel initial closure of the RETE engine computes the
+ * same deductions as the sequential one, for a rule set whose body builtins
+ * read the graph while the closure is being computed.
+ * <pre>
+ * Usage:  TestParallelClosure [rounds]
+ * </pre>
+ * Exits with a non-zero status if any round differs.
+ */
+public class TestParallelClosure {
+
+    static final String NS = "http://example.org/test#";
+
+    static final String RULES =
+        "[trans: (?a eg:p ?b), (?b eg:p ?c) -> (?a eg:p ?c)]" +
+        // noValue reads the graph, eg:q is only in the data so the result does not depend on order
+        "[open:  (?a eg:p ?b), noValue(?a eg:q ?b) -> (?a eg:r ?b)]" +
+        // eg:s is deduced, and read back by a builtin in the next rule
+        "[mark:  (?a eg:p ?b), (?b eg:type eg:Leaf) -> (?a eg:s ?b)]" +
+        "[count: (?a eg:s ?b), countLiteralValues(?a eg:label ?n), ge(?n, 1) -> (?a eg:labelled eg:yes)]";
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        PrintUtil.registerPrefix("eg", NS);
+        List<Rule> rules = Rule.parseRules(RULES);
+        int failures = 0;
+        long deductions = 0;
+        for (int round = 0; round < rounds; round++) {
+            Graph data = generate(round, 120);
+            Set<Triple> sequential = closure(rules, data, 1);
+            Set<Triple> parallel = closure(rules, data, 4);
+            deductions += sequential.size();
+            if (!sequential.equals(parallel)) {
+                failures++;
+                System.out.println("Round " + round + ": sequential " + sequential.size() + " deductions, parallel " + parallel.size());
+            }
+        }
+        System.out.println(failures == 0 ? "OK: " + rounds + " rounds, " + deductions + " deductions" : "FAILED: " + failures + " of " + rounds + " rounds");
+        if (failures > 0) System.exit(1);
+    }
+
+    /** The deductions of the forward RETE engine using the given number of closure threads */
+    static Set<Triple> closure(List<Rule> rules, Graph data, int threads) {
+        int savedThreads = RETEEngine.closureThreads;
+        int savedThreshold = RETEEngine.parallelBatchThreshold;
+        RETEEngine.closureThreads = threads;
+        RETEEngine.parallelBatchThreshold = 10;
+        try {
+            GenericRuleReasoner reasoner = new GenericRuleReasoner(rules);
+            reasoner.setParameter(ReasonerVocabulary.PROPruleMode, "forwardRETE");
+            InfGraph inf = reasoner.bind(data);
+            inf.prepare();
+            Set<Triple> deductions = new HashSet<Triple>();
+            for (Iterator<Triple> i = inf.getDeductionsGraph().find(Node.ANY, Node.ANY, Node.ANY); i.hasNext(); ) {
+                deductions.add(i.next());
+            }
+            return deductions;
+        } finally {
+            RETEEngine.closureThreads = savedThreads;
+            RETEEngine.parallelBatchThreshold = savedThreshold;
+        }
+    }
+
+    /** A random graph of eg:p links with some eg:q links, leaves and labels */
+    static Graph generate(long seed, int size) {
+        Random random = new Random(seed);
+        Graph g = Factory.createGraphMem();
+        for (int i = 0; i < size; i++) {
+            Node a = node("n" + random.nextInt(size / 4));
+            Node b = node("n" + random.nextInt(size / 4));
+            g.add(Triple.create(a, node("p"), b));
+            if (random.nextInt(3) == 0) g.add(Triple.create(a, node("q"), b));
+            if (random.nextInt(5) == 0) g.add(Triple.create(b, node("type"), node("Leaf")));
+            if (random.nextInt(5) == 0) g.add(Triple.create(a, node("label"), Node.createLiteral("n" + i)));
+        }
+        return g;
+    }
+
+    static Node node(String localName) {
+        return Node.createURI(NS + localName);
+    }
+}
@@ -0,0 +1,712 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.reasoner.transitiveReasoner;
+
+import com.hp.hpl.jena.graph.*;
+import com.hp.hpl.jena.util.iterator.*;
+import com.hp.hpl.jena.reasoner.*;
+
+import java.util.*;
+
+/**
+ * Alternative implementation of the transitive closure cache which stores
+ * the closure as a compact reachability index rather than as a graph of
+ * linked node objects.
+ * <p>
+ * Each RDF node is given a dense integer id. Strongly connected components are
+ * collapsed onto a lead id exactly as in {@link TransitiveGraphCache}. For each
+ * lead we keep the direct (reduced) successors and predecessors as small open
+ * addressed int sets and the closed successors as a sorted int array. Typical
+ * class and property hierarchies are nearly tree shaped so the closed successor
+ * arrays are short (the depth of the branch) and a subsumption test is a
+ * binary search over them. Closed predecessors are not stored at all, they are
+ * recovered by walking the direct predecessor links which costs time proportional
+ * to the size of the answer. This avoids the expensive predecessor closure noted
+ * against the interval index TODO in the parent class, while still being
+ * cheap to update.
+ * </p><p>
+ * Adding a link which does not create a cycle is handled incrementally by
+ * extending the closed successor arrays of the start node and of those of its
+ * descendants which actually change, retracting any direct links which have
+ * become redundant on the way. Links which close a cycle, and deletes which
+ * remove a direct link, just mark the index as stale. It is then rebuilt from
+ * the original triples, collapsing cycles using Tarjan's algorithm, the next
+ * time it is queried.
+ * </p><p>
+ * Instances are normally obtained via {@link TransitiveGraphCache#create} when
+ * {@link TransitiveGraphCache#useCompactIndex} is set. The answers are the same
+ * as those of the parent class, except that the duplicate triples the parent
+ * can return for members of strongly connected components are suppressed.
+ * </p>
+ */
+public class CompactTransitiveGraphCache extends TransitiveGraphCache {
+
+    /** Shared empty id array */
+    protected static final int[] NO_IDS = new int[0];
+    
+    /** Map from RDF node to its integer id */
+    protected HashMap<Node, Integer> ids = new HashMap<Node, Integer>();
+    
+    /** The RDF node for each id */
+    protected Node[] nodes;
+    
+    /** The lead id of the strongly connected component containing each id */
+    protected int[] lead;
+    
+    /** For lead ids of non-trivial components, the sorted ids of all the members, otherwise null */
+    protected int[][] members;
+    
+    /** For lead ids, the leads of the direct successors in the transitive reduction, may be null */
+    protected IntSet[] succ;
+    
+    /** For lead ids, the leads of the direct predecessors in the transitive reduction, may be null */
+    protected IntSet[] pred;
+    
+    /** For lead ids, the sorted leads of all the (non-reflexive) closed successors */
+    protected int[][] closedSucc;
+    
+    /** The number of ids allocated so far */
+    protected int nNodes;
+    
+    /** True if the index needs rebuilding from the original triples before it can be queried */
+    protected boolean stale = false;
+    
+    /**
+     * Constructor - create a new cache to hold the given relation information.
+     * @param directPredicate The RDF predicate representing the direct relation
+     * @param closedPredicate The RDF predicate representing the closed relation
+     */
+    public CompactTransitiveGraphCache(Node directPredicate, Node closedPredicate) {
+        super(directPredicate, closedPredicate);
+        reset(16);
+    }
+    
+    /**
+     * Register a new relation instance in the cache
+     */
+    @Override
+    public synchronized void addRelation(Triple t) {
+        originalTriples.add(t);
+        if (stale) return;          // Will be picked up by the rebuild
+        Node start = t.getSubject();
+        Node end = t.getObject();
+        if (start.equals(end)) return;      // Reflexive case is built in
+        int startId = idFor(start);
+        int endId = idFor(end);
+        int a = lead[startId];
+        int b = lead[endId];
+        if (reaches(a, b)) {
+            // Already known so no work to do
+            return;
+        }
+        if (reaches(b, a)) {
+            // Creates a new strongly connected component, rebuild on demand
+            stale = true;
+            return;
+        }
+        link(a, b);
+    }
+    
+    /**
+     * Remove an instance of a relation from the cache.
+     */
+    @Override
+    public synchronized void removeRelation(Triple t) {
+        if (!originalTriples.remove(t)) return;
+        if (stale) return;
+        Integer start = ids.get(t.getSubject());
+        Integer end = ids.get(t.getObject());
+        if (start == null || end == null || start.equals(end)) return;
+        int a = lead[start.intValue()];
+        int b = lead[end.intValue()];
+        if (a == b || (succ[a] != null && succ[a].contains(b))) {
+            // A direct link or one within a component, the closure may change
+            stale = true;
+        }
+        // Otherwise the link was redundant and the closure is unaffected
+    }
+    
+    /**
+     * Return an iterator over all registered subject nodes
+     */
+    @Override
+    public ExtendedIterator<Node> listAllSubjects() {
+        ensureIndex();
+        return WrappedIterator.create(ids.keySet().iterator());
+    }
+   
+    /**
+     * Return true if the given Node is registered as a subject node
+     */
+    @Override
+    public boolean isSubject(Node node) {
+        ensureIndex();
+        return ids.containsKey(node);
+    }
+    
+    /**
+     * Basic pattern lookup interface.
+     * @param pattern a TriplePattern to be matched against the data
+     * @return a ExtendedIterator over all Triples in the data set
+     *  that match the pattern
+     */
+    @Override
+    public ExtendedIterator<Triple> find(TriplePattern pattern) {
+        ensureIndex();
+        Node s = pattern.getSubject();
+        Node p = pattern.getPredicate();
+        Node o = pattern.getObject();
+        
+        if (p.isVariable() || p.equals(directPredicate) || p.equals(closedPredicate)) {
+            boolean closed = !p.equals(directPredicate);
+            if (s.isVariable()) {
+                if (o.isVariable()) {
+                    // list all the graph contents
+                    return new FullWalker(closed, nNodes);
+                } else {
+                    // list all backwards from o
+                    Integer id = ids.get(o);
+                    if (id == null) return NullIterator.instance();
+                    return WrappedIterator.create(predecessorTriples(id.intValue(), closed).iterator());
+                }
+            } else {
+                Integer sid = ids.get(s);
+                if (sid == null) return NullIterator.instance();
+                if (o.isVariable()) {
+                    // list forward from s
+                    return WrappedIterator.create(successorTriples(sid.intValue(), closed).iterator());
+                } else {
+                    // Singleton test
+                    Integer oid = ids.get(o);
+                    if (oid == null) return NullIterator.instance();
+                    int a = lead[sid.intValue()];
+                    int b = lead[oid.intValue()];
+                    boolean found = closed ? reaches(a, b) 
+                                           : (a == b || (succ[a] != null && succ[a].contains(b)));
+                    if (found) {
+                        return new SingletonIterator<Triple>(new Triple(s, closedPredicate, o));
+                    } else {
+                        return NullIterator.instance();
+                    }
+                }
+            }
+        } else {
+            // No matching triples in this cache
+            return NullIterator.instance();
+        }
+    }
+    
+    /**
+     * Create a deep copy of the cache contents.
+     * Works by creating a completely new cache from the original triples,
+     * the index itself is built on first use.
+     */
+    @Override
+    public synchronized TransitiveGraphCache deepCopy() {
+        CompactTransitiveGraphCache copy = new CompactTransitiveGraphCache(directPredicate, closedPredicate);
+        copy.originalTriples.addAll(originalTriples);
+        copy.stale = true;
+        return copy;
+    }
+    
+    /**
+     * Clear the entire cache contents. 
+     */
+    @Override
+    public synchronized void clear() {
+        originalTriples.clear();
+        reset(16);
+    }
+    
+    /**
+     * Enable/disabling caching of the Triples representing the relationships.
+     * This implementation never caches result triples so this just records the setting.
+     */
+    @Override
+    public void setCaching(boolean enable) {
+        cacheTriples = enable;
+    }
+    
+    /**
+     * Dump a description of the cache to a string for debug.
+     */
+    @Override
+    public String dump() {
+        ensureIndex();
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < nNodes; i++) {
+            sb.append(nodes[i]);
+            if (lead[i] != i) {
+                sb.append(" leader=" + nodes[lead[i]]);
+            } else {
+                sb.append(" succ=" + dumpIds(succ[i] == null ? NO_IDS : succ[i].toArray()));
+                sb.append(", succClosed=" + dumpIds(closedSucc[i]));
+                sb.append(", pred=" + dumpIds(pred[i] == null ? NO_IDS : pred[i].toArray()));
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+    
+//  ----------------------------------------------------------------------
+//  Internal utility methods    
+//  ----------------------------------------------------------------------
+    
+    /**
+     * Discard the index, leaving room for the given number of nodes.
+     */
+    private void reset(int capacity) {
+        ids = new HashMap<Node, Integer>();
+        nodes = new Node[capacity];
+        lead = new int[capacity];
+        members = new int[capacity][];
+        succ = new IntSet[capacity];
+        pred = new IntSet[capacity];
+        closedSucc = new int[capacity][];
+        nNodes = 0;
+        stale = false;
+    }
+    
+    /**
+     * Return the id for the given RDF node, allocating a new singleton
+     * component if the node has not been seen before.
+     */
+    private int idFor(Node n) {
+        Integer id = ids.get(n);
+        if (id != null) return id.intValue();
+        if (nNodes == nodes.length) {
+            int capacity = nNodes * 2;
+            nodes = Arrays.copyOf(nodes, capacity);
+            lead = Arrays.copyOf(lead, capacity);
+            members = Arrays.copyOf(members, capacity);
+            succ = Arrays.copyOf(succ, capacity);
+            pred = Arrays.copyOf(pred, capacity);
+            closedSucc = Arrays.copyOf(closedSucc, capacity);
+        }
+        int i = nNodes++;
+        nodes[i] = n;
+        lead[i] = i;
+        closedSucc[i] = NO_IDS;
+        ids.put(n, Integer.valueOf(i));
+        return i;
+    }
+    
+    /**
+     * Test if lead a reaches lead b in the reflexive closure.
+     */
+    private boolean reaches(int a, int b) {
+        return a == b || Arrays.binarySearch(closedSucc[a], b) >= 0;
+    }
+    
+    /**
+     * Add a direct link between two leads, which must not create a cycle
+     * and must not already be implied by the closure.
+     */
+    private void link(int a, int b) {
+        int[] added = union(closedSucc[b], new int[] {b});
+        // Walk a and its descendants, stopping below any whose closure is already complete
+        IntSet visited = new IntSet();
+        int[] stack = new int[8];
+        int top = 0;
+        stack[top++] = a;
+        visited.add(a);
+        while (top > 0) {
+            int x = stack[--top];
+            // Direct links from x into the new closure are now implied via a
+            IntSet xs = succ[x];
+            if (xs != null) {
+                int[] targets = xs.toArray();
+                for (int i = 0; i < targets.length; i++) {
+                    int y = targets[i];
+                    if (Arrays.binarySearch(added, y) >= 0) {
+                        xs.remove(y);
+                        pred[y].remove(x);
+                    }
+                }
+            }
+            int[] old = closedSucc[x];
+            closedSucc[x] = union(old, added);
+            if (closedSucc[x] == old) continue;
+            IntSet xp = pred[x];
+            if (xp == null) continue;
+            int[] preds = xp.toArray();
+            for (int i = 0; i < preds.length; i++) {
+                if (visited.add(preds[i])) {
+                    if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                    stack[top++] = preds[i];
+                }
+            }
+        }
+        if (succ[a] == null) succ[a] = new IntSet();
+        succ[a].add(b);
+        if (pred[b] == null) pred[b] = new IntSet();
+        pred[b].add(a);
+    }
+    
+    /**
+     * Rebuild the index from the original triples if it has been marked as stale.
+     */
+    private synchronized void ensureIndex() {
+        if (!stale) return;
+        Set<Triple> triples = originalTriples;
+        reset(Math.max(16, triples.size()));
+        // Allocate ids and build the adjacency lists
+        int[] from = new int[triples.size()];
+        int[] to = new int[triples.size()];
+        int nEdges = 0;
+        for (Iterator<Triple> i = triples.iterator(); i.hasNext(); ) {
+            Triple t = i.next();
+            if (t.getSubject().equals(t.getObject())) continue;
+            from[nEdges] = idFor(t.getSubject());
+            to[nEdges] = idFor(t.getObject());
+            nEdges++;
+        }
+        int[][] adj = new int[nNodes][];
+        int[] degree = new int[nNodes];
+        for (int e = 0; e < nEdges; e++) degree[from[e]]++;
+        for (int n = 0; n < nNodes; n++) adj[n] = new int[degree[n]];
+        for (int e = 0; e < nEdges; e++) {
+            int s = from[e];
+            adj[s][--degree[s]] = to[e];
+        }
+        collapseComponents(adj);
+        // Now the component graph is acyclic and can be added link by link
+        for (int e = 0; e < nEdges; e++) {
+            int a = lead[from[e]];
+            int b = lead[to[e]];
+            if (!reaches(a, b)) link(a, b);
+        }
+    }
+    
+    /**
+     * Find the strongly connected components of the given adjacency graph
+     * (Tarjan's algorithm, iterative form) and record their lead nodes and members.
+     */
+    private void collapseComponents(int[][] adj) {
+        int n = nNodes;
+        int[] index = new int[n];
+        Arrays.fill(index, -1);
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] component = new int[n];
+        int sp = 0;
+        int[] call = new int[n];
+        int[] edge = new int[n];
+        int counter = 0;
+        for (int root = 0; root < n; root++) {
+            if (index[root] != -1) continue;
+            int cp = 0;
+            index[root] = low[root] = counter++;
+            component[sp++] = root;
+            onStack[root] = true;
+            call[cp] = root;
+            edge[cp++] = 0;
+            while (cp > 0) {
+                int v = call[cp-1];
+                if (edge[cp-1] < adj[v].length) {
+                    int w = adj[v][edge[cp-1]++];
+                    if (index[w] == -1) {
+                        index[w] = low[w] = counter++;
+                        component[sp++] = w;
+                        onStack[w] = true;
+                        call[cp] = w;
+                        edge[cp++] = 0;
+                    } else if (onStack[w] && index[w] < low[v]) {
+                        low[v] = index[w];
+                    }
+                } else {
+                    cp--;
+                    if (cp > 0) {
+                        int u = call[cp-1];
+                        if (low[v] < low[u]) low[u] = low[v];
+                    }
+                    if (low[v] == index[v]) {
+                        int start = sp;
+                        do {
+                            onStack[component[--start]] = false;
+                        } while (component[start] != v);
+                        if (sp - start > 1) {
+                            int[] scc = Arrays.copyOfRange(component, start, sp);
+                            Arrays.sort(scc);
+                            for (int i = 0; i < scc.length; i++) lead[scc[i]] = v;
+                            members[v] = scc;
+                        }
+                        sp = start;
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Add the triples linking the given subject to all members of
+     * the component with the given lead, other than the subject itself.
+     */
+    private void addObjects(Node subject, int l, int self, List<Triple> result) {
+        int[] m = members[l];
+        if (m == null) {
+            if (l != self) result.add(new Triple(subject, closedPredicate, nodes[l]));
+        } else {
+            for (int i = 0; i < m.length; i++) {
+                if (m[i] != self) result.add(new Triple(subject, closedPredicate, nodes[m[i]]));
+            }
+        }
+    }
+    
+    /**
+     * Add the triples linking all members of the component with the
+     * given lead, other than the object itself, to the object.
+     */
+    private void addSubjects(Node object, int l, int self, List<Triple> result) {
+        int[] m = members[l];
+        if (m == null) {
+            if (l != self) result.add(new Triple(nodes[l], closedPredicate, object));
+        } else {
+            for (int i = 0; i < m.length; i++) {
+                if (m[i] != self) result.add(new Triple(nodes[m[i]], closedPredicate, object));
+            }
+        }
+    }
+    
+    /**
+     * Return the triples for the direct or closed successors of the given id.
+     */
+    private List<Triple> successorTriples(int id, boolean closed) {
+        Node base = nodes[id];
+        int l = lead[id];
+        int[] targets = closed ? closedSucc[l] : (succ[l] == null ? NO_IDS : succ[l].toArray());
+        ArrayList<Triple> result = new ArrayList<Triple>(targets.length + 4);
+        result.add(new Triple(base, closedPredicate, base));    // implicit reflexive case
+        addObjects(base, l, id, result);
+        for (int i = 0; i < targets.length; i++) {
+            addObjects(base, targets[i], id, result);
+        }
+        return result;
+    }
+    
+    /**
+     * Return the triples for the direct or closed predecessors of the given id.
+     */
+    private List<Triple> predecessorTriples(int id, boolean closed) {
+        Node base = nodes[id];
+        int l = lead[id];
+        ArrayList<Triple> result = new ArrayList<Triple>();
+        result.add(new Triple(base, closedPredicate, base));    // implicit reflexive case
+        addSubjects(base, l, id, result);
+        if (pred[l] == null) return result;
+        if (!closed) {
+            int[] sources = pred[l].toArray();
+            for (int i = 0; i < sources.length; i++) {
+                addSubjects(base, sources[i], id, result);
+            }
+            return result;
+        }
+        IntSet visited = new IntSet();
+        int[] stack = new int[8];
+        int top = 0;
+        stack[top++] = l;
+        while (top > 0) {
+            IntSet xp = pred[stack[--top]];
+            if (xp == null) continue;
+            int[] sources = xp.toArray();
+            for (int i = 0; i < sources.length; i++) {
+                int y = sources[i];
+                if (visited.add(y)) {
+                    addSubjects(base, y, id, result);
+                    if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                    stack[top++] = y;
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Return the sorted union of two sorted id arrays. Returns the first
+     * array itself if the second adds nothing new.
+     */
+    private static int[] union(int[] a, int[] b) {
+        int extra = 0;
+        for (int i = 0; i < b.length; i++) {
+            if (Arrays.binarySearch(a, b[i]) < 0) extra++;
+        }
+        if (extra == 0) return a;
+        int[] result = new int[a.length + extra];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[k++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[k++] = b[j++];
+            } else {
+                result[k++] = a[i++];
+                j++;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Dump a set of ids as RDF nodes for debug.
+     */
+    private String dumpIds(int[] set) {
+        StringBuffer sb = new StringBuffer();
+        sb.append("{");
+        for (int i = 0; i < set.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(nodes[set[i]]);
+        }
+        sb.append("}");
+        return sb.toString();
+    }
+    
+    /**
+     * Inner class used to walk the closed or direct relation of every node in turn.
+     */
+    private class FullWalker extends NiceIterator<Triple> implements ExtendedIterator<Triple> {
+        
+        /** Flag whether we are walking over the closed or direct relations */
+        boolean closed;
+        
+        /** The next node id to expand */
+        int nextId = 0;
+        
+        /** The number of node ids to walk */
+        int limit;
+        
+        /** The triples for the node currently being walked */
+        Iterator<Triple> current = null;
+        
+        /** Construct a walker for the full closed or direct graph */
+        FullWalker(boolean closed, int limit) {
+            this.closed = closed;
+            this.limit = limit;
+        }
+        
+        /** Iterator interface - test if more values available */
+        @Override public boolean hasNext() {
+            while (current == null || !current.hasNext()) {
+                if (nextId >= limit) return false;
+                current = successorTriples(nextId++, closed).iterator();
+            }
+            return true;
+        }
+        
+        /** Iterator interface - get next value */
+        @Override public Triple next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return current.next();
+        }
+        
+    } // End of FullWalker inner class
+    
+    /**
+     * Minimal open addressing set of non-negative ints, used for the
+     * direct link sets which are usually tiny but can be very large
+     * for the predecessors of a root class.
+     */
+    static class IntSet {
+        
+        /** Marker for an unused slot */
+        static final int EMPTY = -1;
+        
+        /** Marker for a slot whose entry has been removed */
+        static final int REMOVED = -2;
+        
+        /** The hash table slots */
+        int[] slots = new int[] {EMPTY, EMPTY, EMPTY, EMPTY};
+        
+        /** Number of entries present */
+        int size = 0;
+        
+        /** Number of slots in use, including removed markers */
+        int used = 0;
+        
+        /** Add a value, returns true if it was not already present */
+        boolean add(int v) {
+            if (contains(v)) return false;
+            if ((used + 1) * 4 > slots.length * 3) rehash();
+            int mask = slots.length - 1;
+            int i = hash(v) & mask;
+            while (slots[i] >= 0) i = (i + 1) & mask;
+            if (slots[i] == EMPTY) used++;
+            slots[i] = v;
+            size++;
+            return true;
+        }
+        
+        /** Remove a value, returns true if it was present */
+        boolean remove(int v) {
+            int i = indexOf(v);
+            if (i < 0) return false;
+            slots[i] = REMOVED;
+            size--;
+            return true;
+        }
+        
+        /** Test if the value is present */
+        boolean contains(int v) {
+            return indexOf(v) >= 0;
+        }
+        
+        /** Return the values present, in no particular order */
+        int[] toArray() {
+            int[] result = new int[size];
+            int k = 0;
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] >= 0) result[k++] = slots[i];
+            }
+            return result;
+        }
+        
+        private int indexOf(int v) {
+            int mask = slots.length - 1;
+            int i = hash(v) & mask;
+            while (slots[i] != EMPTY) {
+                if (slots[i] == v) return i;
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+        
+        private void rehash() {
+            int[] old = slots;
+            int capacity = old.length;
+            while (size * 2 >= capacity) capacity *= 2;
+            slots = new int[capacity];
+            Arrays.fill(slots, EMPTY);
+            used = size;
+            int mask = capacity - 1;
+            for (int j = 0; j < old.length; j++) {
+                int v = old[j];
+                if (v >= 0) {
+                    int i = hash(v) & mask;
+                    while (slots[i] != EMPTY) i = (i + 1) & mask;
+                    slots[i] = v;
+                }
+            }
+        }
+        
+        private static int hash(int v) {
+            int h = v * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+    
+}
@@ -128,8 +128,8 @@ public class TransitiveEngine {
         }
         if ((TransitiveEngine.checkOccuranceUtility(subPropertyOf, newDataG, subPropertyCache) ||
                TransitiveEngine.checkOccuranceUtility(subClassOf, newDataG, subPropertyCache))) {
-             subClassCache = new TransitiveGraphCache(directSubClassOf, subClassOf);
-             subPropertyCache = new TransitiveGraphCache(directSubPropertyOf, subPropertyOf);
+             subClassCache = TransitiveGraphCache.create(directSubClassOf, subClassOf);
+             subPropertyCache = TransitiveGraphCache.create(directSubPropertyOf, subPropertyOf);
              TransitiveEngine.cacheSubPropUtility(data, subPropertyCache);
              TransitiveEngine.cacheSubClassUtility(data, subPropertyCache, subClassCache);
          }        
@@ -60,6 +60,11 @@ import java.util.*;
 
 public class TransitiveGraphCache implements Finder {
 
+    /** Set to true to make {@link #create} build caches which use the compact
+     *  reachability index of {@link CompactTransitiveGraphCache} instead of the 
+     *  linked graph representation */
+    public static boolean useCompactIndex = false;
+
 	/** Flag controlling the whether the triples 
 	 *  representing the closed relation should also be cached. */
 	protected boolean cacheTriples = false;
@@ -316,6 +321,20 @@ public class TransitiveGraphCache implements Finder {
         this.closedPredicate = closedPredicate;
     }
     
+    /**
+     * Create a new cache to hold the given relation information, using the
+     * implementation selected by {@link #useCompactIndex}.
+     * @param directPredicate The RDF predicate representing the direct relation
+     * @param closedPredicate The RDF predicate representing the closed relation
+     */
+    public static TransitiveGraphCache create(Node directPredicate, Node closedPredicate) {
+        if (useCompactIndex) {
+            return new CompactTransitiveGraphCache(directPredicate, closedPredicate);
+        } else {
+            return new TransitiveGraphCache(directPredicate, closedPredicate);
+        }
+    }
+    
     /**
      * Returns the closedPredicate.
      * @return Node
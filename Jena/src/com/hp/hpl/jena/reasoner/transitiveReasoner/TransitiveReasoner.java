@@ -69,8 +69,8 @@ public class TransitiveReasoner implements Reasoner {
     
     /** Constructor */
     public TransitiveReasoner() {
-        subClassCache = new TransitiveGraphCache(directSubClassOf, subClassOf);
-        subPropertyCache = new TransitiveGraphCache(directSubPropertyOf, subPropertyOf);
+        subClassCache = TransitiveGraphCache.create(directSubClassOf, subClassOf);
+        subPropertyCache = TransitiveGraphCache.create(directSubPropertyOf, subPropertyOf);
     }
     
     /**
@@ -164,8 +164,8 @@ public class TransitiveReasoner implements Reasoner {
         if (this.tbox != null) {
             throw new ReasonerException("Attempt to bind multiple rulesets - disallowed for now");
         }
-        TransitiveGraphCache sCc = new TransitiveGraphCache(directSubClassOf, subClassOf);
-        TransitiveGraphCache sPc = new TransitiveGraphCache(directSubPropertyOf, subPropertyOf);
+        TransitiveGraphCache sCc = TransitiveGraphCache.create(directSubClassOf, subClassOf);
+        TransitiveGraphCache sPc = TransitiveGraphCache.create(directSubPropertyOf, subPropertyOf);
         TransitiveEngine.cacheSubPropUtility(tbox, sPc);
         TransitiveEngine.cacheSubClassUtility(tbox, sPc, sCc);
         
@@ -234,6 +234,15 @@ public class ARQConstants
     /** Context key for the execution-scoped bNode variable generator */
     public static final Symbol sysVarAllocAnon          = Symbol.create(systemVarNS+"namedVarAnon") ;
     
+    /** Context key for the number of sorted runs written to disk by ORDER BY in this query execution (a Long) */
+    public static final Symbol sysSortRuns              = Symbol.create(systemVarNS+"sortRuns") ;
+    
+    /** Context key for the number of bytes written to disk by ORDER BY in this query execution (a Long) */
+    public static final Symbol sysSortBytesSpilled      = Symbol.create(systemVarNS+"sortBytesSpilled") ;
+    
+    /** Context key for the number of merge passes over data on disk by ORDER BY in this query execution (a Long) */
+    public static final Symbol sysSortMergePasses       = Symbol.create(systemVarNS+"sortMergePasses") ;
+    
     /** Context key for making all SELECT queries have DISTINCT applied, whether stated ot not */
     public static final Symbol autoDistinct             = ARQConstants.allocSymbol("autoDistinct") ;
     
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.sparql.engine.binding;
+
+import static com.hp.hpl.jena.sparql.engine.binding.BindingBinaryOutputStream.* ;
+
+import java.io.BufferedInputStream ;
+import java.io.IOException ;
+import java.io.InputStream ;
+import java.util.ArrayList ;
+import java.util.Iterator ;
+import java.util.List ;
+import java.util.NoSuchElementException ;
+
+import org.openjena.atlas.lib.Chars ;
+import org.openjena.atlas.lib.Closeable ;
+import org.openjena.riot.RiotException ;
+
+import com.hp.hpl.jena.datatypes.RDFDatatype ;
+import com.hp.hpl.jena.datatypes.TypeMapper ;
+import com.hp.hpl.jena.graph.Node ;
+import com.hp.hpl.jena.rdf.model.AnonId ;
+import com.hp.hpl.jena.sparql.core.Var ;
+
+/** Read bindings written by {@link BindingBinaryOutputStream}. */ 
+public class BindingBinaryInputStream implements Iterator<Binding>, Closeable
+{
+    private final InputStream in ;
+    private final List<Var> vars = new ArrayList<Var>() ;
+    private final List<String> dictionary = new ArrayList<String>() ;
+    
+    private byte[] body = new byte[256] ;
+    private int pos = 0 ;
+    
+    private Binding slot = null ;
+    private boolean finished = false ;
+    
+    public BindingBinaryInputStream(InputStream in)
+    {
+        this.in = new BufferedInputStream(in, BUFFER_SIZE) ;
+        int magic = 0 ;
+        for ( int i = 0 ; i < 4 ; i++ )
+        {
+            int b = readByte() ;
+            if ( b < 0 )
+            {
+                // Empty stream.
+                finished = true ;
+                return ;
+            }
+            magic = (magic << 8) | b ;
+        }
+        if ( magic != MAGIC )
+            throw new RiotException("Not a binary bindings stream") ;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if ( slot != null )
+            return true ;
+        if ( finished )
+            return false ;
+        slot = readBinding() ;
+        if ( slot == null )
+            finished = true ;
+        return slot != null ;
+    }
+
+    @Override
+    public Binding next()
+    {
+        if ( ! hasNext() )
+            throw new NoSuchElementException() ;
+        Binding b = slot ;
+        slot = null ;
+        return b ;
+    }
+
+    @Override
+    public void remove()
+    { throw new UnsupportedOperationException() ; }
+
+    @Override
+    public void close()
+    {
+        finished = true ;
+        try { in.close() ; }
+        catch (IOException ex) { throw new RiotException(ex) ; }
+    }
+    
+    private Binding readBinding()
+    {
+        for ( ;; )
+        {
+            int tag = readByte() ;
+            if ( tag < 0 )
+                return null ;
+            readBody() ;
+            switch (tag)
+            {
+                case REC_VARS:
+                {
+                    int N = readVarInt() ;
+                    for ( int i = 0 ; i < N ; i++ )
+                        vars.add(Var.alloc(readString())) ;
+                    break ;
+                }
+                case REC_ROW:
+                    return readRow() ;
+                default:
+                    throw new RiotException("Bad record type in binary bindings stream: "+tag) ;
+            }
+        }
+    }
+    
+    private Binding readRow()
+    {
+        int N = vars.size() ;
+        int bitmapStart = pos ;
+        pos += (N+7)/8 ;
+        BindingMap binding = BindingFactory.create() ;
+        for ( int i = 0 ; i < N ; i++ )
+        {
+            if ( ( body[bitmapStart + (i>>>3)] & (1 << (i & 7)) ) == 0 )
+                continue ;
+            binding.add(vars.get(i), readNode()) ;
+        }
+        return binding ;
+    }
+
+    private Node readNode()
+    {
+        int type = body[pos++] ;
+        switch (type)
+        {
+            case NODE_URI:
+            {
+                String ns = readDictionary() ;
+                String local = readString() ;
+                return Node.createURI(ns.concat(local)) ;
+            }
+            case NODE_BNODE:
+                return Node.createAnon(new AnonId(readString())) ;
+            case NODE_LITERAL:
+                return Node.createLiteral(readString()) ;
+            case NODE_LITERAL_LANG:
+            {
+                String lex = readString() ;
+                String lang = readDictionary() ;
+                return Node.createLiteral(lex, lang, false) ;
+            }
+            case NODE_LITERAL_DT:
+            {
+                String lex = readString() ;
+                RDFDatatype dt = TypeMapper.getInstance().getSafeTypeByName(readDictionary()) ;
+                return Node.createLiteral(lex, null, dt) ;
+            }
+            case NODE_VAR:
+                return Var.alloc(readString()) ;
+            default:
+                throw new RiotException("Bad node type in binary bindings stream: "+type) ;
+        }
+    }
+    
+    private String readDictionary()
+    {
+        int x = readVarInt() ;
+        if ( x > 0 )
+            return dictionary.get(x-1) ;
+        String s = readString() ;
+        if ( dictionary.size() < DICTIONARY_LIMIT )
+            dictionary.add(s) ;
+        return s ;
+    }
+    
+    private String readString()
+    {
+        int N = readVarInt() ;
+        String s = null ;
+        // Fast path for ASCII.
+        char[] chars = new char[N] ;
+        int i = 0 ;
+        for ( ; i < N ; i++ )
+        {
+            byte b = body[pos+i] ;
+            if ( b < 0 )
+                break ;
+            chars[i] = (char)b ;
+        }
+        if ( i == N )
+            s = new String(chars) ;
+        else
+            s = new String(body, pos, N, Chars.charsetUTF8) ;
+        pos += N ;
+        return s ;
+    }
+    
+    private int readVarInt()
+    {
+        int x = 0 ;
+        int shift = 0 ;
+        for ( ;; )
+        {
+            byte b = body[pos++] ;
+            x |= (b & 0x7F) << shift ;
+            if ( b >= 0 )
+                return x ;
+            shift += 7 ;
+        }
+    }
+    
+    // Read the length-prefixed body of a record.
+    private void readBody()
+    {
+        int len = 0 ;
+        int shift = 0 ;
+        for ( ;; )
+        {
+            int b = readByte() ;
+            if ( b < 0 )
+                throw new RiotException("Truncated binary bindings stream") ;
+            len |= (b & 0x7F) << shift ;
+            if ( b < 0x80 )
+                break ;
+            shift += 7 ;
+        }
+        if ( len > body.length )
+            body = new byte[Math.max(len, 2*body.length)] ;
+        try {
+            int n = 0 ;
+            while ( n < len )
+            {
+                int x = in.read(body, n, len-n) ;
+                if ( x < 0 )
+                    throw new RiotException("Truncated binary bindings stream") ;
+                n += x ;
+            }
+        } catch (IOException ex) { throw new RiotException(ex) ; }
+        pos = 0 ;
+    }
+    
+    private int readByte()
+    {
+        try { return in.read() ; }
+        catch (IOException ex) { throw new RiotException(ex) ; }
+    }
+}
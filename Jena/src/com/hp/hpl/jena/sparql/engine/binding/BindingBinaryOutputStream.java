@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.sparql.engine.binding;
+
+import java.io.BufferedOutputStream ;
+import java.io.IOException ;
+import java.io.OutputStream ;
+import java.util.ArrayList ;
+import java.util.HashMap ;
+import java.util.Iterator ;
+import java.util.List ;
+import java.util.Map ;
+
+import org.openjena.atlas.lib.Chars ;
+import org.openjena.atlas.lib.Sink ;
+import org.openjena.riot.RiotException ;
+
+import com.hp.hpl.jena.graph.Node ;
+import com.hp.hpl.jena.sparql.core.Var ;
+
+/** Write bindings in a compact binary form, for temporary storage such as spill files.
+ *  Read back with {@link BindingBinaryInputStream}.
+ *  <p>
+ *  The stream is a header, then a sequence of records, each a tag byte and a length-prefixed body:
+ *  <ul>
+ *  <li>VARS - variables to add to the end of the variable table.</li>
+ *  <li>ROW - a bitmap of which variables in the table are bound, then the node for each bound variable.</li>
+ *  </ul>
+ *  Each node is a type tag then its parts.  IRI namespaces, datatypes and language tags
+ *  are written once and then referred to by number.  The dictionary is per-stream,
+ *  so records must be read in order.
+ */
+public class BindingBinaryOutputStream implements Sink<Binding>
+{
+    static final int MAGIC              = 0x42424E31 ;     // "BBN1"
+    
+    static final int REC_VARS           = 1 ;
+    static final int REC_ROW            = 2 ;
+    
+    static final int NODE_URI           = 1 ;
+    static final int NODE_BNODE         = 2 ;
+    static final int NODE_LITERAL       = 3 ;
+    static final int NODE_LITERAL_LANG  = 4 ;
+    static final int NODE_LITERAL_DT    = 5 ;
+    static final int NODE_VAR           = 6 ;
+    
+    // Limit on the number of dictionary entries; strings after that are always written out.
+    static final int DICTIONARY_LIMIT   = 1<<16 ;
+    
+    static final int BUFFER_SIZE        = 64*1024 ;
+    
+    private final OutputStream out ;
+    private final ByteBuilder body = new ByteBuilder() ;
+    private final ByteBuilder header = new ByteBuilder() ;
+    
+    private final List<Var> vars = new ArrayList<Var>() ;
+    private final Map<Var, Integer> varIndex = new HashMap<Var, Integer>() ;
+    private final Map<String, Integer> dictionary = new HashMap<String, Integer>() ;
+    private final List<Var> newVars = new ArrayList<Var>() ;
+    
+    public BindingBinaryOutputStream(OutputStream out)
+    {
+        this.out = new BufferedOutputStream(out, BUFFER_SIZE) ;
+        header.writeInt(MAGIC) ;
+        write(header) ;
+    }
+    
+    public final void write(Binding binding) { send(binding) ; }
+    
+    @Override
+    public void send(Binding binding)
+    {
+        // Any variables not seen before?
+        for ( Iterator<Var> iter = binding.vars() ; iter.hasNext() ; )
+        {
+            Var v = iter.next() ;
+            if ( ! varIndex.containsKey(v) )
+            {
+                varIndex.put(v, vars.size()) ;
+                vars.add(v) ;
+                newVars.add(v) ;
+            }
+        }
+        
+        if ( newVars.size() > 0 )
+        {
+            body.reset() ;
+            body.writeVarInt(newVars.size()) ;
+            for ( Var v : newVars )
+                body.writeString(v.getVarName()) ;
+            writeRecord(REC_VARS) ;
+            newVars.clear() ;
+        }
+        
+        body.reset() ;
+        int N = vars.size() ;
+        int bitmapStart = body.length() ;
+        for ( int i = 0 ; i < (N+7)/8 ; i++ )
+            body.write(0) ;
+        for ( int i = 0 ; i < N ; i++ )
+        {
+            Node n = binding.get(vars.get(i)) ;
+            if ( n == null )
+                continue ;
+            body.setBit(bitmapStart, i) ;
+            writeNode(n) ;
+        }
+        writeRecord(REC_ROW) ;
+    }
+    
+    private void writeNode(Node n)
+    {
+        if ( n.isURI() )
+        {
+            String uri = n.getURI() ;
+            int idx = splitPoint(uri) ;
+            body.write(NODE_URI) ;
+            writeDictionary(uri.substring(0, idx)) ;
+            body.writeString(uri.substring(idx)) ;
+            return ;
+        }
+        if ( n.isBlank() )
+        {
+            body.write(NODE_BNODE) ;
+            body.writeString(n.getBlankNodeLabel()) ;
+            return ;
+        }
+        if ( n.isLiteral() )
+        {
+            String lex = n.getLiteralLexicalForm() ;
+            String lang = n.getLiteralLanguage() ;
+            String dt = n.getLiteralDatatypeURI() ;
+            if ( dt != null )
+            {
+                body.write(NODE_LITERAL_DT) ;
+                body.writeString(lex) ;
+                writeDictionary(dt) ;
+            }
+            else if ( lang != null && lang.length() > 0 )
+            {
+                body.write(NODE_LITERAL_LANG) ;
+                body.writeString(lex) ;
+                writeDictionary(lang) ;
+            }
+            else
+            {
+                body.write(NODE_LITERAL) ;
+                body.writeString(lex) ;
+            }
+            return ;
+        }
+        if ( n.isVariable() )
+        {
+            body.write(NODE_VAR) ;
+            body.writeString(n.getName()) ;
+            return ;
+        }
+        throw new RiotException("Can't write node: "+n) ;
+    }
+    
+    // Namespace : up to and including the last '#' or '/'
+    private static int splitPoint(String uri)
+    {
+        for ( int i = uri.length()-1 ; i >= 0 ; i-- )
+        {
+            char ch = uri.charAt(i) ;
+            if ( ch == '#' || ch == '/' )
+                return i+1 ;
+        }
+        return 0 ;
+    }
+    
+    // 0 then the string for a new entry, else the entry number plus one. 
+    private void writeDictionary(String s)
+    {
+        Integer x = dictionary.get(s) ;
+        if ( x != null )
+        {
+            body.writeVarInt(x.intValue()+1) ;
+            return ;
+        }
+        body.writeVarInt(0) ;
+        body.writeString(s) ;
+        if ( dictionary.size() < DICTIONARY_LIMIT )
+            dictionary.put(s, dictionary.size()) ;
+    }
+    
+    private void writeRecord(int tag)
+    {
+        header.reset() ;
+        header.write(tag) ;
+        header.writeVarInt(body.length()) ;
+        write(header) ;
+        write(body) ;
+    }
+    
+    private void write(ByteBuilder bytes)
+    {
+        try { out.write(bytes.bytes(), 0, bytes.length()) ; }
+        catch (IOException ex) { throw new RiotException(ex) ; }
+    }
+
+    @Override
+    public void flush()
+    {
+        try { out.flush() ; }
+        catch (IOException ex) { throw new RiotException(ex) ; }
+    }
+    
+    @Override
+    public void close()
+    {
+        try { out.close() ; }
+        catch (IOException ex) { throw new RiotException(ex) ; }
+    }
+    
+    /** Growable byte array with the encodings used by the format. */ 
+    static final class ByteBuilder
+    {
+        private byte[] bytes = new byte[256] ;
+        private int len = 0 ;
+        
+        byte[] bytes()  { return bytes ; }
+        int length()    { return len ; }
+        void reset()    { len = 0 ; }
+        
+        private void ensure(int extra)
+        {
+            if ( len + extra > bytes.length )
+            {
+                byte[] b = new byte[Math.max(2*bytes.length, len+extra)] ;
+                System.arraycopy(bytes, 0, b, 0, len) ;
+                bytes = b ;
+            }
+        }
+        
+        void write(int b)
+        {
+            ensure(1) ;
+            bytes[len++] = (byte)b ;
+        }
+        
+        void setBit(int start, int i)
+        {
+            bytes[start + (i>>>3)] |= (byte)(1 << (i & 7)) ;
+        }
+        
+        void writeInt(int x)
+        {
+            ensure(4) ;
+            bytes[len++] = (byte)(x >>> 24) ;
+            bytes[len++] = (byte)(x >>> 16) ;
+            bytes[len++] = (byte)(x >>> 8) ;
+            bytes[len++] = (byte)x ;
+        }
+        
+        // 7 bits per byte, low bits first, high bit set on all but the last byte.
+        void writeVarInt(int x)
+        {
+            ensure(5) ;
+            while ( (x & ~0x7F) != 0 )
+            {
+                bytes[len++] = (byte)((x & 0x7F) | 0x80) ;
+                x >>>= 7 ;
+            }
+            bytes[len++] = (byte)x ;
+        }
+        
+        // Length in bytes, then UTF-8.
+        void writeString(String s)
+        {
+            int N = s.length() ;
+            int start = len ;
+            // Assume ASCII : rewritten if not.  
+            writeVarInt(N) ;
+            ensure(N) ;
+            int i = 0 ;
+            for ( ; i < N ; i++ )
+            {
+                char ch = s.charAt(i) ;
+                if ( ch >= 0x80 )
+                    break ;
+                bytes[len++] = (byte)ch ;
+            }
+            if ( i == N )
+                return ;
+            
+            // Not ASCII.
+            byte[] b = s.getBytes(Chars.charsetUTF8) ;
+            len = start ;
+            writeVarInt(b.length) ;
+            ensure(b.length) ;
+            System.arraycopy(b, 0, bytes, len, b.length) ;
+            len += b.length ;
+        }
+    }
+}
@@ -148,6 +148,8 @@ public class BindingOutputStream implements Sink<Binding>
     private static boolean needVars(List<Var> vars, Binding binding)
     {
         if ( vars == null ) return true ;
+        // A binding with variables not in the current VARS also needs a new VARS.
+        if ( binding.size() != vars.size() ) return true ;
         for ( Var v : vars )
         {
             if ( ! binding.contains(v) )
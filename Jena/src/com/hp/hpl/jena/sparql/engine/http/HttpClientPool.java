@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.sparql.engine.http;
+
+import java.net.URI ;
+
+import org.apache.http.HttpHost ;
+import org.apache.http.client.HttpClient ;
+import org.apache.http.conn.routing.HttpRoute ;
+import org.apache.http.impl.client.ContentEncodingHttpClient ;
+import org.apache.http.impl.conn.SchemeRegistryFactory ;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager ;
+import org.apache.http.params.BasicHttpParams ;
+import org.apache.http.params.HttpConnectionParams ;
+import org.apache.http.params.HttpParams ;
+import org.slf4j.Logger ;
+import org.slf4j.LoggerFactory ;
+
+/** The HTTP client shared by remote query execution ({@link QueryEngineHTTP}
+ *  and SERVICE).  Connections are pooled and kept alive between requests, up
+ *  to a limit in total and a limit for each route (scheme, host and port).
+ *  Requests ask for compressed responses; gzip and deflate responses are
+ *  decoded as they are read.
+ *  <p>
+ *  A connection goes back to the pool when its response has been read to the
+ *  end or the response stream is closed, so the stream returned by
+ *  {@link HttpQuery#exec()} must always be closed.
+ */
+public class HttpClientPool
+{
+    static final Logger log = LoggerFactory.getLogger(HttpClientPool.class) ;
+    
+    /** Default maximum number of pooled connections */
+    public static final int DefaultMaxTotal = 50 ;
+    /** Default maximum number of pooled connections for one route */
+    public static final int DefaultMaxPerRoute = 10 ;
+    
+    private static int maxTotal = DefaultMaxTotal ;
+    private static int maxPerRoute = DefaultMaxPerRoute ;
+    private static ThreadSafeClientConnManager connManager = null ;
+    private static HttpClient client = null ;
+    // Set if the client library can't be loaded (e.g. commons-logging, 
+    // or jcl-over-slf4j, is missing).
+    private static LinkageError unavailable = null ;
+    
+    /** The shared client, or null if the HTTP client library is not available */
+    public static synchronized HttpClient get()
+    {
+        if ( client == null && unavailable == null )
+        {
+            try {
+                connManager = new ThreadSafeClientConnManager(SchemeRegistryFactory.createDefault()) ;
+                connManager.setMaxTotal(maxTotal) ;
+                connManager.setDefaultMaxPerRoute(maxPerRoute) ;
+                HttpParams params = new BasicHttpParams() ;
+                HttpConnectionParams.setTcpNoDelay(params, true) ;
+                client = new ContentEncodingHttpClient(connManager, params) ;
+            } catch (LinkageError err)
+            {
+                unavailable = err ;
+                connManager = null ;
+            }
+        }
+        return client ;
+    }
+    
+    /** Why the HTTP client library could not be loaded, or null if it has not failed */
+    public static synchronized LinkageError getUnavailableReason()
+    {
+        return unavailable ;
+    }
+    
+    /** Set the maximum number of pooled connections */
+    public static synchronized void setMaxTotal(int n)
+    {
+        maxTotal = n ;
+        if ( connManager != null )
+            connManager.setMaxTotal(n) ;
+    }
+    
+    /** Set the default maximum number of pooled connections for one route */
+    public static synchronized void setMaxPerRoute(int n)
+    {
+        maxPerRoute = n ;
+        if ( connManager != null )
+            connManager.setDefaultMaxPerRoute(n) ;
+    }
+    
+    /** Set the maximum number of pooled connections to the server of a URL */
+    public static synchronized void setMaxForRoute(String url, int n)
+    {
+        if ( get() == null )
+            return ;
+        URI uri = URI.create(url) ;
+        HttpHost host = new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme()) ;
+        connManager.setMaxForRoute(new HttpRoute(host), n) ;
+    }
+    
+    /** Close all pooled connections.  A later request starts a new pool. */
+    public static synchronized void shutdown()
+    {
+        if ( connManager != null )
+            connManager.shutdown() ;
+        connManager = null ;
+        client = null ;
+    }
+}
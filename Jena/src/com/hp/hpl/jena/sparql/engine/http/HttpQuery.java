@@ -19,6 +19,7 @@
 package com.hp.hpl.jena.sparql.engine.http;
 
 import java.io.ByteArrayInputStream ;
+import java.io.FilterInputStream ;
 import java.io.IOException ;
 import java.io.InputStream ;
 import java.io.OutputStream ;
@@ -31,6 +32,15 @@ import java.util.List ;
 import java.util.Map ;
 
 import org.apache.commons.codec.binary.Base64 ;
+import org.apache.http.HttpEntity ;
+import org.apache.http.HttpResponse ;
+import org.apache.http.client.HttpClient ;
+import org.apache.http.client.methods.HttpGet ;
+import org.apache.http.client.methods.HttpPost ;
+import org.apache.http.client.methods.HttpUriRequest ;
+import org.apache.http.conn.HttpHostConnectException ;
+import org.apache.http.entity.StringEntity ;
+import org.apache.http.util.EntityUtils ;
 import org.slf4j.Logger ;
 import org.slf4j.LoggerFactory ;
 
@@ -45,7 +55,12 @@ import com.hp.hpl.jena.util.FileUtils ;
  *  There are higher level classes for doing a query and presenting
  *  the results in an API fashion. 
  * 
- *  If the query string is large, then HTTP POST is used. */
+ *  If the query string is large, then HTTP POST is used.
+ *  
+ *  Requests are made with the shared, pooled client of {@link HttpClientPool}
+ *  unless {@link #usePooledClient} is false, when each request opens a new
+ *  java.net connection.  Either way, the caller must close the stream returned
+ *  by {@link #exec()}. */
 public class HttpQuery extends Params
 {
     static final Logger log = LoggerFactory.getLogger(HttpQuery.class.getName()) ;
@@ -54,6 +69,13 @@ public class HttpQuery extends Params
     // Not final so that other code can change it.
     static public /*final*/ int urlLimit = 2*1024 ;
     
+    /** Whether to make requests with the pooled client of {@link HttpClientPool} */
+    // Not final so that other code can change it.
+    static public /*final*/ boolean usePooledClient = true ;
+    
+    // Whether the fall back to java.net, when the pooled client is unavailable, has been logged.
+    private static boolean warnedNoPool = false ;
+    
     String serviceURL ;
     
     String contentTypeResult = HttpParams.contentTypeResultsXML ;
@@ -109,6 +131,7 @@ public class HttpQuery extends Params
         return queryString ;
     }
 
+    /** The java.net connection used for the request; null if the pooled client was used */
     public HttpURLConnection getConnection() { return httpConnection ; }
     
     /** Set the content type (Accept header) for the results
@@ -152,6 +175,11 @@ public class HttpQuery extends Params
     public InputStream exec() throws QueryExceptionHTTP
     {
         try {
+            HttpClient client = usePooledClient ? HttpClientPool.get() : null ;
+            if ( client != null )
+                return execClient(client, usesPOST()) ;
+            if ( usePooledClient )
+                warnNoPool() ;
             if (usesPOST())
                 return execPost();
             return execGet();
@@ -167,6 +195,14 @@ public class HttpQuery extends Params
         }
     }
 
+    private static synchronized void warnNoPool()
+    {
+        if ( warnedNoPool )
+            return ;
+        warnedNoPool = true ;
+        log.warn("Pooled HTTP client not available - using java.net connections: "+HttpClientPool.getUnavailableReason()) ;
+    }
+
     private InputStream execGet() throws QueryExceptionHTTP
     {
         URL target = null ;
@@ -261,6 +297,13 @@ public class HttpQuery extends Params
     }
     
     private void basicAuthentication(HttpURLConnection httpConnection2)
+    {
+        String x = basicAuthenticationHeader() ;
+        if ( x != null )
+            httpConnection.setRequestProperty("Authorization", x) ;
+    }
+    
+    private String basicAuthenticationHeader()
     {
         // Do basic authentication : do directly, not via an Authenticator, because it 
         // avoids an extra round trip (Java normally does the request without authetication,
@@ -277,20 +320,152 @@ public class HttpQuery extends Params
                 StringBuffer x = new StringBuffer() ;
                 byte b[] = x.append(user).append(":").append(password).toString().getBytes("UTF-8") ;
                 String y = Base64.encodeBase64String(b) ;
-                httpConnection.setRequestProperty("Authorization", "Basic "+y) ;
                 // Overwrite any password details we copied.
                 // Still leaves the copy in the HTTP connection.  But this only basic auth. 
                 for ( int i = 0 ; i < x.length() ; i++ ) x.setCharAt(i, '*') ;
                 for ( int i = 0 ; i < b.length ; i++ ) b[i] = (byte)0 ; 
+                return "Basic "+y ;
             } catch (UnsupportedEncodingException ex)
             {
                 // Can't happen - UTF-8 is required of all Java platforms. 
                 throw new ARQInternalErrorException("UTF-8 is broken on this platform", ex) ;
             }
         }
+        return null ;
+    }
+    
+    // Request by the pooled client.  The response is not buffered: the stream
+    // returned reads from the connection, which goes back to the pool when the
+    // stream is read to the end.  Closing it before the end aborts the request.
+    private InputStream execClient(HttpClient client, boolean post) throws QueryExceptionHTTP
+    {
+        String qs = getQueryString() ;
+        HttpUriRequest request ;
+        try {
+            if ( post )
+            {
+                ARQ.getHttpRequestLogger().trace(serviceURL) ;
+                HttpPost httpPost = new HttpPost(serviceURL) ;
+                // Already encoded by Params.
+                StringEntity entity = new StringEntity(qs, "US-ASCII") ;
+                entity.setContentType("application/x-www-form-urlencoded") ;
+                httpPost.setEntity(entity) ;
+                request = httpPost ;
+            }
+            else
+            {
+                ARQ.getHttpRequestLogger().trace(qs) ;
+                request = new HttpGet(count() == 0 ? serviceURL : serviceURL+"?"+qs) ;
+            }
+        }
+        catch (IllegalArgumentException ex)
+        { throw new QueryExceptionHTTP(0, "Malformed URL: "+ex.getMessage()) ; }
+        catch (UnsupportedEncodingException ex)
+        { throw new ARQInternalErrorException("US-ASCII is broken on this platform", ex) ; }
+        log.trace(request.getMethod()+" "+request.getURI()) ;
+        
+        request.setHeader("Accept", contentTypeResult) ;
+        String auth = basicAuthenticationHeader() ;
+        if ( auth != null )
+            request.setHeader("Authorization", auth) ;
+        
+        try {
+            HttpResponse response = client.execute(request) ;
+            responseCode = response.getStatusLine().getStatusCode() ;
+            responseMessage = response.getStatusLine().getReasonPhrase() ;
+            HttpEntity entity = response.getEntity() ;
+            
+            if ( 300 <= responseCode && responseCode < 400 )
+            {
+                EntityUtils.consume(entity) ;
+                throw new QueryExceptionHTTP(responseCode, responseMessage) ;
+            }
+            
+            if ( responseCode >= 400 )
+            {
+                String str = ( entity == null ) ? null : EntityUtils.toString(entity, FileUtils.encodingUTF8) ;
+                // Back-off and try POST if something complain about long URIs
+                if ( responseCode == 414 /*HttpServletResponse.SC_REQUEST_URI_TOO_LONG*/ && ! post )
+                    return execClient(client, true) ;
+                if ( str != null )
+                    throw new QueryExceptionHTTP(responseCode, responseMessage+"\n"+str) ;
+                throw new QueryExceptionHTTP(responseCode, responseMessage) ;
+            }
+            
+            if ( entity == null )
+                return new ByteArrayInputStream(new byte[0]) ;
+            return new ResponseInputStream(entity.getContent(), request) ;
+        }
+        catch (HttpHostConnectException connEx)
+        { throw new QueryExceptionHTTP(QueryExceptionHTTP.NoServer, "Failed to connect to remote server"); }
+        catch (IOException ioEx)
+        {
+            request.abort() ;
+            throw new QueryExceptionHTTP(ioEx) ;
+        }
     }
 
 
+    /** The response stream of a request made by the pooled client.
+     *  Closing the entity stream of httpclient reads the rest of the response,
+     *  so that the connection can be reused, which for a large result is
+     *  much worse than a new connection.  If the stream is closed with more
+     *  than a little left to read (parsers often stop just short of the end),
+     *  the request is aborted instead. */
+    private static class ResponseInputStream extends FilterInputStream
+    {
+        private static final int DrainLimit = 8*1024 ;
+        
+        private final HttpUriRequest request ;
+        private boolean finished = false ;
+        
+        ResponseInputStream(InputStream in, HttpUriRequest request)
+        {
+            super(in) ;
+            this.request = request ;
+        }
+        
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read() ;
+            if ( b < 0 )
+                finished = true ;
+            return b ;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int n = super.read(b, off, len) ;
+            if ( n < 0 )
+                finished = true ;
+            return n ;
+        }
+        
+        @Override
+        public void close() throws IOException
+        {
+            byte[] buffer = new byte[1024] ;
+            try {
+                for ( int n = 0 ; ! finished && n < DrainLimit ; )
+                {
+                    int x = read(buffer, 0, buffer.length) ;
+                    if ( x > 0 )
+                        n += x ;
+                }
+            } catch (IOException ex) {}
+            if ( finished )
+            {
+                super.close() ;
+                return ;
+            }
+            // Drops the connection.
+            request.abort() ;
+            try { super.close() ; } catch (IOException ex) {}
+        }
+    }
+
     private InputStream execCommon() throws QueryExceptionHTTP
     {
         try {        
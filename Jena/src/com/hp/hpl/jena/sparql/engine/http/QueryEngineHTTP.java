@@ -190,7 +190,13 @@ public class QueryEngineHTTP implements QueryExecution
         HttpQuery httpQuery = makeHttpQuery() ;
         httpQuery.setAccept(HttpParams.contentTypeRDFXML) ;
         InputStream in = httpQuery.exec() ;
-        model.read(in, null) ;
+        try {
+            model.read(in, null) ;
+        } finally {
+            // Ensure connection is released
+            try { in.close(); }
+            catch (java.io.IOException e) { log.warn("Failed to close connection", e); }
+        }
         return model ;
     }
     
@@ -20,6 +20,9 @@ package com.hp.hpl.jena.sparql.engine.http;
 
 import java.io.InputStream ;
 
+import org.openjena.atlas.io.IO ;
+import org.openjena.atlas.lib.Closeable ;
+
 import com.hp.hpl.jena.query.Query ;
 import com.hp.hpl.jena.query.QueryExecException ;
 import com.hp.hpl.jena.query.ResultSet ;
@@ -29,6 +32,7 @@ import com.hp.hpl.jena.sparql.algebra.OpAsQuery ;
 import com.hp.hpl.jena.sparql.algebra.op.OpService ;
 import com.hp.hpl.jena.sparql.engine.QueryIterator ;
 import com.hp.hpl.jena.sparql.engine.Rename ;
+import com.hp.hpl.jena.sparql.engine.iterator.QueryIteratorCloseable ;
 import com.hp.hpl.jena.sparql.engine.iterator.QueryIteratorResultSet ;
 import com.hp.hpl.jena.sparql.mgt.Explain ;
 import com.hp.hpl.jena.sparql.util.Context ;
@@ -64,12 +68,23 @@ public class Service
 //        else
             query = OpAsQuery.asQuery(opRemote) ;
             
+        return exec(op.getService().getURI(), query, context) ;
+    }
+    
+    /** Execute a query on a remote service, returning the results as a QueryIterator */
+    public static QueryIterator exec(String serviceURI, Query query, Context context)
+    {
         Explain.explain("HTTP", query, context) ;            
-        HttpQuery httpQuery = new HttpQuery(op.getService().getURI()) ;
+        HttpQuery httpQuery = new HttpQuery(serviceURI) ;
         httpQuery.addParam(HttpParams.pQuery, query.toString() );
         httpQuery.setAccept(HttpParams.contentTypeResultsXML) ;
-        InputStream in = httpQuery.exec() ;
+        final InputStream in = httpQuery.exec() ;
         ResultSet rs = ResultSetFactory.fromXML(in) ;
-        return new QueryIteratorResultSet(rs) ; 
+        // Closing the stream releases the connection.
+        Closeable release = new Closeable() {
+            @Override
+            public void close() { IO.close(in) ; }
+        } ;
+        return new QueryIteratorCloseable(new QueryIteratorResultSet(rs), release) ; 
     }
 }
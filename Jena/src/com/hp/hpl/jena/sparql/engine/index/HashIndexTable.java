@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.sparql.engine.index;
+
+import java.util.ArrayList ;
+import java.util.HashMap ;
+import java.util.Iterator ;
+import java.util.List ;
+import java.util.Map ;
+
+import org.openjena.atlas.iterator.Iter ;
+import org.openjena.atlas.iterator.Transform ;
+
+import com.hp.hpl.jena.sparql.core.Var ;
+import com.hp.hpl.jena.sparql.engine.binding.Binding ;
+
+/** An in-memory index of bindings, hashed on the values of some key variables.
+ *  <p>
+ *  Rows that do not bind all the key variables are kept to one side and
+ *  are returned as candidates for every probe; a probe binding that does not
+ *  bind all the key variables is matched against every row.  The candidates
+ *  are only those rows that may be compatible - the caller still has to
+ *  check compatibility on the non-key variables.
+ */
+public class HashIndexTable
+{
+    private final List<Var> keyVars ;
+    private final Map<JoinKey, List<Binding>> buckets = new HashMap<JoinKey, List<Binding>>() ;
+    private final List<Binding> unkeyed = new ArrayList<Binding>() ;
+    private long size = 0 ;
+    
+    public HashIndexTable(List<Var> keyVars)
+    {
+        this.keyVars = keyVars ;
+    }
+    
+    public List<Var> getKeyVars()   { return keyVars ; }
+    
+    public void add(Binding binding)
+    {
+        size++ ;
+        JoinKey key = JoinKey.create(keyVars, binding) ;
+        if ( key == null )
+        {
+            unkeyed.add(binding) ;
+            return ;
+        }
+        List<Binding> bucket = buckets.get(key) ;
+        if ( bucket == null )
+        {
+            // Most keys are unique or nearly so - start small.
+            bucket = new ArrayList<Binding>(2) ;
+            buckets.put(key, bucket) ;
+        }
+        bucket.add(binding) ;
+    }
+    
+    public long size()          { return size ; }
+    public boolean isEmpty()    { return size == 0 ; }
+    
+    /** The rows that may be compatible with the probe binding. */
+    public Iterator<Binding> candidates(Binding probe)
+    {
+        JoinKey key = JoinKey.create(keyVars, probe) ;
+        if ( key == null )
+            return iterator() ;
+        List<Binding> bucket = buckets.get(key) ;
+        if ( bucket == null )
+            return unkeyed.iterator() ;
+        if ( unkeyed.isEmpty() )
+            return bucket.iterator() ;
+        return Iter.concat(bucket.iterator(), unkeyed.iterator()) ;
+    }
+    
+    /** All the rows, in no particular order. */
+    public Iterator<Binding> iterator()
+    {
+        Transform<List<Binding>, Iterator<Binding>> flatten = new Transform<List<Binding>, Iterator<Binding>>() {
+            @Override
+            public Iterator<Binding> convert(List<Binding> bucket) { return bucket.iterator() ; }
+        } ;
+        Iterator<Binding> iter = Iter.mapMany(buckets.values().iterator(), flatten) ;
+        return Iter.concat(iter, unkeyed.iterator()) ;
+    }
+    
+    public void clear()
+    {
+        buckets.clear() ;
+        unkeyed.clear() ;
+        size = 0 ;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.sparql.engine.index;
+
+import java.util.Arrays ;
+import java.util.List ;
+
+import com.hp.hpl.jena.graph.Node ;
+import com.hp.hpl.jena.sparql.core.Var ;
+import com.hp.hpl.jena.sparql.engine.binding.Binding ;
+
+/** The values of a fixed list of variables in a binding, usable as a hash key.
+ *  Two bindings with equal keys agree on all the key variables. */
+public final class JoinKey
+{
+    private final Node[] nodes ;
+    private final int hash ;
+    
+    /** Create the key for a binding, or return null if any of the key variables is unbound. */
+    public static JoinKey create(List<Var> vars, Binding binding)
+    {
+        Node[] nodes = new Node[vars.size()] ;
+        for ( int i = 0 ; i < nodes.length ; i++ )
+        {
+            Node n = binding.get(vars.get(i)) ;
+            if ( n == null )
+                return null ;
+            nodes[i] = n ;
+        }
+        return new JoinKey(nodes) ;
+    }
+    
+    private JoinKey(Node[] nodes)
+    {
+        this.nodes = nodes ;
+        this.hash = Arrays.hashCode(nodes) ;
+    }
+    
+    @Override
+    public int hashCode()   { return hash ; }
+    
+    @Override
+    public boolean equals(Object other)
+    {
+        if ( this == other ) return true ;
+        if ( ! ( other instanceof JoinKey ) ) return false ;
+        JoinKey k = (JoinKey)other ;
+        return hash == k.hash && Arrays.equals(nodes, k.nodes) ;
+    }
+    
+    @Override
+    public String toString()    { return Arrays.asList(nodes).toString() ; }
+}
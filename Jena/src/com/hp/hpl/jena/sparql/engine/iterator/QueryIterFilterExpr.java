@@ -20,34 +20,50 @@ package com.hp.hpl.jena.sparql.engine.iterator;
 
 import org.openjena.atlas.io.IndentedWriter ;
 
+import com.hp.hpl.jena.query.ARQ ;
 import com.hp.hpl.jena.sparql.engine.ExecutionContext ;
 import com.hp.hpl.jena.sparql.engine.QueryIterator ;
 import com.hp.hpl.jena.sparql.engine.binding.Binding ;
+import com.hp.hpl.jena.sparql.expr.CompiledExpr ;
 import com.hp.hpl.jena.sparql.expr.Expr ;
+import com.hp.hpl.jena.sparql.expr.ExprCompiler ;
 import com.hp.hpl.jena.sparql.expr.ExprException ;
+import com.hp.hpl.jena.sparql.expr.ExprList ;
 import com.hp.hpl.jena.sparql.serializer.SerializationContext ;
 import org.openjena.atlas.logging.Log ;
 import com.hp.hpl.jena.sparql.util.ExprUtils ;
 import com.hp.hpl.jena.sparql.util.Utils ;
 
 /** 
- *  Filter a stream of bindings by a constraint. */
+ *  Filter a stream of bindings by a constraint, or by all of a list of constraints.
+ *  The constraints are compiled (see {@link ExprCompiler}) unless the context
+ *  setting {@link ARQ#compileFilters} is false. */
 
 public class QueryIterFilterExpr extends QueryIterProcessBinding
 {
-    private final Expr expr ;
+    private final ExprList exprs ;
+    private final CompiledExpr test ;
     
     public QueryIterFilterExpr(QueryIterator input, Expr expr, ExecutionContext context)
+    {
+        this(input, new ExprList(expr), context) ;
+    }
+    
+    public QueryIterFilterExpr(QueryIterator input, ExprList exprs, ExecutionContext context)
     {
         super(input, context) ;
-        this.expr = expr ;
+        this.exprs = exprs ;
+        if ( context.getContext().isTrueOrUndef(ARQ.compileFilters) )
+            this.test = ExprCompiler.compile(exprs, context) ;
+        else
+            this.test = ExprCompiler.interpret(exprs) ;
     }
     
     @Override
     public Binding accept(Binding binding)
     {
         try {
-            if ( expr.isSatisfied(binding, super.getExecContext()) )
+            if ( test.isSatisfied(binding, super.getExecContext()) )
                 return binding ;
             return null ;
         } catch (ExprException ex)
@@ -56,7 +72,7 @@ public class QueryIterFilterExpr extends QueryIterProcessBinding
         }
         catch (Exception ex)
         {
-            Log.warn(this, "General exception in "+expr, ex) ;
+            Log.warn(this, "General exception in "+exprs, ex) ;
             return null ;
         }
     }
@@ -66,7 +82,7 @@ public class QueryIterFilterExpr extends QueryIterProcessBinding
     { 
         out.print(Utils.className(this)) ;
         out.print(" ") ;
-        ExprUtils.fmtSPARQL(out, expr, cxt) ;
+        ExprUtils.fmtSPARQL(out, exprs, cxt) ;
     }
        
 }
@@ -19,26 +19,58 @@
 package com.hp.hpl.jena.sparql.engine.iterator;
 
 import java.util.ArrayList ;
-import java.util.Collection ;
+import java.util.Comparator ;
+import java.util.HashMap ;
+import java.util.HashSet ;
 import java.util.Iterator ;
+import java.util.LinkedHashMap ;
 import java.util.List ;
+import java.util.Map ;
+import java.util.NoSuchElementException ;
+import java.util.Set ;
 
+import org.openjena.atlas.data.BagFactory ;
+import org.openjena.atlas.data.DataBag ;
+import org.openjena.atlas.data.ThresholdPolicy ;
+import org.openjena.atlas.data.ThresholdPolicyFactory ;
+import org.openjena.atlas.iterator.Iter ;
 import org.openjena.atlas.iterator.IteratorDelayedInitialization ;
-import org.openjena.atlas.lib.MultiMap ;
+import org.openjena.atlas.iterator.Transform ;
+import org.openjena.atlas.lib.Closeable ;
 import org.openjena.atlas.lib.Pair ;
+import org.openjena.riot.SerializationFactoryFinder ;
 
 import com.hp.hpl.jena.graph.Node ;
+import com.hp.hpl.jena.query.QueryCancelledException ;
+import com.hp.hpl.jena.query.SortCondition ;
 import com.hp.hpl.jena.sparql.core.Var ;
 import com.hp.hpl.jena.sparql.core.VarExprList ;
 import com.hp.hpl.jena.sparql.engine.ExecutionContext ;
 import com.hp.hpl.jena.sparql.engine.QueryIterator ;
 import com.hp.hpl.jena.sparql.engine.binding.Binding ;
+import com.hp.hpl.jena.sparql.engine.binding.BindingComparator ;
 import com.hp.hpl.jena.sparql.engine.binding.BindingFactory ;
 import com.hp.hpl.jena.sparql.engine.binding.BindingMap ;
+import com.hp.hpl.jena.sparql.expr.Expr ;
 import com.hp.hpl.jena.sparql.expr.ExprAggregator ;
 import com.hp.hpl.jena.sparql.expr.NodeValue ;
 import com.hp.hpl.jena.sparql.expr.aggregate.Accumulator ;
 
+/** Grouping and aggregation.
+ * <p>
+ * By default, groups are found by hashing on the group key. The number of
+ * groups held in memory is governed by the {@link ThresholdPolicy} from the
+ * context (see {@link com.hp.hpl.jena.query.ARQ#spillToDiskThreshold}).
+ * Once over the threshold, rows for groups already in memory continue to be
+ * aggregated there; rows for any other group are written to disk,
+ * partitioned by the hash of the group key, and each partition is grouped
+ * in turn after the in-memory groups have been returned.
+ * <p>
+ * If the input is known to be ordered on the group key, the groups are
+ * formed as the input streams past and each group is returned as soon as it
+ * is complete.
+ */
+
 public class QueryIterGroup extends QueryIterPlainWrapper
 {
 	private final QueryIterator embeddedIterator;
@@ -47,13 +79,57 @@ public class QueryIterGroup extends QueryIterPlainWrapper
                           VarExprList groupVars,
                           List<ExprAggregator> aggregators,
                           ExecutionContext execCxt)
+    {
+        this(qIter, groupVars, aggregators, null, execCxt) ;
+    }
+
+    /** Group an input that is ordered by the given sort conditions.
+     *  The conditions must be those returned by {@link #groupOrder}; if null,
+     *  no order is assumed and hash grouping is used.
+     */
+    public QueryIterGroup(QueryIterator qIter, 
+                          VarExprList groupVars,
+                          List<ExprAggregator> aggregators,
+                          List<SortCondition> inputOrder,
+                          ExecutionContext execCxt)
     {
         super(null, execCxt) ;
         this.embeddedIterator = qIter;
-        Iterator<Binding> iter = calc(qIter, groupVars, aggregators, execCxt) ;
+        Iterator<Binding> iter ;
+        if ( inputOrder == null )
+            iter = calc(qIter, groupVars, aggregators, execCxt) ;
+        else
+            iter = calcSorted(qIter, groupVars, aggregators, inputOrder, execCxt) ;
         setIterator(iter) ;
     }
 
+    /** Determine whether input sorted by the given conditions is ordered on the group key:
+     *  the group must be by plain variables and the leading sort conditions must be 
+     *  exactly those variables (in any order and direction). 
+     *  Returns the leading conditions, or null if the order does not help grouping. 
+     */
+    public static List<SortCondition> groupOrder(VarExprList groupVars, List<SortCondition> conditions)
+    {
+        if ( conditions == null || groupVars.isEmpty() )
+            return null ;
+        if ( ! groupVars.getExprs().isEmpty() )
+            return null ;
+        int N = groupVars.size() ;
+        if ( conditions.size() < N )
+            return null ;
+        Set<Var> seen = new HashSet<Var>() ;
+        for ( int i = 0 ; i < N ; i++ )
+        {
+            Expr expr = conditions.get(i).getExpression() ;
+            if ( ! expr.isVariable() )
+                return null ;
+            Var v = expr.asVar() ;
+            if ( ! groupVars.contains(v) || ! seen.add(v) )
+                return null ;
+        }
+        return new ArrayList<SortCondition>(conditions.subList(0, N)) ;
+    }
+
 	@Override
 	public void requestCancel()
 	{
@@ -66,117 +142,383 @@ public class QueryIterGroup extends QueryIterPlainWrapper
     
     // Phase 2 : Go over the group bindings and assign the value of each aggregation.
 	
-	private static Pair<Var, Accumulator> placeholder = Pair.create((Var)null, (Accumulator)null) ; 
-	
+    // Hash partitioning is applied again to a partition that itself overflows,
+    // with a different hash each time, up to this depth; after that, the partition
+    // is grouped in memory.  Only reached with many colliding group keys.
+    private static final int MaxDepth = 4 ;
+    
+    private static final int NumPartitions = 32 ;
     
     private static Iterator<Binding> calc(final QueryIterator iter, 
                                           final VarExprList groupVarExpr, final List<ExprAggregator> aggregators,
                                           final ExecutionContext execCxt)
     {
-        return new IteratorDelayedInitialization<Binding>() {
-            @Override
-            protected Iterator<Binding> initializeIterator() {
+        return new HashGrouping(iter, new GroupSpec(groupVarExpr, aggregators, execCxt), 0) ;
+    }
+    
+    private static Iterator<Binding> calcSorted(final QueryIterator iter, 
+                                                final VarExprList groupVarExpr, final List<ExprAggregator> aggregators,
+                                                final List<SortCondition> inputOrder,
+                                                final ExecutionContext execCxt)
+    {
+        return new SortedGrouping(iter, new GroupSpec(groupVarExpr, aggregators, execCxt), 
+                                  new BindingComparator(inputOrder, execCxt)) ;
+    }
+
+    // If there are no binding from the input stage, two things can happen.
+    //   If there are no aggregators, there are no groups.
+    //   If there are aggregators, then they may have a default value. 
+    private static Iterator<Binding> emptyInput(GroupSpec spec)
+    {
+        if ( spec.noAggregators )
+        {
+            // No rows to group, no aggregators.
+            // ==> No result rows.
+            return new QueryIterNullIterator(spec.execCxt) ;
+        }
 
-                boolean noAggregators =  ( aggregators == null || aggregators.size() == 0 ) ;
-                
-                // Phase 1 : assign bindings to buckets by key and pump through the aggregrators.
-                MultiMap<Binding, Pair<Var, Accumulator>> accumulators = MultiMap.createMapList() ;
+        Binding binding = null ;
 
-                for ( ; iter.hasNext() ; )
-                {
-                    Binding b = iter.nextBinding() ;
-                    Binding key = genKey(groupVarExpr, b, execCxt) ;
+        for ( Iterator<ExprAggregator> aggIter = spec.aggregators.iterator() ; aggIter.hasNext() ; )
+        {
+            ExprAggregator agg = aggIter.next();
+            Var v = agg.getVar() ;
+            Node value = agg.getAggregator().getValueEmpty() ;
+            if ( value != null )
+                binding = BindingFactory.binding(v, value) ;
+            else
+                binding = BindingFactory.binding() ;
+        }
+
+        if ( binding == null )
+            // This does not happen if there are any aggregators. 
+            return new QueryIterNullIterator(spec.execCxt) ;
+        return QueryIterSingleton.create(binding, spec.execCxt) ;
+    }
+
+    /** The grouping and aggregation to perform */
+    private static final class GroupSpec
+    {
+        final VarExprList groupVarExpr ;
+        final List<ExprAggregator> aggregators ;
+        final ExecutionContext execCxt ;
+        final boolean noAggregators ;
+        
+        GroupSpec(VarExprList groupVarExpr, List<ExprAggregator> aggregators, ExecutionContext execCxt)
+        {
+            this.groupVarExpr = groupVarExpr ;
+            this.aggregators = aggregators ;
+            this.execCxt = execCxt ;
+            this.noAggregators = ( aggregators == null || aggregators.size() == 0 ) ;
+        }
+        
+        Binding key(Binding binding) { return genKey(groupVarExpr, binding, execCxt) ; }
+        
+        Group newGroup(Binding key)
+        {
+            if ( noAggregators )
+                return new Group(key, null) ;
+            List<Pair<Var, Accumulator>> accs = new ArrayList<Pair<Var, Accumulator>>(aggregators.size()) ;
+            for ( ExprAggregator agg : aggregators )
+            {
+                Accumulator x = agg.getAggregator().createAccumulator() ;
+                Var v = agg.getVar() ;
+                accs.add(Pair.create(v, x)) ;
+            }
+            return new Group(key, accs) ;
+        }
+    }
+    
+    /** One group: the key and, if there are aggregators, their accumulators. */ 
+    private static final class Group
+    {
+        final Binding key ;
+        final List<Pair<Var, Accumulator>> accs ;
+        
+        Group(Binding key, List<Pair<Var, Accumulator>> accs)
+        {
+            this.key = key ;
+            this.accs = accs ;
+        }
+        
+        void accumulate(Binding binding, ExecutionContext execCxt)
+        {
+            if ( accs == null )
+                return ;
+            // Do the per-accumulator calculation.
+            for ( Pair<Var, Accumulator> pair : accs )
+                pair.getRight().accumulate(binding, execCxt) ;
+        }
+        
+        // For each bucket, get binding, add aggregator values to the binding.
+        Binding result()
+        {
+            if ( accs == null )
+                return key ;
+            BindingMap b = BindingFactory.create(key) ;
+            for ( Pair<Var, Accumulator> pair : accs )
+            {
+                Var v = pair.getLeft() ;
+                NodeValue value = pair.getRight().getValue() ;
+                Node n = (value==null) ? null : value.asNode() ;
+                if ( v == null || n == null )
+                {} 
+                else
+                    b.add(v, n) ;
+            }
+            return b ;
+        }
+    }
+    
+    private static Transform<Group, Binding> groupToBinding = new Transform<Group, Binding>() {
+        @Override
+        public Binding convert(Group group) { return group.result() ; }
+    } ;
+    
+    /** Hash grouping, spilling rows for new groups to partitions when over the threshold.
+     *  The results for groups are produced as the caller asks for them. */
+    private static final class HashGrouping extends IteratorDelayedInitialization<Binding> implements Closeable
+    {
+        private final GroupSpec spec ;
+        private final int depth ;
+        private Iterator<Binding> input ;
+        
+        private List<DataBag<Binding>> partitions = null ;
+        private int partition = -1 ;
+        private HashGrouping current = null ;
+        
+        HashGrouping(Iterator<Binding> input, GroupSpec spec, int depth)
+        {
+            this.input = input ;
+            this.spec = spec ;
+            this.depth = depth ;
+        }
+        
+        @Override
+        protected Iterator<Binding> initializeIterator()
+        {
+            try {
+                return build() ;
+            } catch (QueryCancelledException ex)
+            {
+                close() ;
+                throw ex ;
+            }
+        }
+        
+        private Iterator<Binding> build()
+        {
+            ThresholdPolicy<Binding> policy = ThresholdPolicyFactory.policyFromContext(spec.execCxt.getContext()) ;
+            Map<Binding, Group> groups = new HashMap<Binding, Group>() ;
+            boolean spilling = false ;
+            boolean anyInput = false ;
 
-                    if ( noAggregators )
+            // Phase 1 : assign bindings to buckets by key and pump through the aggregrators.
+            for ( ; input.hasNext() ; )
+            {
+                Binding b = input.next() ;
+                anyInput = true ;
+                Binding key = spec.key(b) ;
+                Group group = groups.get(key) ;
+                if ( group == null )
+                {
+                    if ( spilling )
                     {
-                        // Put in a dummy to remember the input.
-                        accumulators.put(key, placeholder ) ;
+                        partitionFor(key).add(b) ;
                         continue ;
                     }
-
-                    Collection<Pair<Var, Accumulator>> accs = accumulators.get(key) ;
-                    // Create if does not exist.
-                    if ( accs == null )
+                    group = spec.newGroup(key) ;
+                    groups.put(key, group) ;
+                    policy.increment(key) ;
+                    if ( policy.isThresholdExceeded() && depth < MaxDepth )
                     {
-                        for ( ExprAggregator agg : aggregators )
-                        {
-                            Accumulator x = agg.getAggregator().createAccumulator() ;
-                            Var v = agg.getVar() ;
-                            accumulators.put(key, Pair.create(v, x)) ;
-                        }
-                        accs = accumulators.get(key) ;
+                        spilling = true ;
+                        startPartitions() ;
                     }
-
-                    // Do the per-accumulator calculation.
-                    for ( Pair<Var, Accumulator> pair : accs )
-                        pair.getRight().accumulate(b, execCxt) ;
                 }
+                group.accumulate(b, spec.execCxt) ;
+            }
+            input = null ;
+            
+            // Phase 2 : Empty input
+            // has as iter.hasNext false at start.
+            if ( ! anyInput && depth == 0 )
+                return emptyInput(spec) ;
 
-                // Phase 2 : Empty input
-                // has as iter.hasNext false at start.
-
-                // If there are no binding from the input stage, two things can happen.
-                //   If there are no aggregators, there are no groups.
-                //   If there are aggregators, then they may have a default value. 
-
-                if ( accumulators.isEmpty() )
+            // Phase 2 : There was input and so there are some groups.
+            // The in-memory groups, then each spilled partition grouped in turn.
+            Iterator<Binding> results = Iter.map(groups.values().iterator(), groupToBinding) ;
+            if ( spilling )
+                results = Iter.append(results, new PartitionResults()) ;
+            return results ;
+        }
+        
+        private void startPartitions()
+        {
+            partitions = new ArrayList<DataBag<Binding>>(NumPartitions) ;
+            for ( int i = 0 ; i < NumPartitions ; i++ )
+                // Partitions go straight to disk; each one is grouped later.  
+                partitions.add(BagFactory.newDefaultBag(ThresholdPolicyFactory.<Binding>count(0),
+                                                        SerializationFactoryFinder.bindingSerializationFactory())) ;
+        }
+        
+        private DataBag<Binding> partitionFor(Binding key)
+        {
+            // Vary the hash with depth so a partition that overflows is split differently.
+            int h = key.hashCode() + depth * 0x9E3779B9 ;
+            h ^= (h >>> 16) ;
+            h *= 0x85EBCA6B ;
+            h ^= (h >>> 13) ;
+            h *= 0xC2B2AE35 ;
+            h ^= (h >>> 16) ;
+            return partitions.get((h & 0x7FFFFFFF) % NumPartitions) ;
+        }
+        
+        /** Results of grouping each partition in turn, releasing each as it is finished with.*/ 
+        private final class PartitionResults implements Iterator<Binding>
+        {
+            @Override
+            public boolean hasNext()
+            {
+                for ( ;; )
                 {
-                    if ( noAggregators )
+                    if ( current != null )
                     {
-                        // No rows to group, no aggregators.
-                        // ==> No result rows.
-                        return new QueryIterNullIterator(execCxt) ;
+                        if ( current.hasNext() )
+                            return true ;
+                        current.close() ;
+                        current = null ;
+                        partitions.get(partition).close() ;
                     }
-                    
-                    Binding binding = null ;
-
-                    for ( Iterator<ExprAggregator> aggIter = aggregators.iterator() ; aggIter.hasNext() ; )
+                    partition++ ;
+                    if ( partition >= partitions.size() )
+                        return false ;
+                    DataBag<Binding> bag = partitions.get(partition) ;
+                    if ( bag.size() == 0 )
                     {
-                        ExprAggregator agg = aggIter.next();
-                        Var v = agg.getVar() ;
-                        Node value = agg.getAggregator().getValueEmpty() ;
-                        if ( value != null )
-                            binding = BindingFactory.binding(v, value) ;
-                        else
-                            binding = BindingFactory.binding() ;
+                        bag.close() ;
+                        continue ;
                     }
-                        
-                    if ( binding == null )
-                        // This does not happen if there are any aggregators. 
-                        return new QueryIterNullIterator(execCxt) ;
-                    return QueryIterSingleton.create(binding, execCxt) ;
+                    current = new HashGrouping(bag.iterator(), spec, depth+1) ;
                 }
+            }
+
+            @Override
+            public Binding next()
+            {
+                if ( ! hasNext() )
+                    throw new NoSuchElementException() ;
+                return current.next() ;
+            }
 
-                // Phase 2 : There was input and so there are some groups.
-                // For each bucket, get binding, add aggregator values to the binding.
-                // We used AccNull so there are always accumulators. 
-                
-                if ( noAggregators )
-                    // We used placeholder so there are always the key. 
-                    return  accumulators.keys().iterator() ;
-                
-                List<Binding> results = new ArrayList<Binding>() ;
-
-                for ( Binding k : accumulators.keys() )
+            @Override
+            public void remove()
+            { throw new UnsupportedOperationException() ; }
+        }
+
+        @Override
+        public void close()
+        {
+            if ( current != null )
+                current.close() ;
+            current = null ;
+            if ( partitions != null )
+            {
+                for ( DataBag<Binding> bag : partitions )
+                    bag.close() ;
+            }
+            partitions = null ;
+        }
+    }
+
+    /** Grouping of input ordered on the group key.  A group is complete when the next 
+     *  row sorts after it.  Distinct keys can sort equal (e.g. different lexical forms
+     *  of the same number) so all the groups for keys that sort equal are kept
+     *  until the key changes.
+     */  
+    private static final class SortedGrouping implements Iterator<Binding>
+    {
+        private final GroupSpec spec ;
+        private final Comparator<Binding> comparator ;
+        private final Iterator<Binding> input ;
+        
+        private Map<Binding, Group> run = new LinkedHashMap<Binding, Group>() ;
+        private Binding runKey = null ;
+        private Iterator<Binding> output = null ;
+        private boolean started = false ;
+        
+        SortedGrouping(Iterator<Binding> input, GroupSpec spec, Comparator<Binding> comparator)
+        {
+            this.input = input ;
+            this.spec = spec ;
+            this.comparator = comparator ;
+        }
+        
+        @Override
+        public boolean hasNext()
+        {
+            if ( output != null && output.hasNext() )
+                return true ;
+            output = null ;
+            
+            if ( ! started )
+            {
+                started = true ;
+                if ( ! input.hasNext() )
                 {
-                    Collection<Pair<Var, Accumulator>> accs = accumulators.get(k) ;
-                    BindingMap b = BindingFactory.create(k) ;
-                    
-                    for ( Pair<Var, Accumulator> pair : accs )
-                    {
-                        Var v = pair.getLeft() ;
-                        NodeValue value = pair.getRight().getValue() ;
-                        Node n = (value==null) ? null : value.asNode() ;
-                        if ( v == null || n == null )
-                        {} 
-                        else
-                            b.add(v, n) ;
-                    }
-                    results.add(b) ;
+                    output = emptyInput(spec) ;
+                    return output.hasNext() ;
+                }
+            }
+            
+            if ( run == null )
+                return false ;
+            
+            for ( ; input.hasNext() ; )
+            {
+                Binding b = input.next() ;
+                Binding key = spec.key(b) ;
+                if ( runKey != null && comparator.compare(runKey, key) != 0 )
+                {
+                    // New key : finish the current groups.
+                    output = Iter.map(run.values().iterator(), groupToBinding) ;
+                    run = new LinkedHashMap<Binding, Group>() ;
+                    add(key, b) ;
+                    return true ;
                 }
-                return results.iterator() ;
+                add(key, b) ;
+            }
+            
+            // End of input : the last groups.
+            output = Iter.map(run.values().iterator(), groupToBinding) ;
+            run = null ;
+            return output.hasNext() ;
+        }
+        
+        private void add(Binding key, Binding b)
+        {
+            if ( run.isEmpty() )
+                runKey = key ;
+            Group group = run.get(key) ;
+            if ( group == null )
+            {
+                group = spec.newGroup(key) ;
+                run.put(key, group) ;
             }
-        };
+            group.accumulate(b, spec.execCxt) ;
+        }
+
+        @Override
+        public Binding next()
+        {
+            if ( ! hasNext() )
+                throw new NoSuchElementException() ;
+            return output.next() ;
+        }
+
+        @Override
+        public void remove()
+        { throw new UnsupportedOperationException() ; }
     }
     
     static private Binding genKey(VarExprList vars, Binding binding, ExecutionContext execCxt) 
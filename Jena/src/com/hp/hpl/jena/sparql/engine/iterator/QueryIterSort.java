@@ -32,10 +32,14 @@ import org.openjena.riot.SerializationFactoryFinder ;
 
 import com.hp.hpl.jena.query.QueryCancelledException ;
 import com.hp.hpl.jena.query.SortCondition ;
+import com.hp.hpl.jena.sparql.ARQConstants ;
 import com.hp.hpl.jena.sparql.engine.ExecutionContext ;
 import com.hp.hpl.jena.sparql.engine.QueryIterator ;
 import com.hp.hpl.jena.sparql.engine.binding.Binding ;
 import com.hp.hpl.jena.sparql.engine.binding.BindingComparator ;
+import com.hp.hpl.jena.sparql.mgt.Explain ;
+import com.hp.hpl.jena.sparql.util.Context ;
+import com.hp.hpl.jena.sparql.util.Symbol ;
 
 /** 
  * Sort a query iterator.  The sort will happen in-memory unless the size of the
@@ -60,11 +64,46 @@ public class QueryIterSort extends QueryIterPlainWrapper
         this.embeddedIterator = qIter ;
         
         ThresholdPolicy<Binding> policy = ThresholdPolicyFactory.policyFromContext(context.getContext());
-        this.db = BagFactory.newSortedBag(policy, SerializationFactoryFinder.bindingSerializationFactory(), comparator);
+        int parallelism = isThreadSafe(comparator) ? Runtime.getRuntime().availableProcessors() : 1 ;
+        this.db = BagFactory.newSortedBag(policy, SerializationFactoryFinder.bindingSerializationFactory(), comparator, parallelism);
         
         this.setIterator(new SortedBindingIterator(qIter));
     }
 
+    // Sorting on variables only evaluates nothing that might keep state, so the
+    // comparator can be used by several threads at once.  Expressions may not be safe.
+    private static boolean isThreadSafe(Comparator<Binding> comparator)
+    {
+        if ( ! ( comparator instanceof BindingComparator ) )
+            return false ;
+        for ( SortCondition sc : ((BindingComparator)comparator).getConditions() )
+        {
+            if ( sc.getExpression() == null || ! sc.getExpression().isVariable() )
+                return false ;
+        }
+        return true ;
+    }
+    
+    // Add the disk usage of the sort to the totals for this query execution.
+    private void recordMetrics()
+    {
+        if ( db.getRunCount() == 0 )
+            return ;
+        Context cxt = getExecContext().getContext() ;
+        addTo(cxt, ARQConstants.sysSortRuns, db.getRunCount()) ;
+        addTo(cxt, ARQConstants.sysSortBytesSpilled, db.getBytesSpilled()) ;
+        addTo(cxt, ARQConstants.sysSortMergePasses, db.getMergePasses()) ;
+        Explain.explain(cxt, "Sort: %d runs, %d bytes spilled, %d merge passes", 
+                        db.getRunCount(), db.getBytesSpilled(), db.getMergePasses()) ;
+    }
+    
+    private static void addTo(Context cxt, Symbol symbol, long n)
+    {
+        Object x = cxt.get(symbol) ;
+        long total = ( x instanceof Number ) ? ((Number)x).longValue() : 0 ;
+        cxt.set(symbol, Long.valueOf(total+n)) ;
+    }
+
     @Override
     public void requestCancel()
     {
@@ -102,6 +141,7 @@ public class QueryIterSort extends QueryIterPlainWrapper
         @Override
         public void close()
         {
+            recordMetrics();
             db.close();
         }
     }
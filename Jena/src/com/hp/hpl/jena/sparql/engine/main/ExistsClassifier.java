@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.sparql.engine.main;
+
+import java.util.Collection ;
+import java.util.HashSet ;
+import java.util.Set ;
+
+import org.openjena.atlas.lib.SetUtils ;
+
+import com.hp.hpl.jena.graph.Node ;
+import com.hp.hpl.jena.graph.Triple ;
+import com.hp.hpl.jena.sparql.algebra.Op ;
+import com.hp.hpl.jena.sparql.algebra.OpVars ;
+import com.hp.hpl.jena.sparql.algebra.op.* ;
+import com.hp.hpl.jena.sparql.core.Var ;
+import com.hp.hpl.jena.sparql.expr.Expr ;
+import com.hp.hpl.jena.sparql.expr.ExprFunctionOp ;
+import com.hp.hpl.jena.sparql.expr.ExprList ;
+import com.hp.hpl.jena.sparql.expr.ExprVisitorBase ;
+import com.hp.hpl.jena.sparql.expr.ExprWalker ;
+
+public class ExistsClassifier
+{
+    // FILTER (NOT) EXISTS evaluates its pattern with each solution as input.
+    // For a pattern built only from operators that commute with that
+    // substitution (basic patterns, joins, unions, optionals, filters, ...)
+    // this is the same as evaluating the pattern once and looking for a
+    // compatible row, provided the solution binds no variable of the pattern
+    // other than ones the rows can be matched on.  Slices, grouping, projection
+    // MINUS and assignment inside the pattern see the substituted values, as
+    // do any nested EXISTS, so patterns with those are always evaluated per
+    // solution.
+
+    /** All the variables mentioned in the pattern, or null if the pattern
+     *  can not be evaluated independently of the solutions of the left
+     *  it is tested against. */
+    static public Set<Var> patternVars(Op left, Op pattern)
+    {
+        Set<Var> acc = new HashSet<Var>() ;
+        if ( ! accumulate(pattern, acc) )
+            return null ;
+        // Every solution would have to be tested individually.
+        Set<Var> shared = SetUtils.intersection(VarFinder.fixed(JoinClassifier.effectiveOp(left)), acc) ;
+        if ( ! JoinClassifier.joinKeyVars(left, pattern).containsAll(shared) )
+            return null ;
+        return acc ;
+    }
+
+    private static boolean accumulate(Op op, Set<Var> acc)
+    {
+        op = JoinClassifier.effectiveOp(op) ;
+        if ( op instanceof OpBGP )
+        {
+            OpVars.vars(((OpBGP)op).getPattern(), acc) ;
+            return true ;
+        }
+        if ( op instanceof OpTriple )
+        {
+            addVars(acc, ((OpTriple)op).getTriple()) ;
+            return true ;
+        }
+        if ( op instanceof OpQuadPattern )
+        {
+            OpQuadPattern opQuads = (OpQuadPattern)op ;
+            addVar(acc, opQuads.getGraphNode()) ;
+            OpVars.vars(opQuads.getBasicPattern(), acc) ;
+            return true ;
+        }
+        if ( op instanceof OpPath )
+        {
+            addVar(acc, ((OpPath)op).getTriplePath().getSubject()) ;
+            addVar(acc, ((OpPath)op).getTriplePath().getObject()) ;
+            return true ;
+        }
+        if ( op instanceof OpTable )
+        {
+            acc.addAll(((OpTable)op).getTable().getVars()) ;
+            return true ;
+        }
+        if ( op instanceof OpGraph )
+        {
+            addVar(acc, ((OpGraph)op).getNode()) ;
+            return accumulate(((OpGraph)op).getSubOp(), acc) ;
+        }
+        if ( op instanceof OpFilter )
+            return exprs(((OpFilter)op).getExprs(), acc) && accumulate(((OpFilter)op).getSubOp(), acc) ;
+        if ( op instanceof OpDistinct || op instanceof OpReduced )
+            return accumulate(((Op1)op).getSubOp(), acc) ;
+        if ( op instanceof OpLeftJoin )
+        {
+            ExprList exprs = ((OpLeftJoin)op).getExprs() ;
+            if ( exprs != null && ! exprs(exprs, acc) )
+                return false ;
+            return accumulate(((Op2)op).getLeft(), acc) && accumulate(((Op2)op).getRight(), acc) ;
+        }
+        if ( op instanceof OpJoin || op instanceof OpUnion || op instanceof OpConditional )
+            return accumulate(((Op2)op).getLeft(), acc) && accumulate(((Op2)op).getRight(), acc) ;
+        if ( op instanceof OpSequence || op instanceof OpDisjunction )
+        {
+            for ( Op sub : ((OpN)op).getElements() )
+            {
+                if ( ! accumulate(sub, acc) )
+                    return false ;
+            }
+            return true ;
+        }
+        return false ;
+    }
+
+    private static boolean exprs(ExprList exprs, Set<Var> acc)
+    {
+        for ( Expr e : exprs )
+        {
+            if ( ! expr(e, acc) )
+                return false ;
+        }
+        return true ;
+    }
+
+    private static boolean expr(Expr expr, Set<Var> acc)
+    {
+        NestedPatternFinder finder = new NestedPatternFinder() ;
+        ExprWalker.walk(finder, expr) ;
+        if ( finder.found )
+            return false ;
+        expr.varsMentioned(acc) ;
+        return true ;
+    }
+
+    private static class NestedPatternFinder extends ExprVisitorBase
+    {
+        boolean found = false ;
+        @Override
+        public void visit(ExprFunctionOp funcOp) { found = true ; }
+    }
+
+    private static void addVars(Collection<Var> acc, Triple triple)
+    {
+        addVar(acc, triple.getSubject()) ;
+        addVar(acc, triple.getPredicate()) ;
+        addVar(acc, triple.getObject()) ;
+    }
+
+    private static void addVar(Collection<Var> acc, Node n)
+    {
+        if ( n != null && Var.isVar(n) )
+            acc.add(Var.alloc(n)) ;
+    }
+}
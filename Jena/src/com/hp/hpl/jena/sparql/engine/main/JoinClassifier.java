@@ -18,6 +18,8 @@
 
 package com.hp.hpl.jena.sparql.engine.main ;
 
+import java.util.ArrayList ;
+import java.util.List ;
 import java.util.Set ;
 
 import org.openjena.atlas.lib.SetUtils ;
@@ -134,6 +136,17 @@ public class JoinClassifier
         return !bad1 && !bad2 ;
     }
 
+    /** The variables to hash on when joining left and right without substitution:
+     *  those that are definitely bound on both sides. */
+    static public List<Var> joinKeyVars(Op left, Op right)
+    {
+        left = effectiveOp(left) ;
+        right = effectiveOp(right) ;
+        Set<Var> vLeftFixed = VarFinder.fixed(left) ;
+        Set<Var> vRightFixed = VarFinder.fixed(right) ;
+        return new ArrayList<Var>(SetUtils.intersection(vLeftFixed, vRightFixed)) ;
+    }
+
     static public Op effectiveOp(Op op)
     {
         if (op instanceof OpExt) op = ((OpExt) op).effectiveOp() ;
@@ -18,6 +18,7 @@
 
 package com.hp.hpl.jena.sparql.engine.main;
 
+import java.util.List ;
 import java.util.Set ;
 
 import org.openjena.atlas.lib.SetUtils ;
@@ -73,6 +74,14 @@ public class LeftJoinClassifier
         return ! SetUtils.intersectionP(leftVars, optRight) && ! SetUtils.intersectionP(leftVars, filterVarsRight) ;
     }
     
+    /** The variables to hash on when the left join is executed without substitution. */
+    static public List<Var> joinKeyVars(OpLeftJoin op)
+    {
+        // Optional variables on the right are only set if the right matches,
+        // so, as for join, hash on the variables that are certainly bound on both sides.
+        return JoinClassifier.joinKeyVars(op.getLeft(), op.getRight()) ;
+    }
+    
     static public Set<Var> nonLinearVars(OpLeftJoin op)
     {
         Op left = JoinClassifier.effectiveOp(op.getLeft()) ;
@@ -21,28 +21,36 @@ package com.hp.hpl.jena.sparql.engine.main;
 import java.util.ArrayList ;
 import java.util.Iterator ;
 import java.util.List ;
+import java.util.Set ;
 
 import org.openjena.atlas.iterator.Iter ;
 import org.openjena.atlas.logging.Log ;
 
 import com.hp.hpl.jena.graph.Node ;
+import com.hp.hpl.jena.query.ARQ ;
 import com.hp.hpl.jena.query.QueryExecException ;
+import com.hp.hpl.jena.query.SortCondition ;
 import com.hp.hpl.jena.sparql.ARQNotImplemented ;
 import com.hp.hpl.jena.sparql.algebra.Op ;
 import com.hp.hpl.jena.sparql.algebra.op.* ;
 import com.hp.hpl.jena.sparql.core.BasicPattern ;
 import com.hp.hpl.jena.sparql.core.Quad ;
+import com.hp.hpl.jena.sparql.core.Var ;
 import com.hp.hpl.jena.sparql.engine.ExecutionContext ;
 import com.hp.hpl.jena.sparql.engine.QueryIterator ;
 import com.hp.hpl.jena.sparql.engine.binding.Binding ;
 import com.hp.hpl.jena.sparql.engine.iterator.* ;
 import com.hp.hpl.jena.sparql.engine.main.iterator.QueryIterGraph ;
+import com.hp.hpl.jena.sparql.engine.main.iterator.QueryIterHashAntiJoin ;
+import com.hp.hpl.jena.sparql.engine.main.iterator.QueryIterHashJoin ;
 import com.hp.hpl.jena.sparql.engine.main.iterator.QueryIterJoin ;
-import com.hp.hpl.jena.sparql.engine.main.iterator.QueryIterLeftJoin ;
 import com.hp.hpl.jena.sparql.engine.main.iterator.QueryIterOptionalIndex ;
 import com.hp.hpl.jena.sparql.engine.main.iterator.QueryIterService ;
 import com.hp.hpl.jena.sparql.engine.main.iterator.QueryIterUnion ;
+import com.hp.hpl.jena.sparql.expr.E_Exists ;
+import com.hp.hpl.jena.sparql.expr.E_NotExists ;
 import com.hp.hpl.jena.sparql.expr.Expr ;
+import com.hp.hpl.jena.sparql.expr.ExprFunctionOp ;
 import com.hp.hpl.jena.sparql.expr.ExprList ;
 import com.hp.hpl.jena.sparql.procedure.ProcEval ;
 import com.hp.hpl.jena.sparql.procedure.Procedure ;
@@ -200,7 +208,8 @@ public class OpExecutor
         }
         QueryIterator left = executeOp(opJoin.getLeft(), input) ;
         QueryIterator right = executeOp(opJoin.getRight(), root()) ;
-        QueryIterator qIter = new QueryIterJoin(left, right, execCxt) ;
+        List<Var> keyVars = JoinClassifier.joinKeyVars(opJoin.getLeft(), opJoin.getRight()) ;
+        QueryIterator qIter = QueryIterHashJoin.join(left, right, keyVars, execCxt) ;
         return qIter ;
     }
 
@@ -230,7 +239,8 @@ public class OpExecutor
     {
         QueryIterator left = executeOp(opLeftJoin.getLeft(), input) ;
         QueryIterator right = executeOp(opLeftJoin.getRight(), root()) ;
-        QueryIterator qIter = new QueryIterLeftJoin(left, right, opLeftJoin.getExprs(), execCxt) ;
+        List<Var> keyVars = LeftJoinClassifier.joinKeyVars(opLeftJoin) ;
+        QueryIterator qIter = QueryIterHashJoin.leftJoin(left, right, keyVars, opLeftJoin.getExprs(), execCxt) ;
         return qIter ;
     }
 
@@ -250,11 +260,26 @@ public class OpExecutor
     
     protected QueryIterator execute(OpMinus opMinus, QueryIterator input)
     { 
+        boolean hashed = useHashAntiJoin(input) ;
         QueryIterator left = executeOp(opMinus.getLeft(), input) ;
         QueryIterator right = executeOp(opMinus.getRight(), root()) ;
-        return new QueryIterMinus(left, right, execCxt) ;
+        if ( ! hashed )
+            return new QueryIterMinus(left, right, execCxt) ;
+        List<Var> keyVars = JoinClassifier.joinKeyVars(opMinus.getLeft(), opMinus.getRight()) ;
+        return QueryIterHashAntiJoin.minus(left, right, keyVars, execCxt) ;
     }
 
+    // Whether to use a hash anti-join: only if asked for (ARQ.hashAntiJoin) and the input is
+    // the start of the query or a stream of solutions, rather than a single binding being
+    // substituted in from an outer pattern.  Hash anti-joins only pay for building the index
+    // over many left bindings, and there is no estimate of how many there will be.
+    private boolean useHashAntiJoin(QueryIterator input)
+    {
+        if ( ! execCxt.getContext().isTrue(ARQ.hashAntiJoin) )
+            return false ;
+        return ( input instanceof QueryIterRoot ) || ! ( input instanceof QueryIterSingleton ) ;
+    }
+    
     protected QueryIterator execute(OpUnion opUnion, QueryIterator input)
     {
         List<Op> x = flattenUnion(opUnion) ;
@@ -288,10 +313,34 @@ public class OpExecutor
         ExprList exprs = opFilter.getExprs() ;
         
         Op base = opFilter.getSubOp() ;
+        boolean hashed = useHashAntiJoin(input) ;
         QueryIterator qIter = executeOp(base, input) ;
 
+        // Consecutive expressions are tested together by one iterator.
+        ExprList pending = new ExprList() ;
         for ( Expr expr : exprs )
-            qIter = new QueryIterFilterExpr(qIter, expr, execCxt) ;
+        {
+            if ( hashed && ( expr instanceof E_Exists || expr instanceof E_NotExists ) )
+            {
+                ExprFunctionOp exists = (ExprFunctionOp)expr ;
+                Set<Var> patternVars = ExistsClassifier.patternVars(base, exists.getGraphPattern()) ;
+                if ( patternVars != null )
+                {
+                    if ( ! pending.isEmpty() )
+                    {
+                        qIter = new QueryIterFilterExpr(qIter, pending, execCxt) ;
+                        pending = new ExprList() ;
+                    }
+                    List<Var> keyVars = JoinClassifier.joinKeyVars(base, exists.getGraphPattern()) ;
+                    QueryIterator right = executeOp(exists.getGraphPattern(), root()) ;
+                    qIter = QueryIterHashAntiJoin.filterExists(qIter, right, keyVars, patternVars, exists, execCxt) ;
+                    continue ;
+                }
+            }
+            pending.add(expr) ;
+        }
+        if ( ! pending.isEmpty() )
+            qIter = new QueryIterFilterExpr(qIter, pending, execCxt) ;
         return qIter ;
     }
 
@@ -450,10 +499,30 @@ public class OpExecutor
     protected QueryIterator execute(OpGroup opGroup, QueryIterator input)
     { 
         QueryIterator qIter = executeOp(opGroup.getSubOp(), input) ;
-        qIter = new QueryIterGroup(qIter, opGroup.getGroupVars(), opGroup.getAggregators(), execCxt) ;
+        // If the input is already ordered on the group key, group as it streams past.
+        List<SortCondition> inputOrder = QueryIterGroup.groupOrder(opGroup.getGroupVars(), outputOrder(opGroup.getSubOp())) ;
+        qIter = new QueryIterGroup(qIter, opGroup.getGroupVars(), opGroup.getAggregators(), inputOrder, execCxt) ;
         return qIter ;
     }
     
+    // The order of the results of an op, looking through operations that preserve order.
+    private static List<SortCondition> outputOrder(Op op)
+    {
+        for ( ;; )
+        {
+            if ( op instanceof OpOrder )
+                return ((OpOrder)op).getConditions() ;
+            if ( op instanceof OpTopN )
+                return ((OpTopN)op).getConditions() ;
+            if ( op instanceof OpProject || op instanceof OpSlice || op instanceof OpDistinct || op instanceof OpReduced )
+            {
+                op = ((Op1)op).getSubOp() ;
+                continue ;
+            }
+            return null ;
+        }
+    }
+    
     protected QueryIterator execute(OpDistinct opDistinct, QueryIterator input)
     {
         QueryIterator qIter = executeOp(opDistinct.getSubOp(), input) ;
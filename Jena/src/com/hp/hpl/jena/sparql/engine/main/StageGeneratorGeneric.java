@@ -21,6 +21,7 @@ package com.hp.hpl.jena.sparql.engine.main;
 import static com.hp.hpl.jena.sparql.engine.optimizer.reorder.PatternElements.TERM ;
 
 import com.hp.hpl.jena.graph.Graph ;
+import com.hp.hpl.jena.graph.GraphPredicateStatistics ;
 import com.hp.hpl.jena.graph.GraphStatisticsHandler ;
 import com.hp.hpl.jena.graph.Node ;
 import com.hp.hpl.jena.mem.GraphMem ;
@@ -45,6 +46,8 @@ import com.hp.hpl.jena.sparql.util.Utils ;
 public class StageGeneratorGeneric implements StageGenerator
 {
     public final static Symbol altMatcher = ARQConstants.allocSymbol("altmatcher") ;
+    /** Context setting: if false, do not use cost-based reordering (default: true) */ 
+    public final static Symbol costBasedReorder = ARQConstants.allocSymbol("costBasedReorder") ;
     
     public StageGeneratorGeneric() {}
     
@@ -65,7 +68,7 @@ public class StageGeneratorGeneric implements StageGenerator
         
         if ( graph instanceof GraphMemFaster || graph instanceof GraphMem )            // New and old Graph-in-memory
         {
-            reorder = reorderBasicStats(graph) ;
+            reorder = reorderBasicStats(graph, execCxt) ;
             executor = executeInline ; 
         }
         else
@@ -118,11 +121,19 @@ public class StageGeneratorGeneric implements StageGenerator
     private static ReorderTransformation reorderFixed() { return ReorderLib.fixed() ; } 
 
     // Uses Jena's statistics handler.
-    private static ReorderTransformation reorderBasicStats(Graph graph)
+    // If it has per-predicate statistics, reorder by estimated cost.
+    private static ReorderTransformation reorderBasicStats(Graph graph, ExecutionContext execCxt)
     {
         GraphStatisticsHandler stats = graph.getStatisticsHandler() ;
         if ( stats == null )
             return reorderFixed() ;
+        if ( stats instanceof GraphPredicateStatistics && execCxt.getContext().isTrueOrUndef(costBasedReorder) )
+        {
+            GraphPredicateStatistics pStats = (GraphPredicateStatistics)stats ;
+            // -1 : no statistics available at the moment (e.g. reification triples).
+            if ( pStats.getDistinctPredicates() >= 0 )
+                return ReorderLib.costBased(graph, pStats) ;
+        }
         return new ReorderStatsHandler(graph, graph.getStatisticsHandler()) ;
     }
 
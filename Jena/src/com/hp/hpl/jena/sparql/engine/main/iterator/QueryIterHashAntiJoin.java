@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.sparql.engine.main.iterator;
+
+import java.util.HashSet ;
+import java.util.Iterator ;
+import java.util.List ;
+import java.util.Set ;
+
+import org.openjena.atlas.iterator.Iter ;
+
+import com.hp.hpl.jena.sparql.algebra.Algebra ;
+import com.hp.hpl.jena.sparql.core.Var ;
+import com.hp.hpl.jena.sparql.engine.ExecutionContext ;
+import com.hp.hpl.jena.sparql.engine.QueryIterator ;
+import com.hp.hpl.jena.sparql.engine.binding.Binding ;
+import com.hp.hpl.jena.sparql.expr.E_NotExists ;
+import com.hp.hpl.jena.sparql.expr.ExprFunctionOp ;
+
+/** MINUS, FILTER NOT EXISTS and FILTER EXISTS as a hash anti-join (or semi-join):
+ *  the RHS is indexed on the key variables and each LHS binding is passed
+ *  or dropped depending on whether it has a partner.  Building the index
+ *  and spilling to disk are as for {@link QueryIterHashJoin}.
+ *  <p>
+ *  For MINUS, a partner must be compatible and share a variable.  An LHS
+ *  binding that binds none of the variables seen in the RHS is passed
+ *  without a probe.
+ *  <p>
+ *  For (NOT) EXISTS, the RHS is the pattern evaluated once, not once per LHS
+ *  binding.  That gives the same answer only when the binding binds exactly
+ *  the key variables out of those in the pattern (see
+ *  {@link com.hp.hpl.jena.sparql.engine.main.ExistsClassifier}).  Any other
+ *  binding is tested by evaluating the expression itself.
+ *  <p>
+ *  Only used when the context setting {@link com.hp.hpl.jena.query.ARQ#hashAntiJoin} is true.
+ */
+public class QueryIterHashAntiJoin extends QueryIterHashJoin
+{
+    private final List<Var> keyVars ;
+    private final boolean minus ;
+    
+    // MINUS: all the variables bound in some RHS row.
+    private final Set<Var> rightVars = new HashSet<Var>() ;
+    
+    // (NOT) EXISTS: the expression, and all the variables its pattern mentions.
+    private final ExprFunctionOp expr ;
+    private final Set<Var> patternVars ;
+    private final boolean negate ;
+
+    /** MINUS, with the RHS hashed on the key variables. */
+    public static QueryIterator minus(QueryIterator left, QueryIterator right, List<Var> keyVars, ExecutionContext execCxt)
+    {
+        return new QueryIterHashAntiJoin(left, right, keyVars, null, null, execCxt) ;
+    }
+    
+    /** FILTER EXISTS or FILTER NOT EXISTS, where the RHS is the graph pattern
+     *  of the expression evaluated without reference to the LHS. */
+    public static QueryIterator filterExists(QueryIterator left, QueryIterator right, List<Var> keyVars,
+                                             Set<Var> patternVars, ExprFunctionOp expr, ExecutionContext execCxt)
+    {
+        return new QueryIterHashAntiJoin(left, right, keyVars, patternVars, expr, execCxt) ;
+    }
+    
+    private QueryIterHashAntiJoin(QueryIterator left, QueryIterator right, List<Var> keyVars,
+                                  Set<Var> patternVars, ExprFunctionOp expr, ExecutionContext execCxt)
+    {
+        super(left, right, keyVars, null, false, execCxt) ;
+        this.keyVars = keyVars ;
+        this.minus = ( expr == null ) ;
+        this.expr = expr ;
+        this.patternVars = patternVars ;
+        this.negate = ( expr instanceof E_NotExists ) ;
+    }
+
+    @Override
+    protected void noteRight(Binding binding)
+    {
+        if ( ! minus )
+            return ;
+        for ( Iterator<Var> iter = binding.vars() ; iter.hasNext() ; )
+            rightVars.add(iter.next()) ;
+    }
+    
+    @Override
+    protected Iterator<Binding> probe(Binding bindingLeft, Iterator<Binding> candidates)
+    {
+        boolean accept ;
+        if ( minus )
+            accept = ! bindsAny(bindingLeft, rightVars) || ! hasPartner(bindingLeft, candidates) ;
+        else if ( correlated(bindingLeft) )
+            accept = expr.isSatisfied(bindingLeft, getExecContext()) ;
+        else
+            accept = ( hasPartner(bindingLeft, candidates) != negate ) ;
+        Iter.close(candidates) ;
+        
+        if ( accept )
+            return Iter.singleton(bindingLeft) ;
+        return null ;
+    }
+    
+    private boolean hasPartner(Binding bindingLeft, Iterator<Binding> candidates)
+    {
+        while ( candidates.hasNext() )
+        {
+            Binding bindingRight = candidates.next() ;
+            if ( minus && ! sharesVariable(bindingLeft, bindingRight) )
+                continue ;
+            if ( Algebra.compatible(bindingLeft, bindingRight) )
+                return true ;
+        }
+        return false ;
+    }
+    
+    // Whether evaluating the pattern once and probing gives a different
+    // answer to evaluating it with this binding as input.
+    private boolean correlated(Binding binding)
+    {
+        for ( Var v : patternVars )
+        {
+            if ( binding.contains(v) != keyVars.contains(v) )
+                return true ;
+        }
+        return false ;
+    }
+    
+    private static boolean sharesVariable(Binding bindingLeft, Binding bindingRight)
+    {
+        for ( Iterator<Var> iter = bindingRight.vars() ; iter.hasNext() ; )
+        {
+            if ( bindingLeft.contains(iter.next()) )
+                return true ;
+        }
+        return false ;
+    }
+    
+    private static boolean bindsAny(Binding binding, Set<Var> vars)
+    {
+        for ( Var v : vars )
+        {
+            if ( binding.contains(v) )
+                return true ;
+        }
+        return false ;
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.sparql.engine.main.iterator;
+
+import java.util.ArrayList ;
+import java.util.Iterator ;
+import java.util.List ;
+
+import org.openjena.atlas.data.BagFactory ;
+import org.openjena.atlas.data.DataBag ;
+import org.openjena.atlas.data.ThresholdPolicy ;
+import org.openjena.atlas.data.ThresholdPolicyFactory ;
+import org.openjena.atlas.iterator.Iter ;
+import org.openjena.atlas.iterator.Transform ;
+import org.openjena.riot.SerializationFactoryFinder ;
+
+import com.hp.hpl.jena.sparql.ARQInternalErrorException ;
+import com.hp.hpl.jena.sparql.algebra.Algebra ;
+import com.hp.hpl.jena.sparql.core.Var ;
+import com.hp.hpl.jena.sparql.engine.ExecutionContext ;
+import com.hp.hpl.jena.sparql.engine.QueryIterator ;
+import com.hp.hpl.jena.sparql.engine.binding.Binding ;
+import com.hp.hpl.jena.sparql.engine.index.HashIndexTable ;
+import com.hp.hpl.jena.sparql.engine.index.JoinKey ;
+import com.hp.hpl.jena.sparql.engine.iterator.QueryIter2 ;
+import com.hp.hpl.jena.sparql.expr.ExprList ;
+
+/** Join or LeftJoin by hashing the RHS on the key variables, then probing
+ *  with each binding of the LHS.  The LHS is streamed unless the RHS is too
+ *  big to keep in memory (see {@link com.hp.hpl.jena.query.ARQ#spillToDiskThreshold}),
+ *  in which case both sides are partitioned to disk on the hash of the key
+ *  and joined a partition at a time (a "grace" hash join).
+ *  <p>
+ *  The key variables should be ones that are always bound on both sides
+ *  (see {@link com.hp.hpl.jena.sparql.engine.main.JoinClassifier#joinKeyVars}).
+ *  A row that does not bind all of them is still joined correctly, just
+ *  not via the index.
+ */
+public class QueryIterHashJoin extends QueryIter2
+{
+    // Number of partitions used when the RHS has to be spilled. 
+    private static final int numPartitions = 32 ;
+
+    private final List<Var> keyVars ;
+    private final ExprList exprs ;
+    private final boolean leftJoin ;
+    
+    private boolean built = false ;
+    private HashIndexTable table = null ;       // RHS, or current RHS partition when spilled.
+    private Iterator<Binding> current = null ;
+    private Binding nextBinding = null ;
+    
+    // Spill state. 
+    private boolean spilled = false ;
+    private List<DataBag<Binding>> rightParts = null ;
+    private List<DataBag<Binding>> leftParts = null ;
+    private DataBag<Binding> leftUnkeyed = null ;     // LHS rows not binding all the key variables.
+    private List<Binding> rightUnkeyed = null ;      // RHS rows not binding all the key variables.
+    private int partition = -1 ;
+    private Iterator<Binding> probeInput = null ;
+
+    /** Inner join on the key variables. */
+    public static QueryIterator join(QueryIterator left, QueryIterator right, List<Var> keyVars, ExecutionContext execCxt)
+    {
+        return new QueryIterHashJoin(left, right, keyVars, null, false, execCxt) ;
+    }
+    
+    /** Left join on the key variables, with the LeftJoin condition (may be null). */
+    public static QueryIterator leftJoin(QueryIterator left, QueryIterator right, List<Var> keyVars, ExprList exprs, ExecutionContext execCxt)
+    {
+        return new QueryIterHashJoin(left, right, keyVars, exprs, true, execCxt) ;
+    }
+    
+    protected QueryIterHashJoin(QueryIterator left, QueryIterator right, List<Var> keyVars, ExprList exprs, 
+                                boolean leftJoin, ExecutionContext execCxt)
+    {
+        super(left, right, execCxt) ;
+        if ( exprs != null && ! leftJoin )
+            throw new ARQInternalErrorException("QueryIterHashJoin: expression not empty for equiJoin") ;
+        this.keyVars = keyVars ;
+        this.exprs = exprs ;
+        this.leftJoin = leftJoin ;
+    }
+
+    @Override
+    protected boolean hasNextBinding()
+    {
+        if ( isFinished() )
+            return false ;
+        if ( nextBinding != null )
+            return true ;
+        if ( ! built )
+            build() ;
+        nextBinding = moveToNext() ;
+        return ( nextBinding != null ) ;
+    }
+
+    @Override
+    protected Binding moveToNextBinding()
+    {
+        if ( nextBinding == null )
+            throw new ARQInternalErrorException("moveToNextBinding: slot empty but hasNext was true)") ;
+        Binding b = nextBinding ;
+        nextBinding = null ;
+        return b ;
+    }
+
+    private Binding moveToNext()
+    {
+        while(true)
+        {
+            if ( current != null )
+            {
+                if ( current.hasNext() )
+                    return current.next() ;
+                current = null ;
+            }
+            Binding b = nextProbe() ;
+            if ( b == null )
+                return null ;
+            current = probe(b) ;
+        }
+    }
+    
+    private Iterator<Binding> probe(Binding bindingLeft)
+    {
+        Iterator<Binding> candidates ;
+        if ( table != null )
+            candidates = table.candidates(bindingLeft) ;
+        else
+            // Unkeyed LHS row when spilled - it must be tried against the whole RHS. 
+            candidates = allRight() ;
+        return probe(bindingLeft, candidates) ;
+    }
+    
+    /** Join one LHS binding with all its candidate partners from the RHS.
+     *  Returns the results, or null if there are none. */
+    protected Iterator<Binding> probe(Binding bindingLeft, Iterator<Binding> candidates)
+    {
+        List<Binding> out = null ;
+        while ( candidates.hasNext() )
+        {
+            Binding bindingRight = candidates.next() ;
+            Binding r = Algebra.merge(bindingLeft, bindingRight) ;
+            if ( r == null )
+                continue ;
+            if ( exprs != null && ! exprs.isSatisfied(r, getExecContext()) )
+                continue ;
+            if ( out == null )
+                out = new ArrayList<Binding>() ;
+            out.add(r) ;
+        }
+        
+        if ( out == null )
+            return leftJoin ? Iter.singleton(bindingLeft) : null ;
+        return out.iterator() ;
+    }
+    
+    private Binding nextProbe()
+    {
+        if ( ! spilled )
+        {
+            if ( getLeft().hasNext() )
+                return getLeft().nextBinding() ;
+            return null ;
+        }
+        
+        while(true)
+        {
+            if ( probeInput != null )
+            {
+                if ( probeInput.hasNext() )
+                    return probeInput.next() ;
+                Iter.close(probeInput) ;
+                probeInput = null ;
+            }
+            if ( ! nextPartition() )
+                return null ;
+        }
+    }
+    
+    // ---- Build phase.
+    
+    private void build()
+    {
+        built = true ;
+        ThresholdPolicy<Binding> policy = ThresholdPolicyFactory.policyFromContext(getExecContext().getContext()) ;
+        table = new HashIndexTable(keyVars) ;
+        QueryIterator right = getRight() ;
+        while ( right.hasNext() )
+        {
+            Binding b = right.nextBinding() ;
+            noteRight(b) ;
+            if ( spilled )
+            {
+                addPartitioned(b, rightParts, rightUnkeyed) ;
+                continue ;
+            }
+            table.add(b) ;
+            policy.increment(b) ;
+            if ( policy.isThresholdExceeded() )
+                spill() ;
+        }
+        right.close() ;
+        
+        if ( spilled )
+        {
+            // Partition the LHS as well.
+            QueryIterator left = getLeft() ;
+            while ( left.hasNext() )
+            {
+                Binding b = left.nextBinding() ;
+                if ( ! addPartitioned(b, leftParts, null) )
+                    leftUnkeyed.add(b) ;
+            }
+            left.close() ;
+        }
+    }
+    
+    /** Called for each RHS binding as the RHS is read. */
+    protected void noteRight(Binding binding) { }
+    
+    // Switch from in-memory to partitioned.
+    private void spill()
+    {
+        spilled = true ;
+        rightParts = new ArrayList<DataBag<Binding>>(numPartitions) ;
+        leftParts = new ArrayList<DataBag<Binding>>(numPartitions) ;
+        for ( int i = 0 ; i < numPartitions ; i++ )
+        {
+            rightParts.add(newBag()) ;
+            leftParts.add(newBag()) ;
+        }
+        leftUnkeyed = newBag() ;
+        rightUnkeyed = new ArrayList<Binding>() ;
+        
+        for ( Iterator<Binding> iter = table.iterator() ; iter.hasNext() ; )
+            addPartitioned(iter.next(), rightParts, rightUnkeyed) ;
+        table.clear() ;
+        table = null ;
+    }
+
+    // Returns false if the binding does not bind all the key variables.
+    private boolean addPartitioned(Binding binding, List<DataBag<Binding>> parts, List<Binding> unkeyed)
+    {
+        JoinKey key = JoinKey.create(keyVars, binding) ;
+        if ( key == null )
+        {
+            if ( unkeyed != null )
+                unkeyed.add(binding) ;
+            return false ;
+        }
+        int idx = ( key.hashCode() & 0x7FFFFFFF ) % numPartitions ;
+        parts.get(idx).add(binding) ;
+        return true ;
+    }
+
+    private DataBag<Binding> newBag()
+    {
+        // Partitions go straight to disk; one partition at a time is read back into memory.  
+        ThresholdPolicy<Binding> policy = ThresholdPolicyFactory.count(0) ;
+        return BagFactory.newDefaultBag(policy, SerializationFactoryFinder.bindingSerializationFactory()) ;
+    }
+    
+    // Move to the next partition pair.  After the last partition, 
+    // the LHS rows that could not be partitioned are processed.
+    private boolean nextPartition()
+    {
+        partition++ ;
+        if ( partition < numPartitions )
+        {
+            table = new HashIndexTable(keyVars) ;
+            // All unkeyed RHS rows may join with any LHS row.
+            for ( Binding b : rightUnkeyed )
+                table.add(b) ;
+            DataBag<Binding> rightPart = rightParts.get(partition) ;
+            for ( Iterator<Binding> iter = rightPart.iterator() ; iter.hasNext() ; )
+                table.add(iter.next()) ;
+            probeInput = leftParts.get(partition).iterator() ;
+            return true ;
+        }
+        if ( partition == numPartitions )
+        {
+            table = null ;
+            probeInput = leftUnkeyed.iterator() ;
+            return true ;
+        }
+        return false ;
+    }
+    
+    private Iterator<Binding> allRight()
+    {
+        // Unkeyed LHS rows are rare (the key variables are chosen as ones
+        // always bound) so rereading the RHS partitions is acceptable.
+        Transform<DataBag<Binding>, Iterator<Binding>> read = new Transform<DataBag<Binding>, Iterator<Binding>>() {
+            @Override
+            public Iterator<Binding> convert(DataBag<Binding> bag) { return bag.iterator() ; }
+        } ;
+        Iterator<Binding> iter = Iter.mapMany(rightParts.iterator(), read) ;
+        return Iter.concat(rightUnkeyed.iterator(), iter) ;
+    }
+
+    @Override
+    protected void closeSubIterator()
+    {
+        current = null ;
+        if ( probeInput != null )
+            Iter.close(probeInput) ;
+        probeInput = null ;
+        if ( table != null )
+            table.clear() ;
+        table = null ;
+        closeBags(rightParts) ;
+        closeBags(leftParts) ;
+        if ( leftUnkeyed != null )
+            leftUnkeyed.close() ;
+        rightParts = null ;
+        leftParts = null ;
+        leftUnkeyed = null ;
+        rightUnkeyed = null ;
+    }
+    
+    private static void closeBags(List<DataBag<Binding>> bags)
+    {
+        if ( bags == null )
+            return ;
+        for ( DataBag<Binding> bag : bags )
+            bag.close() ;
+    }
+
+    @Override
+    protected void requestSubCancel()
+    {
+        closeSubIterator() ;
+    }
+}
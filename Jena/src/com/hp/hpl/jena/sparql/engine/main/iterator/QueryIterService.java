@@ -18,56 +18,508 @@
 
 package com.hp.hpl.jena.sparql.engine.main.iterator;
 
+import java.util.ArrayList ;
+import java.util.HashSet ;
+import java.util.Iterator ;
+import java.util.LinkedHashMap ;
+import java.util.LinkedList ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.Set ;
+import java.util.concurrent.Callable ;
+import java.util.concurrent.CancellationException ;
+import java.util.concurrent.ExecutionException ;
+import java.util.concurrent.Future ;
+import java.util.concurrent.FutureTask ;
+import java.util.concurrent.LinkedBlockingQueue ;
+import java.util.concurrent.ThreadFactory ;
+import java.util.concurrent.ThreadPoolExecutor ;
+import java.util.concurrent.TimeUnit ;
+import java.util.concurrent.atomic.AtomicInteger ;
+
 import org.openjena.atlas.logging.Log ;
 
+import com.hp.hpl.jena.graph.Node ;
+import com.hp.hpl.jena.query.ARQ ;
+import com.hp.hpl.jena.query.Query ;
+import com.hp.hpl.jena.query.QueryCancelledException ;
+import com.hp.hpl.jena.query.QueryExecException ;
+import com.hp.hpl.jena.sparql.ARQConstants ;
 import com.hp.hpl.jena.sparql.algebra.Op ;
+import com.hp.hpl.jena.sparql.algebra.OpAsQuery ;
+import com.hp.hpl.jena.sparql.algebra.OpVars ;
 import com.hp.hpl.jena.sparql.algebra.op.OpService ;
+import com.hp.hpl.jena.sparql.core.Var ;
 import com.hp.hpl.jena.sparql.engine.ExecutionContext ;
 import com.hp.hpl.jena.sparql.engine.QueryIterator ;
+import com.hp.hpl.jena.sparql.engine.Rename ;
 import com.hp.hpl.jena.sparql.engine.binding.Binding ;
+import com.hp.hpl.jena.sparql.engine.binding.BindingFactory ;
+import com.hp.hpl.jena.sparql.engine.binding.BindingMap ;
 import com.hp.hpl.jena.sparql.engine.http.Service ;
-import com.hp.hpl.jena.sparql.engine.iterator.QueryIter ;
-import com.hp.hpl.jena.sparql.engine.iterator.QueryIterCommonParent ;
-import com.hp.hpl.jena.sparql.engine.iterator.QueryIterNullIterator ;
-import com.hp.hpl.jena.sparql.engine.iterator.QueryIterRepeatApply ;
+import com.hp.hpl.jena.sparql.engine.iterator.QueryIter1 ;
 import com.hp.hpl.jena.sparql.engine.main.QC ;
+import com.hp.hpl.jena.sparql.expr.NodeValue ;
+import com.hp.hpl.jena.sparql.util.Context ;
+import com.hp.hpl.jena.sparql.util.Symbol ;
 
-
-public class QueryIterService extends QueryIterRepeatApply
+/** Execution of SERVICE.
+ *  <p>
+ *  Each input solution is substituted into the service pattern and sent to the
+ *  remote endpoint.  When {@link ARQ#serviceBatchSize} is more than one, up to
+ *  that many solutions are sent in a single request instead, as a BINDINGS block
+ *  joined with the service pattern (a bind join), and the results are matched
+ *  back to the solutions they came from by a row number carried in the block.
+ *  <p>
+ *  Several requests can be outstanding at once ({@link ARQ#serviceParallelRequests})
+ *  and identical requests in one query execution can be made only once
+ *  ({@link ARQ#serviceCacheSize}, off by default).  Results are returned in the order of the
+ *  input solutions.  Each response is read completely before being used, which
+ *  lets the server finish the request as soon as possible (and avoids deadlock
+ *  when a SERVICE loops back to this server).
+ */
+public class QueryIterService extends QueryIter1
 {
+    // Threads shared by all SERVICE executions: bounds the number of remote requests in progress.
+    private static final int POOL_SIZE = 16 ;
+    private static ThreadPoolExecutor pool = null ;
+    
+    private static synchronized ThreadPoolExecutor pool()
+    {
+        if ( pool == null )
+        {
+            final AtomicInteger count = new AtomicInteger(0) ;
+            ThreadFactory factory = new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "SERVICE-"+count.incrementAndGet()) ;
+                    t.setDaemon(true) ;
+                    return t ;
+                }
+            } ;
+            pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue<Runnable>(), factory) ;
+            pool.allowCoreThreadTimeOut(true) ;
+        }
+        return pool ;
+    }
+    
+    // Remote results of this query execution, by request; kept in the execution context.
+    private static final Symbol serviceCache = ARQConstants.allocSymbol("serviceCache") ;
+    
     OpService opService ;
+    private final int batchSize ;
+    private final int parallelRequests ;
+    private final Map<String, Future<List<Binding>>> cache ;
+    
+    // Set if solutions can be sent in batches: the service pattern as sent,
+    // its variables, the variables visible in its results and the row number variable.
+    private Op opRemote = null ;
+    private Set<Var> subOpVars = null ;
+    private Set<Var> visibleVars = null ;
+    private Var rowVar = null ;
+
+    private final LinkedList<Request> pending = new LinkedList<Request>() ;
+    // A solution read but not yet sent because enough requests were outstanding.
+    private Binding held = null ;
+    private Iterator<Binding> current = null ;
     
     public QueryIterService(QueryIterator input, OpService opService, ExecutionContext context)
     {
         super(input, context) ;
         this.opService = opService ;
+        Context cxt = context.getContext() ;
+        this.batchSize = Math.max(1, intValue(cxt, ARQ.serviceBatchSize, 1)) ;
+        this.parallelRequests = Math.max(1, intValue(cxt, ARQ.serviceParallelRequests, 1)) ;
+        this.cache = cache(cxt) ;
+        if ( batchSize > 1 && opService.getService().isURI() )
+            setupBatching() ;
+    }
+    
+    // A batch is sent as the service pattern joined with a BINDINGS block, which
+    // is only the same as substituting each solution if the join is at the top level
+    // of the remote query and nothing is done to the pattern's results as a whole.
+    private void setupBatching()
+    {
+        Op op = opService.getSubOp() ;
+        Op op2 = Rename.reverseVarRename(op, true) ;
+        Set<Var> vars = new HashSet<Var>(OpVars.allVars(op)) ;
+        if ( ! vars.equals(new HashSet<Var>(OpVars.allVars(op2))) )
+            // Inner scopes, renamed apart.
+            return ;
+        
+        Query query ;
+        try { query = OpAsQuery.asQuery(op2) ; }
+        catch (RuntimeException ex) { return ; }
+        if ( query.hasLimit() || query.hasOffset() || query.hasGroupBy() ||
+             query.hasHaving() || query.hasAggregators() || query.hasBindings() )
+            return ;
+        
+        opRemote = op2 ;
+        subOpVars = vars ;
+        visibleVars = new HashSet<Var>(query.getProjectVars()) ;
+        rowVar = Rename.chooseVarName(Var.alloc("row"), vars, "_") ;
     }
     
     @Override
-    protected QueryIterator nextStage(Binding outerBinding)
+    protected boolean hasNextBinding()
     {
-        Op op = QC.substitute(opService, outerBinding) ;
-        boolean silent = opService.getSilent() ;
-        QueryIterator qIter ;
-        try {
-            qIter = Service.exec((OpService)op, getExecContext().getContext()) ;
-        } catch (RuntimeException ex)
+        while ( current == null || ! current.hasNext() )
+        {
+            fill() ;
+            if ( pending.isEmpty() )
+                return false ;
+            current = pending.removeFirst().results() ;
+        }
+        return true ;
+    }
+
+    @Override
+    protected Binding moveToNextBinding()
+    {
+        return current.next() ;
+    }
+
+    // Read ahead, making requests, until enough are outstanding.
+    // Solutions that can't be joined remotely are sent on their own, in turn.
+    private void fill()
+    {
+        QueryIterator input = getInput() ;
+        List<Binding> batch = new ArrayList<Binding>() ;
+        while ( pending.size() < parallelRequests && ( held != null || input.hasNext() ) )
+        {
+            Binding binding = ( held != null ) ? held : input.nextBinding() ;
+            held = null ;
+            if ( opRemote == null || ! joinable(binding) )
+            {
+                if ( ! batch.isEmpty() )
+                {
+                    // Send the batch so far; this solution is the next request, if there is room.
+                    flush(batch) ;
+                    held = binding ;
+                    continue ;
+                }
+                pending.add(rowRequest(binding)) ;
+                continue ;
+            }
+            batch.add(binding) ;
+            if ( batch.size() == batchSize )
+                flush(batch) ;
+        }
+        // Any batch left was started with room for one more request.
+        flush(batch) ;
+    }
+    
+    private void flush(List<Binding> batch)
+    {
+        if ( batch.isEmpty() )
+            return ;
+        List<Binding> inputs = new ArrayList<Binding>(batch) ;
+        Request request = ( inputs.size() > 1 ) ? batchRequest(inputs) : null ;
+        if ( request == null )
+            request = rowRequest(inputs) ;
+        pending.add(request) ;
+        batch.clear() ;
+    }
+    
+    // Whether the values of a solution can go in a BINDINGS block:
+    // visible in the pattern's results, and not blank nodes.
+    private boolean joinable(Binding binding)
+    {
+        for ( Iterator<Var> iter = binding.vars() ; iter.hasNext() ; )
+        {
+            Var v = iter.next() ;
+            if ( ! subOpVars.contains(v) )
+                continue ;
+            if ( ! visibleVars.contains(v) || binding.get(v).isBlank() )
+                return false ;
+        }
+        return true ;
+    }
+    
+    // One request for one solution, substituted into the service pattern.
+    private Request rowRequest(Binding binding)
+    {
+        List<Binding> inputs = new ArrayList<Binding>(1) ;
+        inputs.add(binding) ;
+        return rowRequest(inputs) ;
+    }
+    
+    // One request for solutions that are all the same when substituted into the
+    // service pattern; the results are joined with each of them.
+    private Request rowRequest(List<Binding> inputs)
+    {
+        final OpService op = (OpService)QC.substitute(opService, inputs.get(0)) ;
+        final Context cxt = getExecContext().getContext() ;
+        Callable<List<Binding>> call = new Callable<List<Binding>>()
+        {
+            @Override
+            public List<Binding> call()
+            {
+                return materialize(Service.exec(op, cxt)) ;
+            }
+        } ;
+        String key = ( cache != null ) ? op.toString() : null ;
+        return new Request(key, submit(key, call), inputs, false) ;
+    }
+    
+    // One request for several joinable solutions, or null if they don't set any
+    // variable of the pattern (the request would be the same for each solution).
+    private Request batchRequest(List<Binding> batch)
+    {
+        List<Var> vars = new ArrayList<Var>() ;
+        for ( Binding binding : batch )
+        {
+            for ( Iterator<Var> iter = binding.vars() ; iter.hasNext() ; )
+            {
+                Var v = iter.next() ;
+                if ( subOpVars.contains(v) && ! vars.contains(v) )
+                    vars.add(v) ;
+            }
+        }
+        if ( vars.isEmpty() )
+            return null ;
+        
+        List<Binding> rows = new ArrayList<Binding>(batch.size()) ;
+        for ( int i = 0 ; i < batch.size() ; i++ )
+        {
+            Binding binding = batch.get(i) ;
+            BindingMap row = BindingFactory.create() ;
+            row.add(rowVar, NodeValue.makeInteger(i).asNode()) ;
+            for ( Var v : vars )
+            {
+                Node n = binding.get(v) ;
+                if ( n != null )
+                    row.add(v, n) ;
+            }
+            rows.add(row) ;
+        }
+        vars.add(rowVar) ;
+        
+        final Query query = OpAsQuery.asQuery(opRemote) ;
+        query.setBindings(vars, rows) ;
+        if ( ! query.isQueryResultStar() )
+            query.addResultVar(rowVar) ;
+        
+        final String serviceURI = opService.getService().getURI() ;
+        final Context cxt = getExecContext().getContext() ;
+        Callable<List<Binding>> call = new Callable<List<Binding>>()
+        {
+            @Override
+            public List<Binding> call()
+            {
+                return materialize(Service.exec(serviceURI, query, cxt)) ;
+            }
+        } ;
+        String key = ( cache != null ) ? serviceURI+" "+query : null ;
+        return new Request(key, submit(key, call), batch, true) ;
+    }
+    
+    private Future<List<Binding>> submit(String key, Callable<List<Binding>> call)
+    {
+        if ( cache != null )
         {
-            if ( silent )
+            synchronized (cache)
             {
-                Log.warn(this, "SERVICE: "+ex.getMessage()) ;
-                return new QueryIterNullIterator(getExecContext()) ; 
+                Future<List<Binding>> future = cache.get(key) ;
+                if ( future != null )
+                    return future ;
             }
-            throw ex ;
         }
+        FutureTask<List<Binding>> task = new FutureTask<List<Binding>>(call) ;
+        if ( parallelRequests > 1 )
+            pool().execute(task) ;
+        else
+            task.run() ;
+        if ( cache != null )
+        {
+            synchronized (cache) { cache.put(key, task) ; }
+        }
+        return task ;
+    }
+    
+    private static List<Binding> materialize(QueryIterator qIter)
+    {
+        List<Binding> x = new ArrayList<Binding>() ;
+        try {
+            while ( qIter.hasNext() )
+                x.add(qIter.nextBinding()) ;
+        } finally { qIter.close() ; }
+        return x ;
+    }
+
+    // The remote solution extended by the input solution, or null if they disagree.
+    private Binding merge(Binding parent, Binding remote)
+    {
+        BindingMap b = BindingFactory.create(parent) ;
+        for ( Iterator<Var> iter = remote.vars() ; iter.hasNext() ; )
+        {
+            Var v = iter.next() ;
+            if ( v.equals(rowVar) )
+                continue ;
+            Node n = remote.get(v) ;
+            Node n2 = parent.get(v) ;
+            if ( n2 == null )
+                b.add(v, n) ;
+            else if ( ! n2.equals(n) )
+                return null ;
+        }
+        return b ;
+    }
+    
+    private class Request
+    {
+        private final String key ;
+        private final Future<List<Binding>> future ;
+        private final List<Binding> inputs ;
+        private final boolean batched ;
+        
+        Request(String key, Future<List<Binding>> future, List<Binding> inputs, boolean batched)
+        {
+            this.key = key ;
+            this.future = future ;
+            this.inputs = inputs ;
+            this.batched = batched ;
+        }
+        
+        Iterator<Binding> results()
+        {
+            List<Binding> remote = get() ;
+            List<Binding> results = new ArrayList<Binding>() ;
+            if ( remote == null )
+                return results.iterator() ;
             
-        // Need to put the outerBinding as parent to every binding of the service call.
-        // There should be no variables in common because of the OpSubstitute.substitute 
-        QueryIterator qIter2 = new QueryIterCommonParent(qIter, outerBinding, getExecContext()) ;
+            if ( ! batched )
+            {
+                for ( Binding input : inputs )
+                {
+                    for ( Binding r : remote )
+                    {
+                        Binding b = merge(input, r) ;
+                        if ( b != null )
+                            results.add(b) ;
+                    }
+                }
+                return results.iterator() ;
+            }
+            
+            // Put the results back in the order of the solutions they came from.
+            List<List<Binding>> byRow = new ArrayList<List<Binding>>(inputs.size()) ;
+            for ( int i = 0 ; i < inputs.size() ; i++ )
+                byRow.add(null) ;
+            for ( Binding r : remote )
+            {
+                int i = rowNumber(r.get(rowVar)) ;
+                Binding b = merge(inputs.get(i), r) ;
+                if ( b == null )
+                    continue ;
+                if ( byRow.get(i) == null )
+                    byRow.set(i, new ArrayList<Binding>()) ;
+                byRow.get(i).add(b) ;
+            }
+            for ( List<Binding> x : byRow )
+            {
+                if ( x != null )
+                    results.addAll(x) ;
+            }
+            return results.iterator() ;
+        }
+        
+        private int rowNumber(Node n)
+        {
+            try {
+                int i = Integer.parseInt(n.getLiteralLexicalForm()) ;
+                if ( i >= 0 && i < inputs.size() )
+                    return i ;
+            } catch (RuntimeException ex) {}
+            throw new QueryExecException("SERVICE: bad row number in results from "+opService.getService()+": "+n) ;
+        }
+        
+        private List<Binding> get()
+        {
+            try {
+                return future.get() ;
+            } 
+            catch (InterruptedException ex)     { throw new QueryCancelledException() ; }
+            catch (CancellationException ex)    { throw new QueryCancelledException() ; }
+            catch (ExecutionException ex)
+            {
+                // Don't keep failures.
+                if ( cache != null )
+                {
+                    synchronized (cache) { cache.remove(key) ; }
+                }
+                Throwable cause = ex.getCause() ;
+                if ( opService.getSilent() )
+                {
+                    Log.warn(QueryIterService.this, "SERVICE: "+cause.getMessage()) ;
+                    return null ;
+                }
+                if ( cause instanceof RuntimeException )
+                    throw (RuntimeException)cause ;
+                if ( cause instanceof Error )
+                    throw (Error)cause ;
+                throw new QueryExecException(cause) ;
+            }
+        }
+    }
+    
+    @Override
+    protected void requestSubCancel()
+    {
+        for ( Request request : pending )
+            request.future.cancel(true) ;
+        pending.clear() ;
+    }
 
-        // Materialise, otherwise we may have outstanding incoming data.
-        // Allows the server to fulfil the request as soon as possible.
-        // In extremis, can cause a deadlock when SERVICE loops back to this server.
-        return QueryIter.materialize(qIter2, getExecContext()) ;
+    @Override
+    protected void closeSubIterator()
+    {
+        // Requests still running are left to finish: they may be shared through the cache.
+        pending.clear() ;
+        held = null ;
+        current = null ;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Map<String, Future<List<Binding>>> cache(Context cxt)
+    {
+        final int size = intValue(cxt, ARQ.serviceCacheSize, 0) ;
+        if ( size <= 0 )
+            return null ;
+        synchronized (cxt)
+        {
+            Map<String, Future<List<Binding>>> cache = (Map<String, Future<List<Binding>>>)cxt.get(serviceCache) ;
+            if ( cache == null )
+            {
+                cache = new LinkedHashMap<String, Future<List<Binding>>>(16, 0.75f, true)
+                {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Future<List<Binding>>> eldest)
+                    {
+                        return size() > size ;
+                    }
+                } ;
+                cxt.set(serviceCache, cache) ;
+            }
+            return cache ;
+        }
+    }
+    
+    private static int intValue(Context cxt, Symbol symbol, int dft)
+    {
+        Object x = cxt.get(symbol) ;
+        if ( x == null )
+            return dft ;
+        if ( x instanceof Number )
+            return ((Number)x).intValue() ;
+        try { return Integer.parseInt(x.toString().trim()) ; }
+        catch (NumberFormatException ex)
+        {
+            Log.warn(QueryIterService.class, "Not a number: "+symbol+" = "+x) ;
+            return dft ;
+        }
     }
 }
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.sparql.engine.optimizer.reorder;
+
+import static com.hp.hpl.jena.sparql.engine.optimizer.reorder.PatternElements.TERM ;
+
+import java.util.Arrays ;
+import java.util.HashSet ;
+import java.util.List ;
+import java.util.Set ;
+
+import com.hp.hpl.jena.graph.Graph ;
+import com.hp.hpl.jena.graph.GraphPredicateStatistics ;
+import com.hp.hpl.jena.graph.Node ;
+import com.hp.hpl.jena.graph.Triple ;
+import com.hp.hpl.jena.sparql.core.Var ;
+import com.hp.hpl.jena.sparql.sse.Item ;
+
+/** Reorder a basic graph pattern by estimated cost, using the
+ *  cardinalities from a graph's {@link GraphPredicateStatistics}.
+ *  <p>
+ *  The estimated number of matches of a triple pattern, given the variables
+ *  already bound, comes from the per-predicate triple counts and the number
+ *  of distinct subjects and objects of the predicate (the average fan-out),
+ *  assuming terms are independent. The cost of an order is the number of
+ *  index lookups plus the number of intermediate rows for the left-deep
+ *  nested loop join that {@link com.hp.hpl.jena.sparql.engine.iterator.QueryIterBlockTriples}
+ *  executes.
+ *  <p>
+ *  Patterns of up to {@link #MaxDP} triples are ordered by dynamic programming
+ *  over the subsets of triples; larger patterns are ordered greedily, 
+ *  picking the cheapest next triple each time.
+ */
+public class ReorderCostBased extends ReorderTransformationBase
+{
+    /** Largest basic graph pattern ordered by dynamic programming */ 
+    public static int MaxDP = 10 ;
+    
+    private final GraphPredicateStatistics stats ;
+    private final double N ;
+    private final double distinctS ;
+    private final double distinctP ;
+    private final double distinctO ;
+    
+    public ReorderCostBased(Graph graph, GraphPredicateStatistics stats)
+    {
+        this.stats = stats ;
+        this.N = graph.size() ;
+        this.distinctS = stats.getDistinctSubjects(Node.ANY) ;
+        this.distinctP = stats.getDistinctPredicates() ;
+        this.distinctO = stats.getDistinctObjects(Node.ANY) ;
+    }
+    
+    @Override
+    protected ReorderProc reorder(List<Triple> triples, List<PatternTriple> components)
+    {
+        int n = components.size() ;
+        if ( n > MaxDP )
+            return super.reorder(triples, components) ;
+        
+        // Best left-deep plan for each subset of triples, as a bit mask.
+        // Masks only ever grow, so processing them in numeric order visits
+        // every subset after all its own subsets.
+        int full = (1<<n) - 1 ;
+        double[] cost = new double[full+1] ;
+        double[] rows = new double[full+1] ;
+        int[] last = new int[full+1] ;
+        Arrays.fill(cost, Double.POSITIVE_INFINITY) ;
+        cost[0] = 0 ;
+        rows[0] = 1 ;
+        
+        for ( int mask = 0 ; mask < full ; mask++ )
+        {
+            if ( cost[mask] == Double.POSITIVE_INFINITY )
+                continue ;
+            Set<Var> bound = varsOf(triples, mask) ;
+            for ( int i = 0 ; i < n ; i++ )
+            {
+                int bit = 1<<i ;
+                if ( (mask & bit) != 0 )
+                    continue ;
+                double card = estimate(bind(components.get(i), bound)) ;
+                double r = rows[mask] * card ;
+                // One index lookup per incoming row, plus the rows produced.
+                double c = cost[mask] + rows[mask] + r ;
+                int m2 = mask | bit ;
+                if ( c < cost[m2] || ( c == cost[m2] && r < rows[m2] ) )
+                {
+                    cost[m2] = c ;
+                    rows[m2] = r ;
+                    last[m2] = i ;
+                }
+            }
+        }
+
+        int[] indexes = new int[n] ;
+        int mask = full ;
+        for ( int j = n-1 ; j >= 0 ; j-- )
+        {
+            indexes[j] = last[mask] ;
+            mask = mask & ~(1<<last[mask]) ;
+        }
+        
+        if ( DEBUG )
+            log.info(String.format("Reorder: cost=%.0f rows=%.0f", cost[full], rows[full])) ;
+        return new ReorderProcIndexes(indexes) ;
+    }
+    
+    /** Estimated number of matches; used for greedy ordering */
+    @Override
+    protected double weight(PatternTriple pt)
+    {
+        return estimate(pt) ;
+    }
+
+    /** Estimate the number of matches of a pattern triple for one binding
+     * of the variables marked TERM.
+     */
+    protected double estimate(PatternTriple pt)
+    {
+        Node s = constant(pt.subject) ;
+        Node p = constant(pt.predicate) ;
+        Node o = constant(pt.object) ;
+        boolean sBound = ( s != null || TERM.equals(pt.subject) ) ;
+        boolean pBound = ( p != null || TERM.equals(pt.predicate) ) ;
+        boolean oBound = ( o != null || TERM.equals(pt.object) ) ;
+        
+        if ( N == 0 )
+            return 0 ;
+        if ( s != null && p != null && o != null )
+            return known(stats.getStatistic(s, p, o), 1) ;
+        
+        double x = N ;
+        if ( p != null )
+        {
+            double count = known(stats.getStatistic(Node.ANY, p, Node.ANY), N) ;
+            if ( count == 0 )
+                return 0 ;
+            x = count ;
+            if ( sBound )
+                x = x / divisor(stats.getDistinctSubjects(p), count) ;
+            if ( oBound )
+                x = x / divisor(stats.getDistinctObjects(p), count) ;
+        }
+        else
+        {
+            if ( sBound )
+                x = x / divisor(distinctS, N) ;
+            if ( pBound )
+                x = x / divisor(distinctP, 1) ;
+            if ( oBound )
+                x = x / divisor(distinctO, N) ;
+        }
+        
+        // Exact counts for a single constant bound the estimate.
+        if ( s != null )
+            x = Math.min(x, known(stats.getStatistic(s, Node.ANY, Node.ANY), x)) ;
+        if ( o != null )
+            x = Math.min(x, known(stats.getStatistic(Node.ANY, Node.ANY, o), x)) ;
+        return x ;
+    }
+    
+    // Replace unknown (negative) counts.
+    private static double known(double x, double dft)
+    {
+        return ( x < 0 ) ? dft : x ;
+    }
+    
+    // Replace unknown (negative) and zero divisors; counts can lag behind the graph.
+    private static double divisor(double x, double dft)
+    {
+        return ( x <= 0 ) ? dft : x ;
+    }
+    
+    private static Node constant(Item item)
+    {
+        if ( item.isNode() && item.getNode().isConcrete() )
+            return item.getNode() ;
+        return null ;
+    }
+    
+    private static PatternTriple bind(PatternTriple pt, Set<Var> bound)
+    {
+        return new PatternTriple(bind(pt.subject, bound), bind(pt.predicate, bound), bind(pt.object, bound)) ;
+    }
+    
+    private static Item bind(Item item, Set<Var> bound)
+    {
+        if ( item.isNode() && Var.isVar(item.getNode()) && bound.contains(Var.alloc(item.getNode())) )
+            return TERM ;
+        return item ;
+    }
+    
+    private static Set<Var> varsOf(List<Triple> triples, int mask)
+    {
+        Set<Var> vars = new HashSet<Var>() ;
+        for ( int i = 0 ; mask != 0 ; i++, mask >>>= 1 )
+        {
+            if ( (mask & 1) == 0 )
+                continue ;
+            Triple t = triples.get(i) ;
+            addVar(vars, t.getSubject()) ;
+            addVar(vars, t.getPredicate()) ;
+            addVar(vars, t.getObject()) ;
+        }
+        return vars ;
+    }
+    
+    private static void addVar(Set<Var> vars, Node node)
+    {
+        if ( Var.isVar(node) )
+            vars.add(Var.alloc(node)) ;
+    }
+}
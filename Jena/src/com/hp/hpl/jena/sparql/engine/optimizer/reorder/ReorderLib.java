@@ -18,6 +18,8 @@
 
 package com.hp.hpl.jena.sparql.engine.optimizer.reorder;
 
+import com.hp.hpl.jena.graph.Graph ;
+import com.hp.hpl.jena.graph.GraphPredicateStatistics ;
 import com.hp.hpl.jena.sparql.core.BasicPattern ;
 import com.hp.hpl.jena.sparql.engine.optimizer.StatsMatcher ;
 
@@ -66,6 +68,12 @@ public class ReorderLib
     }
     
     
+    /** Reorder by estimated cost, using the per-predicate statistics of a graph */
+    public static ReorderTransformation costBased(Graph graph, GraphPredicateStatistics stats)
+    {
+        return new ReorderCostBased(graph, stats) ;
+    }
+    
     public static ReorderTransformation weighted(String filename)
     {
         StatsMatcher stats = new StatsMatcher(filename) ;
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.sparql.expr;
+
+import com.hp.hpl.jena.sparql.engine.binding.Binding ;
+import com.hp.hpl.jena.sparql.function.FunctionEnv ;
+
+/** A filter condition prepared by {@link ExprCompiler}.
+ *  Testing a binding has the same outcome as {@link Expr#isSatisfied} on the
+ *  expression(s) it was compiled from.
+ */
+public abstract class CompiledExpr
+{
+    // Three-valued outcome of testing the effective boolean value.
+    static final int TRUE  =  1 ;
+    static final int FALSE =  0 ;
+    /** Evaluation raised an ExprEvalException */
+    static final int ERROR = -1 ;
+    
+    /** Return TRUE, FALSE or ERROR */
+    abstract int test(Binding binding, FunctionEnv env) ;
+    
+    public boolean isSatisfied(Binding binding, FunctionEnv env)
+    {
+        return test(binding, env) == TRUE ;
+    }
+}
@@ -20,6 +20,8 @@ package com.hp.hpl.jena.sparql.expr;
 
 import java.util.List ;
 
+import org.openjena.atlas.lib.Cache ;
+import org.openjena.atlas.lib.CacheFactory ;
 import org.openjena.atlas.logging.Log ;
 
 import com.hp.hpl.jena.graph.Node ;
@@ -53,6 +55,11 @@ public class E_Regex extends ExprFunctionN
         }  
     }
     
+    // Compiled patterns, for regex calls where the pattern is not a constant.
+    private static final int CacheSize = 1000 ;
+    private static Cache<String, RegexEngine> regexCache =
+        CacheFactory.createSync(CacheFactory.<String, RegexEngine>createCache(CacheSize)) ;
+    
     private static final String name = "regex" ;
     private RegexEngine regexEngine = null ;
     
@@ -103,7 +110,22 @@ public class E_Regex extends ExprFunctionN
         return makeRegexEngine(vPattern.getString(), s) ;
     }
     
+    /** Get a regex engine for the pattern and flags, reusing a previously compiled one if possible. */ 
     public static RegexEngine makeRegexEngine(String pattern, String flags)
+    {
+        // No flags and empty flags compile the same way. 
+        // Flags can not contain a NUL (they are checked when compiled).
+        String key = ( (flags==null) ? "" : flags )+"\u0000"+pattern ;
+        RegexEngine regex = regexCache.get(key) ;
+        if ( regex == null )
+        {
+            regex = createRegexEngine(pattern, flags) ;
+            regexCache.put(key, regex) ;
+        }
+        return regex ;
+    }
+    
+    private static RegexEngine createRegexEngine(String pattern, String flags)
     {
         if ( regexImpl.equals(ARQ.xercesRegex))
             return new RegexXerces(pattern, flags) ;
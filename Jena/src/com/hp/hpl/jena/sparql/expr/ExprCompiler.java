@@ -0,0 +1,571 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.sparql.expr;
+
+import com.hp.hpl.jena.datatypes.RDFDatatype ;
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype ;
+import com.hp.hpl.jena.graph.Node ;
+import com.hp.hpl.jena.sparql.core.Var ;
+import com.hp.hpl.jena.sparql.engine.binding.Binding ;
+import com.hp.hpl.jena.sparql.engine.binding.BindingFactory ;
+import com.hp.hpl.jena.sparql.expr.nodevalue.NodeFunctions ;
+import com.hp.hpl.jena.sparql.expr.nodevalue.XSDFuncOp ;
+import com.hp.hpl.jena.sparql.function.FunctionEnv ;
+
+/** Prepare filter expressions for repeated evaluation.
+ * <p>
+ * Compiling folds constant subexpressions once, and turns the common shapes of
+ * FILTER condition into evaluators that work directly on the bound
+ * {@link Node}s: logical connectives, bound/isIRI/isBlank/isLiteral/sameTerm of a variable,
+ * comparison of a variable with an integer or plain string constant, and regex
+ * with a constant pattern.  These do not create a {@link NodeValue} per binding.
+ * Anything else, including any value outside a fast path (for example, a decimal
+ * compared to an integer), is evaluated by the original expression so the outcome
+ * is always that of {@link Expr#isSatisfied}.  
+ */
+public class ExprCompiler
+{
+    /** Compile the conjunction of the expressions (as in a FILTER). */
+    public static CompiledExpr compile(ExprList exprs, FunctionEnv env)
+    {
+        CompiledExpr[] tests = new CompiledExpr[exprs.size()] ;
+        ExprTransform folder = new ConstantFolder(env) ;
+        for ( int i = 0 ; i < tests.length ; i++ )
+            tests[i] = compile(ExprTransformer.transform(folder, exprs.get(i))) ;
+        return allOf(tests) ;
+    }
+    
+    /** Compile one expression. */
+    public static CompiledExpr compile(Expr expr, FunctionEnv env)
+    {
+        return compile(new ExprList(expr), env) ;
+    }
+    
+    /** The expressions, evaluated as they are, without any compilation. */
+    public static CompiledExpr interpret(ExprList exprs)
+    {
+        CompiledExpr[] tests = new CompiledExpr[exprs.size()] ;
+        for ( int i = 0 ; i < tests.length ; i++ )
+            tests[i] = new Generic(exprs.get(i)) ;
+        return allOf(tests) ;
+    }
+
+    private static CompiledExpr allOf(CompiledExpr[] tests)
+    {
+        if ( tests.length == 1 )
+            return tests[0] ;
+        return new AllOf(tests) ;
+    }
+    
+    private static CompiledExpr compile(Expr expr)
+    {
+        if ( expr.isConstant() )
+            return new Constant(expr.getConstant()) ;
+        
+        if ( expr instanceof E_LogicalAnd )
+        {
+            E_LogicalAnd f = (E_LogicalAnd)expr ;
+            return new And(compile(f.getArg1()), compile(f.getArg2())) ;
+        }
+        if ( expr instanceof E_LogicalOr )
+        {
+            E_LogicalOr f = (E_LogicalOr)expr ;
+            return new Or(compile(f.getArg1()), compile(f.getArg2())) ;
+        }
+        if ( expr instanceof E_LogicalNot )
+            return new Not(compile(((E_LogicalNot)expr).getArg())) ;
+        
+        if ( expr instanceof E_Bound && ((E_Bound)expr).getArg().isVariable() )
+            return new Bound(((E_Bound)expr).getArg().asVar()) ;
+        
+        if ( expr instanceof E_IsIRI && ((E_IsIRI)expr).getArg().isVariable() )
+            return new TermKind(expr, ((E_IsIRI)expr).getArg().asVar(), TermKind.IRI) ;
+        if ( expr instanceof E_IsBlank && ((E_IsBlank)expr).getArg().isVariable() )
+            return new TermKind(expr, ((E_IsBlank)expr).getArg().asVar(), TermKind.BLANK) ;
+        if ( expr instanceof E_IsLiteral && ((E_IsLiteral)expr).getArg().isVariable() )
+            return new TermKind(expr, ((E_IsLiteral)expr).getArg().asVar(), TermKind.LITERAL) ;
+        
+        if ( expr instanceof E_SameTerm )
+        {
+            E_SameTerm f = (E_SameTerm)expr ;
+            if ( f.getArg1().isVariable() && f.getArg2().isConstant() )
+                return new SameTerm(expr, f.getArg1().asVar(), f.getArg2().getConstant().asNode()) ;
+            if ( f.getArg2().isVariable() && f.getArg1().isConstant() )
+                return new SameTerm(expr, f.getArg2().asVar(), f.getArg1().getConstant().asNode()) ;
+        }
+        
+        int op = compareOp(expr) ;
+        if ( op != NoCompare )
+        {
+            ExprFunction2 f = (ExprFunction2)expr ;
+            if ( f.getArg1().isVariable() && f.getArg2().isConstant() )
+                return CompareConst.create(expr, f.getArg1().asVar(), op, f.getArg2().getConstant()) ;
+            if ( f.getArg2().isVariable() && f.getArg1().isConstant() )
+                return CompareConst.create(expr, f.getArg2().asVar(), flip(op), f.getArg1().getConstant()) ;
+        }
+        
+        if ( expr instanceof E_Regex )
+        {
+            CompiledExpr x = RegexConst.create((E_Regex)expr) ;
+            if ( x != null )
+                return x ;
+        }
+        
+        return new Generic(expr) ;
+    }
+
+    // ---- Constant folding
+    
+    /** Evaluate, once, any function whose arguments are all constants.
+     *  Functions that may give a different answer each time are left alone.
+     *  So are ones that raise an error: the error happens for each binding as before. 
+     */
+    private static class ConstantFolder extends ExprTransformCopy
+    {
+        private final FunctionEnv env ;
+
+        ConstantFolder(FunctionEnv env) { this.env = env ; }
+        
+        @Override
+        public Expr transform(ExprFunction1 func, Expr expr1)
+        { return fold(super.transform(func, expr1)) ; }
+
+        @Override
+        public Expr transform(ExprFunction2 func, Expr expr1, Expr expr2)
+        { return fold(super.transform(func, expr1, expr2)) ; }
+
+        @Override
+        public Expr transform(ExprFunction3 func, Expr expr1, Expr expr2, Expr expr3)
+        { return fold(super.transform(func, expr1, expr2, expr3)) ; }
+
+        @Override
+        public Expr transform(ExprFunctionN func, ExprList args)
+        { return fold(super.transform(func, args)) ; }
+        
+        private Expr fold(Expr expr)
+        {
+            if ( ! ( expr instanceof ExprFunction ) || ! isFoldable(expr) )
+                return expr ;
+            ExprFunction func = (ExprFunction)expr ;
+            for ( int i = 1 ; i <= func.numArgs() ; i++ )
+            {
+                if ( ! func.getArg(i).isConstant() )
+                    return expr ;
+            }
+            try {
+                return func.eval(BindingFactory.binding(), env) ;
+            } catch (Exception ex) { return expr ; }
+        }
+        
+        private static boolean isFoldable(Expr expr)
+        {
+            // Extension and dynamic function calls, new blank nodes,
+            // and IRIs (relative to the base) 
+            return ! ( expr instanceof E_Function ||
+                       expr instanceof E_FunctionDynamic || 
+                       expr instanceof E_Call || 
+                       expr instanceof E_BNode ||
+                       expr instanceof E_IRI ) ;
+        }
+    }
+    
+    // ---- Logical connectives : three valued, see E_LogicalAnd, E_LogicalOr.
+
+    private static final class AllOf extends CompiledExpr
+    {
+        private final CompiledExpr[] tests ;
+        AllOf(CompiledExpr[] tests) { this.tests = tests ; }
+        
+        @Override
+        int test(Binding binding, FunctionEnv env)
+        {
+            // Like separate filters, an error in any of them rejects the binding.
+            for ( int i = 0 ; i < tests.length ; i++ )
+            {
+                if ( tests[i].test(binding, env) != TRUE )
+                    return FALSE ;
+            }
+            return TRUE ;
+        }
+    }
+
+    private static final class And extends CompiledExpr
+    {
+        private final CompiledExpr left ;
+        private final CompiledExpr right ;
+        And(CompiledExpr left, CompiledExpr right) { this.left = left ; this.right = right ; }
+        
+        @Override
+        int test(Binding binding, FunctionEnv env)
+        {
+            int x = left.test(binding, env) ;
+            if ( x == FALSE )
+                return FALSE ;
+            int y = right.test(binding, env) ;
+            if ( y == FALSE )
+                return FALSE ;
+            return ( x == ERROR || y == ERROR ) ? ERROR : TRUE ;
+        }
+    }
+
+    private static final class Or extends CompiledExpr
+    {
+        private final CompiledExpr left ;
+        private final CompiledExpr right ;
+        Or(CompiledExpr left, CompiledExpr right) { this.left = left ; this.right = right ; }
+        
+        @Override
+        int test(Binding binding, FunctionEnv env)
+        {
+            int x = left.test(binding, env) ;
+            if ( x == TRUE )
+                return TRUE ;
+            int y = right.test(binding, env) ;
+            if ( y == TRUE )
+                return TRUE ;
+            return ( x == ERROR || y == ERROR ) ? ERROR : FALSE ;
+        }
+    }
+
+    private static final class Not extends CompiledExpr
+    {
+        private final CompiledExpr sub ;
+        Not(CompiledExpr sub) { this.sub = sub ; }
+        
+        @Override
+        int test(Binding binding, FunctionEnv env)
+        {
+            int x = sub.test(binding, env) ;
+            if ( x == ERROR )
+                return ERROR ;
+            return ( x == TRUE ) ? FALSE : TRUE ;
+        }
+    }
+    
+    // ---- Leaves
+    
+    /** Any expression : evaluate and take the effective boolean value. */ 
+    private static final class Generic extends CompiledExpr
+    {
+        private final Expr expr ;
+        Generic(Expr expr) { this.expr = expr ; }
+        
+        @Override
+        int test(Binding binding, FunctionEnv env)
+        {
+            try {
+                NodeValue v = expr.eval(binding, env) ;
+                return XSDFuncOp.booleanEffectiveValue(v) ? TRUE : FALSE ;
+            } catch (ExprEvalException ex) { return ERROR ; }
+        }
+    }
+    
+    private static final class Constant extends CompiledExpr
+    {
+        private final int result ;
+        Constant(NodeValue nv) { this.result = new Generic(nv).test(null, null) ; }
+        
+        @Override
+        int test(Binding binding, FunctionEnv env) { return result ; }
+    }
+    
+    private static final class Bound extends CompiledExpr
+    {
+        private final Var var ;
+        Bound(Var var) { this.var = var ; }
+        
+        @Override
+        int test(Binding binding, FunctionEnv env)
+        {
+            return binding.get(var) != null ? TRUE : FALSE ;
+        }
+    }
+    
+    private static final class TermKind extends CompiledExpr
+    {
+        static final int IRI = 0 ;
+        static final int BLANK = 1 ;
+        static final int LITERAL = 2 ;
+        
+        private final Var var ;
+        private final int kind ;
+        private final CompiledExpr fallback ;
+        
+        TermKind(Expr expr, Var var, int kind)
+        {
+            this.var = var ;
+            this.kind = kind ;
+            this.fallback = new Generic(expr) ;
+        }
+        
+        @Override
+        int test(Binding binding, FunctionEnv env)
+        {
+            Node n = binding.get(var) ;
+            if ( n == null )
+                return fallback.test(binding, env) ;
+            boolean b ;
+            switch (kind)
+            {
+                case IRI:       b = n.isURI() ;     break ;
+                case BLANK:     b = n.isBlank() ;   break ;
+                default:        b = n.isLiteral() ; break ;
+            }
+            return b ? TRUE : FALSE ;
+        }
+    }
+    
+    private static final class SameTerm extends CompiledExpr
+    {
+        private final Var var ;
+        private final Node constant ;
+        private final CompiledExpr fallback ;
+        
+        SameTerm(Expr expr, Var var, Node constant)
+        {
+            this.var = var ;
+            this.constant = constant ;
+            this.fallback = new Generic(expr) ;
+        }
+        
+        @Override
+        int test(Binding binding, FunctionEnv env)
+        {
+            Node n = binding.get(var) ;
+            if ( n == null )
+                return fallback.test(binding, env) ;
+            return NodeFunctions.sameTerm(n, constant) ? TRUE : FALSE ;
+        }
+    }
+
+    // ---- Comparisons
+    
+    private static final int NoCompare = -1 ;
+    private static final int EQ = 0 ;
+    private static final int NE = 1 ;
+    private static final int LT = 2 ;
+    private static final int LE = 3 ;
+    private static final int GT = 4 ;
+    private static final int GE = 5 ;
+    
+    private static int compareOp(Expr expr)
+    {
+        if ( expr instanceof E_Equals )             return EQ ;
+        if ( expr instanceof E_NotEquals )          return NE ;
+        if ( expr instanceof E_LessThan )           return LT ;
+        if ( expr instanceof E_LessThanOrEqual )    return LE ;
+        if ( expr instanceof E_GreaterThan )        return GT ;
+        if ( expr instanceof E_GreaterThanOrEqual ) return GE ;
+        return NoCompare ;
+    }
+    
+    /** The operator for the arguments swapped over */ 
+    private static int flip(int op)
+    {
+        switch (op)
+        {
+            case LT: return GT ;
+            case LE: return GE ;
+            case GT: return LT ;
+            case GE: return LE ;
+            default: return op ;
+        }
+    }
+    
+    /** Variable compared to a constant : integers and plain strings are compared directly. */ 
+    private static final class CompareConst extends CompiledExpr
+    {
+        private final Var var ;
+        private final int op ;
+        private final boolean isLong ;
+        private final long longValue ;
+        private final String stringValue ;
+        private final CompiledExpr fallback ;
+
+        static CompiledExpr create(Expr expr, Var var, int op, NodeValue constant)
+        {
+            if ( constant.isInteger() && constant.getInteger().bitLength() < 64 )
+                return new CompareConst(expr, var, op, true, constant.getInteger().longValue(), null) ;
+            if ( constant.isString() && isPlainLiteral(constant.asNode()) )
+                return new CompareConst(expr, var, op, false, 0, constant.getString()) ;
+            return new Generic(expr) ;
+        }
+        
+        private CompareConst(Expr expr, Var var, int op, boolean isLong, long longValue, String stringValue)
+        {
+            this.var = var ;
+            this.op = op ;
+            this.isLong = isLong ;
+            this.longValue = longValue ;
+            this.stringValue = stringValue ;
+            this.fallback = new Generic(expr) ;
+        }
+        
+        @Override
+        int test(Binding binding, FunctionEnv env)
+        {
+            Node n = binding.get(var) ;
+            if ( n != null && n.isLiteral() )
+            {
+                if ( isLong )
+                {
+                    String lex = integerLexicalForm(n) ;
+                    if ( lex != null )
+                    {
+                        long x = parseLong(lex) ;
+                        return result( x < longValue ? -1 : ( x == longValue ? 0 : 1 ) ) ;
+                    }
+                }
+                else if ( isPlainLiteral(n) )
+                    return result(n.getLiteralLexicalForm().compareTo(stringValue)) ;
+            }
+            return fallback.test(binding, env) ;
+        }
+        
+        private int result(int cmp)
+        {
+            boolean b ;
+            switch (op)
+            {
+                case EQ: b = ( cmp == 0 ) ; break ;
+                case NE: b = ( cmp != 0 ) ; break ;
+                case LT: b = ( cmp < 0 ) ;  break ;
+                case LE: b = ( cmp <= 0 ) ; break ;
+                case GT: b = ( cmp > 0 ) ;  break ;
+                default: b = ( cmp >= 0 ) ; break ;
+            }
+            return b ? TRUE : FALSE ;
+        }
+    }
+    
+    private static boolean isPlainLiteral(Node n)
+    {
+        return n.isLiteral() && n.getLiteralDatatypeURI() == null && n.getLiteralLanguage().equals("") ;
+    }
+
+    private static final int MaxLongDigits = 18 ;
+    
+    /** The lexical form, if the node is a well-formed integer literal
+     *  that is simply an optional sign and no more than 18 digits, else null.
+     */
+    private static String integerLexicalForm(Node n)
+    {
+        RDFDatatype dt = n.getLiteralDatatype() ;
+        if ( dt == null )
+            return null ;
+        if ( ! dt.equals(XSDDatatype.XSDinteger) && ! dt.equals(XSDDatatype.XSDint) && ! dt.equals(XSDDatatype.XSDlong) &&
+             ! dt.equals(XSDDatatype.XSDshort) && ! dt.equals(XSDDatatype.XSDbyte) )
+            return null ;
+        if ( ! n.getLiteralLanguage().equals("") || ! n.getLiteral().isWellFormed() )
+            return null ;
+        String lex = n.getLiteralLexicalForm() ;
+        int len = lex.length() ;
+        int start = ( len > 0 && ( lex.charAt(0) == '+' || lex.charAt(0) == '-' ) ) ? 1 : 0 ;
+        if ( len == start || len-start > MaxLongDigits )
+            return null ;
+        for ( int i = start ; i < len ; i++ )
+        {
+            char ch = lex.charAt(i) ;
+            if ( ch < '0' || ch > '9' )
+                return null ;
+        }
+        return lex ;
+    }
+    
+    /** Parse a string already checked by integerLexicalForm */ 
+    private static long parseLong(String lex)
+    {
+        boolean negative = ( lex.charAt(0) == '-' ) ;
+        int i = ( negative || lex.charAt(0) == '+' ) ? 1 : 0 ;
+        long x = 0 ;
+        for ( ; i < lex.length() ; i++ )
+            x = x*10 + ( lex.charAt(i) - '0' ) ;
+        return negative ? -x : x ;
+    }
+
+    // ---- Regex
+    
+    /** regex(?var, ...) or regex(str(?var), ...) with a constant pattern and flags. */  
+    private static final class RegexConst extends CompiledExpr
+    {
+        private final Var var ;
+        private final boolean str ;
+        private final RegexEngine regex ;
+        private final CompiledExpr fallback ;
+        
+        static CompiledExpr create(E_Regex expr)
+        {
+            Expr arg = expr.getArg(1) ;
+            boolean str = false ;
+            if ( arg instanceof E_Str )
+            {
+                arg = ((E_Str)arg).getArg() ;
+                str = true ;
+            }
+            if ( ! arg.isVariable() )
+                return null ;
+            Expr pattern = expr.getArg(2) ;
+            Expr flags = expr.getArg(3) ;
+            if ( ! pattern.isConstant() || ! pattern.getConstant().isString() )
+                return null ;
+            if ( flags != null && ( ! flags.isConstant() || ! flags.getConstant().isString() ) )
+                return null ;
+            RegexEngine regex ;
+            try {
+                regex = E_Regex.makeRegexEngine(pattern.getConstant(), (flags==null)?null:flags.getConstant()) ;
+            } catch (Exception ex) { return null ; }
+            return new RegexConst(expr, arg.asVar(), str, regex) ;
+        }
+        
+        private RegexConst(Expr expr, Var var, boolean str, RegexEngine regex)
+        {
+            this.var = var ;
+            this.str = str ;
+            this.regex = regex ;
+            this.fallback = new Generic(expr) ;
+        }
+        
+        @Override
+        int test(Binding binding, FunctionEnv env)
+        {
+            Node n = binding.get(var) ;
+            String s = null ;
+            if ( n != null )
+            {
+                if ( str )
+                {
+                    if ( n.isLiteral() )
+                        s = n.getLiteralLexicalForm() ;
+                    else if ( n.isURI() )
+                        s = n.getURI() ;
+                }
+                else if ( n.isLiteral() )
+                {
+                    // As NodeFunctions.checkAndGetStringLiteral
+                    RDFDatatype dt = n.getLiteralDatatype() ;
+                    if ( dt == null || dt.equals(XSDDatatype.XSDstring) )
+                        s = n.getLiteralLexicalForm() ;
+                }
+            }
+            if ( s == null )
+                return fallback.test(binding, env) ;
+            return regex.match(s) ? TRUE : FALSE ;
+        }
+    }
+}
@@ -65,6 +65,7 @@ public class ARQMgt
             // Done in ARQ initialization -- register(NS+".system:type=SystemInfo", ARQ.systemInfo) ;
             register(NS+".system:type=Context", cxtBean) ;
             register(NS+".system:type=Engine", qeInfo) ;
+            register(NS+".system:type=NodeCache", new NodeCacheInfo()) ;
 
         } catch (Throwable ex) {
             Log.warn(ARQMgt.class, "Failed to initialize JMX", ex) ;
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.sparql.mgt;
+
+import com.hp.hpl.jena.graph.Node ;
+import com.hp.hpl.jena.graph.NodeCache ;
+
+public class NodeCacheInfo implements NodeCacheInfoMBean
+{
+    private final NodeCache cache ;
+    
+    public NodeCacheInfo()                  { this(Node.getNodeCache()) ; }
+    public NodeCacheInfo(NodeCache cache)   { this.cache = cache ; }
+    
+    @Override
+    public int getCapacity()    { return cache.capacity() ; }
+
+    @Override
+    public int getSize()        { return cache.size() ; }
+
+    @Override
+    public long getHits()       { return cache.getHits() ; }
+
+    @Override
+    public long getMisses()     { return cache.getMisses() ; }
+
+    @Override
+    public long getEvictions()  { return cache.getEvictions() ; }
+    
+    @Override
+    public boolean isCounting() { return cache.isCounting() ; }
+    
+    @Override
+    public void setCounting(boolean counting) { cache.setCounting(counting) ; }
+    
+    @Override
+    public void resetCounts()   { cache.resetCounts() ; }
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.sparql.mgt;
+
+/** Statistics for the cache used when creating Nodes (see {@link com.hp.hpl.jena.graph.NodeCache}) */
+public interface NodeCacheInfoMBean
+{
+    /** Number of slots in the cache */
+    int getCapacity() ;
+    
+    /** Number of slots in use (scans the cache) */
+    int getSize() ;
+    
+    /** Number of lookups that found the node */
+    long getHits() ;
+
+    /** Number of lookups that did not find the node */
+    long getMisses() ;
+    
+    /** Number of cached nodes displaced by a different node */
+    long getEvictions() ;
+    
+    /** Whether hits, misses and evictions are counted (off unless switched on) */
+    boolean isCounting() ;
+    
+    /** Switch counting of hits, misses and evictions on or off */
+    void setCounting(boolean counting) ;
+    
+    /** Reset the hit, miss and eviction counts */
+    void resetCounts() ;
+}
@@ -0,0 +1,369 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hp.hpl.jena.sparql.path;
+
+import java.util.Arrays ;
+import java.util.HashMap ;
+import java.util.Iterator ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.NoSuchElementException ;
+import java.util.WeakHashMap ;
+import java.util.concurrent.atomic.AtomicReferenceArray ;
+
+import org.openjena.atlas.iterator.Iter ;
+
+import com.hp.hpl.jena.graph.Graph ;
+import com.hp.hpl.jena.graph.GraphListener ;
+import com.hp.hpl.jena.graph.Node ;
+import com.hp.hpl.jena.graph.Triple ;
+import com.hp.hpl.jena.mem.GraphMem ;
+import com.hp.hpl.jena.mem.faster.GraphMemFaster ;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator ;
+
+/** Index of one property of a graph for evaluating :p+, :p* and their inverses
+ *  without going back to the graph.  The nodes linked by the property are
+ *  given dense int ids, and the links are held as adjacency arrays in both
+ *  directions, so that a walk is over ints.  The set of nodes reachable from a
+ *  bound start node is kept once it has been asked for.
+ *  <p>
+ *  Indexes are built on first use and kept for each graph until the graph
+ *  reports a change to the property through its event manager, or its size
+ *  changes.  Only plain in-memory graphs ({@link GraphMemFaster}, {@link GraphMem})
+ *  are indexed: other graphs can change without events, for example the members
+ *  of a union, the base graph under an inference graph, or a view of a dataset.  Query
+ *  execution only uses the indexes when the context sets
+ *  {@link com.hp.hpl.jena.query.ARQ#pathClosureIndex}.
+ */
+public class PathClosureIndex
+{
+    private static final Map<Graph, GraphIndexes> indexes = new WeakHashMap<Graph, GraphIndexes>() ;
+
+    /** Whether a graph reports all its changes, so that its indexes can be kept. */
+    public static boolean isIndexable(Graph graph)
+    {
+        Class<?> c = graph.getClass() ;
+        return c == GraphMemFaster.class || c == GraphMem.class ;
+    }
+    
+    /** Get the index for a property of a graph, building it if necessary,
+     *  or null if the graph can't be indexed. */
+    public static PathClosureIndex get(Graph graph, Node property)
+    {
+        if ( ! isIndexable(graph) )
+            return null ;
+        GraphIndexes entry ;
+        long version ;
+        int size = graph.size() ;
+        synchronized (indexes)
+        {
+            entry = indexes.get(graph) ;
+            if ( entry == null )
+            {
+                entry = new GraphIndexes() ;
+                indexes.put(graph, entry) ;
+                graph.getEventManager().register(entry) ;
+            }
+            // A change that was not reported, such as GraphMem.clear().
+            if ( entry.graphSize != size )
+            {
+                entry.changed(null) ;
+                entry.graphSize = size ;
+            }
+            PathClosureIndex index = entry.byProperty.get(property) ;
+            if ( index != null )
+                return index ;
+            version = entry.version ;
+        }
+        
+        // Build without holding the lock; only keep the index if the graph
+        // did not change meanwhile.
+        PathClosureIndex index = new PathClosureIndex(graph, property) ;
+        synchronized (indexes)
+        {
+            if ( entry.version == version )
+                entry.byProperty.put(property, index) ;
+        }
+        return index ;
+    }
+    
+    /** Drop any indexes for a graph. */
+    public static void reset(Graph graph)
+    {
+        synchronized (indexes)
+        {
+            GraphIndexes entry = indexes.get(graph) ;
+            if ( entry != null )
+                entry.changed(null) ;
+        }
+    }
+
+    private final Node property ;
+    private final Map<Node, Integer> ids ;
+    private final Node[] nodes ;
+    // Links from node i are links[start[i]] to links[start[i+1]-1].
+    private final int[] fwdStart ;
+    private final int[] fwdLinks ;
+    private final int[] bwdStart ;
+    private final int[] bwdLinks ;
+    private final AtomicReferenceArray<int[]> fwdClosure ;
+    private final AtomicReferenceArray<int[]> bwdClosure ;
+    
+    // Visited marks for a walk, valid when equal to the stamp.  Used under the object lock.
+    private final int[] mark ;
+    private int stamp = 0 ;
+
+    private PathClosureIndex(Graph graph, Node property)
+    {
+        this.property = property ;
+        this.ids = new HashMap<Node, Integer>() ;
+        List<Node> nodeList = new java.util.ArrayList<Node>() ;
+        int[] from = new int[1024] ;
+        int[] to = new int[1024] ;
+        int numLinks = 0 ;
+        
+        ExtendedIterator<Triple> iter = graph.find(Node.ANY, property, Node.ANY) ;
+        try {
+            while ( iter.hasNext() )
+            {
+                Triple t = iter.next() ;
+                if ( numLinks == from.length )
+                {
+                    from = Arrays.copyOf(from, 2 * numLinks) ;
+                    to = Arrays.copyOf(to, 2 * numLinks) ;
+                }
+                from[numLinks] = id(t.getSubject(), nodeList) ;
+                to[numLinks] = id(t.getObject(), nodeList) ;
+                numLinks++ ;
+            }
+        } finally { iter.close() ; }
+        
+        int numNodes = nodeList.size() ;
+        this.nodes = nodeList.toArray(new Node[numNodes]) ;
+        this.fwdStart = new int[numNodes + 1] ;
+        this.fwdLinks = new int[numLinks] ;
+        this.bwdStart = new int[numNodes + 1] ;
+        this.bwdLinks = new int[numLinks] ;
+        adjacency(from, to, numLinks, fwdStart, fwdLinks) ;
+        adjacency(to, from, numLinks, bwdStart, bwdLinks) ;
+        this.fwdClosure = new AtomicReferenceArray<int[]>(numNodes) ;
+        this.bwdClosure = new AtomicReferenceArray<int[]>(numNodes) ;
+        this.mark = new int[numNodes] ;
+    }
+    
+    private int id(Node n, List<Node> nodeList)
+    {
+        Integer x = ids.get(n) ;
+        if ( x == null )
+        {
+            x = nodeList.size() ;
+            ids.put(n, x) ;
+            nodeList.add(n) ;
+        }
+        return x ;
+    }
+    
+    // Counting sort of the links on their first node.
+    private static void adjacency(int[] from, int[] to, int numLinks, int[] start, int[] links)
+    {
+        for ( int i = 0 ; i < numLinks ; i++ )
+            start[from[i] + 1]++ ;
+        for ( int i = 1 ; i < start.length ; i++ )
+            start[i] += start[i - 1] ;
+        int[] fill = Arrays.copyOf(start, start.length - 1) ;
+        for ( int i = 0 ; i < numLinks ; i++ )
+            links[fill[from[i]]++] = to[i] ;
+    }
+
+    public Node getProperty()   { return property ; }
+    
+    /** Number of nodes linked by the property. */
+    public int size()           { return nodes.length ; }
+
+    /** The nodes reachable from start following the property forwards (or backwards),
+     *  one or more times (or zero or more times).  Each node is returned once. */
+    public Iterator<Node> reachable(Node start, boolean forward, boolean zeroOrMore)
+    {
+        Integer id = ids.get(start) ;
+        if ( id == null )
+            return zeroOrMore ? Iter.singleton(start) : Iter.<Node>nullIterator() ;
+        int[] closure = closure(id, forward, true) ;
+        Iterator<Node> iter = new NodeIterator(closure) ;
+        if ( zeroOrMore && Arrays.binarySearch(closure, id) < 0 )
+            iter = Iter.concat(Iter.singleton(start), iter) ;
+        return iter ;
+    }
+    
+    /** Whether object is reachable from subject following the property forwards (or backwards). */
+    public boolean connected(Node subject, Node object, boolean forward, boolean zeroOrMore)
+    {
+        if ( zeroOrMore && subject.sameValueAs(object) )
+            return true ;
+        Integer s = ids.get(subject) ;
+        Integer o = ids.get(object) ;
+        if ( s == null || o == null )
+            return false ;
+        // Use whichever end has already been walked from.
+        int[] closure = ( forward ? bwdClosure : fwdClosure ).get(o) ;
+        if ( closure != null )
+            return Arrays.binarySearch(closure, s) >= 0 ;
+        closure = closure(s, forward, true) ;
+        return Arrays.binarySearch(closure, o) >= 0 ;
+    }
+    
+    /** The nodes with at least one link in the given direction. */
+    public Iterator<Node> sources(boolean forward)
+    {
+        final int[] start = forward ? fwdStart : bwdStart ;
+        int n = 0 ;
+        int[] x = new int[nodes.length] ;
+        for ( int i = 0 ; i < nodes.length ; i++ )
+        {
+            if ( start[i + 1] > start[i] )
+                x[n++] = i ;
+        }
+        return new NodeIterator(Arrays.copyOf(x, n)) ;
+    }
+    
+    /** As {@link #reachable}, but without keeping the result (for scans over many start nodes). */ 
+    public Iterator<Node> reachableOnce(Node start, boolean forward, boolean zeroOrMore)
+    {
+        Integer id = ids.get(start) ;
+        if ( id == null )
+            return zeroOrMore ? Iter.singleton(start) : Iter.<Node>nullIterator() ;
+        int[] closure = closure(id, forward, false) ;
+        Iterator<Node> iter = new NodeIterator(closure) ;
+        if ( zeroOrMore && Arrays.binarySearch(closure, id) < 0 )
+            iter = Iter.concat(Iter.singleton(start), iter) ;
+        return iter ;
+    }
+
+    private int[] closure(int id, boolean forward, boolean keep)
+    {
+        AtomicReferenceArray<int[]> closures = forward ? fwdClosure : bwdClosure ;
+        int[] closure = closures.get(id) ;
+        if ( closure != null )
+            return closure ;
+        closure = walk(id, forward) ;
+        if ( keep )
+            closures.set(id, closure) ;
+        return closure ;
+    }
+    
+    // Breadth first from id, returning the sorted ids reached in one or more steps.
+    private synchronized int[] walk(int id, boolean forward)
+    {
+        int[] start = forward ? fwdStart : bwdStart ;
+        int[] links = forward ? fwdLinks : bwdLinks ;
+        if ( ++stamp == 0 )
+        {
+            Arrays.fill(mark, 0) ;
+            stamp = 1 ;
+        }
+        // The queue is also the result.
+        int[] queue = new int[16] ;
+        int head = 0 ;
+        int tail = 0 ;
+        int n = id ;
+        while ( true )
+        {
+            for ( int i = start[n] ; i < start[n + 1] ; i++ )
+            {
+                int n2 = links[i] ;
+                if ( mark[n2] == stamp )
+                    continue ;
+                mark[n2] = stamp ;
+                if ( tail == queue.length )
+                    queue = Arrays.copyOf(queue, 2 * tail) ;
+                queue[tail++] = n2 ;
+            }
+            if ( head == tail )
+                break ;
+            n = queue[head++] ;
+        }
+        int[] result = Arrays.copyOf(queue, tail) ;
+        Arrays.sort(result) ;
+        return result ;
+    }
+    
+    private class NodeIterator implements Iterator<Node>
+    {
+        private final int[] x ;
+        private int idx = 0 ;
+        NodeIterator(int[] x) { this.x = x ; }
+        
+        @Override
+        public boolean hasNext()    { return idx < x.length ; }
+        
+        @Override
+        public Node next()
+        {
+            if ( idx >= x.length )
+                throw new NoSuchElementException("PathClosureIndex") ;
+            return nodes[x[idx++]] ;
+        }
+        
+        @Override
+        public void remove()        { throw new UnsupportedOperationException("PathClosureIndex.remove") ; }
+    }
+    
+    // The indexes of one graph, and the listener that drops them when the graph changes.
+    private static class GraphIndexes implements GraphListener
+    {
+        final Map<Node, PathClosureIndex> byProperty = new HashMap<Node, PathClosureIndex>() ;
+        long version = 0 ;
+        int graphSize = -1 ;
+        
+        // Change to a property, or to anything if null.
+        void changed(Node property)
+        {
+            synchronized (indexes)
+            {
+                version++ ;
+                if ( property == null )
+                    byProperty.clear() ;
+                else
+                    byProperty.remove(property) ;
+            }
+        }
+
+        @Override
+        public void notifyAddTriple(Graph g, Triple t)                  { changed(t.getPredicate()) ; }
+        @Override
+        public void notifyAddArray(Graph g, Triple[] triples)           { changed(null) ; }
+        @Override
+        public void notifyAddList(Graph g, List<Triple> triples)        { changed(null) ; }
+        @Override
+        public void notifyAddIterator(Graph g, Iterator<Triple> it)     { changed(null) ; }
+        @Override
+        public void notifyAddGraph(Graph g, Graph added)                { changed(null) ; }
+        @Override
+        public void notifyDeleteTriple(Graph g, Triple t)               { changed(t.getPredicate()) ; }
+        @Override
+        public void notifyDeleteList(Graph g, List<Triple> L)           { changed(null) ; }
+        @Override
+        public void notifyDeleteArray(Graph g, Triple[] triples)        { changed(null) ; }
+        @Override
+        public void notifyDeleteIterator(Graph g, Iterator<Triple> it)  { changed(null) ; }
+        @Override
+        public void notifyDeleteGraph(Graph g, Graph removed)           { changed(null) ; }
+        @Override
+        public void notifyEvent(Graph source, Object value)             { changed(null) ; }
+    }
+}
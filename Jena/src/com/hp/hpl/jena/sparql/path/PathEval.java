@@ -22,7 +22,9 @@ import java.util.ArrayList ;
 import java.util.Collection ;
 import java.util.HashSet ;
 import java.util.Iterator ;
+import java.util.LinkedList ;
 import java.util.List ;
+import java.util.NoSuchElementException ;
 import java.util.Set ;
 
 import org.openjena.atlas.io.IndentedWriter ;
@@ -97,6 +99,10 @@ public class PathEval
 
     static private Iterator<Node> eval(Graph graph, Node node, Path path, boolean forward)
     {
+        // Repeated paths are walked lazily, as the results are asked for.
+        Path step = transitiveStep(path) ;
+        if ( step != null )
+            return new ReachableIterator(graph, node, step, forward, isZeroOrMore(path)) ;
         Collection<Node> acc = new ArrayList<Node>() ;
         eval$(graph, node, path, forward, acc);
         return acc.iterator() ;
@@ -114,6 +120,134 @@ public class PathEval
         return acc.iterator() ;
     }
     
+    /** The path being repeated if this is path+ or path*, else null. */
+    static Path transitiveStep(Path path)
+    {
+        if ( path instanceof P_OneOrMore || path instanceof P_ZeroOrMore )
+            return ((P_Path1)path).getSubPath() ;
+        if ( path instanceof P_Mod && ( ((P_Mod)path).isZeroOrMore() || ((P_Mod)path).isOneOrMore() ) )
+            return ((P_Mod)path).getSubPath() ;
+        return null ;
+    }
+    
+    /** Whether a path returned by transitiveStep also matches zero steps. */
+    static boolean isZeroOrMore(Path path)
+    {
+        return ( path instanceof P_ZeroOrMore ) || ( path instanceof P_Mod && ((P_Mod)path).isZeroOrMore() ) ;
+    }
+    
+    /** Test whether object can be reached from subject by repeating the step path
+     *  (at least once unless zeroOrMore).  The search works from both ends at
+     *  once, always extending the smaller frontier, so it touches about as much
+     *  of the graph as the shorter of a forward and a backward walk. 
+     */
+    static public boolean connected(Graph graph, Node subject, Path step, Node object, boolean zeroOrMore)
+    {
+        if ( zeroOrMore && subject.sameValueAs(object) )
+            return true ;
+        
+        Set<Node> seenForwards = new HashSet<Node>() ;
+        Set<Node> seenBackwards = new HashSet<Node>() ;
+        List<Node> frontierForwards = new ArrayList<Node>() ;
+        List<Node> frontierBackwards = new ArrayList<Node>() ;
+        seenForwards.add(subject) ;
+        frontierForwards.add(subject) ;
+        seenBackwards.add(object) ;
+        frontierBackwards.add(object) ;
+        
+        while ( ! frontierForwards.isEmpty() && ! frontierBackwards.isEmpty() )
+        {
+            boolean forwards = ( frontierForwards.size() <= frontierBackwards.size() ) ;
+            List<Node> frontier = forwards ? frontierForwards : frontierBackwards ;
+            Set<Node> seen = forwards ? seenForwards : seenBackwards ;
+            Set<Node> seenOther = forwards ? seenBackwards : seenForwards ;
+            
+            List<Node> nextFrontier = new ArrayList<Node>() ;
+            for ( Node n : frontier )
+            {
+                Iterator<Node> iter = eval(graph, n, step, forwards) ;
+                while ( iter.hasNext() )
+                {
+                    Node n2 = iter.next() ;
+                    // Met a node on a walk from the other end.
+                    if ( seenOther.contains(n2) )
+                        return true ;
+                    if ( seen.add(n2) )
+                        nextFrontier.add(n2) ;
+                }
+            }
+            if ( forwards )
+                frontierForwards = nextFrontier ;
+            else
+                frontierBackwards = nextFrontier ;
+        }
+        return false ;
+    }
+    
+    /** Breadth-first walk of the nodes reachable by repeating a path, returning
+     *  each node once.  The walk only goes as far as is needed for the next result.
+     */
+    private static class ReachableIterator implements Iterator<Node>
+    {
+        private final Graph graph ;
+        private final Path step ;
+        private final boolean forward ;
+        private final Set<Node> visited = new HashSet<Node>() ;
+        private final LinkedList<Node> frontier = new LinkedList<Node>() ;
+        private Iterator<Node> successors = null ;
+        private Node slot = null ;
+
+        ReachableIterator(Graph graph, Node start, Path step, boolean forward, boolean includeStart)
+        {
+            this.graph = graph ;
+            this.step = step ;
+            this.forward = forward ;
+            frontier.add(start) ;
+            // For path+, the start is only a result if it is on a cycle.
+            if ( includeStart )
+            {
+                visited.add(start) ;
+                slot = start ;
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while ( slot == null )
+            {
+                if ( successors != null && successors.hasNext() )
+                {
+                    Node n = successors.next() ;
+                    if ( visited.add(n) )
+                    {
+                        frontier.add(n) ;
+                        slot = n ;
+                    }
+                    continue ;
+                }
+                if ( frontier.isEmpty() )
+                    return false ;
+                successors = eval(graph, frontier.removeFirst(), step, forward) ;
+            }
+            return true ;
+        }
+
+        @Override
+        public Node next()
+        {
+            if ( ! hasNext() )
+                throw new NoSuchElementException("PathEval.ReachableIterator") ;
+            Node n = slot ;
+            slot = null ;
+            return n ;
+        }
+
+        @Override
+        public void remove()
+        { throw new UnsupportedOperationException("PathEval.ReachableIterator.remove") ; }
+    }
+    
     // ---- Worker ??
     static private void eval$(Graph graph, Node node, Path p, boolean forward, Collection<Node> acc)
     {
@@ -216,6 +350,12 @@ public class PathEval
             // :p{,n} is :p{0,n}
             // :p{n,m} is the iteration count down on n and m. 
             
+            if ( pathMod.isOneOrMore() )
+            {
+                doOneOrMore(pathMod.getSubPath()) ;
+                return ;
+            }
+            
             if ( pathMod.isZeroOrMore() )
             {
                 if ( DEBUG ) IndentedWriter.stdout.println("ZeroOrMore") ;
@@ -502,56 +642,16 @@ public class PathEval
 //        }
 //        // OLD
         
-        // NEW
-        
-        static final boolean trace = false ;
+        // path* and path+ have set semantics: each node reached is returned once.
         
         private void doZeroOrMore(Path path)
         {
-            if ( trace ) System.out.printf("\nZeroOrMore: %s\n", node) ;
-            //Stack<Node> visited = new Stack<Node>() ;
-            Set<Node> visited = new HashSet<Node>() ;
-            ALP(node, path, visited) ;
+            fill(new ReachableIterator(graph, node, path, forwardMode, true)) ;
         }
         
         private void doOneOrMore(Path path)
         {
-            if ( trace ) System.out.printf("\nOneOrMore: %s\n", node) ;
-            //Stack<Node> visited = new Stack<Node>() ;
-            
-            Set<Node> visited = new HashSet<Node>() ;
-            // Do one step without including.
-            Iterator<Node> iter1 = eval(graph, node, path, forwardMode) ;
-            for ( ; iter1.hasNext() ; )
-            {
-                Node n1 = iter1.next();
-                if ( trace ) System.out.printf("One from %s\n   visited=%s\n   output=%s\n", n1, visited, output) ;
-                ALP(n1, path, visited) ;
-            }
-        }
-        
-        // This is the worker function for path*
-        private void ALP(Node node, Path path, Collection<Node> visited)
-        {
-            if ( trace ) System.out.printf("ALP node=%s\n   visited=%s\n   output=%s\n", node, visited, output) ;
-            if ( visited.contains(node) ) return ;
-            
-            // If output is a set, then no point going on if node has been added to the results.
-            // If output includes duplicates, more solutions are generated
-            // "visited" is nodes on this path (see the matching .remove).
-            if ( ! output.add(node) )
-                return ;
-            
-            visited.add(node) ;
-            
-            Iterator<Node> iter1 = eval(graph, node, path, forwardMode) ;
-            // For each step, add to results and recurse.
-            for ( ; iter1.hasNext() ; )
-            {
-                Node n1 = iter1.next();
-                ALP(n1, path, visited) ;
-            }
-            visited.remove(node) ;
+            fill(new ReachableIterator(graph, node, path, forwardMode, false)) ;
         }
     }
 }
@@ -18,12 +18,18 @@
 
 package com.hp.hpl.jena.sparql.path;
 
-import java.util.ArrayList ;
 import java.util.Iterator ;
-import java.util.List ;
+import java.util.LinkedHashSet ;
+import java.util.Set ;
+
+import org.openjena.atlas.iterator.Filter ;
+import org.openjena.atlas.iterator.Iter ;
+import org.openjena.atlas.iterator.Transform ;
 
 import com.hp.hpl.jena.graph.Graph ;
 import com.hp.hpl.jena.graph.Node ;
+import com.hp.hpl.jena.graph.Triple ;
+import com.hp.hpl.jena.query.ARQ ;
 import com.hp.hpl.jena.sparql.ARQInternalErrorException ;
 import com.hp.hpl.jena.sparql.algebra.Op ;
 import com.hp.hpl.jena.sparql.algebra.op.OpBGP ;
@@ -37,7 +43,6 @@ import com.hp.hpl.jena.sparql.engine.ExecutionContext ;
 import com.hp.hpl.jena.sparql.engine.QueryIterator ;
 import com.hp.hpl.jena.sparql.engine.binding.Binding ;
 import com.hp.hpl.jena.sparql.engine.binding.BindingFactory ;
-import com.hp.hpl.jena.sparql.engine.iterator.QueryIterConcat ;
 import com.hp.hpl.jena.sparql.engine.iterator.QueryIterPlainWrapper ;
 import com.hp.hpl.jena.sparql.engine.iterator.QueryIterYieldN ;
 import com.hp.hpl.jena.sparql.mgt.Explain ;
@@ -45,6 +50,7 @@ import com.hp.hpl.jena.sparql.pfunction.PropertyFunction ;
 import com.hp.hpl.jena.sparql.pfunction.PropertyFunctionFactory ;
 import com.hp.hpl.jena.sparql.pfunction.PropertyFunctionRegistry ;
 import com.hp.hpl.jena.sparql.util.graph.GraphUtils ;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator ;
 
 public class PathLib
 {
@@ -145,41 +151,61 @@ public class PathLib
         if ( Var.isVar(s) )
         {
             // Var subject, concrete object - do backwards.
-            iter = PathEval.evalInverse(graph, o, path) ;
+            PathClosureIndex index = closureIndex(graph, path, o, execCxt) ;
+            if ( index != null )
+                iter = index.reachable(o, ! isForward(path), PathEval.isZeroOrMore(path)) ;
+            else
+                iter = PathEval.evalInverse(graph, o, path) ;
             endNode = s ;
         } 
         else
         {
-            iter = PathEval.eval(graph, s, path) ;
+            PathClosureIndex index = closureIndex(graph, path, s, execCxt) ;
+            if ( index != null )
+                iter = index.reachable(s, isForward(path), PathEval.isZeroOrMore(path)) ;
+            else
+                iter = PathEval.eval(graph, s, path) ;
             endNode = o ;
         }
         return _execTriplePath(binding, iter, endNode, execCxt) ;
     }
     
-    private static QueryIterator _execTriplePath(Binding binding, 
+    private static QueryIterator _execTriplePath(final Binding binding, 
                                                  Iterator<Node> iter,
                                                  Node endNode,
                                                  ExecutionContext execCxt)
     {
-        List<Binding> results = new ArrayList<Binding>() ;
-        
         if (! Var.isVar(endNode))
             throw new ARQInternalErrorException("Non-variable endnode in _execTriplePath") ;
         
-        Var var = Var.alloc(endNode) ;
-        // Assign.
-        for (; iter.hasNext();)
+        final Var var = Var.alloc(endNode) ;
+        // Assign, as the path is walked.
+        Transform<Node, Binding> assign = new Transform<Node, Binding>()
         {
-            Node n = iter.next() ;
-            results.add(BindingFactory.binding(binding, var, n)) ;
-        }
-        return new QueryIterPlainWrapper(results.iterator()) ;
+            @Override
+            public Binding convert(Node n)
+            {
+                return BindingFactory.binding(binding, var, n) ;
+            }
+        } ;
+        return new QueryIterPlainWrapper(Iter.map(iter, assign), execCxt) ;
     }
 
     // Subject and object are nodes.
     private static QueryIterator groundedPath(Binding binding, Graph graph, Node subject, Path path, Node object,
                                               ExecutionContext execCxt)
     {
+        if ( PathEval.transitiveStep(path) != null && ! subject.isLiteral() && ! object.isLiteral() )
+        {
+            // path+ and path* match at most once: search, from both ends, rather than walk everything.
+            boolean zeroOrMore = PathEval.isZeroOrMore(path) ;
+            PathClosureIndex index = closureIndex(graph, path, subject, execCxt) ;
+            boolean found = ( index != null )
+                ? index.connected(subject, object, isForward(path), zeroOrMore)
+                : PathEval.connected(graph, subject, PathEval.transitiveStep(path), object, zeroOrMore) ;
+            return new QueryIterYieldN(found ? 1 : 0, binding) ;
+        }
+        
         Iterator<Node> iter = PathEval.eval(graph, subject, path) ;
         // Now count the number of matches.
         
@@ -194,21 +220,96 @@ public class PathLib
         return new QueryIterYieldN(count, binding) ;
     }
 
-    // Brute force evaluation of a TriplePath where neither subject nor object are bound 
-    private static QueryIterator ungroundedPath(Binding binding, Graph graph, Var sVar, Path path, Var oVar,
-                                                ExecutionContext execCxt)
+    // Evaluation of a TriplePath where neither subject nor object are bound:
+    // walk from each possible start node in turn.
+    private static QueryIterator ungroundedPath(final Binding binding, final Graph graph,
+                                                final Var sVar, final Path path, final Var oVar,
+                                                final ExecutionContext execCxt)
     {
-        Iterator<Node> iter = GraphUtils.allNodes(graph) ;
-        QueryIterConcat qIterCat = new QueryIterConcat(execCxt) ;
+        final PathClosureIndex index = closureIndex(graph, path, null, execCxt) ;
+        Iterator<Node> starts = startNodes(graph, path, index) ;
         
-        for ( ; iter.hasNext() ; )
+        Transform<Node, Iterator<Binding>> walk = new Transform<Node, Iterator<Binding>>()
         {
-            Node n = iter.next() ;
-            Binding b2 = BindingFactory.binding(binding, sVar, n) ;
-            Iterator<Node> pathIter = PathEval.eval(graph, n, path) ;
-            QueryIterator qIter = _execTriplePath(b2, pathIter, oVar, execCxt) ;
-            qIterCat.add(qIter) ;
-        }
-        return qIterCat ;
+            @Override
+            public Iterator<Binding> convert(final Node start)
+            {
+                final Binding b2 = BindingFactory.binding(binding, sVar, start) ;
+                Iterator<Node> pathIter = ( index != null )
+                    ? index.reachableOnce(start, isForward(path), PathEval.isZeroOrMore(path))
+                    : PathEval.eval(graph, start, path) ;
+                
+                if ( ! sVar.equals(oVar) )
+                    return _execTriplePath(b2, pathIter, oVar, execCxt) ;
+
+                // ?x path ?x : only the paths back to the start.
+                Filter<Node> cycle = new Filter<Node>()
+                {
+                    @Override
+                    public boolean accept(Node n) { return n.equals(start) ; }
+                } ;
+                Transform<Node, Binding> same = new Transform<Node, Binding>()
+                {
+                    @Override
+                    public Binding convert(Node n) { return b2 ; }
+                } ;
+                return Iter.map(Iter.filter(pathIter, cycle), same) ;
+            }
+        } ;
+        return new QueryIterPlainWrapper(Iter.mapMany(starts, walk), execCxt) ;
+    }
+    
+    // The nodes a path can start from.
+    private static Iterator<Node> startNodes(Graph graph, Path path, PathClosureIndex index)
+    {
+        Path step = PathEval.transitiveStep(path) ;
+        if ( step == null || PathEval.isZeroOrMore(path) )
+            // Any node, zero steps.
+            return GraphUtils.allNodes(graph) ;
+        
+        // path+ must take a first step. 
+        if ( index != null )
+            return index.sources(isForward(path)) ;
+        if ( step instanceof P_Link )
+            return ends(graph, ((P_Link)step).getNode(), true) ;
+        if ( step instanceof P_ReverseLink )
+            return ends(graph, ((P_ReverseLink)step).getNode(), false) ;
+        return GraphUtils.allNodes(graph) ;
+    }
+    
+    // The distinct subjects (or objects) of a property.
+    private static Iterator<Node> ends(Graph graph, Node property, boolean subjects)
+    {
+        Set<Node> x = new LinkedHashSet<Node>() ;
+        ExtendedIterator<Triple> iter = graph.find(Node.ANY, property, Node.ANY) ;
+        try {
+            while ( iter.hasNext() )
+            {
+                Triple t = iter.next() ;
+                x.add(subjects ? t.getSubject() : t.getObject()) ;
+            }
+        } finally { iter.close() ; }
+        return x.iterator() ;
+    }
+    
+    // The closure index for :p+, :p*, ^:p+ and ^:p*, if enabled.
+    // Not used from a literal, which can match other terms of the same value. 
+    private static PathClosureIndex closureIndex(Graph graph, Path path, Node start, ExecutionContext execCxt)
+    {
+        if ( ! execCxt.getContext().isTrue(ARQ.pathClosureIndex) )
+            return null ;
+        if ( start != null && start.isLiteral() )
+            return null ;
+        Path step = PathEval.transitiveStep(path) ;
+        if ( step instanceof P_Link )
+            return PathClosureIndex.get(graph, ((P_Link)step).getNode()) ;
+        if ( step instanceof P_ReverseLink )
+            return PathClosureIndex.get(graph, ((P_ReverseLink)step).getNode()) ;
+        return null ;
+    }
+    
+    private static boolean isForward(Path path)
+    {
+        return ! ( PathEval.transitiveStep(path) instanceof P_ReverseLink ) ;
     }
 }
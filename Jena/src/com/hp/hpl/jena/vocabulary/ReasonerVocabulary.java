@@ -76,7 +76,8 @@ public class ReasonerVocabulary {
     public static final Property PROPtraceOn = ruleReasonerProperty( "traceOn" );
 
     /** Property used to set the mode of a generic rule reasoner.
-     *  Valid values are the strings "forward", "backward" or "hybrid" */
+     *  Valid values are the strings "forward", "forwardRETE", "forwardSemiNaive",
+     *  "backward" or "hybrid" */
     public static final Property PROPruleMode = ruleReasonerProperty( "ruleMode" );
     
     /** Property used to attach a file a rules to a generic rule reasoner.
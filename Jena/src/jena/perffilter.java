@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jena;
+
+import static jena.cmdline.CmdLineUtils.setLog4jConfiguration;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import jena.cmdline.CommandLine;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.engine.binding.BindingFactory;
+import com.hp.hpl.jena.sparql.engine.binding.BindingMap;
+import com.hp.hpl.jena.sparql.expr.*;
+import com.hp.hpl.jena.sparql.function.FunctionEnv;
+import com.hp.hpl.jena.sparql.function.FunctionEnvBase;
+import com.hp.hpl.jena.sparql.util.ExprUtils;
+
+/**
+ * Benchmark FILTER expression evaluation, interpreted and compiled.
+ * <pre>
+ * Usage:  perffilter [-workload list] [-bindings n] [-iterations n] [-warmup n]
+ * </pre>
+ * Each workload is a typical FILTER condition applied to generated solutions
+ * binding <code>?o</code> (and for some, <code>?w</code> and <code>?pat</code>).
+ * The workloads are <code>numeric-range</code>, <code>string-eq</code>,
+ * <code>regex</code> (constant pattern), <code>regex-str</code> (on IRIs),
+ * <code>regex-var</code> (pattern from the solution), <code>bound</code>,
+ * <code>folded</code> (constant arithmetic) and <code>mixed</code>
+ * (numbers of several datatypes and strings).
+ * <p>
+ * For each workload (default all of them) we report, for the expression as
+ * written and as compiled by {@link ExprCompiler}, the median time per solution,
+ * the bytes allocated per solution (where the JVM can report per thread allocation)
+ * and the number of solutions accepted, which must be the same for both.
+ * </p>
+ */
+public class perffilter {
+
+    static {
+        setLog4jConfiguration() ;
+    }
+
+    static final String NS = "http://example.org/perf#" ;
+
+    static final String[] ALL = { "numeric-range", "string-eq", "regex", "regex-str", "regex-var", "bound", "folded", "mixed" } ;
+
+    static final String[] WORDS = { "alpha", "beta", "gamma", "Delta", "epsilon", "zeta", "eta", "theta" } ;
+
+    static final Var O = Var.alloc("o") ;
+    static final Var W = Var.alloc("w") ;
+    static final Var PAT = Var.alloc("pat") ;
+
+    public static void main(String[] args) {
+        CommandLine cl = new CommandLine() ;
+        String usage = "Usage:  perffilter [-workload list] [-bindings n] [-iterations n] [-warmup n]" ;
+        cl.setUsage(usage) ;
+        cl.add("workload", true) ;
+        cl.add("bindings", true) ;
+        cl.add("iterations", true) ;
+        cl.add("warmup", true) ;
+        cl.process(args) ;
+        if (cl.numItems() > 0) {
+            System.err.println(usage) ;
+            System.exit(1) ;
+        }
+        int nBindings = intArg(cl, "bindings", 100000) ;
+        int iterations = intArg(cl, "iterations", 5) ;
+        int warmup = intArg(cl, "warmup", 3) ;
+        String[] names = cl.hasArg("workload") ? cl.getValue("workload").split(",") : ALL ;
+
+        FunctionEnv env = new FunctionEnvBase() ;
+        System.out.printf("%-14s %-11s %10s %10s %10s  %s\n", "workload", "mode", "time/sol", "alloc/sol", "accepted", "filter") ;
+        for (String name : names) {
+            String filter = filterFor(name) ;
+            ExprList exprs = new ExprList(ExprUtils.parse(filter)) ;
+            List<Binding> bindings = generate(name, nBindings) ;
+            CompiledExpr interpreted = ExprCompiler.interpret(exprs) ;
+            CompiledExpr compiled = ExprCompiler.compile(exprs, env) ;
+            run(name, "interpreted", filter, interpreted, bindings, env, iterations, warmup) ;
+            run(name, "compiled", "", compiled, bindings, env, iterations, warmup) ;
+        }
+    }
+
+    static int intArg(CommandLine cl, String name, int dflt) {
+        return cl.hasArg(name) ? Integer.parseInt(cl.getValue(name)) : dflt ;
+    }
+
+    static String filterFor(String name) {
+        if (name.equals("numeric-range")) return "?o > 10 && ?o < 100" ;
+        if (name.equals("string-eq"))     return "?o = 'beta3' || ?o = 'zeta7'" ;
+        if (name.equals("regex"))         return "regex(?o, '^[ab].*[0-4]$', 'i')" ;
+        if (name.equals("regex-str"))     return "regex(str(?o), 'ta[0-9]$')" ;
+        if (name.equals("regex-var"))     return "regex(?o, ?pat)" ;
+        if (name.equals("bound"))         return "!bound(?w) || ?w != 'alpha'" ;
+        if (name.equals("folded"))        return "?o >= 2*10 && ?o <= 100 - 1" ;
+        if (name.equals("mixed"))         return "?o < 50 || ?o = 'gamma'" ;
+        System.err.println("Unknown workload: " + name) ;
+        System.exit(1) ;
+        return null ;
+    }
+
+    /** Generate the solutions for a workload */
+    static List<Binding> generate(String name, int n) {
+        Random random = new Random(42) ;
+        List<Binding> bindings = new ArrayList<Binding>(n) ;
+        for (int i = 0 ; i < n ; i++) {
+            BindingMap b = BindingFactory.create() ;
+            String word = WORDS[random.nextInt(WORDS.length)] + random.nextInt(10) ;
+            if (name.equals("numeric-range") || name.equals("folded")) {
+                b.add(O, integer(random.nextInt(200) - 50)) ;
+            } else if (name.equals("regex-str")) {
+                b.add(O, Node.createURI(NS + word)) ;
+            } else if (name.equals("mixed")) {
+                switch (i % 4) {
+                    case 0: b.add(O, integer(random.nextInt(100))) ; break ;
+                    case 1: b.add(O, Node.createLiteral(Double.toString(random.nextDouble() * 100), null, XSDDatatype.XSDdouble)) ; break ;
+                    case 2: b.add(O, Node.createLiteral(Integer.toString(random.nextInt(100)), null, XSDDatatype.XSDdecimal)) ; break ;
+                    default: b.add(O, Node.createLiteral(WORDS[random.nextInt(WORDS.length)])) ; break ;
+                }
+            } else {
+                b.add(O, Node.createLiteral(word)) ;
+            }
+            if (name.equals("regex-var")) {
+                b.add(PAT, Node.createLiteral("^" + WORDS[random.nextInt(WORDS.length)].substring(0, 2))) ;
+            }
+            if (name.equals("bound") && random.nextBoolean()) {
+                b.add(W, Node.createLiteral(WORDS[random.nextInt(WORDS.length)])) ;
+            }
+            bindings.add(b) ;
+        }
+        return bindings ;
+    }
+
+    static Node integer(int i) {
+        return Node.createLiteral(Integer.toString(i), null, XSDDatatype.XSDinteger) ;
+    }
+
+    static void run(String name, String mode, String filter, CompiledExpr test, List<Binding> bindings,
+                    FunctionEnv env, int iterations, int warmup) {
+        long[] times = new long[iterations] ;
+        int accepted = 0 ;
+        long allocated = 0 ;
+        for (int i = -warmup ; i < iterations ; i++) {
+            long bytes = allocatedBytes() ;
+            long start = System.nanoTime() ;
+            accepted = 0 ;
+            for (Binding b : bindings) {
+                if (test.isSatisfied(b, env)) accepted++ ;
+            }
+            long time = System.nanoTime() - start ;
+            if (i >= 0) {
+                times[i] = time ;
+                allocated = allocatedBytes() - bytes ;
+            }
+        }
+        String allocPerSolution = (allocatedBytes() < 0) ? "n/a" : String.format("%.0fB", (double)allocated / bindings.size()) ;
+        System.out.printf("%-14s %-11s %8.1fns %10s %10d  %s\n",
+                          name, mode, median(times) / bindings.size(), allocPerSolution, accepted, filter) ;
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, or -1 if the JVM
+     * does not support measuring it.
+     */
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean() ;
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads ;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId()) ;
+            }
+        }
+        return -1 ;
+    }
+
+    static double median(long[] times) {
+        long[] sorted = times.clone() ;
+        Arrays.sort(sorted) ;
+        return sorted[sorted.length / 2] ;
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jena;
+
+import static jena.cmdline.CmdLineUtils.setLog4jConfiguration;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import jena.cmdline.CommandLine;
+
+import com.hp.hpl.jena.query.*;
+import com.hp.hpl.jena.rdf.model.*;
+import com.hp.hpl.jena.sparql.engine.http.HttpClientPool;
+import com.hp.hpl.jena.sparql.engine.http.HttpParams;
+import com.hp.hpl.jena.sparql.engine.http.HttpQuery;
+import com.hp.hpl.jena.sparql.engine.http.QueryEngineHTTP;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Benchmark remote query over HTTP against an in-process endpoint.
+ * <pre>
+ * Usage:  perfhttp [-transport list] [-requests n] [-threads n] [-rows n]
+ *                  [-delay ms] [-gzip] [-post]
+ * </pre>
+ * A {@link StubEndpoint} is started on the loopback interface, serving
+ * SPARQL XML results from a generated model.  For each transport in the
+ * comma separated list (<code>pooled</code>, <code>urlconnection</code>;
+ * default both) the given number of SELECT queries, each returning the given
+ * number of rows, are run by QueryEngineHTTP from a number of threads, reading
+ * every result.  We report requests and rows per second, the mean latency and
+ * how many TCP connections the endpoint saw.
+ * <code>-delay</code> makes the endpoint wait before answering, <code>-gzip</code>
+ * makes it compress responses when the client accepts that and <code>-post</code>
+ * sends the queries by POST.
+ * </p>
+ */
+public class perfhttp {
+
+    static {
+        setLog4jConfiguration() ;
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLine cl = new CommandLine() ;
+        String usage = "Usage:  perfhttp [-transport list] [-requests n] [-threads n] [-rows n] [-delay ms] [-gzip] [-post]" ;
+        cl.setUsage(usage) ;
+        cl.add("transport", true) ;
+        cl.add("requests", true) ;
+        cl.add("threads", true) ;
+        cl.add("rows", true) ;
+        cl.add("delay", true) ;
+        cl.add("gzip", false) ;
+        cl.add("post", false) ;
+        cl.process(args) ;
+        if (cl.numItems() > 0) {
+            System.err.println(usage) ;
+            System.exit(1) ;
+        }
+        int nRequests = intArg(cl, "requests", 2000) ;
+        int nThreads = intArg(cl, "threads", 4) ;
+        int nRows = intArg(cl, "rows", 100) ;
+        int delay = intArg(cl, "delay", 0) ;
+        String[] transports = cl.hasArg("transport") ? cl.getValue("transport").split(",") : new String[] { "pooled", "urlconnection" } ;
+        if (cl.hasArg("post"))
+            HttpQuery.urlLimit = 0 ;
+
+        StubEndpoint endpoint = new StubEndpoint(generate(nRows), delay, cl.hasArg("gzip")) ;
+        endpoint.start() ;
+        String query = "SELECT * { ?s ?p ?o } LIMIT " + nRows ;
+        System.out.printf("Endpoint %s: %d requests of %d rows, %d threads, delay %dms%s\n",
+                          endpoint.getURL(), nRequests, nRows, nThreads, delay, cl.hasArg("gzip") ? ", gzip" : "") ;
+        System.out.printf("%-14s %10s %10s %12s %12s %8s\n", "transport", "time", "req/s", "rows/s", "latency", "conns") ;
+        try {
+            for (String transport : transports) {
+                HttpQuery.usePooledClient = transport.equals("pooled") ;
+                if (!HttpQuery.usePooledClient && !transport.equals("urlconnection"))
+                    throw new IllegalArgumentException("Unknown transport: " + transport) ;
+                HttpClientPool.setMaxPerRoute(nThreads) ;
+                // Warm up, then measure
+                run(endpoint.getURL(), query, Math.min(nRequests, 200), nThreads) ;
+                endpoint.reset() ;
+                long rows[] = new long[1] ;
+                long start = System.nanoTime() ;
+                double latency = run(endpoint.getURL(), query, nRequests, nThreads, rows) ;
+                double secs = (System.nanoTime() - start) / 1e9 ;
+                System.out.printf("%-14s %9.2fs %10.0f %12.0f %10.2fms %8d\n",
+                                  transport, secs, nRequests / secs, rows[0] / secs, latency, endpoint.connections()) ;
+                HttpClientPool.shutdown() ;
+            }
+        } finally {
+            endpoint.stop() ;
+        }
+    }
+
+    static double run(String url, String query, int nRequests, int nThreads) throws InterruptedException {
+        return run(url, query, nRequests, nThreads, new long[1]) ;
+    }
+
+    /** Run the queries, return the mean latency in milliseconds */
+    static double run(final String url, final String query, int nRequests, int nThreads, long[] rows) throws InterruptedException {
+        final AtomicInteger remaining = new AtomicInteger(nRequests) ;
+        final AtomicLong nRows = new AtomicLong() ;
+        final AtomicLong totalTime = new AtomicLong() ;
+        final AtomicInteger failures = new AtomicInteger() ;
+        ExecutorService threads = Executors.newFixedThreadPool(nThreads) ;
+        for (int i = 0 ; i < nThreads ; i++) {
+            threads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    while (remaining.getAndDecrement() > 0) {
+                        long start = System.nanoTime() ;
+                        QueryEngineHTTP qExec = new QueryEngineHTTP(url, query) ;
+                        try {
+                            ResultSet rs = qExec.execSelect() ;
+                            long n = 0 ;
+                            while (rs.hasNext()) {
+                                rs.next() ;
+                                n++ ;
+                            }
+                            nRows.addAndGet(n) ;
+                        } catch (RuntimeException ex) {
+                            if (failures.incrementAndGet() == 1)
+                                System.err.println("Request failed: " + ex) ;
+                        } finally {
+                            qExec.close() ;
+                        }
+                        totalTime.addAndGet(System.nanoTime() - start) ;
+                    }
+                }
+            }) ;
+        }
+        threads.shutdown() ;
+        threads.awaitTermination(1, TimeUnit.HOURS) ;
+        if (failures.get() > 0)
+            System.err.println(failures.get() + " requests failed") ;
+        rows[0] = nRows.get() ;
+        return totalTime.get() / 1e6 / nRequests ;
+    }
+
+    static Model generate(int nTriples) {
+        Model model = ModelFactory.createDefaultModel() ;
+        Property p = model.createProperty("http://example.org/perf#p") ;
+        for (int i = 0 ; i < nTriples ; i++)
+            model.add(model.createResource("http://example.org/perf#s" + i), p, "Value " + i) ;
+        return model ;
+    }
+
+    static int intArg(CommandLine cl, String name, int dflt) {
+        return cl.hasArg(name) ? Integer.parseInt(cl.getValue(name)) : dflt ;
+    }
+
+    /**
+     * A SPARQL endpoint on the loopback interface that answers queries
+     * (GET or POST, <code>query=</code>) over a fixed model with SPARQL XML
+     * results, for trying out the HTTP client side without a server.
+     * It counts requests and the TCP connections they arrived on.
+     */
+    public static class StubEndpoint {
+        private final Model model ;
+        private final int delay ;
+        private final boolean gzip ;
+        private final AtomicInteger requests = new AtomicInteger() ;
+        private final Set<InetSocketAddress> clients = Collections.synchronizedSet(new HashSet<InetSocketAddress>()) ;
+        private HttpServer server = null ;
+        private ExecutorService executor = null ;
+
+        public StubEndpoint(Model model, int delay, boolean gzip) {
+            this.model = model ;
+            this.delay = delay ;
+            this.gzip = gzip ;
+        }
+
+        public void start() throws IOException {
+            // Small responses would otherwise wait for delayed ACKs.
+            System.setProperty("sun.net.httpserver.nodelay", "true") ;
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0) ;
+            executor = Executors.newCachedThreadPool() ;
+            server.setExecutor(executor) ;
+            server.createContext("/sparql", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    try {
+                        respond(exchange) ;
+                    } finally {
+                        exchange.close() ;
+                    }
+                }
+            }) ;
+            server.start() ;
+        }
+
+        public void stop() {
+            server.stop(0) ;
+            executor.shutdownNow() ;
+        }
+
+        public String getURL() {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + "/sparql" ;
+        }
+
+        /** Number of requests since the last reset */
+        public int requests() { return requests.get() ; }
+
+        /** Number of client connections seen since the last reset */
+        public int connections() { return clients.size() ; }
+
+        public void reset() {
+            requests.set(0) ;
+            clients.clear() ;
+        }
+
+        private void respond(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet() ;
+            clients.add(exchange.getRemoteAddress()) ;
+            String form = exchange.getRequestMethod().equals("POST")
+                ? new String(readAll(exchange), "US-ASCII")
+                : exchange.getRequestURI().getRawQuery() ;
+            String queryString = null ;
+            if (form != null) {
+                for (String param : form.split("&")) {
+                    if (param.startsWith(HttpParams.pQuery + "="))
+                        queryString = URLDecoder.decode(param.substring(HttpParams.pQuery.length() + 1), "UTF-8") ;
+                }
+            }
+            if (queryString == null) {
+                exchange.sendResponseHeaders(400, -1) ;
+                return ;
+            }
+            if (delay > 0) {
+                try { Thread.sleep(delay) ; } catch (InterruptedException ex) { return ; }
+            }
+
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding") ;
+            boolean compress = gzip && acceptEncoding != null && acceptEncoding.contains("gzip") ;
+            exchange.getResponseHeaders().set("Content-Type", HttpParams.contentTypeResultsXML) ;
+            if (compress)
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip") ;
+            // Chunked: results are written as they are produced.
+            exchange.sendResponseHeaders(200, 0) ;
+            OutputStream out = new BufferedOutputStream(exchange.getResponseBody(), 16 * 1024) ;
+            if (compress)
+                out = new GZIPOutputStream(out, 16 * 1024) ;
+            QueryExecution qExec = QueryExecutionFactory.create(queryString, model) ;
+            try {
+                ResultSetFormatter.outputAsXML(out, qExec.execSelect()) ;
+            } finally {
+                qExec.close() ;
+            }
+            out.close() ;
+        }
+
+        private static byte[] readAll(HttpExchange exchange) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream() ;
+            byte[] buffer = new byte[4096] ;
+            int n ;
+            while ((n = exchange.getRequestBody().read(buffer)) > 0)
+                bytes.write(buffer, 0, n) ;
+            return bytes.toByteArray() ;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jena;
+
+import static jena.cmdline.CmdLineUtils.setLog4jConfiguration;
+
+import java.util.*;
+
+import jena.cmdline.CommandLine;
+
+import com.hp.hpl.jena.graph.*;
+import com.hp.hpl.jena.reasoner.*;
+import com.hp.hpl.jena.reasoner.rulesys.*;
+import com.hp.hpl.jena.reasoner.rulesys.impl.RETEEngine;
+import com.hp.hpl.jena.util.FileManager;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.vocabulary.*;
+
+/**
+ * Measure the latency of adds and deletes against an inference graph.
+ * <pre>
+ * Usage:  perfinfupdate [-reasoner owlmini|owlmicro|owl|rdfs] [-rules file] [-n ops] [-size n] [-threads n] [-incremental] [-rebind] [datafile]
+ * </pre>
+ * Each operation removes a randomly chosen triple of the data and then
+ * adds it back, each step is followed by a prepare so that any deferred
+ * forward inference is included. Backward (tabled) inference is lazy
+ * and is not part of the measured time.
+ * If no data file is given a class hierarchy with typed and related
+ * instances is generated. With <code>-rebind</code> the graph is
+ * rebound after every change, which gives the cost of a full recompute
+ * for comparison. <code>-threads</code> sets the number of worker threads
+ * used for the initial RETE closure. <code>-incremental</code> enables incremental
+ * deletes in the RETE engine, for rule sets which support them.
+ */
+public class perfinfupdate {
+
+    static {
+        setLog4jConfiguration() ;
+    }
+
+    static final String NS = "http://example.org/perf#" ;
+
+    public static void main(String[] args) {
+        CommandLine cl = new CommandLine() ;
+        String usage = "Usage:  perfinfupdate [-reasoner owlmini|owlmicro|owl|rdfs] [-rules file] [-n ops] [-size n] [-threads n] [-incremental] [-rebind] [datafile]" ;
+        cl.setUsage(usage) ;
+        cl.add("reasoner", true) ;
+        cl.add("rules", true) ;
+        cl.add("n", true) ;
+        cl.add("size", true) ;
+        cl.add("threads", true) ;
+        cl.add("incremental", false) ;
+        cl.add("rebind", false) ;
+        cl.process(args) ;
+        if (cl.numItems() > 1) {
+            System.err.println(usage) ;
+            System.exit(1) ;
+        }
+        int ops = cl.hasArg("n") ? Integer.parseInt(cl.getValue("n")) : 100 ;
+        int size = cl.hasArg("size") ? Integer.parseInt(cl.getValue("size")) : 2000 ;
+        boolean rebind = cl.hasArg("rebind") ;
+        if (cl.hasArg("threads")) {
+            RETEEngine.closureThreads = Integer.parseInt(cl.getValue("threads")) ;
+        }
+        RETEEngine.incrementalDeletes = cl.hasArg("incremental") ;
+
+        Reasoner reasoner ;
+        if (cl.hasArg("rules")) {
+            reasoner = new GenericRuleReasoner(Rule.rulesFromURL(cl.getValue("rules"))) ;
+        } else {
+            reasoner = createReasoner(cl.hasArg("reasoner") ? cl.getValue("reasoner") : "owlmini") ;
+        }
+
+        Graph data ;
+        if (cl.numItems() == 1) {
+            data = FileManager.get().loadModel(cl.getItem(0)).getGraph() ;
+        } else {
+            data = generate(size) ;
+        }
+
+        long start = System.nanoTime() ;
+        InfGraph inf = reasoner.bind(data) ;
+        inf.prepare() ;
+        long bindTime = System.nanoTime() - start ;
+        System.out.printf("Data: %d triples, inferred graph: %d triples, prepare: %.1fms\n",
+                          data.size(), inf.size(), bindTime / 1e6) ;
+
+        // Only instance data is changed, schema changes normally force a recompute
+        List<Triple> candidates = new ArrayList<Triple>() ;
+        for (ExtendedIterator<Triple> i = data.find(Node.ANY, Node.ANY, Node.ANY) ; i.hasNext() ; ) {
+            Triple t = i.next() ;
+            if ( ! isSchema(t) ) candidates.add(t) ;
+        }
+        if (candidates.isEmpty()) {
+            System.err.println("No instance data to update") ;
+            System.exit(1) ;
+        }
+
+        Random random = new Random(42) ;
+        long[] deletes = new long[ops] ;
+        long[] adds = new long[ops] ;
+        for (int i = 0 ; i < ops ; i++) {
+            Triple t = candidates.get(random.nextInt(candidates.size())) ;
+            start = System.nanoTime() ;
+            inf.delete(t) ;
+            if (rebind) inf.rebind() ;
+            inf.prepare() ;
+            deletes[i] = System.nanoTime() - start ;
+
+            start = System.nanoTime() ;
+            inf.add(t) ;
+            if (rebind) inf.rebind() ;
+            inf.prepare() ;
+            adds[i] = System.nanoTime() - start ;
+        }
+        report("delete", deletes) ;
+        report("add", adds) ;
+    }
+
+    static Reasoner createReasoner(String name) {
+        if (name.equals("owlmini"))  return ReasonerRegistry.getOWLMiniReasoner() ;
+        if (name.equals("owlmicro")) return ReasonerRegistry.getOWLMicroReasoner() ;
+        if (name.equals("owl"))      return ReasonerRegistry.getOWLReasoner() ;
+        if (name.equals("rdfs"))     return ReasonerRegistry.getRDFSReasoner() ;
+        System.err.println("Unknown reasoner: " + name) ;
+        System.exit(1) ;
+        return null ;
+    }
+
+    static boolean isSchema(Triple t) {
+        Node p = t.getPredicate() ;
+        return p.equals(RDFS.subClassOf.asNode()) || p.equals(RDFS.subPropertyOf.asNode())
+            || p.equals(RDFS.domain.asNode()) || p.equals(RDFS.range.asNode())
+            || (p.equals(RDF.type.asNode()) && t.getObject().getNameSpace().equals(OWL.getURI()))
+            || p.getNameSpace().equals(OWL.getURI()) ;
+    }
+
+    /**
+     * Generate a tree of classes, a few properties with domains, ranges and
+     * a transitive sub-property, and instances linked by those properties.
+     */
+    static Graph generate(int size) {
+        Graph g = Factory.createGraphMem() ;
+        Node type = RDF.type.asNode() ;
+        int nClasses = Math.max(10, size / 20) ;
+        for (int i = 0 ; i < nClasses ; i++) {
+            g.add(Triple.create(node("C" + i), type, OWL.Class.asNode())) ;
+            if (i > 0) g.add(Triple.create(node("C" + i), RDFS.subClassOf.asNode(), node("C" + ((i - 1) / 3)))) ;
+        }
+        Node part = node("partOf") ;
+        Node within = node("within") ;
+        Node knows = node("knows") ;
+        g.add(Triple.create(part, type, OWL.TransitiveProperty.asNode())) ;
+        g.add(Triple.create(within, RDFS.subPropertyOf.asNode(), part)) ;
+        g.add(Triple.create(part, RDFS.domain.asNode(), node("C1"))) ;
+        g.add(Triple.create(knows, type, OWL.SymmetricProperty.asNode())) ;
+        g.add(Triple.create(knows, RDFS.range.asNode(), node("C2"))) ;
+
+        Random random = new Random(17) ;
+        int nInstances = size / 2 ;
+        for (int i = 0 ; i < nInstances ; i++) {
+            Node x = node("i" + i) ;
+            g.add(Triple.create(x, type, node("C" + random.nextInt(nClasses)))) ;
+            if (i > 0 && random.nextInt(4) == 0) {
+                g.add(Triple.create(x, within, node("i" + random.nextInt(i)))) ;
+            }
+            if (random.nextInt(2) == 0) {
+                g.add(Triple.create(x, knows, node("i" + random.nextInt(nInstances)))) ;
+            }
+        }
+        return g ;
+    }
+
+    static Node node(String localName) {
+        return Node.createURI(NS + localName) ;
+    }
+
+    static void report(String label, long[] times) {
+        long[] sorted = times.clone() ;
+        Arrays.sort(sorted) ;
+        long total = 0 ;
+        for (long t : sorted) total += t ;
+        System.out.printf("%-6s n=%d mean=%.3fms median=%.3fms p90=%.3fms max=%.3fms\n",
+                          label, sorted.length, total / 1e6 / sorted.length,
+                          sorted[sorted.length / 2] / 1e6,
+                          sorted[(int)(sorted.length * 0.9)] / 1e6,
+                          sorted[sorted.length - 1] / 1e6) ;
+    }
+}
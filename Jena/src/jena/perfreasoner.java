@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jena;
+
+import static jena.cmdline.CmdLineUtils.setLog4jConfiguration;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import jena.cmdline.CommandLine;
+
+import com.hp.hpl.jena.graph.*;
+import com.hp.hpl.jena.reasoner.*;
+import com.hp.hpl.jena.reasoner.rulesys.*;
+import com.hp.hpl.jena.reasoner.transitiveReasoner.TransitiveGraphCache;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.vocabulary.*;
+
+/**
+ * Benchmark the reasoners over a generated ontology.
+ * <pre>
+ * Usage:  perfreasoner [-reasoner list] [-classes n] [-depth n] [-props n] [-instances n]
+ *                      [-queries n] [-iterations n] [-warmup n] [-compact] [-profile]
+ * </pre>
+ * The ontology is a class hierarchy of the given size and depth, with some
+ * multiple inheritance, a chain of sub-properties ending in a transitive
+ * property with a domain and range, and instances typed by random classes
+ * and linked by random properties from the chain.
+ * <p>
+ * For each reasoner in the comma separated list (default all of them) we
+ * report the median time to bind and prepare a fresh inference graph, the mean
+ * latency of the instance type, class extension and super class queries on a
+ * prepared graph, the bytes allocated per query solution once the tables are
+ * warm (where the JVM can report per thread allocation), and the growth in heap
+ * once the queries have been answered.
+ * The reasoners are <code>rdfs</code>, <code>owlmicro</code>, <code>owlmini</code>,
+ * <code>transitive</code> and <code>generic-</code><i>mode</i> for each
+ * GenericRuleReasoner mode (<code>forward</code>, <code>forwardRETE</code>,
+ * <code>forwardSemiNaive</code>, <code>backward</code>, <code>hybrid</code>),
+ * which run the matching RDFS rule set.
+ * <code>-compact</code> switches the transitive closure caches to the compact
+ * index and <code>-profile</code> prints the rule profile of the last iteration.
+ * </p>
+ */
+public class perfreasoner {
+
+    static {
+        setLog4jConfiguration() ;
+    }
+
+    static final String NS = "http://example.org/perf#" ;
+
+    static final String[] ALL = { "rdfs", "owlmicro", "owlmini", "transitive",
+        "generic-forward", "generic-forwardRETE", "generic-forwardSemiNaive", "generic-backward", "generic-hybrid" } ;
+
+    public static void main(String[] args) {
+        CommandLine cl = new CommandLine() ;
+        String usage = "Usage:  perfreasoner [-reasoner list] [-classes n] [-depth n] [-props n] [-instances n] [-queries n] [-iterations n] [-warmup n] [-compact] [-profile]" ;
+        cl.setUsage(usage) ;
+        cl.add("reasoner", true) ;
+        cl.add("classes", true) ;
+        cl.add("depth", true) ;
+        cl.add("props", true) ;
+        cl.add("instances", true) ;
+        cl.add("queries", true) ;
+        cl.add("iterations", true) ;
+        cl.add("warmup", true) ;
+        cl.add("compact", false) ;
+        cl.add("profile", false) ;
+        cl.process(args) ;
+        if (cl.numItems() > 0) {
+            System.err.println(usage) ;
+            System.exit(1) ;
+        }
+        int nClasses = intArg(cl, "classes", 500) ;
+        int depth = intArg(cl, "depth", 8) ;
+        int nProps = intArg(cl, "props", 5) ;
+        int nInstances = intArg(cl, "instances", 5000) ;
+        int nQueries = intArg(cl, "queries", 200) ;
+        int iterations = intArg(cl, "iterations", 5) ;
+        int warmup = intArg(cl, "warmup", 2) ;
+        boolean profile = cl.hasArg("profile") ;
+        TransitiveGraphCache.useCompactIndex = cl.hasArg("compact") ;
+        String[] names = cl.hasArg("reasoner") ? cl.getValue("reasoner").split(",") : ALL ;
+
+        Graph data = generate(nClasses, depth, nProps, nInstances) ;
+        System.out.printf("Data: %d triples, %d classes, depth %d, %d properties, %d instances\n",
+                          data.size(), nClasses, depth, nProps, nInstances) ;
+        System.out.printf("%-26s %10s %10s %12s %12s %12s %10s %8s\n",
+                          "reasoner", "prepare", "inferred", "type(s)", "type(o)", "subClass", "alloc/sol", "heap") ;
+
+        Random random = new Random(42) ;
+        for (String name : names) {
+            Reasoner reasoner = createReasoner(name) ;
+            // Prepare time, median over the measured iterations
+            long[] prepares = new long[iterations] ;
+            InfGraph inf = null ;
+            long baseHeap = 0 ;
+            for (int i = -warmup ; i < iterations ; i++) {
+                inf = null ;
+                if (i == iterations - 1) {
+                    baseHeap = usedHeap() ;
+                    if (profile) RuleProfile.enable().reset() ;
+                }
+                long start = System.nanoTime() ;
+                inf = reasoner.bind(data) ;
+                inf.prepare() ;
+                if (i >= 0) prepares[i] = System.nanoTime() - start ;
+            }
+
+            // Query latency on the last prepared graph, first pass warms any tables
+            long[] typeOfInstance = new long[nQueries] ;
+            long[] instancesOfClass = new long[nQueries] ;
+            long[] superClasses = new long[nQueries] ;
+            long allocated = 0, solutions = 0 ;
+            for (int pass = 0 ; pass < 2 ; pass++) {
+                allocated = allocatedBytes() ;
+                solutions = nSolutions ;
+                for (int q = 0 ; q < nQueries ; q++) {
+                    Node instance = node("i" + random.nextInt(nInstances)) ;
+                    Node cls = node("C" + random.nextInt(nClasses)) ;
+                    typeOfInstance[q] = time(inf, instance, RDF.type.asNode(), Node.ANY) ;
+                    instancesOfClass[q] = time(inf, Node.ANY, RDF.type.asNode(), cls) ;
+                    superClasses[q] = time(inf, cls, RDFS.subClassOf.asNode(), Node.ANY) ;
+                }
+                allocated = allocatedBytes() - allocated ;
+                solutions = nSolutions - solutions ;
+            }
+            String allocPerSolution = (allocated < 0 || solutions == 0) ? "n/a" : String.format("%.0fB", (double)allocated / solutions) ;
+            int inferred = count(inf, Node.ANY, RDF.type.asNode(), Node.ANY) ;
+            // The heap retained by the inference graph, its deductions and tables
+            long heap = usedHeap() - baseHeap ;
+
+            System.out.printf("%-26s %8.1fms %10d %10.1fus %10.1fus %10.1fus %10s %6.1fMB\n",
+                              name, median(prepares) / 1e6, inferred,
+                              mean(typeOfInstance) / 1e3, mean(instancesOfClass) / 1e3, mean(superClasses) / 1e3,
+                              allocPerSolution, heap / 1e6) ;
+            if (profile) {
+                RuleProfile rp = RuleProfile.getActive() ;
+                for (String line : rp.getRuleProfile()) System.out.println("    " + line) ;
+                RuleProfile.disable() ;
+            }
+        }
+    }
+
+    static int intArg(CommandLine cl, String name, int dflt) {
+        return cl.hasArg(name) ? Integer.parseInt(cl.getValue(name)) : dflt ;
+    }
+
+    static Reasoner createReasoner(String name) {
+        if (name.equals("rdfs"))       return ReasonerRegistry.getRDFSReasoner() ;
+        if (name.equals("owlmicro"))   return ReasonerRegistry.getOWLMicroReasoner() ;
+        if (name.equals("owlmini"))    return ReasonerRegistry.getOWLMiniReasoner() ;
+        if (name.equals("transitive")) return ReasonerRegistry.getTransitiveReasoner() ;
+        if (name.startsWith("generic-")) {
+            String mode = name.substring("generic-".length()) ;
+            String rules = mode.equals("backward") ? "etc/rdfs-b.rules"
+                         : mode.equals("hybrid") ? "etc/rdfs-fb.rules"
+                         : "etc/rdfs.rules" ;
+            List<Rule> ruleList = new ArrayList<Rule>(FBRuleReasoner.loadRules(rules)) ;
+            if (mode.equals("backward")) {
+                // Without tabling the backward RDFS rules loop on the recursive predicates
+                ruleList.add(Rule.parseRule("-> tableAll().")) ;
+            }
+            GenericRuleReasoner reasoner = new GenericRuleReasoner(ruleList) ;
+            reasoner.setParameter(ReasonerVocabulary.PROPruleMode, mode) ;
+            return reasoner ;
+        }
+        System.err.println("Unknown reasoner: " + name) ;
+        System.exit(1) ;
+        return null ;
+    }
+
+    /**
+     * Generate the benchmark ontology. Classes are spread evenly over
+     * the levels of the hierarchy, each has a parent on the level above
+     * and every tenth one a second parent further up.
+     */
+    static Graph generate(int nClasses, int depth, int nProps, int nInstances) {
+        Graph g = Factory.createGraphMem() ;
+        Node type = RDF.type.asNode() ;
+        Node subClassOf = RDFS.subClassOf.asNode() ;
+        Random random = new Random(17) ;
+        int[] level = new int[nClasses] ;
+        int[] firstOnLevel = new int[depth + 1] ;
+        for (int i = 0 ; i < nClasses ; i++) {
+            level[i] = (i == 0) ? 0 : 1 + (int)((long)(i - 1) * depth / Math.max(1, nClasses - 1)) ;
+            if (i > 0 && level[i] != level[i - 1]) firstOnLevel[level[i]] = i ;
+            g.add(Triple.create(node("C" + i), type, OWL.Class.asNode())) ;
+            if (i > 0) {
+                int from = firstOnLevel[level[i] - 1] ;
+                int to = firstOnLevel[level[i]] ;
+                g.add(Triple.create(node("C" + i), subClassOf, node("C" + (from + random.nextInt(Math.max(1, to - from)))))) ;
+                if (i % 10 == 0 && level[i] > 1) {
+                    g.add(Triple.create(node("C" + i), subClassOf, node("C" + random.nextInt(firstOnLevel[level[i] - 1])))) ;
+                }
+            }
+        }
+        // A chain of sub-properties ending in a transitive property
+        Node top = node("p0") ;
+        g.add(Triple.create(top, type, OWL.TransitiveProperty.asNode())) ;
+        g.add(Triple.create(top, RDFS.domain.asNode(), node("C0"))) ;
+        g.add(Triple.create(top, RDFS.range.asNode(), node("C0"))) ;
+        for (int p = 1 ; p < nProps ; p++) {
+            g.add(Triple.create(node("p" + p), RDFS.subPropertyOf.asNode(), node("p" + (p - 1)))) ;
+        }
+        for (int i = 0 ; i < nInstances ; i++) {
+            Node x = node("i" + i) ;
+            g.add(Triple.create(x, type, node("C" + random.nextInt(nClasses)))) ;
+            if (i > 0 && random.nextInt(3) == 0) {
+                g.add(Triple.create(x, node("p" + random.nextInt(nProps)), node("i" + random.nextInt(i)))) ;
+            }
+        }
+        return g ;
+    }
+
+    static Node node(String localName) {
+        return Node.createURI(NS + localName) ;
+    }
+
+    static long time(Graph g, Node s, Node p, Node o) {
+        long start = System.nanoTime() ;
+        count(g, s, p, o) ;
+        return System.nanoTime() - start ;
+    }
+
+    static int count(Graph g, Node s, Node p, Node o) {
+        int n = 0 ;
+        ExtendedIterator<Triple> i = g.find(s, p, o) ;
+        try {
+            while (i.hasNext()) {
+                i.next() ;
+                n++ ;
+            }
+        } finally {
+            i.close() ;
+        }
+        nSolutions += n ;
+        return n ;
+    }
+
+    /** Total number of query solutions counted so far */
+    static long nSolutions = 0 ;
+
+    /**
+     * Bytes allocated so far by the current thread, or -1 if the JVM
+     * does not support measuring it.
+     */
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean() ;
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads ;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId()) ;
+            }
+        }
+        return -1 ;
+    }
+
+    static long usedHeap() {
+        Runtime rt = Runtime.getRuntime() ;
+        for (int i = 0 ; i < 3 ; i++) System.gc() ;
+        return rt.totalMemory() - rt.freeMemory() ;
+    }
+
+    static double median(long[] times) {
+        long[] sorted = times.clone() ;
+        Arrays.sort(sorted) ;
+        return sorted[sorted.length / 2] ;
+    }
+
+    static double mean(long[] times) {
+        long total = 0 ;
+        for (long t : times) total += t ;
+        return (double)total / times.length ;
+    }
+}
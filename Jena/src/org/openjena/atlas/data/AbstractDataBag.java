@@ -33,6 +33,9 @@ import java.util.Collection ;
 import java.util.Iterator ;
 import java.util.List ;
 import java.util.UUID ;
+import java.util.zip.Deflater ;
+import java.util.zip.GZIPInputStream ;
+import java.util.zip.GZIPOutputStream ;
 
 import org.openjena.atlas.lib.Closeable ;
 import org.openjena.atlas.lib.FileOps ;
@@ -114,6 +117,30 @@ public abstract class AbstractDataBag<E> implements DataBag<E>
         return new BufferedInputStream(new FileInputStream(file));
     }
     
+    private static final int COMPRESSED_BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * Open a file for writing with fast, light compression.  Spill files are read back
+     * once or twice so there is little gain in compressing harder.
+     */
+    protected static OutputStream getCompressedOutputStream(File file) throws IOException
+    {
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(file), COMPRESSED_BUFFER_SIZE)
+        {
+            { def.setLevel(Deflater.BEST_SPEED); }
+        };
+        return new BufferedOutputStream(out, COMPRESSED_BUFFER_SIZE);
+    }
+    
+    /**
+     * Open a file written by {@link #getCompressedOutputStream(File)}.
+     */
+    protected static InputStream getCompressedInputStream(File file) throws IOException
+    {
+        InputStream in = new GZIPInputStream(new FileInputStream(file), COMPRESSED_BUFFER_SIZE);
+        return new BufferedInputStream(in, COMPRESSED_BUFFER_SIZE);
+    }
+    
     /** 
      * Get a stream to spill contents to.  The file that backs this stream will be registered in the spillFiles array.
      * @return stream to write tuples to
@@ -160,6 +187,20 @@ public abstract class AbstractDataBag<E> implements DataBag<E>
         return spillFiles;
     }
     
+    /**
+     * Replace some registered spill files by one holding their contents, e.g. after merging them.
+     * The replaced files are deleted.
+     */
+    protected void replaceSpillFiles(List<File> oldFiles, File newFile)
+    {
+        for (File file : oldFiles)
+        {
+            spillFiles.remove(file);
+            FileOps.delete(file, false);
+        }
+        spillFiles.add(newFile);
+    }
+    
     protected void deleteSpillFiles()
     {
         for (File file : spillFiles)
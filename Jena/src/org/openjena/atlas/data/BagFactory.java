@@ -50,6 +50,15 @@ public class BagFactory
         return new SortedDataBag<T>(policy, serializerFactory, comparator);
     }
     
+    /**
+     * Get a sorted data bag that sorts with up to the given number of threads.
+     * The comparator must be safe to call from several threads at once.
+     */
+    public static <T> SortedDataBag<T> newSortedBag(ThresholdPolicy<T> policy, SerializationFactory<T> serializerFactory, Comparator<T> comparator, int parallelism)
+    {
+        return new SortedDataBag<T>(policy, serializerFactory, comparator, parallelism);
+    }
+    
     /**
      * Get a distinct data bag.
      */
@@ -159,7 +159,8 @@ public class DefaultDataBag<E> extends AbstractDataBag<E>
         closeWriter();
         
         // Create a new reader
-        if (policy.isThresholdExceeded())
+        // (test "spilled", not the policy, which may be exceeded with nothing written, e.g. a zero count policy)
+        if (spilled)
         {
             File spillFile = getSpillFiles().get(0);
             
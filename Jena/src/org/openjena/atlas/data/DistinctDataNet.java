@@ -19,7 +19,7 @@
 package org.openjena.atlas.data;
 
 import java.io.File ;
-import java.io.FileNotFoundException ;
+import java.io.IOException ;
 import java.util.ArrayList ;
 import java.util.Comparator ;
 import java.util.Iterator ;
@@ -96,6 +96,13 @@ public class DistinctDataNet<E> extends DistinctDataBag<E>
         return toReturn;
     }
     
+    // The first spill file is needed by netIterator() so it is not merged with the others.
+    @Override
+    protected List<File> getMergeableSpillFiles()
+    {
+        return getNetSpillFiles();
+    }
+    
     // TODO: Will be used by the .netIterator() method
     protected List<File> getNetSpillFiles()
     {
@@ -122,7 +129,7 @@ public class DistinctDataNet<E> extends DistinctDataBag<E>
         {
             blacklist = getInputIterator(firstSpillFile);
         }
-        catch ( FileNotFoundException e )
+        catch ( IOException e )
         {
             throw new AtlasException("Cannot find the first spill file", e);
         }
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openjena.atlas.data;
+
+import java.util.ArrayList ;
+import java.util.Arrays ;
+import java.util.Comparator ;
+import java.util.List ;
+import java.util.concurrent.Callable ;
+import java.util.concurrent.ExecutionException ;
+import java.util.concurrent.ExecutorService ;
+import java.util.concurrent.Executors ;
+import java.util.concurrent.Future ;
+import java.util.concurrent.ThreadFactory ;
+import java.util.concurrent.atomic.AtomicInteger ;
+
+import org.openjena.atlas.AtlasException ;
+
+/**
+ * Sort an array using several threads: the array is split into slices that are sorted
+ * concurrently, then adjacent slices are merged, also concurrently, until one run remains.
+ * The sort is stable, like {@link Arrays#sort(Object[], Comparator)}.
+ * <p>
+ * The comparator must be safe to call from several threads at once.
+ */
+class ParallelSort
+{
+    // Below this many items in a slice, the overhead of the threads is not worth it.
+    static final int MIN_SLICE = 1 << 13;
+    
+    private static ExecutorService pool = null;
+    
+    private static synchronized ExecutorService pool()
+    {
+        if (pool == null)
+        {
+            final AtomicInteger count = new AtomicInteger(0);
+            ThreadFactory factory = new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "DataBag-sort-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            };
+            pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), factory);
+        }
+        return pool;
+    }
+    
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static void sort(final Object[] array, Comparator<?> comparator, int parallelism)
+    {
+        final Comparator<Object> comp = (comparator != null) ? (Comparator)comparator : (Comparator)naturalOrder;
+        final int n = array.length;
+        int slices = Math.min(parallelism, n / MIN_SLICE);
+        if (slices < 2)
+        {
+            Arrays.sort(array, comp);
+            return;
+        }
+        
+        int[] bounds = new int[slices + 1];
+        for (int i = 0; i <= slices; i++)
+            bounds[i] = (int)((long)i * n / slices);
+        
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(slices);
+        for (int i = 0; i < slices; i++)
+        {
+            final int lo = bounds[i];
+            final int hi = bounds[i + 1];
+            tasks.add(new Callable<Object>()
+            {
+                @Override
+                public Object call()
+                {
+                    Arrays.sort(array, lo, hi, comp);
+                    return null;
+                }
+            });
+        }
+        runAll(tasks);
+        
+        // Merge adjacent runs, halving the number of runs each round.
+        Object[] src = array;
+        Object[] dst = new Object[n];
+        while (bounds.length > 2)
+        {
+            int runs = bounds.length - 1;
+            int[] next = new int[(runs + 1) / 2 + 1];
+            tasks.clear();
+            int j = 0;
+            for (int i = 0; i < runs; i += 2)
+            {
+                final Object[] from = src;
+                final Object[] to = dst;
+                final int lo = bounds[i];
+                final int mid = bounds[i + 1];
+                final int hi = (i + 2 <= runs) ? bounds[i + 2] : mid;
+                next[j++] = lo;
+                tasks.add(new Callable<Object>()
+                {
+                    @Override
+                    public Object call()
+                    {
+                        merge(from, lo, mid, hi, to, comp);
+                        return null;
+                    }
+                });
+            }
+            next[j] = n;
+            runAll(tasks);
+            bounds = next;
+            Object[] tmp = src;
+            src = dst;
+            dst = tmp;
+        }
+        
+        if (src != array)
+            System.arraycopy(src, 0, array, 0, n);
+    }
+    
+    // Merge src[lo,mid) and src[mid,hi) into dst[lo,hi).  Items from the left run come first when equal.
+    private static void merge(Object[] src, int lo, int mid, int hi, Object[] dst, Comparator<Object> comp)
+    {
+        int i = lo;
+        int j = mid;
+        int k = lo;
+        while (i < mid && j < hi)
+        {
+            if (comp.compare(src[j], src[i]) < 0)
+                dst[k++] = src[j++];
+            else
+                dst[k++] = src[i++];
+        }
+        while (i < mid)
+            dst[k++] = src[i++];
+        while (j < hi)
+            dst[k++] = src[j++];
+    }
+    
+    private static void runAll(List<Callable<Object>> tasks)
+    {
+        try
+        {
+            List<Future<Object>> results = pool().invokeAll(tasks);
+            for (Future<Object> f : results)
+                f.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new AtlasException("Interrupted while sorting", e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new AtlasException(cause);
+        }
+    }
+    
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static final Comparator<Object> naturalOrder = new Comparator<Object>()
+    {
+        @Override
+        public int compare(Object o1, Object o2)
+        {
+            return ((Comparable)o1).compareTo(o2);
+        }
+    };
+}
@@ -19,7 +19,6 @@
 package org.openjena.atlas.data;
 
 import java.io.File ;
-import java.io.FileNotFoundException ;
 import java.io.IOException ;
 import java.io.InputStream ;
 import java.io.OutputStream ;
@@ -56,8 +55,10 @@ import org.openjena.atlas.lib.Sink ;
  * </p>
  * <p>
  * Implementation Notes: Data is stored in an ArrayList as it comes in.  When it is time to spill, that
- * data is sorted and written to disk.  An iterator will read in each file and perform a merge-sort as
- * the results are returned.
+ * data is sorted, using several threads if the bag was created with a parallelism greater than one,
+ * and written to a compressed file (a "run").  An iterator will read in each file and perform a merge-sort as
+ * the results are returned.  If there are more than {@link #MAX_MERGE_FAN_IN} runs, groups of runs are first
+ * merged into longer runs on disk so that the number of files open at once is bounded.
  * </p>
  */
 public class SortedDataBag<E> extends AbstractDataBag<E>
@@ -66,15 +67,53 @@ public class SortedDataBag<E> extends AbstractDataBag<E>
     protected final SerializationFactory<E> serializationFactory;
     protected final Comparator<? super E> comparator;
     
+    protected final int parallelism;
+    
+    /** The maximum number of runs merged at once. */
+    public static final int MAX_MERGE_FAN_IN = 64;
+    
     protected boolean finishedAdding = false;
     protected boolean spilled = false;
     protected boolean closed = false;
     
+    // Metrics
+    private long runCount = 0;
+    private long bytesSpilled = 0;
+    private long mergePasses = 0;
+    
     public SortedDataBag(ThresholdPolicy<E> policy, SerializationFactory<E> serializerFactory, Comparator<? super E> comparator)
+    {
+        this(policy, serializerFactory, comparator, 1);
+    }
+    
+    /**
+     * @param parallelism The number of threads to use to sort each run. 
+     *        If greater than one, the comparator must be safe to call from several threads at once.
+     */
+    public SortedDataBag(ThresholdPolicy<E> policy, SerializationFactory<E> serializerFactory, Comparator<? super E> comparator, int parallelism)
     {
         this.policy = policy;
         this.serializationFactory = serializerFactory;
         this.comparator = comparator;
+        this.parallelism = Math.max(1, parallelism);
+    }
+    
+    /** The number of sorted runs written to disk. */
+    public long getRunCount()
+    {
+        return runCount;
+    }
+    
+    /** The number of bytes written to disk, including runs written when merging runs. */
+    public long getBytesSpilled()
+    {
+        return bytesSpilled;
+    }
+    
+    /** The number of merge passes over the spilled data, including the final merge as items are returned. */
+    public long getMergePasses()
+    {
+        return mergePasses;
     }
     
     protected void checkClosed()
@@ -113,47 +152,127 @@ public class SortedDataBag<E> extends AbstractDataBag<E>
         }
     }
     
-    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @SuppressWarnings("unchecked")
     protected void spill()
     {
         // Make sure we have something to spill.
         if (memory.size() > 0)
         {
-            OutputStream out;
-            try
-            {
-                out = getSpillStream();
-            }
-            catch (IOException e)
-            {
-                throw new AtlasException(e);
-            }
-            
             // Sort the tuples
             // Collections.sort() will copy to an array, sort, and then copy back.  Avoid that
-            // extra copy by copying to an array and using Arrays.sort().  Also it lets us use
+            // extra copy by copying to an array and sorting that.  Also it lets us use
             // Collection<E> instead of List<E> as the type for the memory object.  Unfortunately
             // because of Java's crazy generics we have to do it as an Object array.
             Object[] array = memory.toArray();
-            Arrays.sort(array, (Comparator)comparator);
+            sort(array);
             
-            Sink<E> serializer = serializationFactory.createSerializer(out);
-            try
+            File spillFile = getNewTemporaryFile();
+            registerSpillFile(spillFile);
+            writeRun(spillFile, Arrays.asList((E[])array).iterator());
+            
+            runCount++;
+            spilled = true;
+            policy.reset();
+            memory.clear();
+        }
+    }
+    
+    protected void sort(Object[] array)
+    {
+        ParallelSort.sort(array, comparator, parallelism);
+    }
+    
+    // Write sorted items to a (new) file.
+    private void writeRun(File file, Iterator<E> items)
+    {
+        OutputStream out;
+        try
+        {
+            out = getCompressedOutputStream(file);
+        }
+        catch (IOException e)
+        {
+            throw new AtlasException(e);
+        }
+        
+        Sink<E> serializer = serializationFactory.createSerializer(out);
+        try
+        {
+            while (items.hasNext())
+            {
+                serializer.send(items.next());
+            }
+        }
+        finally
+        {
+            serializer.close();
+        }
+        bytesSpilled += file.length();
+    }
+    
+    /**
+     * The spill files that may be merged together before the final merge.
+     */
+    protected List<File> getMergeableSpillFiles()
+    {
+        return getSpillFiles();
+    }
+    
+    // Merge groups of runs until the final merge, including the run in memory, if any,
+    // is within the fan-in limit. 
+    private void reduceRuns(int memoryRuns)
+    {
+        while (getSpillFiles().size() + memoryRuns > MAX_MERGE_FAN_IN)
+        {
+            List<File> mergeable = new ArrayList<File>(getMergeableSpillFiles());
+            if (mergeable.size() < 2)
+            {
+                return;
+            }
+            
+            for (int i = 0; i < mergeable.size(); i += MAX_MERGE_FAN_IN)
             {
-                for (Object tuple : array)
+                List<File> group = mergeable.subList(i, Math.min(i + MAX_MERGE_FAN_IN, mergeable.size()));
+                if (group.size() > 1)
                 {
-                    serializer.send((E)tuple);
+                    File merged = getNewTemporaryFile();
+                    SpillSortIterator<E> ssi = new SpillSortIterator<E>(openRuns(group), comparator);
+                    try
+                    {
+                        writeRun(merged, ssi);
+                    }
+                    finally
+                    {
+                        ssi.close();
+                    }
+                    replaceSpillFiles(group, merged);
                 }
             }
-            finally
+            mergePasses++;
+        }
+    }
+    
+    private List<Iterator<E>> openRuns(List<File> files)
+    {
+        List<Iterator<E>> inputs = new ArrayList<Iterator<E>>(files.size());
+        for (File spillFile : files)
+        {
+            try
+            {
+                inputs.add(getInputIterator(spillFile));
+            }
+            catch (IOException e)
             {
-                serializer.close();
+                // Close any open streams before we throw an exception
+                for (Iterator<E> it : inputs)
+                {
+                    Iter.close(it);
+                }
+                
+                throw new AtlasException("Cannot open one of the spill files", e);
             }
-            
-            spilled = true;
-            policy.reset();
-            memory.clear();
         }
+        return inputs;
     }
 
     @Override
@@ -162,9 +281,9 @@ public class SortedDataBag<E> extends AbstractDataBag<E>
         spill();
     }
     
-    protected Iterator<E> getInputIterator(File spillFile) throws FileNotFoundException
+    protected Iterator<E> getInputIterator(File spillFile) throws IOException
     {
-        InputStream in = getInputStream(spillFile);
+        InputStream in = getCompressedInputStream(spillFile);
         Iterator<E> deserializer = serializationFactory.createDeserializer(in) ;
         return new IteratorResourceClosing<E>(deserializer, in);
     }
@@ -177,7 +296,7 @@ public class SortedDataBag<E> extends AbstractDataBag<E>
      * @return an Iterator
      */
     @Override
-    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @SuppressWarnings("unchecked")
     public Iterator<E> iterator()
     {
         checkClosed();
@@ -189,7 +308,7 @@ public class SortedDataBag<E> extends AbstractDataBag<E>
         {
             // Again, some ugliness for speed
             Object[] array = memory.toArray();
-            Arrays.sort(array, (Comparator)comparator);
+            sort(array);
             memory = Arrays.asList((E[])array);
         }
         
@@ -197,6 +316,8 @@ public class SortedDataBag<E> extends AbstractDataBag<E>
         
         if (spilled)
         {
+            reduceRuns(memSize > 0 ? 1 : 0);
+            
             List<Iterator<E>> inputs = new ArrayList<Iterator<E>>();
                         
             if (memSize > 0)
@@ -204,24 +325,8 @@ public class SortedDataBag<E> extends AbstractDataBag<E>
                 inputs.add(memory.iterator());
             }
             
-            for (File spillFile : getSpillFiles())
-            {
-                try
-                {
-                    Iterator<E> irc = getInputIterator(spillFile);
-                    inputs.add(irc);
-                }
-                catch (FileNotFoundException e)
-                {
-                    // Close any open streams before we throw an exception
-                    for (Iterator<E> it : inputs)
-                    {
-                        Iter.close(it);
-                    }
-                    
-                    throw new AtlasException("Cannot find one of the spill files", e);
-                }
-            }
+            inputs.addAll(openRuns(getSpillFiles()));
+            mergePasses++;
             
             SpillSortIterator<E> ssi = new SpillSortIterator<E>(inputs, comparator);
             registerCloseableIterator(ssi);
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openjena.atlas.io;
+
+import static org.openjena.atlas.io.IO.EOF ;
+
+import java.io.FileInputStream ;
+import java.io.IOException ;
+import java.nio.ByteBuffer ;
+import java.nio.channels.FileChannel ;
+import java.nio.charset.MalformedInputException ;
+
+import org.openjena.atlas.AtlasException ;
+
+/** UTF-8 character stream over a memory-mapped file.
+ * <p>
+ * The bytes of the file are scanned in place; there is no copy into an
+ * intermediate byte or char buffer.  ASCII bytes are returned directly and
+ * only multi-byte sequences are decoded.  Characters outside the BMP are
+ * returned as a surrogate pair.
+ * <p>
+ * A single mapping is limited to 2G bytes, so larger files are mapped as a
+ * chain of regions, one region at a time.  A UTF-8 sequence may cross the
+ * boundary between two regions.
+ * <p>
+ * Java6 has no way to release a mapping explicitly; a region is
+ * unmapped when it is garbage collected.
+ * @see InStreamUTF8
+ * @see PeekReader#makeUTF8
+ */
+public final class CharStreamMapped extends CharStreamReader
+{
+    /** Whether {@link PeekReader#makeUTF8} maps local files. */
+    public static boolean MapFiles = true ;
+    
+    /** Files with fewer bytes than this are read through the usual stream route. */
+    public static long MapThreshold = 128*1024 ;
+    
+    /** Size of each mapped region */
+    public static final int RegionSize = 1<<30 ;
+    
+    private final FileChannel channel ;
+    private final long end ;
+    private final int regionSize ;
+    private long regionEnd ;            // File position of the end of the current region.
+    private ByteBuffer buffer ;
+    private int pending = EOF ;         // Low surrogate to return next.
+    
+    /** Create a character stream over the rest of the file behind a
+     * {@link FileInputStream}, starting at its current position.
+     * Returns null if the file can not be mapped (e.g. a pipe),
+     * or if it is too small to be worth mapping. 
+     * Closing the character stream closes the file.
+     */
+    public static CharStreamMapped create(FileInputStream in)
+    {
+        try {
+            FileChannel channel = in.getChannel() ;
+            long start = channel.position() ;
+            long size = channel.size() ;
+            if ( size - start < MapThreshold )
+                return null ;
+            return new CharStreamMapped(channel, start, size, RegionSize) ;
+        } catch (IOException ex) { return null ; }
+    }
+    
+    /*package*/ CharStreamMapped(FileChannel channel, long start, long end, int regionSize) throws IOException
+    {
+        this.channel = channel ;
+        this.end = end ;
+        this.regionSize = regionSize ;
+        this.regionEnd = start ;
+        map() ;
+    }
+    
+    /** Position in the file of the next byte */
+    public long getPosition()
+    {
+        return regionEnd - buffer.remaining() ;
+    }
+    
+    @Override
+    public int advance()
+    {
+        if ( pending != EOF )
+        {
+            int ch = pending ;
+            pending = EOF ;
+            return ch ;
+        }
+        
+        if ( ! buffer.hasRemaining() && ! map() )
+            return EOF ;
+        // Fast path : ASCII.
+        byte b = buffer.get() ;
+        if ( b >= 0 )
+            return b ;
+        return decode(b & 0xFF) ;
+    }
+    
+    @Override
+    public void closeStream()
+    {
+        buffer = ByteBuffer.allocate(0) ;
+        regionEnd = end ;
+        try { channel.close() ; } catch (IOException ex) { IO.exception(ex) ; }
+    }
+    
+    // Map the next region. Returns false at the end of the file.
+    private boolean map()
+    {
+        if ( regionEnd >= end )
+        {
+            if ( buffer == null )
+                buffer = ByteBuffer.allocate(0) ;
+            return false ;
+        }
+        long len = Math.min(regionSize, end-regionEnd) ;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, regionEnd, len) ;
+        } catch (IOException ex) { IO.exception(ex) ; }
+        regionEnd += len ;
+        return true ;
+    }
+    
+    private int nextByte()
+    {
+        if ( ! buffer.hasRemaining() && ! map() )
+            throw error("Premature end to UTF-8 sequence at end of input") ;
+        int x = buffer.get() & 0xFF ;
+        if ( (x & 0xC0) != 0x80 )
+            throw error(String.format("Illegal UTF-8 continuation byte 0x%02X at byte %d", x, getPosition()-1)) ;
+        return x & 0x3F ;
+    }
+    
+    private int decode(int x)
+    {
+        // See InStreamUTF8 for the byte patterns.
+        if ( x >= 0xC2 && x <= 0xDF )
+            return ((x & 0x1F) << 6) | nextByte() ;
+        if ( (x & 0xF0) == 0xE0 )
+        {
+            int ch = ((x & 0x0F) << 12) | (nextByte() << 6) ;
+            return ch | nextByte() ;
+        }
+        if ( x >= 0xF0 && x <= 0xF4 )
+        {
+            int cp = ((x & 0x07) << 18) | (nextByte() << 12) ;
+            cp = cp | (nextByte() << 6) ;
+            cp = cp | nextByte() ;
+            if ( cp < Character.MIN_SUPPLEMENTARY_CODE_POINT || cp > Character.MAX_CODE_POINT )
+                throw error(String.format("Illegal UTF-8 code point U+%X at byte %d", cp, getPosition()-4)) ;
+            cp = cp - Character.MIN_SUPPLEMENTARY_CODE_POINT ;
+            pending = Character.MIN_LOW_SURROGATE + (cp & 0x3FF) ;
+            return Character.MIN_HIGH_SURROGATE + (cp >>> 10) ;
+        }
+        throw error(String.format("Illegal UTF-8 byte 0x%02X at byte %d", x, getPosition()-1)) ;
+    }
+    
+    private static AtlasException error(String msg)
+    {
+        // The cause is recognized by the tokenizers as an encoding error.
+        return new AtlasException(msg, new MalformedInputException(1)) ;
+    }
+}
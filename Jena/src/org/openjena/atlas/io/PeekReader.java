@@ -91,7 +91,14 @@ public final class PeekReader extends Reader
         // This is the best route to make a PeekReader because it avoids
         // chances of wrong charset for a Reader say.
         PeekReader pr ;
-        if ( true )
+        CharStream mapped = null ;
+        if ( CharStreamMapped.MapFiles && in instanceof FileInputStream )
+            // A local file: scan the bytes in place.
+            mapped = CharStreamMapped.create((FileInputStream)in) ;
+        
+        if ( mapped != null )
+            pr = new PeekReader(mapped) ;
+        else if ( true )
         {
             Reader r = IO.asUTF8(in) ;
             // This adds reader-level buffering
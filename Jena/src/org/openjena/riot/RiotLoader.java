@@ -18,6 +18,7 @@
 
 package org.openjena.riot;
 
+import java.io.File ;
 import java.io.InputStream ;
 
 import org.openjena.atlas.io.IO ;
@@ -183,7 +184,10 @@ public class RiotLoader
             lang = Lang.guess(filename, Lang.NTRIPLES) ;
         baseURI = chooseBaseIRI(baseURI, filename) ;
         InputStream input = IO.openFile(filename) ;
-        read(input, graph, lang, baseURI) ;
+        Sink<Triple> sink = graphSink(graph, sizeHint(filename)) ;
+        try {
+            readTriples(input, lang, baseURI, sink) ;
+        } finally { sink.close() ; }
     }
 
     /* Parse a file into a graph */
@@ -238,6 +242,27 @@ public class RiotLoader
         return new SinkTriplesToGraph(graph) ;
     }
 
+    /** Sink to a graph, expecting about sizeHint triples */
+    public static Sink<Triple> graphSink(Graph graph, int sizeHint)
+    {
+        return new SinkTriplesToGraph(graph, sizeHint) ;
+    }
+    
+    // Rough number of bytes per triple, used to size in-memory graphs from
+    // the size of the file.  Deliberately on the high side - overestimating
+    // the number of triples wastes space in the indexes.
+    private static final int BytesPerTriple = 150 ;
+    
+    private static int sizeHint(String filename)
+    {
+        if ( filename == null || filename.equals("-") || filename.endsWith(".gz") )
+            return 0 ;
+        if ( filename.startsWith("file:") )
+            filename = IRILib.decode(filename.substring("file:".length())) ;
+        long len = new File(filename).length() ;
+        return (int)Math.min(Integer.MAX_VALUE, len/BytesPerTriple) ;
+    }
+
     public static Sink<Quad> datasetSink(DatasetGraph dataset)
     {
         return new SinkQuadsToDataset(dataset) ;
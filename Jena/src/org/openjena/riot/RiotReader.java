@@ -32,6 +32,7 @@ import org.openjena.atlas.lib.IRILib ;
 import org.openjena.atlas.lib.Sink ;
 import org.openjena.riot.lang.LangNQuads ;
 import org.openjena.riot.lang.LangNTriples ;
+import org.openjena.riot.lang.LangNTupleParallel ;
 import org.openjena.riot.lang.LangRDFJSON ;
 import org.openjena.riot.lang.LangRDFXML ;
 import org.openjena.riot.lang.LangRIOT ;
@@ -138,6 +139,45 @@ public class RiotReader
         parser.parse() ;
     }
 
+    // -------- Parallel parsing
+    
+    /** Parse N-Triples using several threads, sending triples to a sink.
+     * The sink is called only from the calling thread.
+     * @param in        Source for bytes to parse.
+     * @param sink      Where to send the triples from the parser.
+     * @param threads   Number of parser threads.
+     * @param ordered   Whether triples must be sent to the sink in the order of the input.
+     * @see LangNTupleParallel
+     */
+    public static void parseTriplesParallel(InputStream in, Sink<Triple> sink, int threads, boolean ordered)
+    {
+        LangNTupleParallel.createNTriples(threads, ordered).parse(in, sink) ;
+    }
+    
+    /** Parse N-Quads (or N-Triples) using several threads, sending quads to a sink.
+     * The sink is called only from the calling thread.
+     * @param in        Source for bytes to parse.
+     * @param lang      N-Quads or N-Triples
+     * @param sink      Where to send the quads from the parser.
+     * @param threads   Number of parser threads.
+     * @param ordered   Whether quads must be sent to the sink in the order of the input.
+     * @see LangNTupleParallel
+     */
+    public static void parseQuadsParallel(InputStream in, Lang lang, Sink<Quad> sink, int threads, boolean ordered)
+    {
+        switch (lang)
+        {
+            case NQUADS :
+                LangNTupleParallel.createNQuads(threads, ordered).parse(in, sink) ;
+                return ;
+            case NTRIPLES :
+                parseTriplesParallel(in, new SinkExtendTriplesToQuads(sink), threads, ordered) ;
+                return ;
+            default:
+                throw new RiotException("Not N-Triples or N-Quads: "+lang) ;
+        }
+    }
+
     // -------- Parsers
     
     /** Create a parser for a triples language */  
@@ -36,15 +36,68 @@ import org.openjena.riot.system.Prologue ;
 import org.openjena.riot.tokens.Tokenizer ;
 import org.openjena.riot.tokens.TokenizerFactory ;
 
+import com.hp.hpl.jena.graph.Node ;
 import com.hp.hpl.jena.graph.Triple ;
 import com.hp.hpl.jena.sparql.core.Quad ;
+import com.hp.hpl.jena.sparql.core.Var ;
 import com.hp.hpl.jena.sparql.engine.binding.Binding ;
+import com.hp.hpl.jena.sparql.engine.binding.BindingBinaryInputStream ;
+import com.hp.hpl.jena.sparql.engine.binding.BindingBinaryOutputStream ;
 import com.hp.hpl.jena.sparql.engine.binding.BindingInputStream ;
 import com.hp.hpl.jena.sparql.engine.binding.BindingOutputStream ;
 
 public class SerializationFactoryFinder
 {
+    /** Bindings in a compact binary form.
+     * @see BindingBinaryOutputStream
+     */
     public static SerializationFactory<Binding> bindingSerializationFactory()
+    {
+        return new SerializationFactory<Binding>()
+        {
+            @Override
+            public Sink<Binding> createSerializer(OutputStream out)
+            {
+                return new BindingBinaryOutputStream(out);
+            }
+            
+            @Override
+            public Iterator<Binding> createDeserializer(InputStream in)
+            {
+                return new BindingBinaryInputStream(in);
+            }
+
+            @Override
+            public long getEstimatedMemorySize(Binding item)
+            {
+                return estimatedMemorySize(item) ;
+            }
+        };
+    }
+    
+    // Rough heap size of a binding: the binding and one entry per variable,
+    // plus the nodes (variables are shared, so not counted).
+    private static long estimatedMemorySize(Binding binding)
+    {
+        long size = 32 ;
+        for ( Iterator<Var> iter = binding.vars() ; iter.hasNext() ; )
+        {
+            Node n = binding.get(iter.next()) ;
+            size += 32 ;
+            if ( n == null )
+                continue ;
+            if ( n.isURI() )
+                size += 56 + 2 * n.getURI().length() ;
+            else if ( n.isLiteral() )
+                size += 88 + 2 * ( n.getLiteralLexicalForm().length() + n.getLiteralLanguage().length() ) ;
+            else
+                size += 64 ;
+        }
+        return size ;
+    }
+    
+    /** Bindings in the text form of {@link BindingOutputStream}. */
+    public static SerializationFactory<Binding> bindingTextSerializationFactory()
     {
         return new SerializationFactory<Binding>()
         {
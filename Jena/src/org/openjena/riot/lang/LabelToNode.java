@@ -21,6 +21,8 @@ import static java.lang.String.format ;
 
 import java.util.HashMap ;
 import java.util.Map ;
+import java.util.concurrent.ConcurrentHashMap ;
+import java.util.concurrent.ConcurrentMap ;
 
 import org.openjena.riot.SysRIOT ;
 import org.openjena.riot.out.NodeFmtLib ;
@@ -63,6 +65,11 @@ public class LabelToNode extends MapWithScope<String, Node, Node>
     public static LabelToNode createIncremental()
     { return new LabelToNode(new SingleScopePolicy(), nodeMakerDeterministic) ; } 
     
+    /** Allocation from a single scope, like {@link #createScopeByDocument()}, 
+     * that can be shared by parsers running on several threads. */
+    public static LabelToNode createScopeByDocumentConcurrent()
+    { return new ConcurrentLabelToNode() ; }
+    
     public LabelToNode(ScopePolicy<String, Node, Node> scopePolicy, Allocator<String, Node> allocator)
     {
         super(scopePolicy, allocator) ;
@@ -103,6 +110,28 @@ public class LabelToNode extends MapWithScope<String, Node, Node>
         public void clear() { map.clear(); }
     }
 
+    /** Single scope, shared between threads.  Each label is allocated exactly once. */
+    private static class ConcurrentLabelToNode extends LabelToNode
+    {
+        private final ConcurrentMap<String, Node> map = new ConcurrentHashMap<String, Node>() ;
+        
+        ConcurrentLabelToNode() { super(new SingleScopePolicy(), nodeMaker) ; }
+        
+        @Override
+        public Node get(Node scope, String label)
+        {
+            Node n = map.get(label) ;
+            if ( n != null )
+                return n ;
+            n = nodeMaker.create(label) ;
+            Node n2 = map.putIfAbsent(label, n) ;
+            return ( n2 == null ) ? n : n2 ;
+        }
+        
+        @Override
+        public void clear() { map.clear() ; }
+    }
+
     // ======== Node Allocators 
     
     private static Allocator<String, Node> nodeMaker = new Allocator<String, Node>()
@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openjena.riot.lang;
+
+import java.io.ByteArrayInputStream ;
+import java.io.IOException ;
+import java.io.InputStream ;
+import java.util.ArrayDeque ;
+import java.util.ArrayList ;
+import java.util.Arrays ;
+import java.util.Deque ;
+import java.util.List ;
+import java.util.concurrent.Callable ;
+import java.util.concurrent.CompletionService ;
+import java.util.concurrent.ExecutionException ;
+import java.util.concurrent.ExecutorCompletionService ;
+import java.util.concurrent.ExecutorService ;
+import java.util.concurrent.Executors ;
+import java.util.concurrent.Future ;
+import java.util.concurrent.ThreadFactory ;
+
+import org.openjena.atlas.AtlasException ;
+import org.openjena.atlas.event.Event ;
+import org.openjena.atlas.event.EventManager ;
+import org.openjena.atlas.lib.Sink ;
+import org.openjena.riot.ErrorHandler ;
+import org.openjena.riot.ErrorHandlerFactory ;
+import org.openjena.riot.RiotException ;
+import org.openjena.riot.RiotParseException ;
+import org.openjena.riot.SysRIOT ;
+import org.openjena.riot.system.ParserProfile ;
+import org.openjena.riot.system.RiotLib ;
+import org.openjena.riot.tokens.Tokenizer ;
+import org.openjena.riot.tokens.TokenizerFactory ;
+
+import com.hp.hpl.jena.graph.Triple ;
+import com.hp.hpl.jena.sparql.core.Quad ;
+
+/** Parse N-Triples or N-Quads on several threads.
+ * <p>
+ * Each line is independent so the input is split into chunks, each ending at a newline,
+ * and the chunks are parsed concurrently by worker threads.  The results are sent to the 
+ * sink from the calling thread, either in the order of the input or, if the order does
+ * not matter, as each chunk finishes.  Blank node labels are scoped to the whole input 
+ * by sharing one concurrent {@link LabelToNode} between the workers.
+ * <p>
+ * Errors are reported with line numbers of the whole input.  A fatal error stops the parse. 
+ */
+public abstract class LangNTupleParallel<X>
+{
+    /** Default size of a chunk of input, in bytes. */
+    public static final int ChunkSize = 4*1024*1024 ;
+    
+    protected final int threads ;
+    protected final boolean ordered ;
+    protected final LabelToNode labelMapping = LabelToNode.createScopeByDocumentConcurrent() ;
+    protected ErrorHandler errorHandler = ErrorHandlerFactory.errorHandlerStd ;
+    protected boolean checking = false ;
+    private int chunkSize = ChunkSize ;
+    
+    /** Parser for N-Triples */
+    public static LangNTupleParallel<Triple> createNTriples(int threads, boolean ordered)
+    {
+        return new LangNTupleParallel<Triple>(threads, ordered) {
+            @Override
+            protected LangNTuple<Triple> createParser(Tokenizer tokenizer, ParserProfile profile, Sink<Triple> sink)
+            { return new LangNTriples(tokenizer, profile, sink) ; }
+            
+        } ;
+    }
+    
+    /** Parser for N-Quads */
+    public static LangNTupleParallel<Quad> createNQuads(int threads, boolean ordered)
+    {
+        return new LangNTupleParallel<Quad>(threads, ordered) {
+            @Override
+            protected LangNTuple<Quad> createParser(Tokenizer tokenizer, ParserProfile profile, Sink<Quad> sink)
+            { return new LangNQuads(tokenizer, profile, sink) ; }
+            
+        } ;
+    }
+    
+    protected LangNTupleParallel(int threads, boolean ordered)
+    {
+        this.threads = Math.max(1, threads) ;
+        this.ordered = ordered ;
+    }
+
+    /** The parser for one chunk */
+    protected abstract LangNTuple<X> createParser(Tokenizer tokenizer, ParserProfile profile, Sink<X> sink) ;
+    
+    public void setErrorHandler(ErrorHandler handler)   { this.errorHandler = handler ; }
+    
+    public void setChunkSize(int chunkSize)             { this.chunkSize = chunkSize ; }
+    
+    /** Whether to check RDF terms (default: off, as for the single-threaded parsers). */
+    public void setChecking(boolean checking)           { this.checking = checking ; }
+    
+    /** Parse the input stream, sending the tuples to the sink. */ 
+    public void parse(InputStream input, Sink<X> sink)
+    {
+        EventManager.send(sink, new Event(SysRIOT.startRead, null)) ;
+        ExecutorService executor = Executors.newFixedThreadPool(threads, threadFactory) ;
+        try {
+            run(input, sink, executor) ;
+        } finally { executor.shutdownNow() ; }
+        sink.flush() ;
+        EventManager.send(sink, new Event(SysRIOT.finishRead, null)) ;
+    }
+    
+    private void run(InputStream input, Sink<X> sink, ExecutorService executor)
+    {
+        // Bound the parsed but undelivered chunks.
+        int maxInFlight = 2*threads ;
+        Deque<Future<List<X>>> pending = new ArrayDeque<Future<List<X>>>() ;
+        CompletionService<List<X>> completion = new ExecutorCompletionService<List<X>>(executor) ;
+        int inFlight = 0 ;
+        
+        byte[] buffer = new byte[chunkSize] ;
+        int len = 0 ;
+        long line = 1 ;
+        boolean eof = false ;
+        
+        while ( ! eof )
+        {
+            // Fill the buffer.
+            while ( len < buffer.length )
+            {
+                int x = read(input, buffer, len) ;
+                if ( x < 0 )
+                {
+                    eof = true ;
+                    break ;
+                }
+                len += x ;
+            }
+            
+            int end ;
+            if ( eof )
+                end = len ;
+            else
+            {
+                end = lastNewline(buffer, len) + 1 ;
+                if ( end == 0 )
+                {
+                    // A line longer than the buffer.
+                    buffer = Arrays.copyOf(buffer, 2*buffer.length) ;
+                    continue ;
+                }
+            }
+            if ( end == 0 )
+                break ;
+            
+            Callable<List<X>> task = new ChunkParser(Arrays.copyOf(buffer, end), line) ;
+            line += countNewlines(buffer, end) ;
+            System.arraycopy(buffer, end, buffer, 0, len-end) ;
+            len = len-end ;
+            
+            if ( ordered )
+            {
+                pending.addLast(executor.submit(task)) ;
+                if ( pending.size() >= maxInFlight )
+                    deliver(pending.removeFirst(), sink) ;
+            }
+            else
+            {
+                completion.submit(task) ;
+                inFlight++ ;
+                if ( inFlight >= maxInFlight )
+                {
+                    deliver(take(completion), sink) ;
+                    inFlight-- ;
+                }
+            }
+        }
+        
+        while ( ! pending.isEmpty() )
+            deliver(pending.removeFirst(), sink) ;
+        for ( ; inFlight > 0 ; inFlight-- )
+            deliver(take(completion), sink) ;
+    }
+    
+    private void deliver(Future<List<X>> future, Sink<X> sink)
+    {
+        List<X> results ;
+        try { results = future.get() ; }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt() ;
+            throw new RiotException("Interrupted") ;
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause() ;
+            if ( cause instanceof RuntimeException )
+                throw (RuntimeException)cause ;
+            if ( cause instanceof Error )
+                throw (Error)cause ;
+            throw new RiotException(cause) ;
+        }
+        for ( X x : results )
+            sink.send(x) ;
+    }
+    
+    private static <T> Future<T> take(CompletionService<T> completion)
+    {
+        try { return completion.take() ; }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt() ;
+            throw new RiotException("Interrupted") ;
+        }
+    }
+    
+    private static int read(InputStream input, byte[] buffer, int start)
+    {
+        try { return input.read(buffer, start, buffer.length-start) ; }
+        catch (IOException ex) { throw new AtlasException(ex) ; }
+    }
+    
+    private static int lastNewline(byte[] buffer, int len)
+    {
+        for ( int i = len-1 ; i >= 0 ; i-- )
+        {
+            if ( buffer[i] == '\n' )
+                return i ;
+        }
+        return -1 ;
+    }
+    
+    private static long countNewlines(byte[] buffer, int len)
+    {
+        long count = 0 ;
+        for ( int i = 0 ; i < len ; i++ )
+        {
+            if ( buffer[i] == '\n' )
+                count++ ;
+        }
+        return count ;
+    }
+    
+    /** Parse one chunk into a list */
+    private class ChunkParser implements Callable<List<X>>
+    {
+        private final byte[] bytes ;
+        private final long firstLine ;
+        
+        ChunkParser(byte[] bytes, long firstLine)
+        {
+            this.bytes = bytes ;
+            this.firstLine = firstLine ;
+        }
+
+        @Override
+        public List<X> call()
+        {
+            final List<X> results = new ArrayList<X>() ;
+            Sink<X> collect = new Sink<X>() {
+                @Override public void send(X item)  { results.add(item) ; }
+                @Override public void flush()       {}
+                @Override public void close()       {}
+            } ;
+            Tokenizer tokenizer = TokenizerFactory.makeTokenizerUTF8(new ByteArrayInputStream(bytes)) ;
+            ErrorHandlerOffset handler = new ErrorHandlerOffset(errorHandler, firstLine-1) ;
+            ParserProfile profile = RiotLib.profile(null, false, checking, handler) ;
+            profile.setLabelToNode(labelMapping) ;
+            try {
+                createParser(tokenizer, profile, collect).parse() ;
+            } catch (RiotParseException ex)
+            {
+                if ( handler.fatalSeen )
+                    throw ex ;
+                // From the tokenizer, which does not use the error handler.
+                throw new RiotParseException(ex.getOriginalMessage(), handler.line(ex.getLine()), ex.getCol()) ;
+            }
+            return results ;
+        }
+    }
+    
+    /** Report errors with the line number in the whole input. */  
+    private static class ErrorHandlerOffset implements ErrorHandler
+    {
+        private final ErrorHandler other ;
+        private final long offset ;
+        boolean fatalSeen = false ;
+
+        ErrorHandlerOffset(ErrorHandler other, long offset)
+        {
+            this.other = other ;
+            this.offset = offset ;
+        }
+        
+        long line(long line) { return line < 0 ? line : line+offset ; }
+        
+        @Override
+        public void warning(String message, long line, long col)    { other.warning(message, line(line), col) ; }
+        @Override
+        public void error(String message, long line, long col)      { other.error(message, line(line), col) ; }
+        @Override
+        public void fatal(String message, long line, long col)      { fatalSeen = true ; other.fatal(message, line(line), col) ; }
+    }
+    
+    private static ThreadFactory threadFactory = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "RIOT-parser") ;
+            t.setDaemon(true) ;
+            return t ;
+        }
+    } ;
+}
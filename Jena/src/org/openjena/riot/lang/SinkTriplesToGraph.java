@@ -27,11 +27,14 @@ import org.openjena.atlas.lib.Sink ;
 import com.hp.hpl.jena.graph.Graph ;
 import com.hp.hpl.jena.graph.GraphEvents ;
 import com.hp.hpl.jena.graph.Triple ;
+import com.hp.hpl.jena.mem.GraphMemBase ;
 import com.hp.hpl.jena.sparql.SystemARQ ;
 
 /**
  * Send triples to a graph.
- * This Sink must be closed after use. 
+ * This Sink must be closed after use.
+ * For the in-memory graphs, triples are bulk loaded: there is
+ * one graph event, with all the triples, when the sink is closed.
  */
 public class SinkTriplesToGraph implements Sink<Triple>
 {
@@ -39,12 +42,23 @@ public class SinkTriplesToGraph implements Sink<Triple>
     static final EventType finishRead = new EventType("SinkToGraph.FinishRead") ;
     
     protected final Graph graph ;
+    private final GraphMemBase.BulkLoader loader ;
     private EventListener el1 ;
     private EventListener el2 ;
 
     public SinkTriplesToGraph(Graph g)
+    {
+        this(g, 0) ;
+    }
+    
+    /** Send triples to a graph, expecting about sizeHint triples (0 for not known) */
+    public SinkTriplesToGraph(Graph g, int sizeHint)
     { 
         this.graph = g ;
+        if ( g instanceof GraphMemBase )
+            loader = ((GraphMemBase)g).startBulkLoad(sizeHint) ;
+        else
+            loader = null ;
         // Convert between the new global event system (EventManager)
         // and old style Jena graph events.
         el1 = new EventListener(){
@@ -69,7 +83,10 @@ public class SinkTriplesToGraph implements Sink<Triple>
     @Override
     public void send(Triple triple)
     {
-        graph.add(triple) ;
+        if ( loader != null )
+            loader.add(triple) ;
+        else
+            graph.add(triple) ;
     }
 
     @Override
@@ -78,6 +95,8 @@ public class SinkTriplesToGraph implements Sink<Triple>
     @Override
     public void close()
     {
+        if ( loader != null )
+            loader.finish() ;
         EventManager.unregister(this, finishRead, el2) ;
         EventManager.unregister(this, startRead, el1) ;
     }
@@ -677,7 +677,8 @@ public final class TokenizerText implements Tokenizer
         return readCharsAnd(leadingDigitAllowed, leadingSignAllowed, extraCharsWord, false) ;
     }
     
-    static private char[] extraCharsVar = new char[] {'_', '.' , '-', '?', '@', '+'};
+    // Includes the characters ARQ uses in the names of the variables it allocates.
+    static private char[] extraCharsVar = new char[] {'_', '.' , '-', '?', '@', '+', '/', '~'};
     private String readVarName()
     {
         return readCharsAnd(true, true, extraCharsVar, true) ;
@@ -31,6 +31,7 @@ import org.openjena.atlas.lib.Sink ;
 import org.openjena.atlas.lib.SinkCounting ;
 import org.openjena.atlas.lib.SinkNull ;
 import org.openjena.atlas.lib.StrUtils ;
+import org.openjena.atlas.logging.Log ;
 import org.openjena.riot.ErrorHandler ;
 import org.openjena.riot.ErrorHandlerFactory ;
 import org.openjena.riot.Lang ;
@@ -39,6 +40,7 @@ import org.openjena.riot.RiotReader ;
 import org.openjena.riot.SysRIOT ;
 import org.openjena.riot.lang.LabelToNode ;
 import org.openjena.riot.lang.LangRDFXML ;
+import org.openjena.riot.lang.LangNTupleParallel ;
 import org.openjena.riot.lang.LangRIOT ;
 import org.openjena.riot.lang.LangTurtleBase ;
 import org.openjena.riot.out.NodeToLabel ;
@@ -228,7 +230,7 @@ public abstract class CmdLangParse extends CmdGeneral
     
     protected abstract Lang selectLang(String filename, Lang lang) ;
 
-    protected void parseRIOT(String baseURI, String filename, InputStream in)
+    protected void parseRIOT(String baseURI, String filename, final InputStream in)
     {
         baseURI = RiotReader.chooseBaseIRI(baseURI, filename) ;
         
@@ -276,7 +278,12 @@ public abstract class CmdLangParse extends CmdGeneral
         final boolean labelsAsGiven = false ;
         
         SinkCounting<?> sink ;
-        LangRIOT parser ;
+        LangRIOT parser = null ;
+        // N-Triples and N-Quads can be parsed in chunks by several threads.
+        Runnable parallel = null ;
+        final int threads = modLangParse.getThreads() ;
+        if ( threads > 1 && lang != Lang.NTRIPLES && lang != Lang.NQUADS )
+            Log.warn(this, "--threads only applies to N-Triples and N-Quads") ;
         
         NodeToLabel labels = SyntaxLabels.createNodeToLabel() ;
         if ( labelsAsGiven )
@@ -292,9 +299,18 @@ public abstract class CmdLangParse extends CmdGeneral
             if ( setup != null )
                 s = InfFactory.infTriples(s, setup) ;
             
-            SinkCounting<Triple> sink2 = new SinkCounting<Triple>(s) ;
+            final SinkCounting<Triple> sink2 = new SinkCounting<Triple>(s) ;
             
-            if ( lang.equals(Lang.RDFXML) )
+            if ( threads > 1 && lang.equals(Lang.NTRIPLES) )
+            {
+                final LangNTupleParallel<Triple> p = LangNTupleParallel.createNTriples(threads, true) ;
+                parallel = new Runnable() {
+                    @Override
+                    public void run() { p.parse(in, sink2) ; }
+                } ;
+                parallelSetup(p, checking, errHandler) ;
+            }
+            else if ( lang.equals(Lang.RDFXML) )
                 // Adapter round ARP RDF/XML reader.
                 parser = LangRDFXML.create(in, baseURI, filename, errHandler, sink2) ;
             else
@@ -310,8 +326,18 @@ public abstract class CmdLangParse extends CmdGeneral
             if ( setup != null )
                 s = InfFactory.infQuads(s, setup) ;
             
-            SinkCounting<Quad> sink2 = new SinkCounting<Quad>(s) ;
-            parser = RiotReader.createParserQuads(in, lang, baseURI, sink2) ;
+            final SinkCounting<Quad> sink2 = new SinkCounting<Quad>(s) ;
+            if ( threads > 1 && lang.equals(Lang.NQUADS) )
+            {
+                final LangNTupleParallel<Quad> p = LangNTupleParallel.createNQuads(threads, true) ;
+                parallel = new Runnable() {
+                    @Override
+                    public void run() { p.parse(in, sink2) ; }
+                } ;
+                parallelSetup(p, checking, errHandler) ;
+            }
+            else
+                parser = RiotReader.createParserQuads(in, lang, baseURI, sink2) ;
             sink = sink2 ;
         }
         
@@ -319,23 +345,31 @@ public abstract class CmdLangParse extends CmdGeneral
         // output(filename) ;
         try
         {
-            // Default behaviour is "check":
-            
-            if ( checking )
+            if ( parallel != null )
             {
-                if ( parser.getLang() == Lang.NTRIPLES ||  parser.getLang() == Lang.NQUADS )
-                    parser.setProfile(RiotLib.profile(baseURI, false, true, errHandler)) ;
-                else
-                    parser.setProfile(RiotLib.profile(baseURI, true, true, errHandler)) ;
+                modTime.startTimer() ;
+                parallel.run() ;
             }
             else
-                parser.setProfile(RiotLib.profile(baseURI, false, false, errHandler)) ;
+            {
+                // Default behaviour is "check":
+            
+                if ( checking )
+                {
+                    if ( parser.getLang() == Lang.NTRIPLES ||  parser.getLang() == Lang.NQUADS )
+                        parser.setProfile(RiotLib.profile(baseURI, false, true, errHandler)) ;
+                    else
+                        parser.setProfile(RiotLib.profile(baseURI, true, true, errHandler)) ;
+                }
+                else
+                    parser.setProfile(RiotLib.profile(baseURI, false, false, errHandler)) ;
             
-            if ( labelsAsGiven )
-                parser.getProfile().setLabelToNode(LabelToNode.createUseLabelAsGiven()) ;
+                if ( labelsAsGiven )
+                    parser.getProfile().setLabelToNode(LabelToNode.createUseLabelAsGiven()) ;
             
-            modTime.startTimer() ;
-            parser.parse() ;
+                modTime.startTimer() ;
+                parser.parse() ;
+            }
         }
         catch (RiotException ex)
         {
@@ -360,6 +394,13 @@ public abstract class CmdLangParse extends CmdGeneral
         totalTuples += n ;
     }
     
+    private static void parallelSetup(LangNTupleParallel<?> parser, boolean checking, ErrorHandler errHandler)
+    {
+        parser.setChecking(checking) ;
+        if ( errHandler != null )
+            parser.setErrorHandler(errHandler) ;
+    }
+    
     protected Tokenizer makeTokenizer(InputStream in)
     {
         Tokenizer tokenizer = TokenizerFactory.makeTokenizerUTF8(in) ;